@@ -0,0 +1,34 @@
+package com.example.medisense;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Match criteria handed to the scanner so non-matching advertisements are dropped by the
+ * controller instead of waking the app. Null fields match anything.
+ */
+public final class AdvertisementFilter {
+
+    public final String deviceName;
+    public final UUID serviceUuid;
+
+    public AdvertisementFilter(String deviceName, UUID serviceUuid) {
+        this.deviceName = deviceName;
+        this.serviceUuid = serviceUuid;
+    }
+
+    /**
+     * Name + provisioning service UUID advertised by the dispenser firmware.
+     */
+    public static AdvertisementFilter forDispenser() {
+        return new AdvertisementFilter(DispenserProfile.DEVICE_NAME, UUID.fromString(DispenserProfile.SERVICE_UUID));
+    }
+
+    /**
+     * Same rules the controller applies; used by the simulator and scan benchmarks.
+     */
+    public boolean matches(String name, List<UUID> advertisedServices) {
+        if (deviceName != null && !deviceName.equals(name)) return false;
+        return serviceUuid == null || (advertisedServices != null && advertisedServices.contains(serviceUuid));
+    }
+}
@@ -0,0 +1,456 @@
+package com.example.medisense;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * GattTransport backed by the platform BluetoothLeScanner / BluetoothGatt.
+ */
+public class AndroidGattTransport implements GattTransport {
+    private final static String TAG = "AndroidGattTransport";
+    // Android does not say whether discovery hit its attribute cache. A fresh discovery needs several
+    // ATT round trips (100+ ms); a cached one completes locally in a few ms.
+    private static final long CACHED_DISCOVERY_MAX_MS = 40;
+
+    private final Context context;
+    private final BluetoothAdapter bluetoothAdapter;
+    private ScanListener scanListener;
+
+    public AndroidGattTransport(Context context, BluetoothAdapter bluetoothAdapter) {
+        this.context = context.getApplicationContext();
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return bluetoothAdapter.isEnabled() && bluetoothAdapter.getBluetoothLeScanner() != null;
+    }
+
+    // --- Scanning ---
+    @SuppressLint("MissingPermission")
+    private final ScanCallback leScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            super.onScanResult(callbackType, result);
+            ScanListener listener = scanListener;
+            if (listener == null) return;
+            BluetoothDevice device = result.getDevice();
+            // Name from the advertisement itself; device.getName() is a binder call into the stack
+            ScanRecord record = result.getScanRecord();
+            String name = record != null ? record.getDeviceName() : null;
+            listener.onScanResult(name != null ? name : device.getName(), device.getAddress(), result.getRssi());
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            super.onScanFailed(errorCode);
+            ScanListener listener = scanListener;
+            if (listener != null) listener.onScanFailed(errorCode);
+        }
+    };
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean startScan(AdvertisementFilter filter, ScanProfile profile, ScanListener listener) {
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) return false;
+        scanListener = listener;
+
+        List<ScanFilter> filters = new ArrayList<>();
+        if (filter != null) {
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (filter.deviceName != null) builder.setDeviceName(filter.deviceName);
+            if (filter.serviceUuid != null) builder.setServiceUuid(new ParcelUuid(filter.serviceUuid));
+            filters.add(builder.build());
+        }
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(profile.scanMode)
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                .build();
+        try {
+            scanner.startScan(filters, settings, leScanCallback);
+            return true;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Bluetooth scanning permission not granted.", e);
+            scanListener = null;
+            return false;
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void stopScan() {
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        scanListener = null;
+        if (scanner == null) return;
+        try {
+            scanner.stopScan(leScanCallback);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Bluetooth scanning permission not granted.", e);
+        }
+    }
+
+    // --- Connection ---
+    @SuppressLint("MissingPermission")
+    @Override
+    public GattConnection connect(String address, boolean autoConnect, GattConnection.Callback callback) {
+        final BluetoothDevice device;
+        try {
+            device = bluetoothAdapter.getRemoteDevice(address);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Invalid Bluetooth address: " + address);
+            return null;
+        }
+
+        AndroidGattConnection connection = new AndroidGattConnection(address, callback);
+        try {
+            connection.gatt = device.connectGatt(context, autoConnect, connection.gattCallback);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Bluetooth connect permission not granted.", e);
+            return null;
+        }
+        return connection.gatt != null ? connection : null;
+    }
+
+    private static class AndroidGattConnection implements GattConnection {
+        private final String address;
+        private final Callback callback;
+        private volatile BluetoothGatt gatt;
+        // Resolved once per discovery: service UUID -> characteristic UUID -> handle
+        private volatile Map<UUID, Map<UUID, BluetoothGattCharacteristic>> handles = Collections.emptyMap();
+        private volatile long discoveryStartMs;
+        private volatile long discoveryDurationMs;
+
+        AndroidGattConnection(String address, Callback callback) {
+            this.address = address;
+            this.callback = callback;
+        }
+
+        private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt g, int status, int newState) {
+                if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    handles = Collections.emptyMap();
+                }
+                callback.onConnectionStateChange(status, newState);
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt g, int status) {
+                discoveryDurationMs = SystemClock.elapsedRealtime() - discoveryStartMs;
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    handles = resolveHandles(g);
+                }
+                callback.onServicesDiscovered(status);
+            }
+
+            @Override
+            public void onServiceChanged(BluetoothGatt g) {
+                // API 31+: the dispenser's table changed (e.g. firmware update); cached handles are stale
+                handles = Collections.emptyMap();
+                callback.onServiceChanged();
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+                callback.onCharacteristicWrite(characteristic.getUuid(), status);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, byte[] value, int status) {
+                // API 33+: value is passed in and must not be read back from the characteristic
+                callback.onCharacteristicRead(characteristic.getUuid(), value, status);
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+                callback.onCharacteristicRead(characteristic.getUuid(), characteristic.getValue(), status);
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic, byte[] value) {
+                // API 33+
+                callback.onCharacteristicChanged(characteristic.getUuid(), value);
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic) {
+                callback.onCharacteristicChanged(characteristic.getUuid(), characteristic.getValue());
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt g, BluetoothGattDescriptor descriptor, int status) {
+                callback.onDescriptorWrite(descriptor.getCharacteristic().getUuid(), descriptor.getUuid(), status);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt g, int mtu, int status) {
+                callback.onMtuChanged(mtu, status);
+            }
+
+            @Override
+            public void onPhyUpdate(BluetoothGatt g, int txPhy, int rxPhy, int status) {
+                callback.onPhyUpdate(txPhy, rxPhy, status);
+            }
+
+            @Override
+            public void onReliableWriteCompleted(BluetoothGatt g, int status) {
+                callback.onReliableWriteCompleted(status);
+            }
+
+            // Hidden in the SDK (so no @Override) but dispatched by the stack on API 26+
+            public void onConnectionUpdated(BluetoothGatt g, int interval, int latency, int timeout, int status) {
+                callback.onConnectionUpdated(interval, latency, timeout, status);
+            }
+        };
+
+        @Override
+        public String getAddress() { return address; }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean discoverServices() {
+            handles = Collections.emptyMap();
+            discoveryStartMs = SystemClock.elapsedRealtime();
+            try {
+                return gatt.discoverServices();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @Override
+        public boolean hasCharacteristic(UUID serviceUuid, UUID charUuid) {
+            Map<UUID, BluetoothGattCharacteristic> service = handles.get(serviceUuid);
+            return service != null && service.containsKey(charUuid);
+        }
+
+        @Override
+        public boolean isDiscoveryFromCache() { return discoveryDurationMs <= CACHED_DISCOVERY_MAX_MS; }
+
+        @Override
+        public long getDiscoveryDurationMs() { return discoveryDurationMs; }
+
+        private static Map<UUID, Map<UUID, BluetoothGattCharacteristic>> resolveHandles(BluetoothGatt g) {
+            Map<UUID, Map<UUID, BluetoothGattCharacteristic>> resolved = new HashMap<>();
+            for (BluetoothGattService service : g.getServices()) {
+                Map<UUID, BluetoothGattCharacteristic> chars = resolved.get(service.getUuid());
+                if (chars == null) {
+                    chars = new HashMap<>();
+                    resolved.put(service.getUuid(), chars);
+                }
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    chars.put(characteristic.getUuid(), characteristic);
+                }
+            }
+            return resolved;
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean requestMtu(int mtu) {
+            try {
+                return gatt.requestMtu(mtu);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        /**
+         * Two hash lookups on the handles resolved at discovery; no allocation on the write path.
+         */
+        private BluetoothGattCharacteristic findCharacteristic(UUID serviceUuid, UUID charUuid) {
+            Map<UUID, BluetoothGattCharacteristic> service = handles.get(serviceUuid);
+            if (service == null) {
+                Log.w(TAG, "Service not found: " + serviceUuid);
+                return null;
+            }
+
+            BluetoothGattCharacteristic characteristic = service.get(charUuid);
+            if (characteristic == null) {
+                Log.w(TAG, "Characteristic not found: " + charUuid);
+            }
+            return characteristic;
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean readCharacteristic(UUID serviceUuid, UUID charUuid) {
+            BluetoothGattCharacteristic characteristic = findCharacteristic(serviceUuid, charUuid);
+            if (characteristic == null) return false;
+            try {
+                return gatt.readCharacteristic(characteristic);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean writeDescriptor(UUID serviceUuid, UUID charUuid, UUID descriptorUuid, byte[] value) {
+            BluetoothGattCharacteristic characteristic = findCharacteristic(serviceUuid, charUuid);
+            if (characteristic == null) return false;
+            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUuid);
+            if (descriptor == null) {
+                Log.w(TAG, "Descriptor not found: " + descriptorUuid);
+                return false;
+            }
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    return gatt.writeDescriptor(descriptor, value) == BluetoothStatusCodes.SUCCESS;
+                } else {
+                    descriptor.setValue(value);
+                    return gatt.writeDescriptor(descriptor);
+                }
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean setCharacteristicNotification(UUID serviceUuid, UUID charUuid, boolean enable) {
+            BluetoothGattCharacteristic characteristic = findCharacteristic(serviceUuid, charUuid);
+            if (characteristic == null) return false;
+            try {
+                return gatt.setCharacteristicNotification(characteristic, enable);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            try {
+                return gatt.requestConnectionPriority(priority);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return false;
+            try {
+                gatt.setPreferredPhy(txPhyMask, rxPhyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                return true;
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @Override
+        public int getMaxWritesInFlight() { return 1; } // BluetoothGatt: one outstanding write per connection
+
+        @SuppressLint("MissingPermission")
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean writeCharacteristic(UUID serviceUuid, UUID charUuid, byte[] value, int writeType) {
+            BluetoothGattCharacteristic characteristic = findCharacteristic(serviceUuid, charUuid);
+            if (characteristic == null) return false;
+
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    return gatt.writeCharacteristic(characteristic, value, writeType) == BluetoothStatusCodes.SUCCESS;
+                } else {
+                    characteristic.setWriteType(writeType);
+                    characteristic.setValue(value);
+                    return gatt.writeCharacteristic(characteristic);
+                }
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean beginReliableWrite() {
+            try {
+                return gatt.beginReliableWrite();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean executeReliableWrite() {
+            try {
+                return gatt.executeReliableWrite();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+                return false;
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public void abortReliableWrite() {
+            try {
+                gatt.abortReliableWrite();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth permission not granted.", e);
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public void disconnect() {
+            try {
+                gatt.disconnect();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth connect permission not granted.", e);
+            }
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public void close() {
+            try {
+                gatt.close();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Bluetooth connect permission not granted.", e);
+            }
+        }
+    }
+}
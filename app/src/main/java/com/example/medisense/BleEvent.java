@@ -0,0 +1,55 @@
+package com.example.medisense;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One-off outcome of the BLE flow (unlike {@link BleState}, never conflated). LiveData replays
+ * the last value to new observers, so UI code should act only if {@link #consume()} returns true.
+ */
+public final class BleEvent {
+
+    public enum Type {
+        DEVICE_FOUND,
+        CONNECTED,
+        DISCONNECTED,
+        PROVISIONING_COMPLETE,
+        PROVISIONING_FAILED,
+        FLEET_COMPLETE,
+        OTA_COMPLETE,
+        OTA_FAILED,
+        ERROR
+    }
+
+    public final Type type;
+    public final String deviceAddress;
+    public final BleState.ErrorCode error;
+    public final int errorStatus;
+    public final String message;
+    public final long timestampMs;      // SystemClock.elapsedRealtime()
+
+    private final AtomicBoolean consumed = new AtomicBoolean();
+
+    public BleEvent(Type type, String deviceAddress, BleState.ErrorCode error, int errorStatus,
+                    String message, long timestampMs) {
+        this.type = type;
+        this.deviceAddress = deviceAddress;
+        this.error = error;
+        this.errorStatus = errorStatus;
+        this.message = message;
+        this.timestampMs = timestampMs;
+    }
+
+    /**
+     * @return true the first time only, so a replayed event is not handled twice
+     */
+    public boolean consume() {
+        return consumed.compareAndSet(false, true);
+    }
+
+    @Override
+    public String toString() {
+        return type + (deviceAddress != null ? " " + deviceAddress : "")
+                + (error != BleState.ErrorCode.NONE ? " " + error + "(" + errorStatus + ")" : "")
+                + ": " + message;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.medisense;
+
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-phase latency histograms of the BLE flow, fed by BleService from monotonic
+ * (elapsedRealtime) timestamps. Thread-safe; dumped by {@code adb shell dumpsys activity service BleService}.
+ */
+public class BleMetrics {
+
+    public enum Phase {
+        SCAN_TO_FIRST_ADVERTISEMENT,  // Scan start -> first result of any kind
+        SCAN_TO_TARGET,               // Scan start -> dispenser found (failure: not found)
+        CONNECT,                      // connect() -> STATE_CONNECTED (failure: link status)
+        DISCOVERY,                    // discoverServices() -> onServicesDiscovered
+        WRITE,                        // One characteristic write, including retries
+        PROVISIONING,                 // provisionDevice() -> complete (all writes, commit)
+        END_TO_END,                   // Search start -> provisioning complete
+        DOSE_LOG_SYNC,                // Dose-history request -> last record stored (failure: status)
+        FIRMWARE_UPDATE,              // updateFirmware() -> image installed, across resumes (failure: status)
+        DISCONNECT                    // disconnect() -> STATE_DISCONNECTED
+    }
+
+    private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+
+    public BleMetrics() {
+        for (Phase phase : Phase.values()) histograms.put(phase, new LatencyHistogram());
+    }
+
+    public void record(Phase phase, long ms) {
+        histograms.get(phase).record(ms);
+    }
+
+    public void recordFailure(Phase phase, int status) {
+        histograms.get(phase).recordFailure(status);
+    }
+
+    public LatencyHistogram.Snapshot get(Phase phase) {
+        return histograms.get(phase).snapshot();
+    }
+
+    public Map<Phase, LatencyHistogram.Snapshot> snapshot() {
+        Map<Phase, LatencyHistogram.Snapshot> snapshot = new EnumMap<>(Phase.class);
+        for (Map.Entry<Phase, LatencyHistogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) histogram.reset();
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("BLE phase latencies (ms):");
+        for (Map.Entry<Phase, LatencyHistogram.Snapshot> entry : snapshot().entrySet()) {
+            writer.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+}
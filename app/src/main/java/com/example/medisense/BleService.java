@@ -1,59 +1,133 @@
 package com.example.medisense;
 
-import android.annotation.SuppressLint;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
-import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Owns the BLE link. All mutable state below is confined to a single "BleWorker" thread:
+ * public methods and GATT/scan callbacks only post messages to it, and the UI receives
+ * immutable values through LiveData.
+ */
 public class BleService extends Service {
     private final static String TAG = "BleService";
 
-    // --- Target Device Configuration ---
-    private static final String TARGET_DEVICE_NAME = "MediTrack_Dispenser";
-    private static final String SERVICE_UUID = "12345678-1234-1234-1234-1234567890ab";
-    private static final String CHAR_SSID_UUID = "12345678-1234-1234-1234-1234567890ac"; // Was CHAR_AC
-    private static final String CHAR_PASS_UUID = "12345678-1234-1234-1234-1234567890ad"; // Was CHAR_AD
-    private static final String CHAR_PID_UUID = "12345678-1234-1234-1234-1234567890ae"; // Was CHAR_AE
+    // --- Target Device Configuration (see DispenserProfile) ---
+    private static final String TARGET_DEVICE_NAME = DispenserProfile.DEVICE_NAME;
+    private static final UUID SERVICE_UUID = DispenserProfile.SERVICE;
+    private static final UUID CHAR_SSID_UUID = DispenserProfile.CHAR_SSID;
+    private static final UUID CHAR_PASS_UUID = DispenserProfile.CHAR_PASS;
+    private static final UUID CHAR_PID_UUID = DispenserProfile.CHAR_PID;
+    private static final UUID CHAR_PROVISION_FRAME_UUID = DispenserProfile.CHAR_PROVISION_FRAME;
+    private static final UUID TELEMETRY_SERVICE_UUID = DispenserProfile.TELEMETRY_SERVICE;
+    private static final UUID CHAR_TELEMETRY_UUID = DispenserProfile.CHAR_TELEMETRY;
+    private static final UUID CHAR_LOG_DATA_UUID = DispenserProfile.CHAR_LOG_DATA;
+    private static final UUID CHAR_OTA_CONTROL_UUID = DispenserProfile.CHAR_OTA_CONTROL;
     private static final long SCAN_TIMEOUT_MS = 10000; // 10 seconds
+    private static final long DIRECT_CONNECT_TIMEOUT_MS = 4000; // Then fall back to scanning
 
-    private BluetoothManager bluetoothManager;
-    private BluetoothAdapter bluetoothAdapter;
-    private BluetoothLeScanner bluetoothLeScanner;
-    private BluetoothGatt bluetoothGatt;
-    private Handler scanTimeoutHandler = new Handler(Looper.getMainLooper());
+    // --- Transport (real radio or SimulatedGattTransport) ---
+    private GattTransport transport;
+    private GattConnection gattConnection;
+    private ScheduledFuture<?> scanTimeout;
     private boolean deviceFound = false;
+    private ScanProfile scanProfile = ScanProfile.LOW_LATENCY; // Interactive provisioning; LOW_POWER for background
 
-    // --- Write Queue for Sequential Writes ---
-    private final Queue<Runnable> gattWriteQueue = new LinkedList<>();
-    private boolean isWriting = false;
+    // --- Known Dispensers (scan-free reconnect) ---
+    private KnownDispenserCache knownDispensers;
+    private boolean directConnectPending = false;
+    private ScheduledFuture<?> directConnectTimeout;
+    private long searchStartMs;
+    private String provisioningPid;
+
+    // --- Provisioning Mode ---
+    public enum ProvisioningMode {
+        SEQUENTIAL, // One write per characteristic (SSID, password, PID); works on all firmware
+        FRAMED,     // MTU negotiation + one ProvisioningFrame write; falls back to SEQUENTIAL on older firmware
+        RELIABLE    // All three writes in one reliable-write transaction, retried as a whole on failure
+    }
+    private ProvisioningMode provisioningMode = ProvisioningMode.FRAMED;
+    private boolean supportsFramedProvisioning = false;
+    private volatile int negotiatedMtu = DispenserProfile.DEFAULT_MTU; // Read from the UI thread
+    private String lastAddress;
+    private boolean provisioningWriteFailed = false;
+
+    // --- Reliable Write Transaction ---
+    private static final int MAX_RELIABLE_WRITE_ATTEMPTS = 3;
+    private static final int RELIABLE_WRITE_STEPS = 4; // Three prepared writes + execute
+    private String pendingSsid, pendingPassword, pendingPid; // Kept so the whole batch can be retried
+    private int reliableWriteAttempts = 0;
+    private boolean reliableWriteInProgress = false;
+    private boolean resumeReliableWriteOnReady = false;
+    private long transactionStartMs, attemptStartMs, executeStartMs, prepareMs;
+
+    // --- BLE Worker (actor thread) ---
+    // Also the scheduler's timer, so operation deadlines and retries run on the same thread
+    private final ScheduledThreadPoolExecutor bleWorker = newBleWorker();
+
+    private static ScheduledThreadPoolExecutor newBleWorker() {
+        ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, "BleWorker"));
+        // Every operation arms a deadline that is cancelled on completion; drop those at once
+        // instead of keeping them queued until they would have fired (see BlePipelineBenchmarkTest)
+        worker.setRemoveOnCancelPolicy(true);
+        return worker;
+    }
+
+    // --- GATT Operation Queue (deadlines + retries, see GattOperationScheduler) ---
+    private final GattOperationScheduler operationScheduler = new GattOperationScheduler(bleWorker);
+
+    // --- Link Tuning: HIGH priority + 2M PHY only while provisioning data is in flight ---
+    // (Android already runs a fast interval for discovery right after connecting)
+    private final LinkTuner linkTuner = new LinkTuner(operationScheduler);
+
+    // --- Telemetry (notifications -> ring buffer -> one LiveData value per batch) ---
+    private static final int TELEMETRY_CAPACITY = 256; // Records; a power of two
+    private static final long TELEMETRY_BATCH_MS = 100; // Gathering window after the first record
+    // Filled on the binder thread, drained on the worker; preallocated so notifications cause no GC
+    private final TelemetryRingBuffer telemetryBuffer = new TelemetryRingBuffer(TELEMETRY_CAPACITY);
+    private final TelemetryBatch.Builder telemetryBatch = new TelemetryBatch.Builder(TELEMETRY_CAPACITY); // Worker-owned
+    private final AtomicBoolean telemetryDrainScheduled = new AtomicBoolean(false);
+    private final Runnable drainTelemetry = this::drainTelemetryInternal;
+    private final MutableLiveData<TelemetryBatch> telemetry = new MutableLiveData<>();
+    private String telemetryAddress; // Dispenser the carried-over pill count / battery belong to
+
+    // --- Dose History Sync (only records after the stored watermark are downloaded) ---
+    private final DoseLogSync doseLogSync = new DoseLogSync(operationScheduler, bleWorker);
+    private DoseLogWatermarks doseLogWatermarks;
+    private boolean syncDoseLogOnReady = false; // Set for known-dispenser reconnects
+    private final MutableLiveData<DoseLogSync.Result> doseLog = new MutableLiveData<>();
+
+    // --- Firmware Update (OTA, resumed from the dispenser's confirmed offset after a drop) ---
+    private static final int MAX_OTA_RESUMES = 5;
+    private final OtaUpdater otaUpdater = new OtaUpdater(operationScheduler, bleWorker);
+    private byte[] otaImage; // Kept until installed or cancelled
+    private boolean resumeOtaOnReady = false;
+    private int otaResumes = 0;
+    private long otaStartMs;
 
     // --- Binder ---
     private final IBinder binder = new LocalBinder();
@@ -65,11 +139,82 @@ public class BleService extends Service {
     @Nullable @Override public IBinder onBind(Intent intent) { return binder; }
 
     // --- LiveData for UI Updates ---
-    private final MutableLiveData<String> operationStatus = new MutableLiveData<>("Idle");
     private final MutableLiveData<Boolean> isReadyToProvision = new MutableLiveData<>(false);
+    private final MutableLiveData<ReliableWriteReport> reliableWriteReport = new MutableLiveData<>();
+    private final MutableLiveData<List<FleetProvisioner.DeviceProgress>> fleetProgress = new MutableLiveData<>();
+    private final MutableLiveData<FleetReport> fleetReport = new MutableLiveData<>();
 
-    public LiveData<String> getOperationStatus() { return operationStatus; }
     public LiveData<Boolean> isReadyToProvision() { return isReadyToProvision; }
+    public LiveData<ReliableWriteReport> getReliableWriteReport() { return reliableWriteReport; }
+    public LiveData<List<FleetProvisioner.DeviceProgress>> getFleetProgress() { return fleetProgress; }
+    public LiveData<FleetReport> getFleetReport() { return fleetReport; }
+    public LiveData<TelemetryBatch> getTelemetry() { return telemetry; }
+    public LiveData<DoseLogSync.Result> getDoseLog() { return doseLog; }
+
+    public int getNegotiatedMtu() { return negotiatedMtu; }
+    public LinkParameters getLinkParameters() { return linkTuner.getParameters(); }
+
+    // --- Phase Timing (elapsedRealtime marks, 0 = not running; worker-owned) ---
+    private final BleMetrics metrics = new BleMetrics();
+    private volatile boolean awaitingFirstAdvertisement = false; // Checked on the binder thread
+    private long scanStartMs, connectStartMs, connectedMs, discoveryStartMs, provisionStartMs, disconnectStartMs;
+
+    public BleMetrics getMetrics() { return metrics; }
+
+    private static long since(long startMs) {
+        return SystemClock.elapsedRealtime() - startMs;
+    }
+
+    /**
+     * {@code adb shell dumpsys activity service com.example.medisense/.BleService}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("State: " + state);
+        writer.println("Link: " + linkTuner.getParameters() + ", mtu=" + negotiatedMtu);
+        writer.println("Telemetry: " + telemetryBuffer.size() + "/" + telemetryBuffer.getCapacity()
+                + " buffered, " + telemetryBuffer.getDropped() + " dropped");
+        if (otaImage != null) writer.println("Firmware update: " + otaUpdater.getProgress() + ", resumes=" + otaResumes);
+        metrics.dump(writer);
+    }
+
+    // --- State Stream (see BleState / BleEvent) ---
+    private BleState state = BleState.idle(SystemClock.elapsedRealtime()); // Worker-owned
+    private final MutableLiveData<BleState> bleState = new MutableLiveData<>(state);
+    private final MutableLiveData<BleEvent> bleEvents = new MutableLiveData<>();
+    // Events must not be conflated like postValue(), so each one is handed to the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public LiveData<BleState> getState() { return bleState; }
+    public LiveData<BleEvent> getEvents() { return bleEvents; }
+
+    private void publish(BleState next) {
+        state = next;
+        Log.d(TAG, "State: " + next);
+        bleState.postValue(next); // Conflated: the UI only sees the latest snapshot
+    }
+
+    private void setPhase(BleState.Phase phase, String message) {
+        publish(state.to(phase, message, SystemClock.elapsedRealtime()));
+    }
+
+    private void setProgress(BleState.Phase phase, String message, int step, int totalSteps) {
+        publish(state.to(phase, message, SystemClock.elapsedRealtime()).withProgress(step, totalSteps));
+    }
+
+    private void fail(BleEvent.Type type, BleState.ErrorCode error, int errorStatus, String message) {
+        publish(state.to(BleState.Phase.ERROR, message, SystemClock.elapsedRealtime()).withError(error, errorStatus));
+        emit(type, error, errorStatus, message);
+    }
+
+    private void emit(BleEvent.Type type, String message) {
+        emit(type, BleState.ErrorCode.NONE, 0, message);
+    }
+
+    private void emit(BleEvent.Type type, BleState.ErrorCode error, int errorStatus, String message) {
+        BleEvent event = new BleEvent(type, state.deviceAddress, error, errorStatus, message, SystemClock.elapsedRealtime());
+        mainHandler.post(() -> bleEvents.setValue(event));
+    }
 
 
     @Override
@@ -78,254 +223,903 @@ public class BleService extends Service {
         return super.onUnbind(intent);
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        post(() -> {
+            if (fleetProvisioner != null) fleetProvisioner.cancel();
+            closeInternal();
+        });
+        bleWorker.shutdown(); // Runs what is already queued, then stops
+    }
+
+    // --- Public API: every call is posted to the BLE worker ---
+    public void setProvisioningMode(ProvisioningMode mode) { post(() -> provisioningMode = mode); }
+    public void setScanProfile(ScanProfile profile) { post(() -> scanProfile = profile); }
+    public void startScan() { post(this::startScanInternal); }
+    public void stopScan() { post(this::stopScanInternal); }
+    public void connect(String address) { post(() -> connectInternal(address, false)); }
+    public void disconnect() { post(this::disconnectInternal); }
+    public void close() { post(this::closeInternal); }
+    public void provisionDevice(String ssid, String password, String pid) {
+        post(() -> provisionDeviceInternal(ssid, password, pid));
+    }
+    public void provisionFleet(List<FleetProvisioner.Job> jobs, int maxConnections) {
+        post(() -> provisionFleetInternal(jobs, maxConnections));
+    }
+    public void cancelFleetProvisioning() {
+        post(() -> {
+            if (fleetProvisioner != null) fleetProvisioner.cancel();
+        });
+    }
+    /**
+     * See {@link #connectKnownDispenserInternal}.
+     */
+    public void connectKnownDispenser(String pid, boolean background) {
+        post(() -> connectKnownDispenserInternal(pid, background));
+    }
+    /**
+     * Downloads dose-history records newer than the last sync from the connected dispenser.
+     */
+    public void syncDoseLog() { post(this::syncDoseLogInternal); }
+    /**
+     * Installs {@code image} on the connected dispenser. Progress and throughput are published
+     * as {@link BleState.Phase#UPDATING_FIRMWARE}; the outcome as an OTA_* event.
+     */
+    public void updateFirmware(byte[] image) { post(() -> updateFirmwareInternal(image)); }
+    public void cancelFirmwareUpdate() { post(this::cancelFirmwareUpdateInternal); }
+
+    private void post(Runnable message) {
+        if (!bleWorker.isShutdown()) bleWorker.execute(message);
+    }
+
+    private ScheduledFuture<?> schedule(Runnable message, long delayMs) {
+        return bleWorker.schedule(message, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null) future.cancel(false);
+    }
+
     public boolean initialize() {
-        bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         if (bluetoothManager == null) {
             Log.e(TAG, "Unable to initialize BluetoothManager.");
             return false;
         }
-        bluetoothAdapter = bluetoothManager.getAdapter();
+        BluetoothAdapter bluetoothAdapter = bluetoothManager.getAdapter();
         if (bluetoothAdapter == null) {
             Log.e(TAG, "Unable to obtain a BluetoothAdapter.");
             return false;
         }
-        bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+        return initialize(new AndroidGattTransport(this, bluetoothAdapter));
+    }
+
+    /**
+     * Initializes the service on top of an explicit transport, e.g. a SimulatedGattTransport.
+     */
+    public boolean initialize(GattTransport transport) {
+        if (transport == null) return false;
+        this.transport = transport;
+        knownDispensers = new KnownDispenserCache(this);
+        doseLogWatermarks = new DoseLogWatermarks(this);
         return true;
     }
 
     // --- Scanning (Now with auto-connect) ---
-    @SuppressLint("MissingPermission")
-    private final ScanCallback leScanCallback = new ScanCallback() {
+    private final GattTransport.ScanListener scanListener = new GattTransport.ScanListener() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            super.onScanResult(callbackType, result);
-            BluetoothDevice device = result.getDevice();
-            String deviceName = device.getName();
-
-            if (deviceName != null && deviceName.equals(TARGET_DEVICE_NAME)) {
+        public void onScanResult(String deviceName, String address, int rssi) {
+            if (awaitingFirstAdvertisement) {
+                awaitingFirstAdvertisement = false;
+                long seenMs = SystemClock.elapsedRealtime();
+                post(() -> metrics.record(BleMetrics.Phase.SCAN_TO_FIRST_ADVERTISEMENT, seenMs - scanStartMs));
+            }
+            // Already filtered by the scanner; the name check guards stacks that ignore filters
+            if (deviceName == null || !deviceName.equals(TARGET_DEVICE_NAME)) return;
+            post(() -> {
+                if (deviceFound) return; // Results already queued behind the first hit
                 Log.i(TAG, "Found target device: " + TARGET_DEVICE_NAME);
                 deviceFound = true;
-                stopScan(); // Stop scanning, we found it
-                connect(device.getAddress()); // Auto-connect
-            }
+                metrics.record(BleMetrics.Phase.SCAN_TO_TARGET, since(scanStartMs));
+                publish(state.withDevice(address));
+                emit(BleEvent.Type.DEVICE_FOUND, "Found " + TARGET_DEVICE_NAME);
+                knownDispensers.recordSeen(currentUser(), address, rssi);
+                stopScanInternal(); // Stop scanning, we found it
+                connectInternal(address, false); // Auto-connect
+            });
         }
 
         @Override
         public void onScanFailed(int errorCode) {
-            super.onScanFailed(errorCode);
             Log.w(TAG, "BLE Scan Failed with error code: " + errorCode);
-            operationStatus.postValue("Error: Scan Failed");
+            post(() -> fail(BleEvent.Type.ERROR, BleState.ErrorCode.SCAN_FAILED, errorCode, "Scan failed"));
         }
     };
 
-    @SuppressLint("MissingPermission")
-    public void startScan() {
-        if (bluetoothLeScanner == null || bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+    /**
+     * Finds and connects to the dispenser: directly if this user talked to one recently,
+     * otherwise (or if that fails) by scanning.
+     */
+    private void startScanInternal() {
+        if (transport == null || !transport.isEnabled()) {
             Log.w(TAG, "BLE Scanner not initialized or Bluetooth is off.");
-            operationStatus.postValue("Error: Bluetooth not ready");
+            fail(BleEvent.Type.ERROR, BleState.ErrorCode.BLUETOOTH_OFF, 0, "Bluetooth not ready");
             return;
         }
 
+        searchStartMs = SystemClock.elapsedRealtime();
+        if (connectKnownDispenserInternal(null, false)) return;
+        scanForDispenser();
+    }
+
+    private void scanForDispenser() {
         deviceFound = false;
-        operationStatus.postValue("Scanning for " + TARGET_DEVICE_NAME + "...");
+        scanStartMs = SystemClock.elapsedRealtime();
+        awaitingFirstAdvertisement = true;
+        publish(state.to(BleState.Phase.SCANNING, "Scanning for " + TARGET_DEVICE_NAME + "...",
+                SystemClock.elapsedRealtime()).withDevice(null));
 
         // Stop scan after a timeout
-        scanTimeoutHandler.postDelayed(this::stopScan, SCAN_TIMEOUT_MS);
+        cancel(scanTimeout);
+        scanTimeout = schedule(this::stopScanInternal, SCAN_TIMEOUT_MS);
 
-        try {
-            bluetoothLeScanner.startScan(leScanCallback);
-        } catch (SecurityException e) {
-            Log.e(TAG, "Bluetooth scanning permission not granted.", e);
-        }
+        // Name + service UUID filter runs in the controller; the app only wakes for dispensers
+        transport.startScan(AdvertisementFilter.forDispenser(), scanProfile, scanListener);
     }
 
-    @SuppressLint("MissingPermission")
-    public void stopScan() {
-        if (bluetoothLeScanner == null) return;
+    private void stopScanInternal() {
+        if (transport == null) return;
 
-        scanTimeoutHandler.removeCallbacksAndMessages(null); // Stop timeout handler
-        try {
-            bluetoothLeScanner.stopScan(leScanCallback);
-        } catch (SecurityException e) {
-            Log.e(TAG, "Bluetooth scanning permission not granted.", e);
+        cancel(scanTimeout); // Stop timeout
+        transport.stopScan();
+
+        // ### FIX 1: Don't overwrite "Connecting" with "not found" ###
+        awaitingFirstAdvertisement = false;
+        if (!deviceFound && gattConnection == null) {
+            metrics.recordFailure(BleMetrics.Phase.SCAN_TO_TARGET, GattOperationScheduler.STATUS_TIMEOUT);
+            fail(BleEvent.Type.ERROR, BleState.ErrorCode.NOT_FOUND, 0, "Device '" + TARGET_DEVICE_NAME + "' not found.");
         }
+    }
 
-        // ### FIX 1: Check operationStatus to avoid overwriting "Connecting" ###
-        if (!deviceFound && !operationStatus.getValue().contains("Connecting")) {
-            operationStatus.postValue("Error: Device '" + TARGET_DEVICE_NAME + "' not found.");
+    // --- Known Dispenser Reconnect ---
+    /**
+     * Connects to the cached address of a recently seen dispenser without scanning.
+     *
+     * @param pid        dispenser provisioned with this PID, or null for the most recently seen one
+     * @param background true for autoConnect: the stack waits (with no timeout) until the dispenser
+     *                   is in range; false for a direct connect that falls back to a scan on failure
+     * @return false if no dispenser is cached or the connection could not be started
+     */
+    private boolean connectKnownDispenserInternal(String pid, boolean background) {
+        if (knownDispensers == null) return false;
+        KnownDispenserCache.Entry known = knownDispensers.findRecent(currentUser(), pid);
+        if (known == null) return false;
+
+        Log.i(TAG, "Connecting to known dispenser " + known.address + (background ? " (background)" : ""));
+        if (!connectInternal(known.address, background)) return false;
+        syncDoseLogOnReady = true; // Catch up on doses taken while the phone was away
+        if (!background) {
+            directConnectPending = true;
+            cancel(directConnectTimeout);
+            directConnectTimeout = schedule(this::onDirectConnectTimeout, DIRECT_CONNECT_TIMEOUT_MS);
         }
+        return true;
+    }
+
+    private void onDirectConnectTimeout() {
+        if (!directConnectPending) return;
+        Log.w(TAG, "Known dispenser did not answer, scanning instead.");
+        fallBackToScan();
+    }
+
+    private void fallBackToScan() {
+        directConnectPending = false;
+        cancel(directConnectTimeout);
+        closeInternal();
+        scanForDispenser();
+    }
+
+    private String currentUser() {
+        return getSharedPreferences(HomeActivity.PREFS_NAME, MODE_PRIVATE).getString(HomeActivity.KEY_USERNAME, "");
     }
 
     // --- Connection & GATT ---
-    @SuppressLint("MissingPermission")
-    public boolean connect(final String address) {
-        if (bluetoothAdapter == null || address == null) return false;
+    private boolean connectInternal(final String address, boolean autoConnect) {
+        if (transport == null || address == null) return false;
 
-        final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
-        if (device == null) return false;
+        publish(state.to(BleState.Phase.CONNECTING, "Connecting to device...", SystemClock.elapsedRealtime())
+                .withDevice(address));
+        lastAddress = address;
+        connectStartMs = SystemClock.elapsedRealtime();
+        connectedMs = 0;
+        releaseConnection(); // Each connect registers a client interface; free the previous one
+        gattConnection = transport.connect(address, autoConnect, gattCallback);
+        if (gattConnection == null) return false;
+        operationScheduler.attach(gattConnection);
+        linkTuner.attach(gattConnection);
+        return true;
+    }
 
-        try {
-            operationStatus.postValue("Connecting to device...");
-            bluetoothGatt = device.connectGatt(this, false, gattCallback);
-            return true;
-        } catch (SecurityException e) {
-            Log.e(TAG, "Bluetooth connect permission not granted.", e);
-            return false;
+    private void disconnectInternal() {
+        if (gattConnection == null) return;
+        disconnectStartMs = SystemClock.elapsedRealtime();
+        otaImage = null; // Not resumed; the dispenser keeps the confirmed part for the next attempt
+        gattConnection.disconnect();
+    }
+
+    private void closeInternal() {
+        if (gattConnection == null) return;
+        doseLogSync.cancel();
+        otaUpdater.cancel();
+        otaImage = null;
+        resumeOtaOnReady = false;
+        releaseConnection();
+        // ### FIX 2: Update LiveData on close ###
+        isReadyToProvision.postValue(false);
+        setPhase(BleState.Phase.DISCONNECTED, "Disconnected");
+        // #####################################
+    }
+
+    /**
+     * Detaches and closes the connection, if any. A dropped link is released too, so
+     * {@code gattConnection != null} means a connection is up or being set up.
+     */
+    private void releaseConnection() {
+        if (gattConnection == null) return;
+        operationScheduler.detach();
+        linkTuner.detach();
+        gattConnection.close();
+        gattConnection = null;
+    }
+
+    // --- GATT Callback (binder thread): forward everything to the BLE worker ---
+    private final GattConnection.Callback gattCallback = new GattConnection.Callback() {
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+            post(() -> handleConnectionStateChange(status, newState));
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            post(() -> handleServicesDiscovered(status));
+        }
+
+        // --- Operation completions are matched up by the scheduler ---
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            post(() -> operationScheduler.onCharacteristicWrite(characteristic, status));
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+            byte[] copy = value != null ? value.clone() : null; // The stack may reuse the buffer
+            post(() -> operationScheduler.onCharacteristicRead(characteristic, copy, status));
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+            post(() -> operationScheduler.onDescriptorWrite(characteristic, descriptor, status));
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            if (CHAR_OTA_CONTROL_UUID.equals(characteristic)) {
+                byte[] copy = value.clone();
+                post(() -> otaUpdater.onControlNotification(copy));
+                return;
+            }
+            if (CHAR_LOG_DATA_UUID.equals(characteristic)) {
+                byte[] copy = value.clone(); // The stack may reuse the buffer
+                post(() -> doseLogSync.onNotification(copy));
+                return;
+            }
+            if (!CHAR_TELEMETRY_UUID.equals(characteristic)) return;
+            // Decoded in place (the stack may reuse value); only the first record of a batch posts
+            int accepted = TelemetryPacket.decode(value, SystemClock.elapsedRealtime(), telemetryBuffer);
+            if (accepted > 0 && telemetryDrainScheduled.compareAndSet(false, true) && !bleWorker.isShutdown()) {
+                schedule(drainTelemetry, TELEMETRY_BATCH_MS);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            post(() -> operationScheduler.onMtuChanged(mtu, status));
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            post(() -> {
+                linkTuner.onPhyUpdate(txPhy, rxPhy, status); // Also covers peer-initiated updates
+                operationScheduler.onPhyUpdate(txPhy, rxPhy, status);
+            });
+        }
+
+        @Override
+        public void onConnectionUpdated(int interval, int latency, int timeout, int status) {
+            post(() -> {
+                linkTuner.onConnectionUpdated(interval, latency, timeout, status);
+                Log.i(TAG, "Link parameters: " + linkTuner.getParameters());
+            });
+        }
+
+        @Override
+        public void onReliableWriteCompleted(int status) {
+            post(() -> operationScheduler.onReliableWriteCompleted(status));
+        }
+
+        @Override
+        public void onServiceChanged() {
+            post(BleService.this::handleServiceChanged);
+        }
+    };
+
+    private void handleConnectionStateChange(int status, int newState) {
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+            Log.i(TAG, "Connected to GATT server.");
+            connectedMs = SystemClock.elapsedRealtime();
+            metrics.record(BleMetrics.Phase.CONNECT, connectedMs - connectStartMs);
+            if (directConnectPending) {
+                directConnectPending = false;
+                cancel(directConnectTimeout);
+                knownDispensers.touch(currentUser(), gattConnection.getAddress());
+            }
+            setPhase(BleState.Phase.DISCOVERING, "Connected. Discovering services...");
+            emit(BleEvent.Type.CONNECTED, "Connected");
+            isReadyToProvision.postValue(false);
+            discoveryStartMs = SystemClock.elapsedRealtime();
+            gattConnection.discoverServices();
+        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            Log.i(TAG, "Disconnected from GATT server.");
+            if (connectedMs == 0) {
+                metrics.recordFailure(BleMetrics.Phase.CONNECT, status); // Never came up, typically 133
+            }
+            if (disconnectStartMs != 0) {
+                metrics.record(BleMetrics.Phase.DISCONNECT, since(disconnectStartMs));
+                disconnectStartMs = 0;
+            }
+            connectedMs = 0;
+            if (directConnectPending) {
+                // Cached address unreachable (typically status 133)
+                Log.w(TAG, "Direct connect failed with status " + status + ", scanning instead.");
+                fallBackToScan();
+                return;
+            }
+            supportsFramedProvisioning = false;
+            negotiatedMtu = DispenserProfile.DEFAULT_MTU;
+            syncDoseLogOnReady = false;
+            doseLogSync.cancel(); // Resumes from the stored watermark next time
+            otaUpdater.cancel();
+            operationScheduler.cancelAll(); // Completes queued operations with STATUS_CANCELLED
+            releaseConnection(); // Resumes and retries below reconnect with a new one
+            if (otaImage != null) {
+                resumeFirmwareUpdate(status);
+                return;
+            }
+            if (reliableWriteInProgress) {
+                // Uncommitted prepared writes are discarded by the dispenser, nothing was applied
+                failReliableTransaction("link lost", status, false);
+                return;
+            }
+            setPhase(BleState.Phase.DISCONNECTED, "Disconnected");
+            emit(BleEvent.Type.DISCONNECTED, "Disconnected (status " + status + ")");
+            isReadyToProvision.postValue(false);
         }
     }
 
-    public void disconnect() {
-        if (bluetoothGatt == null) return;
-        try {
-            bluetoothGatt.disconnect();
-        } catch (SecurityException e) {
-            Log.e(TAG, "Bluetooth connect permission not granted.", e);
+    private void handleServicesDiscovered(int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            metrics.record(BleMetrics.Phase.DISCOVERY, since(discoveryStartMs));
+            Log.i(TAG, "Services discovered in " + gattConnection.getDiscoveryDurationMs() + " ms ("
+                    + (gattConnection.isDiscoveryFromCache() ? "attribute cache" : "fresh discovery") + ")");
+            supportsFramedProvisioning = gattConnection.hasCharacteristic(SERVICE_UUID, CHAR_PROVISION_FRAME_UUID);
+            // Raise the MTU first so the whole frame (or each prepared write) fits one ATT PDU
+            boolean wantsLargeMtu = provisioningMode == ProvisioningMode.RELIABLE
+                    || (provisioningMode == ProvisioningMode.FRAMED && supportsFramedProvisioning);
+            if (wantsLargeMtu) {
+                setPhase(BleState.Phase.NEGOTIATING_MTU, "Negotiating MTU...");
+                operationScheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU).retries(0)
+                        .then((op, mtuStatus) -> {
+                            if (mtuStatus == BluetoothGatt.GATT_SUCCESS) {
+                                Log.i(TAG, "MTU changed to " + op.getGrantedMtu());
+                                negotiatedMtu = op.getGrantedMtu();
+                            } else if (mtuStatus != GattOperationScheduler.STATUS_CANCELLED) {
+                                // Stay on the default MTU; a long frame still goes out as one (prepared) write
+                                Log.w(TAG, "MTU request failed with status: " + mtuStatus);
+                            } else {
+                                return;
+                            }
+                            onLinkReady();
+                        }));
+                return;
+            }
+            onLinkReady();
+        } else {
+            Log.w(TAG, "onServicesDiscovered received: " + status);
+            metrics.recordFailure(BleMetrics.Phase.DISCOVERY, status);
+            fail(BleEvent.Type.ERROR, BleState.ErrorCode.DISCOVERY_FAILED, status, "Service discovery failed");
         }
     }
 
-    public void close() {
-        if (bluetoothGatt == null) return;
-        try {
-            bluetoothGatt.close();
-            bluetoothGatt = null;
-            // ### FIX 2: Update LiveData on close ###
-            isReadyToProvision.postValue(false);
-            operationStatus.postValue("Disconnected");
-            // #####################################
-        } catch (SecurityException e) {
-            Log.e(TAG, "Bluetooth connect permission not granted.", e);
+    private void handleServiceChanged() {
+        Log.i(TAG, "Service Changed received, rediscovering.");
+        if (reliableWriteInProgress) {
+            // Nothing was committed; run the transaction again against the new table
+            reliableWriteInProgress = false;
+            resumeReliableWriteOnReady = true;
         }
+        operationScheduler.cancelAll();
+        isReadyToProvision.postValue(false);
+        discoveryStartMs = SystemClock.elapsedRealtime();
+        gattConnection.discoverServices();
     }
 
-    // --- GATT Callback ---
-    @SuppressLint("MissingPermission")
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            try {
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    Log.i(TAG, "Connected to GATT server.");
-                    operationStatus.postValue("Connected. Discovering services...");
-                    isReadyToProvision.postValue(false);
-                    gatt.discoverServices();
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    Log.i(TAG, "Disconnected from GATT server.");
-                    operationStatus.postValue("Disconnected");
-                    isReadyToProvision.postValue(false);
+    /**
+     * Connected, discovered and (if requested) MTU negotiated.
+     */
+    private void onLinkReady() {
+        Log.i(TAG, "Link ready " + (SystemClock.elapsedRealtime() - searchStartMs) + " ms after search start");
+        if (resumeReliableWriteOnReady) {
+            // Reconnected after a dropped transaction: retry the batch without user input
+            resumeReliableWriteOnReady = false;
+            startReliableTransaction();
+            return;
+        }
+        if (resumeOtaOnReady) {
+            resumeOtaOnReady = false;
+            startFirmwareUpdate();
+            return;
+        }
+        setPhase(BleState.Phase.READY, "Ready to Provision");
+        isReadyToProvision.postValue(true);
+        subscribeTelemetry();
+        if (syncDoseLogOnReady) {
+            syncDoseLogOnReady = false;
+            syncDoseLogInternal();
+        }
+    }
+
+    // --- Telemetry ---
+    /**
+     * Enables dispenser telemetry notifications. The CCCD is written on every connection since
+     * the dispenser is not bonded and forgets it on disconnect. Older firmware has no telemetry.
+     */
+    private void subscribeTelemetry() {
+        if (!gattConnection.hasCharacteristic(TELEMETRY_SERVICE_UUID, CHAR_TELEMETRY_UUID)) return;
+        if (!gattConnection.setCharacteristicNotification(TELEMETRY_SERVICE_UUID, CHAR_TELEMETRY_UUID, true)) {
+            Log.w(TAG, "Could not enable telemetry notifications locally.");
+            return;
+        }
+        if (!gattConnection.getAddress().equals(telemetryAddress)) {
+            telemetryBatch.clear(); // Pill count and battery belong to the previous dispenser
+            telemetryAddress = gattConnection.getAddress();
+        }
+        operationScheduler.enqueue(GattOperation.writeDescriptor(TELEMETRY_SERVICE_UUID, CHAR_TELEMETRY_UUID,
+                DispenserProfile.CCCD, DispenserProfile.CCCD_ENABLE_NOTIFICATIONS)
+                .then((op, status) -> {
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        Log.i(TAG, "Telemetry notifications enabled.");
+                    } else if (status != GattOperationScheduler.STATUS_CANCELLED) {
+                        Log.w(TAG, "Telemetry subscription failed with status: " + status);
+                    }
+                }));
+    }
+
+    /**
+     * Runs {@link #TELEMETRY_BATCH_MS} after the first record of a batch: everything that arrived
+     * in the meantime goes out as one LiveData value.
+     */
+    private void drainTelemetryInternal() {
+        telemetryDrainScheduled.set(false); // Records arriving from now on schedule the next batch
+        if (telemetryBuffer.drain(telemetryBatch, TELEMETRY_CAPACITY) == 0) return;
+        TelemetryBatch batch = telemetryBatch.build(telemetryAddress, telemetryBuffer.getDropped());
+        Log.d(TAG, "Telemetry: " + batch);
+        // Not conflated like postValue(): each batch carries its own dose records
+        mainHandler.post(() -> telemetry.setValue(batch));
+    }
+
+    // --- Dose History Sync ---
+    private void syncDoseLogInternal() {
+        if (gattConnection == null || doseLogWatermarks == null || doseLogSync.isRunning()) return;
+        if (!DoseLogSync.isSupported(gattConnection)) {
+            Log.i(TAG, "Dispenser firmware has no dose log.");
+            return;
+        }
+        final String address = gattConnection.getAddress();
+        final long syncStartMs = SystemClock.elapsedRealtime();
+        requestPreferredMtu(null); // More records per notification; queued ahead of the log request
+        linkTuner.burst();
+        doseLogSync.start(gattConnection, doseLogWatermarks.get(address), new DoseLogSync.Listener() {
+            @Override
+            public void onComplete(DoseLogSync.Result result) {
+                linkTuner.idle();
+                metrics.record(BleMetrics.Phase.DOSE_LOG_SYNC, since(syncStartMs));
+                Log.i(TAG, "Dose log synced: " + result);
+                // Nothing at or below the watermark is downloaded again, from this phone
+                doseLogWatermarks.put(address, result.watermark);
+                mainHandler.post(() -> doseLog.setValue(result)); // Each result carries its own records
+            }
+
+            @Override
+            public void onFailed(int status, String reason) {
+                if (status != GattOperationScheduler.STATUS_CANCELLED) {
+                    // Cancelled by whoever took over the link (provisioning, disconnect); leave its tuning alone
+                    linkTuner.idle();
+                    metrics.recordFailure(BleMetrics.Phase.DOSE_LOG_SYNC, status);
                 }
-            } catch (SecurityException e) {
-                Log.e(TAG, "Bluetooth permission not granted.", e);
+                Log.w(TAG, "Dose log sync failed (" + reason + ") with status: " + status);
             }
+        });
+    }
+
+    /**
+     * Raises the MTU unless that already happened on this link, then runs {@code onDone} (if any)
+     * on the worker. Not run if the request was cancelled.
+     */
+    private void requestPreferredMtu(Runnable onDone) {
+        if (negotiatedMtu != DispenserProfile.DEFAULT_MTU) {
+            if (onDone != null) onDone.run();
+            return;
+        }
+        operationScheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU).retries(0)
+                .then((op, status) -> {
+                    if (status == GattOperationScheduler.STATUS_CANCELLED) return;
+                    if (status == BluetoothGatt.GATT_SUCCESS) negotiatedMtu = op.getGrantedMtu();
+                    if (onDone != null) onDone.run();
+                }));
+    }
+
+    // --- Firmware Update ---
+    private void updateFirmwareInternal(byte[] image) {
+        if (otaImage != null) return; // One at a time
+        if (gattConnection == null || !OtaUpdater.isSupported(gattConnection)) {
+            fail(BleEvent.Type.OTA_FAILED, BleState.ErrorCode.OTA_FAILED, 0, "Firmware update not supported");
+            return;
+        }
+        otaImage = image;
+        otaResumes = 0;
+        otaStartMs = SystemClock.elapsedRealtime();
+        startFirmwareUpdate();
+    }
+
+    /**
+     * Starts the transfer on the current link; the dispenser answers with the offset to continue from.
+     */
+    private void startFirmwareUpdate() {
+        setProgress(BleState.Phase.UPDATING_FIRMWARE, "Updating firmware...", 0, otaImage.length);
+        linkTuner.burst();
+        requestPreferredMtu(() -> otaUpdater.start(gattConnection, otaImage, negotiatedMtu, otaListener));
+    }
+
+    /**
+     * Link lost mid-transfer: reconnect (autoConnect, so it waits until the dispenser is in range)
+     * and continue from the last block the dispenser confirmed.
+     */
+    private void resumeFirmwareUpdate(int status) {
+        if (++otaResumes > MAX_OTA_RESUMES) {
+            otaListener.onFailed(status, "link lost " + otaResumes + " times", otaUpdater.getProgress());
+            return;
+        }
+        Log.w(TAG, "Link lost during firmware update (status " + status + "), resuming on reconnect.");
+        setPhase(BleState.Phase.RETRYING, "Waiting for the dispenser to resume the firmware update...");
+        resumeOtaOnReady = true;
+        if (!connectInternal(lastAddress, true)) {
+            resumeOtaOnReady = false;
+            otaListener.onFailed(status, "reconnect refused", otaUpdater.getProgress());
         }
+    }
 
+    private void cancelFirmwareUpdateInternal() {
+        if (otaImage == null) return;
+        otaImage = null;
+        otaUpdater.cancel();
+        linkTuner.idle();
+        if (resumeOtaOnReady) {
+            closeInternal(); // Stop waiting for the dispenser to come back
+            return;
+        }
+        if (gattConnection != null) {
+            // Drop the staged part too, so the next update starts clean
+            operationScheduler.enqueue(GattOperation.write(SERVICE_UUID, CHAR_OTA_CONTROL_UUID, OtaPacket.abort())
+                    .then((op, status) -> { }));
+        }
+        setPhase(BleState.Phase.READY, "Firmware update cancelled");
+    }
+
+    private final OtaUpdater.Listener otaListener = new OtaUpdater.Listener() {
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.i(TAG, "Services discovered!");
-                operationStatus.postValue("Ready to Provision");
-                isReadyToProvision.postValue(true);
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
-                operationStatus.postValue("Error: Service discovery failed");
-            }
+        public void onProgress(OtaUpdater.Progress progress) {
+            setProgress(BleState.Phase.UPDATING_FIRMWARE, "Updating firmware: " + progress,
+                    (int) progress.confirmedBytes, progress.totalBytes);
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "Write successful for: " + characteristic.getUuid());
-            } else {
-                Log.w(TAG, "Write failed for: " + characteristic.getUuid() + " status: " + status);
-            }
-            // This write is done, clear the flag and process the next
-            isWriting = false;
-            processGattWriteQueue();
+        public void onComplete(OtaUpdater.Progress progress) {
+            otaImage = null;
+            linkTuner.idle();
+            metrics.record(BleMetrics.Phase.FIRMWARE_UPDATE, since(otaStartMs));
+            Log.i(TAG, "Firmware update complete: " + progress);
+            // The dispenser reboots into the new image, which ends this link
+            setProgress(BleState.Phase.COMPLETE, "Firmware updated", progress.totalBytes, progress.totalBytes);
+            emit(BleEvent.Type.OTA_COMPLETE, "Firmware updated (" + progress + ")");
+        }
+
+        @Override
+        public void onFailed(int status, String reason, OtaUpdater.Progress progress) {
+            otaImage = null;
+            linkTuner.idle();
+            metrics.recordFailure(BleMetrics.Phase.FIRMWARE_UPDATE, status);
+            Log.w(TAG, "Firmware update failed (" + reason + ") at " + progress);
+            fail(BleEvent.Type.OTA_FAILED, BleState.ErrorCode.OTA_FAILED, status, "Firmware update failed: " + reason);
         }
     };
 
-    // --- Write Queue Logic ---
-    private void processGattWriteQueue() {
-        if (isWriting || gattWriteQueue.isEmpty()) {
+    // --- Write Helpers ---
+    /**
+     * Write of one provisioning field, {@code step} of {@code totalSteps}. The last write of a
+     * non-reliable batch (step == totalSteps) reports completion.
+     */
+    private GattOperation provisioningWrite(UUID charUuid, byte[] value, String status, int step, int totalSteps) {
+        return GattOperation.write(SERVICE_UUID, charUuid, value)
+                .then(new GattOperation.Callback() {
+                    long startMs;
+
+                    @Override
+                    public void onStart(GattOperation operation) {
+                        startMs = SystemClock.elapsedRealtime();
+                        Log.d(TAG, "Writing to " + charUuid);
+                        setProgress(BleState.Phase.WRITING, status, step, totalSteps);
+                    }
+
+                    @Override
+                    public void onComplete(GattOperation operation, int writeStatus) {
+                        if (writeStatus == BluetoothGatt.GATT_SUCCESS) {
+                            metrics.record(BleMetrics.Phase.WRITE, since(startMs));
+                            Log.d(TAG, "Write successful for: " + charUuid);
+                            if (step == totalSteps) onProvisioningComplete();
+                        } else {
+                            if (writeStatus != GattOperationScheduler.STATUS_CANCELLED) {
+                                metrics.recordFailure(BleMetrics.Phase.WRITE, writeStatus);
+                            }
+                            Log.w(TAG, "Write failed for: " + charUuid + " status: " + writeStatus
+                                    + " after " + operation.getAttempts() + " attempt(s)");
+                            onProvisioningWriteFailed(writeStatus);
+                        }
+                    }
+                });
+    }
+
+    // --- Master Provision Function ---
+    private void provisionDeviceInternal(String ssid, String password, String pid) {
+        // Clear any old operations
+        operationScheduler.cancelAll();
+        provisioningWriteFailed = false;
+        provisioningPid = pid;
+        provisionStartMs = SystemClock.elapsedRealtime();
+
+        if (provisioningMode == ProvisioningMode.RELIABLE) {
+            pendingSsid = ssid;
+            pendingPassword = password;
+            pendingPid = pid;
+            reliableWriteAttempts = 0;
+            transactionStartMs = SystemClock.elapsedRealtime();
+            startReliableTransaction();
             return;
         }
-        isWriting = true;
-        Runnable operation = gattWriteQueue.poll();
-        if (operation != null) {
-            operation.run(); // Execute the write
+
+        linkTuner.burst(); // Queues the PHY request ahead of the writes
+        if (provisioningMode == ProvisioningMode.FRAMED && supportsFramedProvisioning) {
+            queueFramedProvisioning(ssid, password, pid);
+        } else {
+            queueSequentialProvisioning(ssid, password, pid);
         }
     }
 
-    @SuppressLint("MissingPermission")
-    private void writeCharacteristicInternal(String serviceUuidStr, String charUuidStr, byte[] value) {
-        if (bluetoothGatt == null) {
-            Log.w(TAG, "BluetoothGatt not initialized.");
-            isWriting = false; // Clear flag so queue isn't stuck
+    private void onProvisioningWriteFailed(int status) {
+        if (status == GattOperationScheduler.STATUS_CANCELLED) return;
+        if (reliableWriteInProgress) {
+            failReliableTransaction("prepare write failed", status, true);
             return;
         }
+        if (!provisioningWriteFailed) {
+            provisioningWriteFailed = true;
+            operationScheduler.cancelAll();
+            linkTuner.idle();
+            metrics.recordFailure(BleMetrics.Phase.PROVISIONING, status);
+            fail(BleEvent.Type.PROVISIONING_FAILED, BleState.ErrorCode.WRITE_FAILED, status, "Provisioning failed");
+            isReadyToProvision.postValue(true);
+        }
+    }
 
-        BluetoothGattService service = bluetoothGatt.getService(UUID.fromString(serviceUuidStr));
-        if (service == null) {
-            Log.w(TAG, "Service not found: " + serviceUuidStr);
-            isWriting = false;
-            return;
+    private void onProvisioningComplete() {
+        linkTuner.idle();
+        metrics.record(BleMetrics.Phase.PROVISIONING, since(provisionStartMs));
+        if (searchStartMs != 0) metrics.record(BleMetrics.Phase.END_TO_END, since(searchStartMs));
+        setProgress(BleState.Phase.COMPLETE, "Provisioning Complete!", state.totalSteps, state.totalSteps);
+        emit(BleEvent.Type.PROVISIONING_COMPLETE, "Provisioning Complete!");
+        knownDispensers.recordProvisioned(currentUser(), lastAddress, provisioningPid);
+        // ### FIX 3: Disconnect after provisioning ###
+        schedule(this::disconnectInternal, 500);
+        // ##########################################
+    }
+
+    /**
+     * Queues begin -> SSID/password/PID prepare writes -> execute as one all-or-nothing transaction.
+     */
+    private void startReliableTransaction() {
+        operationScheduler.cancelAll();
+        linkTuner.burst();
+        reliableWriteAttempts++;
+        attemptStartMs = SystemClock.elapsedRealtime();
+        reliableWriteInProgress = true;
+        setProgress(BleState.Phase.WRITING, "Writing Provisioning Data (attempt " + reliableWriteAttempts + ")...",
+                0, RELIABLE_WRITE_STEPS);
+
+        operationScheduler.enqueue(GattOperation.beginReliableWrite().then((op, status) -> {
+            if (status != BluetoothGatt.GATT_SUCCESS) onProvisioningWriteFailed(status);
+        }));
+        // Prepared writes are not retried one by one: the whole batch is
+        operationScheduler.enqueue(provisioningWrite(CHAR_SSID_UUID, pendingSsid.getBytes(StandardCharsets.UTF_8),
+                "Writing SSID...", 1, RELIABLE_WRITE_STEPS).retries(0));
+        operationScheduler.enqueue(provisioningWrite(CHAR_PASS_UUID, pendingPassword.getBytes(StandardCharsets.UTF_8),
+                "Writing Password...", 2, RELIABLE_WRITE_STEPS).retries(0));
+        operationScheduler.enqueue(provisioningWrite(CHAR_PID_UUID, pendingPid.getBytes(StandardCharsets.UTF_8),
+                "Writing PID...", 3, RELIABLE_WRITE_STEPS).retries(0));
+
+        // Commit all prepared writes at once
+        operationScheduler.enqueue(GattOperation.executeReliableWrite().then(new GattOperation.Callback() {
+            @Override
+            public void onStart(GattOperation operation) {
+                executeStartMs = SystemClock.elapsedRealtime();
+                prepareMs = executeStartMs - attemptStartMs;
+                setProgress(BleState.Phase.COMMITTING, "Committing Provisioning Data...",
+                        RELIABLE_WRITE_STEPS, RELIABLE_WRITE_STEPS);
+            }
+
+            @Override
+            public void onComplete(GattOperation operation, int status) {
+                if (!reliableWriteInProgress) return;
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    if (status != GattOperationScheduler.STATUS_CANCELLED) {
+                        failReliableTransaction("execute failed", status, true);
+                    }
+                    return;
+                }
+                reliableWriteInProgress = false;
+                long now = SystemClock.elapsedRealtime();
+                ReliableWriteReport report = new ReliableWriteReport(true, reliableWriteAttempts, prepareMs,
+                        now - executeStartMs, now - transactionStartMs);
+                Log.i(TAG, "Reliable write " + report);
+                reliableWriteReport.postValue(report);
+                clearPendingCredentials();
+                onProvisioningComplete();
+            }
+        }));
+    }
+
+    /**
+     * Aborts the current transaction and retries the whole batch, reconnecting first if the link dropped.
+     */
+    private void failReliableTransaction(String reason, int status, boolean linkUp) {
+        Log.w(TAG, "Reliable write attempt " + reliableWriteAttempts + " failed: " + reason + " (status " + status + ")");
+        reliableWriteInProgress = false;
+        operationScheduler.cancelAll();
+        if (linkUp && gattConnection != null) {
+            gattConnection.abortReliableWrite();
         }
 
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(charUuidStr));
-        if (characteristic == null) {
-            Log.w(TAG, "Characteristic not found: " + charUuidStr);
-            isWriting = false;
+        if (reliableWriteAttempts >= MAX_RELIABLE_WRITE_ATTEMPTS || pendingSsid == null) {
+            long now = SystemClock.elapsedRealtime();
+            ReliableWriteReport report = new ReliableWriteReport(false, reliableWriteAttempts, prepareMs, 0,
+                    now - transactionStartMs);
+            Log.w(TAG, "Reliable write " + report);
+            reliableWriteReport.postValue(report);
+            clearPendingCredentials();
+            linkTuner.idle();
+            metrics.recordFailure(BleMetrics.Phase.PROVISIONING, status);
+            fail(BleEvent.Type.PROVISIONING_FAILED, BleState.ErrorCode.WRITE_FAILED, status, "Provisioning failed");
+            isReadyToProvision.postValue(linkUp);
             return;
         }
 
-        Log.d(TAG, "Writing to " + charUuidStr);
-        try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                bluetoothGatt.writeCharacteristic(characteristic, value, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            } else {
-                characteristic.setValue(value);
-                bluetoothGatt.writeCharacteristic(characteristic);
+        setPhase(BleState.Phase.RETRYING, "Retrying provisioning (" + (reliableWriteAttempts + 1) + "/"
+                + MAX_RELIABLE_WRITE_ATTEMPTS + ")...");
+        if (linkUp) {
+            startReliableTransaction();
+        } else {
+            // Reuse the known address instead of a full scan; resume once the link is ready again
+            resumeReliableWriteOnReady = true;
+            if (!connectInternal(lastAddress, false)) {
+                resumeReliableWriteOnReady = false;
+                reliableWriteAttempts = MAX_RELIABLE_WRITE_ATTEMPTS;
+                failReliableTransaction("reconnect refused", status, false);
             }
-        } catch (SecurityException e) {
-            Log.e(TAG, "Bluetooth permission not granted.", e);
-            isWriting = false;
         }
     }
 
-    // --- Public Master Provision Function ---
-    public void provisionDevice(String ssid, String password, String pid) {
-        // Clear any old operations
-        gattWriteQueue.clear();
-        isWriting = false;
+    private void clearPendingCredentials() {
+        pendingSsid = null;
+        pendingPassword = null;
+        pendingPid = null;
+    }
 
-        // Add SSID write to queue
-        gattWriteQueue.add(() -> {
-            operationStatus.postValue("Writing SSID...");
-            writeCharacteristicInternal(SERVICE_UUID, CHAR_SSID_UUID, ssid.getBytes(StandardCharsets.UTF_8));
-        });
+    /**
+     * Single round trip: SSID, password and PID in one length-prefixed frame.
+     */
+    private void queueFramedProvisioning(String ssid, String password, String pid) {
+        final byte[] frame;
+        try {
+            frame = new ProvisioningFrame(ssid, password, pid).encode();
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Frame too large, using sequential writes.", e);
+            queueSequentialProvisioning(ssid, password, pid);
+            return;
+        }
 
-        // Add Password write to queue
-        gattWriteQueue.add(() -> {
-            operationStatus.postValue("Writing Password...");
-            writeCharacteristicInternal(SERVICE_UUID, CHAR_PASS_UUID, password.getBytes(StandardCharsets.UTF_8));
-        });
+        operationScheduler.enqueue(provisioningWrite(CHAR_PROVISION_FRAME_UUID, frame, "Writing Provisioning Data...", 1, 1));
+    }
 
-        // Add PID write to queue
-        gattWriteQueue.add(() -> {
-            operationStatus.postValue("Writing PID...");
-            writeCharacteristicInternal(SERVICE_UUID, CHAR_PID_UUID, pid.getBytes(StandardCharsets.UTF_8));
-        });
+    /**
+     * Legacy path for firmware without the frame characteristic: one write per field.
+     */
+    private void queueSequentialProvisioning(String ssid, String password, String pid) {
+        operationScheduler.enqueue(provisioningWrite(CHAR_SSID_UUID, ssid.getBytes(StandardCharsets.UTF_8), "Writing SSID...", 1, 3));
+        operationScheduler.enqueue(provisioningWrite(CHAR_PASS_UUID, password.getBytes(StandardCharsets.UTF_8), "Writing Password...", 2, 3));
+        operationScheduler.enqueue(provisioningWrite(CHAR_PID_UUID, pid.getBytes(StandardCharsets.UTF_8), "Writing PID...", 3, 3));
+    }
 
-        // Add final "Done" status to queue
-        gattWriteQueue.add(() -> {
-            operationStatus.postValue("Provisioning Complete!");
-            isWriting = false; // Mark as done
-            // ### FIX 3: Disconnect after provisioning ###
-            new Handler(Looper.getMainLooper()).postDelayed(this::disconnect, 500);
-            // ##########################################
-        });
+    // --- Fleet Provisioning ---
+    private FleetProvisioner fleetProvisioner;
+
+    /**
+     * Finds the dispensers for all jobs in one scan pass and provisions them over up to
+     * {@code maxConnections} parallel connections. Progress is published to getFleetProgress().
+     */
+    private void provisionFleetInternal(List<FleetProvisioner.Job> jobs, int maxConnections) {
+        if (transport == null || !transport.isEnabled()) {
+            fail(BleEvent.Type.ERROR, BleState.ErrorCode.BLUETOOTH_OFF, 0, "Bluetooth not ready");
+            return;
+        }
+        if (fleetProvisioner != null) fleetProvisioner.cancel();
+
+        // The single-device flow shares the radio; stop it first
+        cancel(scanTimeout);
+        cancel(directConnectTimeout);
+        directConnectPending = false;
+        transport.stopScan();
+        closeInternal();
 
-        // Start processing the queue
-        processGattWriteQueue();
+        String user = currentUser();
+        FleetProvisioner fleet = new FleetProvisioner(transport, bleWorker, maxConnections);
+        fleetProvisioner = fleet;
+        // Sessions report from binder threads; the cache is only written on the worker
+        boolean started = fleet.start(jobs, new FleetProvisioner.Listener() {
+            @Override
+            public void onDeviceUpdate(FleetProvisioner.DeviceProgress device) {
+                if (device.getState() == FleetProvisioner.DeviceState.DONE) {
+                    String address = device.getAddress();
+                    String pid = device.job.pid;
+                    post(() -> knownDispensers.recordProvisioned(user, address, pid));
+                }
+                fleetProgress.postValue(fleet.getDevices()); // Snapshot copies
+            }
+
+            @Override
+            public void onComplete(FleetReport report) {
+                Log.i(TAG, "Fleet provisioning: " + report);
+                fleetReport.postValue(report);
+                String message = "Fleet Provisioning Complete: " + report.succeeded + "/" + report.total;
+                post(() -> {
+                    setPhase(BleState.Phase.COMPLETE, message);
+                    emit(BleEvent.Type.FLEET_COMPLETE, message);
+                });
+            }
+        });
+        if (started) {
+            publish(state.to(BleState.Phase.SCANNING, "Scanning for " + jobs.size() + " dispensers...",
+                    SystemClock.elapsedRealtime()).withDevice(null));
+        } else {
+            fail(BleEvent.Type.ERROR, BleState.ErrorCode.SCAN_FAILED, 0, "Scan failed");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package com.example.medisense;
+
+/**
+ * Latest state of the single-device BLE flow. BleService publishes a new snapshot on every
+ * change; observers only ever see the most recent one, so bursts of updates cost one redraw.
+ * Times are SystemClock.elapsedRealtime() milliseconds, so phase durations are exact.
+ */
+public final class BleState {
+
+    public enum Phase {
+        IDLE,
+        SCANNING,
+        CONNECTING,
+        DISCOVERING,
+        NEGOTIATING_MTU,
+        READY,
+        WRITING,
+        COMMITTING,
+        RETRYING,
+        UPDATING_FIRMWARE,
+        COMPLETE,
+        DISCONNECTED,
+        ERROR
+    }
+
+    public enum ErrorCode {
+        NONE,
+        BLUETOOTH_OFF,
+        SCAN_FAILED,
+        NOT_FOUND,
+        DISCOVERY_FAILED,
+        WRITE_FAILED,
+        OTA_FAILED
+    }
+
+    public final Phase phase;
+    public final String deviceAddress;  // Null until a dispenser was picked
+    public final String message;        // Human-readable, for a status line only; never match on it
+    public final int step;              // Provisioning progress, 0 of 0 outside WRITING/COMMITTING
+    public final int totalSteps;
+    public final ErrorCode error;
+    public final int errorStatus;       // GATT or scan error code behind {@link #error}, 0 if none
+    public final long phaseStartMs;     // When {@link #phase} was entered
+    public final long updatedMs;        // When this snapshot was published
+
+    private BleState(Phase phase, String deviceAddress, String message, int step, int totalSteps,
+                     ErrorCode error, int errorStatus, long phaseStartMs, long updatedMs) {
+        this.phase = phase;
+        this.deviceAddress = deviceAddress;
+        this.message = message;
+        this.step = step;
+        this.totalSteps = totalSteps;
+        this.error = error;
+        this.errorStatus = errorStatus;
+        this.phaseStartMs = phaseStartMs;
+        this.updatedMs = updatedMs;
+    }
+
+    public static BleState idle(long nowMs) {
+        return new BleState(Phase.IDLE, null, "Idle", 0, 0, ErrorCode.NONE, 0, nowMs, nowMs);
+    }
+
+    /**
+     * Moves to {@code phase}, keeping the device and clearing progress and error. Staying in the
+     * same phase keeps its start time.
+     */
+    public BleState to(Phase phase, String message, long nowMs) {
+        return new BleState(phase, deviceAddress, message, 0, 0, ErrorCode.NONE, 0,
+                phase == this.phase ? phaseStartMs : nowMs, nowMs);
+    }
+
+    public BleState withDevice(String address) {
+        return new BleState(phase, address, message, step, totalSteps, error, errorStatus, phaseStartMs, updatedMs);
+    }
+
+    public BleState withProgress(int step, int totalSteps) {
+        return new BleState(phase, deviceAddress, message, step, totalSteps, error, errorStatus, phaseStartMs, updatedMs);
+    }
+
+    public BleState withError(ErrorCode error, int errorStatus) {
+        return new BleState(phase, deviceAddress, message, step, totalSteps, error, errorStatus, phaseStartMs, updatedMs);
+    }
+
+    public float getProgress() {
+        return totalSteps > 0 ? (float) step / totalSteps : 0f;
+    }
+
+    public long getPhaseDurationMs(long nowMs) {
+        return nowMs - phaseStartMs;
+    }
+
+    @Override
+    public String toString() {
+        return phase + (deviceAddress != null ? " " + deviceAddress : "")
+                + (totalSteps > 0 ? " " + step + "/" + totalSteps : "")
+                + (error != ErrorCode.NONE ? " " + error + "(" + errorStatus + ")" : "")
+                + ": " + message;
+    }
+}
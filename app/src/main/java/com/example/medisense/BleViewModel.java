@@ -14,6 +14,10 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class BleViewModel extends AndroidViewModel {
 
     private static final String TAG = "BleViewModel";
@@ -22,12 +26,28 @@ public class BleViewModel extends AndroidViewModel {
     private final MutableLiveData<Boolean> isServiceBound = new MutableLiveData<>(false);
 
     // --- LiveData Mirrors ---
-    private final MediatorLiveData<String> operationStatus = new MediatorLiveData<>();
+    private final MediatorLiveData<BleState> state = new MediatorLiveData<>();
+    private final MediatorLiveData<BleEvent> events = new MediatorLiveData<>();
     private final MediatorLiveData<Boolean> isReadyToProvision = new MediatorLiveData<>();
+    private final MediatorLiveData<ReliableWriteReport> reliableWriteReport = new MediatorLiveData<>();
+    private final MediatorLiveData<List<FleetProvisioner.DeviceProgress>> fleetProgress = new MediatorLiveData<>();
+    private final MediatorLiveData<FleetReport> fleetReport = new MediatorLiveData<>();
+    private final MediatorLiveData<TelemetryBatch> telemetry = new MediatorLiveData<>();
+    private final MediatorLiveData<DoseLogSync.Result> doseLog = new MediatorLiveData<>();
 
     // --- Public LiveData Getters ---
-    public LiveData<String> getOperationStatus() { return operationStatus; }
+    /** Latest state only; intermediate snapshots may be skipped. */
+    public LiveData<BleState> getState() { return state; }
+    /** Every discrete event, in order. Check {@link BleEvent#consume()} before acting on one. */
+    public LiveData<BleEvent> getEvents() { return events; }
     public LiveData<Boolean> isReadyToProvision() { return isReadyToProvision; }
+    public LiveData<ReliableWriteReport> getReliableWriteReport() { return reliableWriteReport; }
+    public LiveData<List<FleetProvisioner.DeviceProgress>> getFleetProgress() { return fleetProgress; }
+    public LiveData<FleetReport> getFleetReport() { return fleetReport; }
+    /** Live dispenser telemetry while connected, at most one batch per 100 ms. */
+    public LiveData<TelemetryBatch> getTelemetry() { return telemetry; }
+    /** Dose-history records downloaded by each sync, newest watermark last. */
+    public LiveData<DoseLogSync.Result> getDoseLog() { return doseLog; }
 
     // --- ### NEW GETTER ADDED HERE ### ---
     /**
@@ -70,8 +90,14 @@ public class BleViewModel extends AndroidViewModel {
      */
     private void observeServiceData() {
         if (bleService == null) return;
-        operationStatus.addSource(bleService.getOperationStatus(), operationStatus::postValue);
+        state.addSource(bleService.getState(), state::postValue);
+        events.addSource(bleService.getEvents(), events::setValue); // setValue: postValue would conflate events
         isReadyToProvision.addSource(bleService.isReadyToProvision(), isReadyToProvision::postValue);
+        reliableWriteReport.addSource(bleService.getReliableWriteReport(), reliableWriteReport::postValue);
+        fleetProgress.addSource(bleService.getFleetProgress(), fleetProgress::postValue);
+        fleetReport.addSource(bleService.getFleetReport(), fleetReport::postValue);
+        telemetry.addSource(bleService.getTelemetry(), telemetry::setValue); // Each batch has its own dose records
+        doseLog.addSource(bleService.getDoseLog(), doseLog::setValue);
     }
 
     @Override
@@ -102,4 +128,45 @@ public class BleViewModel extends AndroidViewModel {
             Log.w(TAG, "Service not bound, cannot provision");
         }
     }
-}
\ No newline at end of file
+
+    public void provisionFleet(List<FleetProvisioner.Job> jobs, int maxConnections) {
+        if (bleService != null && isServiceBound.getValue() != null && isServiceBound.getValue()) {
+            bleService.provisionFleet(jobs, maxConnections);
+        } else {
+            Log.w(TAG, "Service not bound, cannot provision fleet");
+        }
+    }
+
+    public void syncDoseLog() {
+        if (bleService != null && isServiceBound.getValue() != null && isServiceBound.getValue()) {
+            bleService.syncDoseLog();
+        } else {
+            Log.w(TAG, "Service not bound, cannot sync dose log");
+        }
+    }
+
+    public void updateFirmware(byte[] image) {
+        if (bleService != null && isServiceBound.getValue() != null && isServiceBound.getValue()) {
+            bleService.updateFirmware(image);
+        } else {
+            Log.w(TAG, "Service not bound, cannot update firmware");
+        }
+    }
+
+    public void cancelFirmwareUpdate() {
+        if (bleService != null) bleService.cancelFirmwareUpdate();
+    }
+
+    // --- Metrics ---
+    /**
+     * Per-phase latency histograms since the service started (or the last reset); empty while unbound.
+     */
+    public Map<BleMetrics.Phase, LatencyHistogram.Snapshot> getMetrics() {
+        if (bleService == null) return Collections.emptyMap();
+        return bleService.getMetrics().snapshot();
+    }
+
+    public void resetMetrics() {
+        if (bleService != null) bleService.getMetrics().reset();
+    }
+}
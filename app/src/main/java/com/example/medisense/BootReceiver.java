@@ -0,0 +1,20 @@
+package com.example.medisense;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Re-arms the next dose after a reboot, which clears alarms. Exported for the system's
+ * BOOT_COMPLETED broadcast, so it ignores every other action.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            // Loading the schedules re-arms by itself; doses missed while off are due at once
+            DoseReminders.getInstance(context);
+        }
+    }
+}
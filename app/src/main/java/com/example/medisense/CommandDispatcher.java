@@ -0,0 +1,155 @@
+package com.example.medisense;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sends {@link DispenserCommand}s over the RTDB {@code commands} channel. Commands issued within
+ * {@link #BATCH_WINDOW_MS} of each other go out as one atomic multi-path {@code updateChildren},
+ * a newer command for the same setting replacing the older (see {@link CommandQueue}). Failed
+ * writes are retried with backoff. While commands await acknowledgement, one listener per PID
+ * watches {@code commands/<pid>} for the dispenser's {@code ack} and records the latency.
+ * <p>
+ * One instance per process ({@link #getInstance}); call it from the main thread.
+ */
+public class CommandDispatcher {
+
+    private static final String TAG = "CommandDispatcher";
+    public static final long BATCH_WINDOW_MS = 300;
+    private static final long MIN_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 60 * 1000;
+
+    public interface Listener {
+        /** The dispenser applied {@code command}, {@code latencyMs} after it was sent. */
+        void onAcknowledged(DispenserCommand command, long latencyMs);
+    }
+
+    private static CommandDispatcher instance;
+
+    public static synchronized CommandDispatcher getInstance() {
+        if (instance == null) instance = new CommandDispatcher();
+        return instance;
+    }
+
+    private final DatabaseReference rootRef = FirebaseDatabase.getInstance().getReference();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CommandQueue queue = new CommandQueue();
+    private final Map<String, ChildEventListener> ackWatchers = new HashMap<>(); // PID -> listener
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private boolean flushScheduled = false;
+    private boolean writeInFlight = false;
+    private long retryDelayMs = MIN_RETRY_MS;
+
+    private final Runnable flush = this::flush;
+
+    private CommandDispatcher() { }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+    public void removeListener(Listener listener) { listeners.remove(listener); }
+
+    /**
+     * Queues {@code command} for the next batch.
+     */
+    public void dispatch(DispenserCommand command) {
+        if (queue.enqueue(command)) Log.d(TAG, "Coalesced " + command.key() + " for " + command.pid);
+        if (!flushScheduled && !writeInFlight) {
+            flushScheduled = true;
+            mainHandler.postDelayed(flush, BATCH_WINDOW_MS);
+        }
+    }
+
+    // --- Batched Write ---
+    private void flush() {
+        flushScheduled = false;
+        if (writeInFlight || !queue.hasPending()) return; // Commands queued meanwhile follow this write
+        Map<String, DispenserCommand> batch = queue.drain(SystemClock.elapsedRealtime());
+        Map<String, Object> update = new HashMap<>();
+        for (DispenserCommand command : batch.values()) {
+            Map<String, Object> node = command.toMap();
+            node.put(DispenserCommand.FIELD_ISSUED_AT, ServerValue.TIMESTAMP);
+            update.put(command.path(), node); // Whole node: also clears the previous command's ack
+            watchAcks(command.pid);
+        }
+        writeInFlight = true;
+        rootRef.updateChildren(update).addOnCompleteListener(task -> {
+            writeInFlight = false;
+            if (task.isSuccessful()) {
+                retryDelayMs = MIN_RETRY_MS;
+                if (queue.hasPending()) flush();
+            } else {
+                Log.w(TAG, "Command batch of " + batch.size() + " failed, retrying in " + retryDelayMs + " ms",
+                        task.getException());
+                queue.onBatchFailed(batch);
+                flushScheduled = true;
+                mainHandler.postDelayed(flush, retryDelayMs);
+                retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+            }
+        });
+    }
+
+    // --- Acknowledgements ---
+    private void watchAcks(String pid) {
+        if (ackWatchers.containsKey(pid)) return;
+        ChildEventListener watcher = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) { onCommandNode(pid, snapshot); }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) { onCommandNode(pid, snapshot); }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) { }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) { }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Ack watch on " + pid + " cancelled: " + error.getMessage());
+                ackWatchers.remove(pid);
+            }
+        };
+        ackWatchers.put(pid, watcher);
+        rootRef.child("commands").child(pid).addChildEventListener(watcher);
+    }
+
+    private void onCommandNode(String pid, DataSnapshot snapshot) {
+        String ackedId = snapshot.child(DispenserCommand.FIELD_ACK).getValue(String.class);
+        if (ackedId == null) return; // Not applied yet (or our own write)
+        CommandQueue.Acknowledgement ack = queue.onAcknowledged("commands/" + pid + "/" + snapshot.getKey(),
+                ackedId, SystemClock.elapsedRealtime());
+        if (ack == null) return;
+        Log.i(TAG, "Dispenser applied " + ack.command + " in " + ack.latencyMs + " ms");
+        for (Listener listener : listeners) listener.onAcknowledged(ack.command, ack.latencyMs);
+        if (!queue.isAwaitingAck(pid)) {
+            ChildEventListener watcher = ackWatchers.remove(pid);
+            if (watcher != null) rootRef.child("commands").child(pid).removeEventListener(watcher);
+        }
+    }
+
+    // --- Stats ---
+    /** Write-to-acknowledgement latency of every acknowledged command. */
+    public LatencyHistogram.Snapshot getAckLatency() { return queue.getAckLatency(); }
+
+    @Override
+    public String toString() {
+        return "CommandDispatcher{enqueued=" + queue.getEnqueuedCount() + ", coalesced=" + queue.getCoalescedCount()
+                + ", batches=" + queue.getBatchCount() + ", ack=" + queue.getAckLatency() + "}";
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.medisense;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bookkeeping of {@link CommandDispatcher}: commands waiting for the next batch (coalesced by
+ * path), and written commands waiting for the dispenser's acknowledgement, with the latency from
+ * write to acknowledgement.
+ * <p>
+ * Not thread-safe; the dispatcher uses it from the main thread only.
+ * Plain Java (no Firebase) so it runs in unit tests.
+ */
+public class CommandQueue {
+
+    public static final class Acknowledgement {
+        public final DispenserCommand command;
+        public final long latencyMs; // From the write being sent
+
+        Acknowledgement(DispenserCommand command, long latencyMs) {
+            this.command = command;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    private static final class Sent {
+        final DispenserCommand command;
+        final long sentAtMs;
+
+        Sent(DispenserCommand command, long sentAtMs) {
+            this.command = command;
+            this.sentAtMs = sentAtMs;
+        }
+    }
+
+    private final Map<String, DispenserCommand> pending = new LinkedHashMap<>(); // Path -> latest command
+    private final Map<String, Sent> awaitingAck = new HashMap<>();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private long enqueued, coalesced, batches;
+
+    /**
+     * @return true if {@code command} replaced a pending command for the same setting.
+     */
+    public boolean enqueue(DispenserCommand command) {
+        enqueued++;
+        boolean replaced = pending.put(command.path(), command) != null;
+        if (replaced) coalesced++;
+        return replaced;
+    }
+
+    public boolean hasPending() { return !pending.isEmpty(); }
+
+    /**
+     * Takes every pending command for one multi-path write sent at {@code nowMs}. A command that
+     * replaces one still awaiting acknowledgement supersedes it there too.
+     */
+    public Map<String, DispenserCommand> drain(long nowMs) {
+        if (pending.isEmpty()) return Collections.emptyMap();
+        Map<String, DispenserCommand> batch = new LinkedHashMap<>(pending);
+        pending.clear();
+        for (DispenserCommand command : batch.values()) awaitingAck.put(command.path(), new Sent(command, nowMs));
+        batches++;
+        return batch;
+    }
+
+    /**
+     * The write of {@code batch} failed: its commands go back into the queue, except where a
+     * newer command for the same setting was enqueued meanwhile.
+     */
+    public void onBatchFailed(Map<String, DispenserCommand> batch) {
+        for (DispenserCommand command : batch.values()) {
+            Sent sent = awaitingAck.get(command.path());
+            if (sent != null && sent.command == command) awaitingAck.remove(command.path());
+            if (!pending.containsKey(command.path())) pending.put(command.path(), command);
+        }
+    }
+
+    /**
+     * The dispenser acknowledged command {@code ackedId} at {@code path}.
+     *
+     * @return null if that command is not awaited (superseded, or from an earlier session).
+     */
+    public Acknowledgement onAcknowledged(String path, String ackedId, long nowMs) {
+        Sent sent = awaitingAck.get(path);
+        if (sent == null || !sent.command.id.equals(ackedId)) return null;
+        awaitingAck.remove(path);
+        long latencyMs = nowMs - sent.sentAtMs;
+        ackLatency.record(latencyMs);
+        return new Acknowledgement(sent.command, latencyMs);
+    }
+
+    /**
+     * @return true while a written command for {@code pid} has not been acknowledged.
+     */
+    public boolean isAwaitingAck(String pid) {
+        for (Sent sent : awaitingAck.values()) {
+            if (sent.command.pid.equals(pid)) return true;
+        }
+        return false;
+    }
+
+    // --- Stats ---
+    public long getEnqueuedCount() { return enqueued; }
+    /** Commands dropped because a newer one for the same setting replaced them before sending. */
+    public long getCoalescedCount() { return coalesced; }
+    /** Multi-path writes, i.e. round trips. */
+    public long getBatchCount() { return batches; }
+    /** Write-to-acknowledgement latency. */
+    public LatencyHistogram.Snapshot getAckLatency() { return ackLatency.snapshot(); }
+}
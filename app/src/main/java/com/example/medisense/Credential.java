@@ -0,0 +1,112 @@
+package com.example.medisense;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted password verifier stored on its own under {@code credentials/<name>}, so login and the
+ * signup name check read a ~100 byte node instead of the whole user profile. The password itself
+ * is never stored.
+ * <p>
+ * PBKDF2-HMAC-SHA1: the strongest PBKDF2 variant every supported API level (24+) ships.
+ * The iteration count is stored per record so it can be raised for new ones.
+ */
+public final class Credential {
+
+    public static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    public static final int DEFAULT_ITERATIONS = 20000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    // RTDB keys
+    public static final String FIELD_SALT = "salt";
+    public static final String FIELD_HASH = "hash";
+    public static final String FIELD_ITERATIONS = "iterations";
+
+    private static final SecureRandom random = new SecureRandom();
+
+    public final String salt;    // Hex
+    public final String hash;    // Hex
+    public final int iterations;
+
+    public Credential(String salt, String hash, int iterations) {
+        this.salt = salt;
+        this.hash = hash;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Derives a verifier for {@code password} with a fresh salt. Slow on purpose (tens of ms);
+     * call it off the main thread.
+     */
+    public static Credential create(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new Credential(toHex(salt), toHex(derive(password, salt, DEFAULT_ITERATIONS)), DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Constant-time check of {@code password}. As slow as {@link #create}.
+     */
+    public boolean matches(String password) {
+        byte[] expected = fromHex(hash);
+        byte[] saltBytes = fromHex(salt);
+        if (expected == null || saltBytes == null || iterations <= 0) return false;
+        return MessageDigest.isEqual(expected, derive(password, saltBytes, iterations));
+    }
+
+    /**
+     * @return null if {@code values} is not a complete credential record.
+     */
+    public static Credential fromMap(Map<String, ?> values) {
+        Object salt = values.get(FIELD_SALT);
+        Object hash = values.get(FIELD_HASH);
+        Object iterations = values.get(FIELD_ITERATIONS);
+        if (!(salt instanceof String) || !(hash instanceof String) || !(iterations instanceof Number)) return null;
+        return new Credential((String) salt, (String) hash, ((Number) iterations).intValue());
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(FIELD_SALT, salt);
+        map.put(FIELD_HASH, hash);
+        map.put(FIELD_ITERATIONS, iterations);
+        return map;
+    }
+
+    // --- Hashing ---
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " unavailable", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex == null || hex.length() % 2 != 0) return null;
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.medisense;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A settings change for a dispenser, written to {@code commands/<pid>/<key>} in the Realtime
+ * Database. The key is {@code <type>_<slot>}, so a newer command for the same setting replaces an
+ * older one, both in {@link CommandQueue} and on the server if the dispenser has not applied it yet.
+ * Once applied, the dispenser writes the command's {@link #id} to the node's {@code ack} child.
+ */
+public final class DispenserCommand {
+
+    public static final String TYPE_RESCHEDULE = "reschedule"; // value: dose times, "HH:mm,HH:mm"
+    public static final String TYPE_SET_STOCK = "set_stock";   // value: pill count
+
+    // RTDB keys
+    public static final String FIELD_ID = "id";
+    public static final String FIELD_TYPE = "type";
+    public static final String FIELD_SLOT = "slot";
+    public static final String FIELD_VALUE = "value";
+    public static final String FIELD_ISSUED_BY = "issued_by";
+    public static final String FIELD_ISSUED_AT = "issued_at";
+    public static final String FIELD_ACK = "ack";
+
+    public final String id;
+    public final String pid;
+    public final String type;
+    public final int slot;
+    public final String value;
+    public final String issuedBy;
+
+    public DispenserCommand(String pid, String type, int slot, String value, String issuedBy) {
+        this.id = UUID.randomUUID().toString();
+        this.pid = pid;
+        this.type = type;
+        this.slot = slot;
+        this.value = value;
+        this.issuedBy = issuedBy;
+    }
+
+    public static DispenserCommand reschedule(String pid, int slot, String times, String user) {
+        return new DispenserCommand(pid, TYPE_RESCHEDULE, slot, times, user);
+    }
+
+    public static DispenserCommand setStock(String pid, int slot, int count, String user) {
+        return new DispenserCommand(pid, TYPE_SET_STOCK, slot, String.valueOf(count), user);
+    }
+
+    /**
+     * Commands with the same key supersede each other; only the last one matters.
+     */
+    public String key() {
+        return type + "_" + slot;
+    }
+
+    public String path() {
+        return "commands/" + pid + "/" + key();
+    }
+
+    /**
+     * The node's children, without {@link #FIELD_ISSUED_AT} (a server timestamp added on write).
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(FIELD_ID, id);
+        map.put(FIELD_TYPE, type);
+        map.put(FIELD_SLOT, slot);
+        map.put(FIELD_VALUE, value);
+        map.put(FIELD_ISSUED_BY, issuedBy);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return path() + "=" + value;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.medisense;
+
+import java.util.UUID;
+
+/**
+ * GATT profile hosted by the MediTrack_Dispenser firmware.
+ * Shared by BleService and the simulated dispenser so both sides agree on the layout.
+ */
+public final class DispenserProfile {
+
+    // --- Advertising ---
+    public static final String DEVICE_NAME = "MediTrack_Dispenser";
+
+    // --- Provisioning Service ---
+    public static final String SERVICE_UUID = "12345678-1234-1234-1234-1234567890ab";
+    public static final String CHAR_SSID_UUID = "12345678-1234-1234-1234-1234567890ac"; // Was CHAR_AC
+    public static final String CHAR_PASS_UUID = "12345678-1234-1234-1234-1234567890ad"; // Was CHAR_AD
+    public static final String CHAR_PID_UUID = "12345678-1234-1234-1234-1234567890ae"; // Was CHAR_AE
+    // Newer firmware only: SSID/password/PID in one ProvisioningFrame write.
+    public static final String CHAR_PROVISION_FRAME_UUID = "12345678-1234-1234-1234-1234567890af";
+
+    // Newer firmware only: over-the-air update (see OtaPacket)
+    public static final String CHAR_OTA_CONTROL_UUID = "12345678-1234-1234-1234-1234567890c0"; // Write + notify
+    public static final String CHAR_OTA_DATA_UUID = "12345678-1234-1234-1234-1234567890c1";    // Write without response
+
+    // Parsed once; use these on hot paths instead of UUID.fromString
+    public static final UUID SERVICE = UUID.fromString(SERVICE_UUID);
+    public static final UUID CHAR_SSID = UUID.fromString(CHAR_SSID_UUID);
+    public static final UUID CHAR_PASS = UUID.fromString(CHAR_PASS_UUID);
+    public static final UUID CHAR_PID = UUID.fromString(CHAR_PID_UUID);
+    public static final UUID CHAR_PROVISION_FRAME = UUID.fromString(CHAR_PROVISION_FRAME_UUID);
+    public static final UUID CHAR_OTA_CONTROL = UUID.fromString(CHAR_OTA_CONTROL_UUID);
+    public static final UUID CHAR_OTA_DATA = UUID.fromString(CHAR_OTA_DATA_UUID);
+
+    // --- Telemetry Service (newer firmware) ---
+    public static final String TELEMETRY_SERVICE_UUID = "12345678-1234-1234-1234-1234567890b0";
+    // Packed TelemetryPacket records: dose taken, pill count, battery
+    public static final String CHAR_TELEMETRY_UUID = "12345678-1234-1234-1234-1234567890b1";
+    // Dose-history download (see DoseLogPacket): requests are written, records come back as notifications
+    public static final String CHAR_LOG_CONTROL_UUID = "12345678-1234-1234-1234-1234567890b2";
+    public static final String CHAR_LOG_DATA_UUID = "12345678-1234-1234-1234-1234567890b3";
+    public static final UUID TELEMETRY_SERVICE = UUID.fromString(TELEMETRY_SERVICE_UUID);
+    public static final UUID CHAR_TELEMETRY = UUID.fromString(CHAR_TELEMETRY_UUID);
+    public static final UUID CHAR_LOG_CONTROL = UUID.fromString(CHAR_LOG_CONTROL_UUID);
+    public static final UUID CHAR_LOG_DATA = UUID.fromString(CHAR_LOG_DATA_UUID);
+
+    // Client Characteristic Configuration descriptor and its values
+    public static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    public static final byte[] CCCD_ENABLE_NOTIFICATIONS = {0x01, 0x00};
+    public static final byte[] CCCD_DISABLE = {0x00, 0x00};
+
+    // --- ATT MTU ---
+    public static final int DEFAULT_MTU = 23;
+    // Requested after discovery so a whole ProvisioningFrame fits in a single ATT write.
+    public static final int PREFERRED_MTU = 247;
+
+    private DispenserProfile() {}
+}
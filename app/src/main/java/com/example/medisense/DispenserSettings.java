@@ -0,0 +1,80 @@
+package com.example.medisense;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Turns a user's schedule and stock edits into {@link DispenserCommand}s for the dispenser this
+ * phone provisioned for them, and hands them to {@link CommandDispatcher}. A medication goes to
+ * its {@link Medication#slot}, which stays the same as other medications come and go.
+ * <p>
+ * Call it from the main thread, like the dispatcher.
+ */
+public class DispenserSettings {
+
+    private static final String TAG = "DispenserSettings";
+
+    private final KnownDispenserCache knownDispensers;
+
+    public DispenserSettings(Context context) {
+        this.knownDispensers = new KnownDispenserCache(context);
+    }
+
+    /**
+     * Sends the medication's dose times as one reschedule command.
+     * @return false if there is no such medication or no provisioned dispenser for {@code user}
+     */
+    public boolean sendSchedule(String user, UserProfile profile, String medId) {
+        Medication medication = profile.getMedication(medId);
+        if (medication == null) return false;
+        StringBuilder times = new StringBuilder();
+        for (int minute : Medication.toArray(medication.times)) {
+            if (times.length() > 0) times.append(',');
+            times.append(String.format(Locale.US, "%02d:%02d", minute / 60, minute % 60));
+        }
+        return send(user, medication, medId, (pid, slot) -> DispenserCommand.reschedule(pid, slot, times.toString(), user));
+    }
+
+    /**
+     * Tells the dispenser how many pills the medication's slot holds.
+     * @return false if there is no such medication or no provisioned dispenser for {@code user}
+     */
+    public boolean sendStock(String user, UserProfile profile, String medId, long count) {
+        Medication medication = profile.getMedication(medId);
+        if (medication == null) return false;
+        return send(user, medication, medId, (pid, slot) -> DispenserCommand.setStock(pid, slot, (int) count, user));
+    }
+
+    private interface CommandFactory {
+        DispenserCommand create(String pid, int slot);
+    }
+
+    private boolean send(String user, Medication medication, String medId, CommandFactory factory) {
+        if (medication.slot < 0) {
+            Log.w(TAG, medId + " of " + user + " has no slot yet; not sent");
+            return false;
+        }
+        String pid = provisionedPid(user);
+        if (pid == null) {
+            Log.i(TAG, "No dispenser provisioned for " + user + " from this phone; " + medId + " not sent");
+            return false;
+        }
+        CommandDispatcher.getInstance().dispatch(factory.create(pid, medication.slot));
+        return true;
+    }
+
+    /**
+     * The most recently seen dispenser with a PID. Commands travel through the database, so an
+     * entry past {@link KnownDispenserCache#MAX_AGE_MS} still counts.
+     */
+    private String provisionedPid(String user) {
+        KnownDispenserCache.Entry best = null;
+        for (KnownDispenserCache.Entry entry : knownDispensers.getAll(user)) {
+            if (entry.pid == null) continue;
+            if (best == null || entry.lastSeenMs > best.lastSeenMs) best = entry;
+        }
+        return best != null ? best.pid : null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.medisense;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Wakes {@link DoseReminders} when the armed dose is due. Not exported: only the explicit
+ * PendingIntent {@link DoseReminders} arms can reach it (reboots go through {@link BootReceiver}).
+ */
+public class DoseAlarmReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (DoseReminders.ACTION_DOSE_DUE.equals(intent.getAction())) {
+            DoseReminders.getInstance(context).onAlarm();
+        }
+    }
+}
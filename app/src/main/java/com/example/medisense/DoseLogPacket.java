@@ -0,0 +1,113 @@
+package com.example.medisense;
+
+import java.util.List;
+
+/**
+ * Wire format of the dose-history download.
+ * <p>
+ * Requests, written to {@link DispenserProfile#CHAR_LOG_CONTROL_UUID}:
+ * <pre>
+ * [OP_READ_AFTER] [seq:4]   stream every record with a sequence number above seq
+ * [OP_ACK]        [seq:4]   the phone has stored everything up to seq; the firmware may prune it
+ * </pre>
+ * Replies, notified on {@link DispenserProfile#CHAR_LOG_DATA_UUID}, as many records per
+ * notification as the MTU allows:
+ * <pre>
+ * [KIND_DATA] ([seq:4] [deviceTime:4] [compartment:1] [event:1])...
+ * [KIND_END]  [lastSeq:4]   newest sequence number on the dispenser; ends the stream
+ * </pre>
+ * All integers are unsigned little-endian.
+ */
+public final class DoseLogPacket {
+
+    public static final byte OP_READ_AFTER = 0x01;
+    public static final byte OP_ACK = 0x02;
+    public static final byte KIND_DATA = 0x01;
+    public static final byte KIND_END = 0x02;
+    public static final int RECORD_SIZE = 10;
+    private static final int ATT_HEADER = 3;
+
+    private DoseLogPacket() {}
+
+    public static byte[] readAfter(long seq) { return request(OP_READ_AFTER, seq); }
+    public static byte[] ack(long seq) { return request(OP_ACK, seq); }
+
+    private static byte[] request(byte op, long seq) {
+        byte[] request = new byte[5];
+        request[0] = op;
+        putUInt32(request, 1, seq);
+        return request;
+    }
+
+    /**
+     * @return the sequence number of a request, or -1 if it is malformed.
+     */
+    public static long requestSeq(byte[] request) {
+        return request != null && request.length == 5 ? getUInt32(request, 1) : -1;
+    }
+
+    /**
+     * Records that fit one notification at {@code mtu}.
+     */
+    public static int recordsPerNotification(int mtu) {
+        return Math.max(1, (mtu - ATT_HEADER - 1) / RECORD_SIZE);
+    }
+
+    public static byte[] encodeData(List<DoseLogRecord> records, int from, int count) {
+        byte[] packet = new byte[1 + count * RECORD_SIZE];
+        packet[0] = KIND_DATA;
+        for (int i = 0; i < count; i++) {
+            DoseLogRecord record = records.get(from + i);
+            int offset = 1 + i * RECORD_SIZE;
+            putUInt32(packet, offset, record.seq);
+            putUInt32(packet, offset + 4, record.deviceTimeSec);
+            packet[offset + 8] = (byte) record.compartment;
+            packet[offset + 9] = (byte) record.event;
+        }
+        return packet;
+    }
+
+    public static byte[] encodeEnd(long lastSeq) {
+        byte[] packet = new byte[5];
+        packet[0] = KIND_END;
+        putUInt32(packet, 1, lastSeq);
+        return packet;
+    }
+
+    /**
+     * Appends the records of a {@link #KIND_DATA} packet to {@code out}.
+     *
+     * @return false if the packet is malformed.
+     */
+    public static boolean decodeData(byte[] packet, List<DoseLogRecord> out) {
+        if (packet == null || packet.length < 1 || packet[0] != KIND_DATA
+                || (packet.length - 1) % RECORD_SIZE != 0) return false;
+        for (int offset = 1; offset < packet.length; offset += RECORD_SIZE) {
+            out.add(new DoseLogRecord(getUInt32(packet, offset), getUInt32(packet, offset + 4),
+                    packet[offset + 8] & 0xFF, packet[offset + 9] & 0xFF));
+        }
+        return true;
+    }
+
+    /**
+     * @return the newest sequence number of a {@link #KIND_END} packet, or -1 if it is not one.
+     */
+    public static long decodeEnd(byte[] packet) {
+        if (packet == null || packet.length != 5 || packet[0] != KIND_END) return -1;
+        return getUInt32(packet, 1);
+    }
+
+    private static void putUInt32(byte[] buffer, int offset, long value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static long getUInt32(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFFL)
+                | (buffer[offset + 1] & 0xFFL) << 8
+                | (buffer[offset + 2] & 0xFFL) << 16
+                | (buffer[offset + 3] & 0xFFL) << 24;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.medisense;
+
+/**
+ * One entry of the dispenser's dose history. Sequence numbers start at 1 and increase by one
+ * per entry for the life of the dispenser's log.
+ */
+public final class DoseLogRecord {
+
+    // --- Events ---
+    public static final int EVENT_TAKEN = 1;
+    public static final int EVENT_MISSED = 2;
+    public static final int EVENT_REFILLED = 3;
+
+    public final long seq;
+    public final long deviceTimeSec; // Dispenser clock, seconds since the epoch
+    public final int compartment;
+    public final int event;
+
+    public DoseLogRecord(long seq, long deviceTimeSec, int compartment, int event) {
+        this.seq = seq;
+        this.deviceTimeSec = deviceTimeSec;
+        this.compartment = compartment;
+        this.event = event;
+    }
+
+    @Override
+    public String toString() {
+        return "DoseLogRecord{#" + seq + " t=" + deviceTimeSec + " compartment=" + compartment + " event=" + event + "}";
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental download of a dispenser's dose history (see {@link DoseLogPacket}). Asks only for
+ * records after the caller's watermark, the last sequence number it has stored, so the transfer
+ * is proportional to what happened since the last sync rather than to the size of the log.
+ * <p>
+ * Not thread-safe: call it, including {@link #onNotification}, on the scheduler's timer thread.
+ * Plain Java (no android.util.Log) so it runs against SimulatedGattTransport in unit tests.
+ */
+public class DoseLogSync {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 3000; // Longest gap between notifications
+
+    public interface Listener {
+        /**
+         * The delta arrived in order. Store the records and {@link Result#watermark} before
+         * returning: the dispenser is told it may prune them right after.
+         */
+        void onComplete(Result result);
+        void onFailed(int status, String reason);
+    }
+
+    public static final class Result {
+        public final String address;
+        public final long fromSeq;        // Watermark the download started after
+        public final long watermark;      // Highest sequence number now stored
+        public final boolean deviceReset; // The log restarted below our watermark; downloaded from the start
+        public final List<DoseLogRecord> records;
+        public final long durationMs;
+
+        Result(String address, long fromSeq, long watermark, boolean deviceReset, List<DoseLogRecord> records, long durationMs) {
+            this.address = address;
+            this.fromSeq = fromSeq;
+            this.watermark = watermark;
+            this.deviceReset = deviceReset;
+            this.records = Collections.unmodifiableList(records);
+            this.durationMs = durationMs;
+        }
+
+        @Override
+        public String toString() {
+            return "DoseLogSync.Result{" + records.size() + " records after #" + fromSeq + " -> #" + watermark
+                    + (deviceReset ? ", log was reset" : "") + ", " + durationMs + " ms}";
+        }
+    }
+
+    private static final UUID SERVICE = DispenserProfile.TELEMETRY_SERVICE;
+
+    private final GattOperationScheduler scheduler;
+    private final ScheduledExecutorService timer;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    private GattConnection connection;
+    private Listener listener;
+    private boolean running = false;
+    private boolean deviceReset = false;
+    private long fromSeq, startMs, lastActivityMs;
+    private final List<DoseLogRecord> records = new ArrayList<>();
+    private ScheduledFuture<?> idleTimer;
+
+    public DoseLogSync(GattOperationScheduler scheduler, ScheduledExecutorService timer) {
+        this.scheduler = scheduler;
+        this.timer = timer;
+    }
+
+    public DoseLogSync setIdleTimeoutMs(long ms) { this.idleTimeoutMs = ms; return this; }
+
+    /**
+     * @return true if the (discovered) dispenser firmware hosts the dose log.
+     */
+    public static boolean isSupported(GattConnection connection) {
+        return connection.hasCharacteristic(SERVICE, DispenserProfile.CHAR_LOG_CONTROL)
+                && connection.hasCharacteristic(SERVICE, DispenserProfile.CHAR_LOG_DATA);
+    }
+
+    /**
+     * Subscribes to the log data characteristic and requests every record after {@code watermark}.
+     * The scheduler must already be attached to {@code connection}.
+     */
+    public void start(GattConnection connection, long watermark, Listener listener) {
+        cancel();
+        this.connection = connection;
+        this.listener = listener;
+        this.deviceReset = false;
+        startMs = System.currentTimeMillis();
+        running = true;
+        if (!connection.setCharacteristicNotification(SERVICE, DispenserProfile.CHAR_LOG_DATA, true)) {
+            fail(BluetoothGatt.GATT_FAILURE, "notifications unavailable");
+            return;
+        }
+        scheduler.enqueue(GattOperation.writeDescriptor(SERVICE, DispenserProfile.CHAR_LOG_DATA,
+                DispenserProfile.CCCD, DispenserProfile.CCCD_ENABLE_NOTIFICATIONS)
+                .then((op, status) -> {
+                    if (status != BluetoothGatt.GATT_SUCCESS) fail(status, "subscribe failed");
+                }));
+        request(watermark);
+    }
+
+    private void request(long watermark) {
+        fromSeq = watermark;
+        records.clear();
+        scheduler.enqueue(GattOperation.write(SERVICE, DispenserProfile.CHAR_LOG_CONTROL, DoseLogPacket.readAfter(watermark))
+                .then((op, status) -> {
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        armIdleTimer();
+                    } else {
+                        fail(status, "request failed");
+                    }
+                }));
+    }
+
+    /**
+     * Feeds a notification of {@link DispenserProfile#CHAR_LOG_DATA_UUID}.
+     */
+    public void onNotification(byte[] value) {
+        if (!running) return;
+        armIdleTimer();
+        long deviceLastSeq = DoseLogPacket.decodeEnd(value);
+        if (deviceLastSeq >= 0) {
+            onEnd(deviceLastSeq);
+            return;
+        }
+        int before = records.size();
+        if (!DoseLogPacket.decodeData(value, records)) {
+            fail(BluetoothGatt.GATT_FAILURE, "malformed log packet");
+            return;
+        }
+        // Records must continue the sequence; anything else means we are out of step with the firmware
+        long expected = before > 0 ? records.get(before - 1).seq : fromSeq;
+        for (int i = before; i < records.size(); i++) {
+            long seq = records.get(i).seq;
+            if (seq <= expected) {
+                fail(BluetoothGatt.GATT_FAILURE, "out-of-order record #" + seq);
+                return;
+            }
+            expected = seq;
+        }
+    }
+
+    private void onEnd(long deviceLastSeq) {
+        if (deviceLastSeq < fromSeq && !deviceReset) {
+            // Factory reset or a replaced board: our watermark is from an older log
+            deviceReset = true;
+            request(0);
+            return;
+        }
+        running = false;
+        cancelIdleTimer();
+        long watermark = records.isEmpty() ? fromSeq : records.get(records.size() - 1).seq;
+        Result result = new Result(connection.getAddress(), fromSeq, watermark, deviceReset,
+                new ArrayList<>(records), System.currentTimeMillis() - startMs);
+        records.clear();
+        listener.onComplete(result);
+        if (watermark > fromSeq) {
+            scheduler.enqueue(GattOperation.write(SERVICE, DispenserProfile.CHAR_LOG_CONTROL, DoseLogPacket.ack(watermark))
+                    .then((op, status) -> { })); // Best effort: an unacked delta is simply offered again
+        }
+    }
+
+    public void cancel() {
+        if (!running) return;
+        running = false;
+        cancelIdleTimer();
+        records.clear();
+    }
+
+    public boolean isRunning() { return running; }
+
+    private void fail(int status, String reason) {
+        if (!running) return;
+        cancel();
+        listener.onFailed(status, reason);
+    }
+
+    /**
+     * Notes activity. One timer per sync, not per notification: it re-checks when it fires.
+     */
+    private void armIdleTimer() {
+        lastActivityMs = System.currentTimeMillis();
+        if (idleTimer == null) idleTimer = timer.schedule(this::checkIdle, idleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkIdle() {
+        idleTimer = null;
+        if (!running) return;
+        long idleMs = System.currentTimeMillis() - lastActivityMs;
+        if (idleMs >= idleTimeoutMs) {
+            fail(GattOperationScheduler.STATUS_TIMEOUT, "stalled");
+        } else {
+            idleTimer = timer.schedule(this::checkIdle, idleTimeoutMs - idleMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelIdleTimer() {
+        if (idleTimer != null) {
+            idleTimer.cancel(false);
+            idleTimer = null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.medisense;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Highest dose-log sequence number stored from each dispenser, so the next {@link DoseLogSync}
+ * only downloads what is newer. Stored in SharedPreferences as address -> seq.
+ */
+public class DoseLogWatermarks {
+
+    private static final String PREFS_NAME = "DoseLogWatermarks";
+
+    private final SharedPreferences prefs;
+
+    public DoseLogWatermarks(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the stored watermark, or 0 (download everything) for a dispenser never synced.
+     */
+    public long get(String address) {
+        return prefs.getLong(address, 0);
+    }
+
+    /**
+     * Replaces the watermark; it may go down after the dispenser's log was reset.
+     */
+    public void put(String address, long seq) {
+        prefs.edit().putLong(address, seq).apply();
+    }
+
+    public void forget(String address) {
+        prefs.edit().remove(address).apply();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.medisense;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Posts the doses {@link DoseReminders} reports as due: one notification per schedule, which the
+ * schedule's next due dose replaces. Tapping it opens the app. Without the POST_NOTIFICATIONS
+ * permission (Android 13+) nothing is shown; {@link DoseReminders#getDueDoses()} still gets them.
+ */
+public class DoseNotifier {
+
+    private static final String TAG = "DoseNotifier";
+    private static final String CHANNEL_ID = "dose_reminders";
+
+    private final Context context;
+
+    public DoseNotifier(Context context) {
+        this.context = context.getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Dose reminders",
+                    NotificationManager.IMPORTANCE_HIGH);
+            channel.setDescription("A medication dose is due");
+            context.getSystemService(NotificationManager.class).createNotificationChannel(channel); // No-op if it exists
+        }
+    }
+
+    public void show(List<DoseScheduler.Dose> due) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "Notifications not allowed, " + due.size() + " due doses not shown");
+            return;
+        }
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        DateFormat format = DateFormat.getTimeInstance(DateFormat.SHORT);
+        for (DoseScheduler.Dose dose : due) {
+            Notification notification = new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.mm_medi)
+                    .setContentTitle("Time for " + dose.schedule.medication)
+                    .setContentText("Dose due at " + format.format(new Date(dose.timeMs)))
+                    .setWhen(dose.timeMs)
+                    .setShowWhen(true)
+                    .setCategory(NotificationCompat.CATEGORY_REMINDER)
+                    .setPriority(NotificationCompat.PRIORITY_HIGH)
+                    .setContentIntent(openApp())
+                    .setAutoCancel(true)
+                    .build();
+            manager.notify(dose.schedule.id.hashCode(), notification);
+        }
+    }
+
+    private PendingIntent openApp() {
+        Intent intent = new Intent(context, HomeActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        return PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.medisense;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * The logged-in user's {@link DoseScheduler}, rebuilt from {@link DoseScheduleStore} when the
+ * process starts, with its single nearest dose armed in AlarmManager. {@link DoseAlarmReceiver}
+ * calls {@link #onAlarm()} when that dose is due, which posts it through {@link DoseNotifier}.
+ * The queue is rebuilt from the last time doses were reported, not from now, so a dose that came
+ * due while no process was running (or whose alarm is starting this one) is still reported.
+ * <p>
+ * One instance per process ({@link #getInstance}); thread-safe.
+ */
+public class DoseReminders {
+
+    private static final String TAG = "DoseReminders";
+    public static final String ACTION_DOSE_DUE = "com.example.medisense.action.DOSE_DUE";
+
+    private static DoseReminders instance;
+
+    public static synchronized DoseReminders getInstance(Context context) {
+        if (instance == null) instance = new DoseReminders(context.getApplicationContext());
+        return instance;
+    }
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+    private final DoseScheduleStore store;
+    private final DoseNotifier notifier;
+    private final MutableLiveData<List<DoseScheduler.Dose>> dueDoses = new MutableLiveData<>();
+    private String user;
+    private DoseScheduler scheduler;
+
+    private DoseReminders(Context context) {
+        this.context = context;
+        this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        this.store = new DoseScheduleStore(context);
+        this.notifier = new DoseNotifier(context);
+        SharedPreferences prefs = context.getSharedPreferences(HomeActivity.PREFS_NAME, Context.MODE_PRIVATE);
+        setUser(prefs.getString(HomeActivity.KEY_USERNAME, null));
+    }
+
+    /**
+     * Switches to {@code user}'s schedules (null: none) and re-arms for them.
+     */
+    public synchronized void setUser(String user) {
+        if (user != null && user.equals(this.user) && scheduler != null) return;
+        this.user = user;
+        scheduler = new DoseScheduler(TimeZone.getDefault(), alarm);
+        if (user == null) {
+            alarm.cancel();
+            return;
+        }
+        List<DoseSchedule> schedules = store.getAll(user);
+        long now = System.currentTimeMillis();
+        long reportedUntil = store.getReportedUntil(user);
+        if (reportedUntil == 0 || reportedUntil > now) { // First run, or the clock went back
+            reportedUntil = now;
+            store.setReportedUntil(user, now);
+        }
+        // A dose already due is armed in the past, so its alarm fires at once
+        scheduler.putAll(schedules, reportedUntil);
+        if (schedules.isEmpty()) alarm.cancel(); // putAll arms nothing for an empty queue
+        Log.d(TAG, "Loaded " + schedules.size() + " schedules for " + user + ", next: " + scheduler.peek());
+    }
+
+    // --- Schedules ---
+    /**
+     * Adds or replaces a schedule; only its own next dose is recomputed.
+     */
+    public synchronized void putSchedule(DoseSchedule schedule) {
+        if (user == null) return;
+        store.put(user, schedule);
+        scheduler.put(schedule, System.currentTimeMillis());
+    }
+
+    public synchronized void removeSchedule(String scheduleId) {
+        if (user == null) return;
+        store.remove(user, scheduleId);
+        scheduler.remove(scheduleId);
+    }
+
+    /**
+     * Makes the schedules match the profile's medications, one per medication with dose times,
+     * under its id: a new one is daily, an existing one takes the current name and times but
+     * keeps its days and interval (they may have been refined locally). Schedules of medications
+     * that are gone, or have no dose times left, are removed. Only what changed is re-armed.
+     */
+    public synchronized void syncWithProfile(UserProfile profile) {
+        if (user == null || !user.equals(profile.name)) return;
+        for (DoseSchedule schedule : new ArrayList<>(scheduler.getSchedules())) {
+            Medication medication = profile.getMedication(schedule.id);
+            if (medication == null || medication.times == null || medication.times.isEmpty()) removeSchedule(schedule.id);
+        }
+        for (String medId : profile.getMedicationIds()) {
+            Medication medication = profile.getMedication(medId);
+            if (medication.times == null || medication.times.isEmpty()) continue;
+            int[] minutes = Medication.toArray(medication.times);
+            DoseSchedule current = findSchedule(medId);
+            if (current != null && current.medication.equals(medication.name) && Arrays.equals(current.minutesOfDay, minutes)) continue;
+            setTimes(medId, medication.name, minutes);
+        }
+    }
+
+    /**
+     * New dose times for a schedule, keeping its days and interval (daily if it is new).
+     */
+    public synchronized void setTimes(String scheduleId, String medication, int[] minutesOfDay) {
+        if (user == null) return;
+        DoseSchedule old = findSchedule(scheduleId);
+        putSchedule(old != null
+                ? new DoseSchedule(scheduleId, medication, minutesOfDay, old.daysOfWeek, old.intervalDays, old.startMs)
+                : DoseSchedule.daily(scheduleId, medication, minutesOfDay));
+    }
+
+    private DoseSchedule findSchedule(String scheduleId) {
+        for (DoseSchedule schedule : scheduler.getSchedules()) {
+            if (schedule.id.equals(scheduleId)) return schedule;
+        }
+        return null;
+    }
+
+    public synchronized List<DoseSchedule> getSchedules() {
+        return scheduler != null ? new ArrayList<>(scheduler.getSchedules()) : Collections.<DoseSchedule>emptyList();
+    }
+
+    public synchronized List<DoseScheduler.Dose> getUpcoming(int count) {
+        return scheduler != null ? scheduler.upcoming(count) : Collections.<DoseScheduler.Dose>emptyList();
+    }
+
+    public static String newScheduleId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /** Doses that came due, per alarm. */
+    public LiveData<List<DoseScheduler.Dose>> getDueDoses() { return dueDoses; }
+
+    // --- Alarm ---
+    synchronized void onAlarm() {
+        if (scheduler == null || user == null) return;
+        long now = System.currentTimeMillis();
+        List<DoseScheduler.Dose> due = scheduler.advance(now); // Also re-arms
+        store.setReportedUntil(user, now);
+        if (due.isEmpty()) return;
+        Log.i(TAG, "Doses due: " + due);
+        notifier.show(due);
+        dueDoses.postValue(due);
+    }
+
+    private final DoseScheduler.Alarm alarm = new DoseScheduler.Alarm() {
+        @Override
+        public void arm(DoseScheduler.Dose next) {
+            // Same PendingIntent every time, so this replaces the previously armed alarm
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarmManager.canScheduleExactAlarms()) {
+                alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, next.timeMs, alarmIntent());
+            } else {
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, next.timeMs, alarmIntent());
+            }
+        }
+
+        @Override
+        public void cancel() {
+            alarmManager.cancel(alarmIntent());
+        }
+    };
+
+    private PendingIntent alarmIntent() {
+        Intent intent = new Intent(context, DoseAlarmReceiver.class).setAction(ACTION_DOSE_DUE);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.medisense;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Recurrence rule of one medication: times of day, on the weekdays in {@link #daysOfWeek}, every
+ * {@link #intervalDays} days counted from the day of {@link #startMs}. Occurrences are local
+ * wall-clock times, so a 08:00 dose stays at 08:00 across DST changes.
+ */
+public final class DoseSchedule {
+
+    public static final int ALL_DAYS = 0x7F; // Bit (Calendar.SUNDAY - 1) .. (Calendar.SATURDAY - 1)
+    public static final long NEVER = Long.MAX_VALUE;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    public final String id;
+    public final String medication;
+    public final int[] minutesOfDay;  // Sorted, 0..1439
+    public final int daysOfWeek;
+    public final int intervalDays;
+    public final long startMs;
+
+    public DoseSchedule(String id, String medication, int[] minutesOfDay, int daysOfWeek, int intervalDays, long startMs) {
+        this.id = id;
+        this.medication = medication;
+        this.minutesOfDay = minutesOfDay.clone();
+        Arrays.sort(this.minutesOfDay);
+        this.daysOfWeek = daysOfWeek & ALL_DAYS;
+        this.intervalDays = Math.max(1, intervalDays);
+        this.startMs = startMs;
+    }
+
+    public static DoseSchedule daily(String id, String medication, int... minutesOfDay) {
+        return new DoseSchedule(id, medication, minutesOfDay, ALL_DAYS, 1, 0);
+    }
+
+    /**
+     * @return minutes after midnight for "HH:mm" (the profile's {@code med_sched}), or -1.
+     */
+    public static int parseTime(String time) {
+        if (time == null) return -1;
+        String[] parts = time.trim().split(":");
+        if (parts.length != 2) return -1;
+        try {
+            int hours = Integer.parseInt(parts[0]);
+            int minutes = Integer.parseInt(parts[1]);
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) return -1;
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the first occurrence strictly after {@code afterMs}, or {@link #NEVER} if the rule
+     * has no times or days.
+     */
+    public long nextAfter(long afterMs, TimeZone zone) {
+        if (minutesOfDay.length == 0 || daysOfWeek == 0) return NEVER;
+        long from = Math.max(afterMs, startMs - 1);
+        Calendar day = Calendar.getInstance(zone);
+        day.setTimeInMillis(from);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        long startDay = localDay(startMs, zone);
+
+        // The weekday and interval pattern repeats within 7 * interval days
+        for (int i = 0; i <= 7 * intervalDays; i++) {
+            if (matchesDay(day, startDay, zone)) {
+                for (int minute : minutesOfDay) {
+                    Calendar time = (Calendar) day.clone();
+                    time.set(Calendar.HOUR_OF_DAY, minute / 60);
+                    time.set(Calendar.MINUTE, minute % 60);
+                    long ms = time.getTimeInMillis();
+                    if (ms > from) return ms;
+                }
+            }
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return NEVER;
+    }
+
+    private boolean matchesDay(Calendar day, long startDay, TimeZone zone) {
+        if ((daysOfWeek & (1 << (day.get(Calendar.DAY_OF_WEEK) - 1))) == 0) return false;
+        long offset = localDay(day.getTimeInMillis(), zone) - startDay;
+        return offset >= 0 && offset % intervalDays == 0;
+    }
+
+    private static long localDay(long ms, TimeZone zone) {
+        return Math.floorDiv(ms + zone.getOffset(ms), DAY_MS);
+    }
+
+    // --- Storage (see DoseScheduleStore) ---
+    /**
+     * "minutes,minutes|daysOfWeek|intervalDays|startMs|medication", medication last since it is free text.
+     */
+    String encode() {
+        StringBuilder times = new StringBuilder();
+        for (int minute : minutesOfDay) {
+            if (times.length() > 0) times.append(',');
+            times.append(minute);
+        }
+        return times + "|" + daysOfWeek + "|" + intervalDays + "|" + startMs + "|" + medication;
+    }
+
+    static DoseSchedule decode(String id, String value) {
+        if (value == null) return null;
+        String[] parts = value.split("\\|", 5);
+        if (parts.length != 5) return null;
+        try {
+            String[] times = parts[0].isEmpty() ? new String[0] : parts[0].split(",");
+            int[] minutes = new int[times.length];
+            for (int i = 0; i < times.length; i++) minutes[i] = Integer.parseInt(times[i]);
+            return new DoseSchedule(id, parts[4], minutes, Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.medisense;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Each user's {@link DoseSchedule}s, so the alarm engine can be rebuilt in a fresh process
+ * (alarm or reboot). Stored in SharedPreferences as "user|scheduleId" -> {@link DoseSchedule#encode()},
+ * plus "user|" -> the time up to which due doses have been reported (a long, skipped by {@link #getAll}).
+ */
+public class DoseScheduleStore {
+
+    private static final String PREFS_NAME = "DoseSchedules";
+
+    private final SharedPreferences prefs;
+
+    public DoseScheduleStore(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public void put(String user, DoseSchedule schedule) {
+        prefs.edit().putString(key(user, schedule.id), schedule.encode()).apply();
+    }
+
+    public void remove(String user, String scheduleId) {
+        prefs.edit().remove(key(user, scheduleId)).apply();
+    }
+
+    /**
+     * @return the time up to which {@code user}'s due doses have been reported, or 0 if never.
+     */
+    public long getReportedUntil(String user) {
+        return prefs.getLong(key(user, ""), 0);
+    }
+
+    public void setReportedUntil(String user, long timeMs) {
+        prefs.edit().putLong(key(user, ""), timeMs).apply();
+    }
+
+    public List<DoseSchedule> getAll(String user) {
+        List<DoseSchedule> schedules = new ArrayList<>();
+        for (Map.Entry<String, ?> stored : prefs.getAll().entrySet()) {
+            String key = stored.getKey();
+            int split = key.lastIndexOf('|'); // Schedule ids never contain '|', user names might
+            if (split < 0 || !key.substring(0, split).equals(user) || !(stored.getValue() instanceof String)) continue;
+            DoseSchedule schedule = DoseSchedule.decode(key.substring(split + 1), (String) stored.getValue());
+            if (schedule != null) schedules.add(schedule);
+        }
+        return schedules;
+    }
+
+    private static String key(String user, String scheduleId) {
+        return user + "|" + scheduleId;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.medisense;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Upcoming doses across all of a user's {@link DoseSchedule}s. The priority queue holds exactly
+ * one dose per schedule (its next one), so editing a schedule recomputes that schedule's next
+ * occurrence only, and each due dose costs one occurrence and O(log schedules). Only the head of
+ * the queue is handed to the {@link Alarm}: one armed alarm, whatever the number of medications.
+ * <p>
+ * Not thread-safe; {@link DoseReminders} serializes access.
+ * Plain Java (no AlarmManager) so it runs in unit tests.
+ */
+public class DoseScheduler {
+
+    public static final class Dose {
+        public final DoseSchedule schedule;
+        public final long timeMs;
+
+        Dose(DoseSchedule schedule, long timeMs) {
+            this.schedule = schedule;
+            this.timeMs = timeMs;
+        }
+
+        @Override
+        public String toString() {
+            return schedule.medication + "@" + timeMs;
+        }
+    }
+
+    /** Where the single nearest alarm goes (AlarmManager in the app). */
+    public interface Alarm {
+        void arm(Dose next);
+        void cancel();
+    }
+
+    private static final Comparator<Dose> ORDER = (a, b) -> {
+        int byTime = Long.compare(a.timeMs, b.timeMs);
+        return byTime != 0 ? byTime : a.schedule.id.compareTo(b.schedule.id);
+    };
+
+    private final TimeZone zone;
+    private final Alarm alarm;
+    private final PriorityQueue<Dose> queue = new PriorityQueue<>(16, ORDER);
+    private final Map<String, Dose> queuedBySchedule = new HashMap<>();
+    private final Map<String, DoseSchedule> schedules = new LinkedHashMap<>();
+    private Dose armed;
+    private long occurrencesComputed;
+
+    public DoseScheduler(TimeZone zone, Alarm alarm) {
+        this.zone = zone;
+        this.alarm = alarm;
+    }
+
+    // --- Editing ---
+    /**
+     * Adds or replaces a schedule; its next dose after {@code nowMs} replaces the queued one.
+     */
+    public void put(DoseSchedule schedule, long nowMs) {
+        putQuietly(schedule, nowMs);
+        rearm();
+    }
+
+    /**
+     * Loads many schedules, arming the alarm once at the end.
+     */
+    public void putAll(Collection<DoseSchedule> all, long nowMs) {
+        for (DoseSchedule schedule : all) putQuietly(schedule, nowMs);
+        rearm();
+    }
+
+    public void remove(String scheduleId) {
+        schedules.remove(scheduleId);
+        dequeue(scheduleId);
+        rearm();
+    }
+
+    private void putQuietly(DoseSchedule schedule, long nowMs) {
+        schedules.put(schedule.id, schedule);
+        dequeue(schedule.id);
+        enqueueAfter(schedule, nowMs);
+    }
+
+    // --- Firing ---
+    /**
+     * Takes every dose due at {@code nowMs} (several if the alarm was late), queues each schedule's
+     * following dose, and re-arms for the new head.
+     *
+     * @return the due doses, oldest first.
+     */
+    public List<Dose> advance(long nowMs) {
+        List<Dose> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().timeMs <= nowMs) {
+            Dose dose = queue.poll();
+            queuedBySchedule.remove(dose.schedule.id);
+            due.add(dose);
+            // From the later of the two: a phone off for a day reports each missed schedule once
+            enqueueAfter(dose.schedule, Math.max(dose.timeMs, nowMs));
+        }
+        rearm();
+        return due;
+    }
+
+    // --- Queries ---
+    public Dose peek() { return queue.peek(); }
+
+    /**
+     * The next {@code count} doses in time order, expanded on a copy of the queue:
+     * O(schedules + count log schedules), with no change to the engine.
+     */
+    public List<Dose> upcoming(int count) {
+        if (count <= 0 || queue.isEmpty()) return Collections.emptyList();
+        PriorityQueue<Dose> copy = new PriorityQueue<>(queue);
+        List<Dose> doses = new ArrayList<>(count);
+        while (doses.size() < count && !copy.isEmpty()) {
+            Dose dose = copy.poll();
+            doses.add(dose);
+            long next = dose.schedule.nextAfter(dose.timeMs, zone);
+            if (next != DoseSchedule.NEVER) copy.add(new Dose(dose.schedule, next));
+        }
+        return doses;
+    }
+
+    public Collection<DoseSchedule> getSchedules() { return Collections.unmodifiableCollection(schedules.values()); }
+
+    /** Occurrences computed so far (edits, due doses); upcoming() previews are not counted. */
+    public long getOccurrencesComputed() { return occurrencesComputed; }
+
+    // --- Queue ---
+    private void enqueueAfter(DoseSchedule schedule, long afterMs) {
+        occurrencesComputed++;
+        long next = schedule.nextAfter(afterMs, zone);
+        if (next == DoseSchedule.NEVER) return;
+        Dose dose = new Dose(schedule, next);
+        queue.add(dose);
+        queuedBySchedule.put(schedule.id, dose);
+    }
+
+    private void dequeue(String scheduleId) {
+        Dose queued = queuedBySchedule.remove(scheduleId);
+        if (queued != null) queue.remove(queued);
+    }
+
+    /**
+     * Hands the head to the alarm if it changed; the alarm replaces any previously armed one.
+     */
+    private void rearm() {
+        Dose head = queue.peek();
+        if (head == armed) return;
+        armed = head;
+        if (head == null) {
+            alarm.cancel();
+        } else {
+            alarm.arm(head);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisions a batch of dispensers: one filtered scan pass to find them, then up to
+ * {@code maxConnections} GATT connections in parallel, each with its own operation queue.
+ * <p>
+ * Unprovisioned dispensers all advertise the same name, so jobs without a pinned address are
+ * handed to discovered dispensers strongest-signal first (closest bed first).
+ * Plain Java (no android.util.Log) so it runs against SimulatedGattTransport in unit tests.
+ */
+public class FleetProvisioner {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;   // Most phones handle 4-7 links reliably
+    public static final long DEFAULT_SCAN_WINDOW_MS = 4000;
+    public static final long CONNECT_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 2;
+
+    // --- Jobs and per-device progress ---
+    public static final class Job {
+        public final String pid;
+        public final String ssid;
+        public final String password;
+        public final String address; // Optional: provision this dispenser (e.g. from its label) instead of any
+
+        public Job(String pid, String ssid, String password) {
+            this(pid, ssid, password, null);
+        }
+
+        public Job(String pid, String ssid, String password, String address) {
+            this.pid = pid;
+            this.ssid = ssid;
+            this.password = password;
+            this.address = address;
+        }
+    }
+
+    public enum DeviceState { WAITING, CONNECTING, DISCOVERING, WRITING, DONE, FAILED }
+
+    public static final class DeviceProgress {
+        public final Job job;
+        volatile String address;
+        volatile DeviceState state = DeviceState.WAITING;
+        volatile int attempts = 0;
+        volatile String error;
+        volatile long startMs, endMs;
+
+        DeviceProgress(Job job) {
+            this.job = job;
+            this.address = job.address;
+        }
+
+        public String getAddress() { return address; }
+        public DeviceState getState() { return state; }
+        public int getAttempts() { return attempts; }
+        public String getError() { return error; }
+        /** Connect -> provisioned (or failed) for the last attempt, 0 while still running. */
+        public long getDurationMs() { return endMs > 0 ? endMs - startMs : 0; }
+
+        DeviceProgress snapshot() {
+            DeviceProgress copy = new DeviceProgress(job);
+            copy.address = address;
+            copy.state = state;
+            copy.attempts = attempts;
+            copy.error = error;
+            copy.startMs = startMs;
+            copy.endMs = endMs;
+            return copy;
+        }
+    }
+
+    public interface Listener {
+        void onDeviceUpdate(DeviceProgress device);
+        void onComplete(FleetReport report);
+    }
+
+    private final GattTransport transport;
+    private final ScheduledExecutorService executor;
+    private final int maxConnections;
+    private long scanWindowMs = DEFAULT_SCAN_WINDOW_MS;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private final List<DeviceProgress> devices = new ArrayList<>();
+    private final ArrayDeque<DeviceProgress> ready = new ArrayDeque<>();
+    private final Map<String, Integer> discovered = new LinkedHashMap<>(); // address -> RSSI
+    private final List<Session> active = new ArrayList<>();
+    private Listener listener;
+    private ScheduledFuture<?> scanTimer;
+    private long startMs, scanEndMs;
+    private boolean running = false;
+    private boolean scanning = false;
+
+    public FleetProvisioner(GattTransport transport, ScheduledExecutorService executor, int maxConnections) {
+        this.transport = transport;
+        this.executor = executor;
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    public FleetProvisioner setScanWindowMs(long ms) { this.scanWindowMs = ms; return this; }
+    public FleetProvisioner setMaxAttempts(int attempts) { this.maxAttempts = Math.max(1, attempts); return this; }
+
+    /** Point-in-time copies, safe to hand to the UI while sessions keep updating. */
+    public synchronized List<DeviceProgress> getDevices() {
+        List<DeviceProgress> copies = new ArrayList<>(devices.size());
+        for (DeviceProgress device : devices) copies.add(device.snapshot());
+        return copies;
+    }
+
+    /**
+     * @return false if a run is already in progress or the radio cannot scan.
+     */
+    public synchronized boolean start(List<Job> jobs, Listener listener) {
+        if (running || jobs.isEmpty()) return false;
+        devices.clear();
+        ready.clear();
+        discovered.clear();
+        for (Job job : jobs) devices.add(new DeviceProgress(job));
+        this.listener = listener;
+        startMs = System.currentTimeMillis();
+
+        if (!transport.startScan(AdvertisementFilter.forDispenser(), ScanProfile.LOW_LATENCY, scanListener)) {
+            return false;
+        }
+        running = true;
+        scanning = true;
+        scanTimer = executor.schedule(this::finishScan, scanWindowMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Stops scanning, closes all connections and fails every device that is not done yet.
+     */
+    public synchronized void cancel() {
+        if (!running) return;
+        if (scanTimer != null) scanTimer.cancel(false);
+        if (scanning) {
+            scanning = false;
+            transport.stopScan();
+        }
+        for (Session session : new ArrayList<>(active)) session.release();
+        active.clear();
+        ready.clear();
+        for (DeviceProgress device : devices) {
+            if (device.state != DeviceState.DONE && device.state != DeviceState.FAILED) {
+                fail(device, "cancelled");
+            }
+        }
+        complete();
+    }
+
+    // --- Scan pass ---
+    private final GattTransport.ScanListener scanListener = new GattTransport.ScanListener() {
+        @Override
+        public void onScanResult(String name, String address, int rssi) {
+            synchronized (FleetProvisioner.this) {
+                if (!running || discovered.containsKey(address)) return;
+                discovered.put(address, rssi);
+                if (allJobsHaveCandidates()) {
+                    if (scanTimer != null) scanTimer.cancel(false);
+                    executor.execute(FleetProvisioner.this::finishScan);
+                }
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            executor.execute(FleetProvisioner.this::finishScan);
+        }
+    };
+
+    private boolean allJobsHaveCandidates() {
+        int unpinned = 0;
+        for (DeviceProgress device : devices) {
+            if (device.job.address == null) {
+                unpinned++;
+            } else if (!discovered.containsKey(device.job.address)) {
+                return false;
+            }
+        }
+        int unclaimed = discovered.size();
+        for (DeviceProgress device : devices) {
+            if (device.job.address != null) unclaimed--;
+        }
+        return unclaimed >= unpinned;
+    }
+
+    private synchronized void finishScan() {
+        if (!running || !scanning) return;
+        scanning = false;
+        transport.stopScan();
+        scanEndMs = System.currentTimeMillis();
+
+        // Pinned jobs first, then the rest by signal strength
+        List<String> free = new ArrayList<>(discovered.keySet());
+        for (DeviceProgress device : devices) {
+            if (device.job.address != null) free.remove(device.job.address);
+        }
+        Collections.sort(free, (a, b) -> Integer.compare(discovered.get(b), discovered.get(a)));
+        for (DeviceProgress device : devices) {
+            if (device.job.address == null && !free.isEmpty()) device.address = free.remove(0);
+            if (device.address == null || !discovered.containsKey(device.address)) {
+                fail(device, "dispenser not found");
+            } else {
+                ready.add(device);
+            }
+        }
+        fillPool();
+    }
+
+    // --- Connection pool ---
+    private void fillPool() {
+        while (active.size() < maxConnections && !ready.isEmpty()) {
+            Session session = new Session(ready.poll());
+            active.add(session);
+            session.start();
+        }
+        if (active.isEmpty() && ready.isEmpty()) complete();
+    }
+
+    private synchronized void onSessionFinished(Session session, String error) {
+        if (!active.remove(session)) return; // Already released (cancel, timeout)
+        DeviceProgress device = session.device;
+        device.endMs = System.currentTimeMillis();
+        if (error == null) {
+            device.state = DeviceState.DONE;
+            notifyDevice(device);
+        } else if (device.attempts < maxAttempts) {
+            device.state = DeviceState.WAITING;
+            device.error = error;
+            notifyDevice(device);
+            ready.add(device); // Retry after the devices still waiting for their first attempt
+        } else {
+            fail(device, error);
+        }
+        if (running) fillPool();
+    }
+
+    private void fail(DeviceProgress device, String error) {
+        device.state = DeviceState.FAILED;
+        device.error = error;
+        if (device.endMs == 0) device.endMs = System.currentTimeMillis();
+        notifyDevice(device);
+    }
+
+    private void notifyDevice(DeviceProgress device) {
+        if (listener != null) listener.onDeviceUpdate(device);
+    }
+
+    private void complete() {
+        if (!running) return;
+        running = false;
+        int succeeded = 0;
+        for (DeviceProgress device : devices) {
+            if (device.state == DeviceState.DONE) succeeded++;
+        }
+        FleetReport report = new FleetReport(devices.size(), succeeded, devices.size() - succeeded,
+                scanEndMs - startMs, System.currentTimeMillis() - startMs, maxConnections);
+        if (listener != null) listener.onComplete(report);
+    }
+
+    /**
+     * One connection: connect -> discover -> (MTU + frame | three writes) -> disconnect.
+     */
+    private class Session implements GattConnection.Callback {
+        final DeviceProgress device;
+        final GattOperationScheduler scheduler = new GattOperationScheduler(executor);
+        final LinkTuner tuner = new LinkTuner(scheduler); // Every session is a burst, then disconnects
+        GattConnection connection;
+        ScheduledFuture<?> connectTimer;
+        boolean released = false;
+
+        Session(DeviceProgress device) {
+            this.device = device;
+        }
+
+        void start() {
+            device.attempts++;
+            device.startMs = System.currentTimeMillis();
+            device.endMs = 0;
+            device.state = DeviceState.CONNECTING;
+            notifyDevice(device);
+            connection = transport.connect(device.address, false, this);
+            if (connection == null) {
+                finish("connect refused");
+                return;
+            }
+            scheduler.attach(connection);
+            tuner.attach(connection);
+            connectTimer = executor.schedule(() -> finish("connect timeout"), CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void release() {
+            if (released) return;
+            released = true;
+            if (connectTimer != null) connectTimer.cancel(false);
+            scheduler.detach();
+            tuner.detach();
+            if (connection != null) {
+                connection.disconnect();
+                connection.close();
+            }
+        }
+
+        /**
+         * Ends this attempt. Posted to the executor so it never runs under the scheduler's lock.
+         */
+        void finish(String error) {
+            executor.execute(() -> {
+                synchronized (FleetProvisioner.this) {
+                    release();
+                    onSessionFinished(Session.this, error);
+                }
+            });
+        }
+
+        private void setState(DeviceState state) {
+            device.state = state;
+            notifyDevice(device);
+        }
+
+        /**
+         * Runs a connection callback on the executor under the provisioner's lock, like every
+         * other touch of this session's fields; callbacks arrive on the stack's binder threads.
+         */
+        private void post(Runnable task) {
+            executor.execute(() -> {
+                synchronized (FleetProvisioner.this) {
+                    if (!released) task.run();
+                }
+            });
+        }
+
+        // --- GATT callbacks (binder thread): forward everything to the executor ---
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+            post(() -> handleConnectionStateChange(status, newState));
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            post(() -> handleServicesDiscovered(status));
+        }
+
+        private void handleConnectionStateChange(int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                if (connectTimer != null) connectTimer.cancel(false);
+                setState(DeviceState.DISCOVERING);
+                if (!connection.discoverServices()) finish("discovery refused");
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                finish("disconnected (status " + status + ")");
+            }
+        }
+
+        private void handleServicesDiscovered(int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                finish("discovery failed (status " + status + ")");
+                return;
+            }
+            setState(DeviceState.WRITING);
+            tuner.burst();
+            Job job = device.job;
+            if (connection.hasCharacteristic(DispenserProfile.SERVICE, DispenserProfile.CHAR_PROVISION_FRAME)) {
+                byte[] frame;
+                try {
+                    frame = new ProvisioningFrame(job.ssid, job.password, job.pid).encode();
+                } catch (IllegalArgumentException e) {
+                    finish("credentials too long");
+                    return;
+                }
+                // A failed MTU request is not fatal; the frame then goes out as a long write
+                scheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU).retries(0)
+                        .then((op, mtuStatus) -> { }));
+                scheduler.enqueue(write(DispenserProfile.CHAR_PROVISION_FRAME, frame, true));
+            } else {
+                scheduler.enqueue(write(DispenserProfile.CHAR_SSID, utf8(job.ssid), false));
+                scheduler.enqueue(write(DispenserProfile.CHAR_PASS, utf8(job.password), false));
+                scheduler.enqueue(write(DispenserProfile.CHAR_PID, utf8(job.pid), true));
+            }
+        }
+
+        private GattOperation write(UUID characteristic, byte[] value, boolean last) {
+            return GattOperation.write(DispenserProfile.SERVICE, characteristic, value).then((op, status) -> {
+                if (status == GattOperationScheduler.STATUS_CANCELLED) return;
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    finish("write failed (status " + status + ")");
+                } else if (last) {
+                    finish(null);
+                }
+            });
+        }
+
+        // --- Completions go to this session's queue ---
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            post(() -> scheduler.onCharacteristicWrite(characteristic, status));
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+            byte[] copy = value != null ? value.clone() : null; // The stack may reuse the buffer
+            post(() -> scheduler.onCharacteristicRead(characteristic, copy, status));
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+            post(() -> scheduler.onDescriptorWrite(characteristic, descriptor, status));
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            // Fleet sessions never subscribe to notifications
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            post(() -> scheduler.onMtuChanged(mtu, status));
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            post(() -> {
+                tuner.onPhyUpdate(txPhy, rxPhy, status);
+                scheduler.onPhyUpdate(txPhy, rxPhy, status);
+            });
+        }
+
+        @Override
+        public void onConnectionUpdated(int interval, int latency, int timeout, int status) {
+            post(() -> tuner.onConnectionUpdated(interval, latency, timeout, status));
+        }
+
+        @Override
+        public void onReliableWriteCompleted(int status) {
+            post(() -> scheduler.onReliableWriteCompleted(status));
+        }
+
+        @Override
+        public void onServiceChanged() {
+            finish("service changed");
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
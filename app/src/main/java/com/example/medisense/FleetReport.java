@@ -0,0 +1,35 @@
+package com.example.medisense;
+
+import java.util.Locale;
+
+/**
+ * Outcome of a FleetProvisioner run. Times are wall-clock milliseconds on the phone.
+ */
+public final class FleetReport {
+
+    public final int total;
+    public final int succeeded;
+    public final int failed;
+    public final long scanMs;        // Start -> scan pass finished
+    public final long totalMs;       // Start -> last dispenser done or failed
+    public final int maxConnections;
+
+    public FleetReport(int total, int succeeded, int failed, long scanMs, long totalMs, int maxConnections) {
+        this.total = total;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.scanMs = scanMs;
+        this.totalMs = totalMs;
+        this.maxConnections = maxConnections;
+    }
+
+    public double getDevicesPerMinute() {
+        return totalMs > 0 ? succeeded * 60000.0 / totalMs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d/%d provisioned (%d failed) in %d ms, scan %d ms, %.1f devices/min over %d connections",
+                succeeded, total, failed, totalMs, scanMs, getDevicesPerMinute(), maxConnections);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.medisense;
+
+import java.util.UUID;
+
+/**
+ * One GATT client link, mirroring the subset of {@link android.bluetooth.BluetoothGatt} BleService uses.
+ * Status and state values use the BluetoothGatt / BluetoothProfile constants.
+ */
+public interface GattConnection {
+
+    /**
+     * Link events. May be called from any thread.
+     */
+    interface Callback {
+        void onConnectionStateChange(int status, int newState);
+        void onServicesDiscovered(int status);
+        void onCharacteristicWrite(UUID characteristic, int status);
+        void onCharacteristicRead(UUID characteristic, byte[] value, int status);
+        void onDescriptorWrite(UUID characteristic, UUID descriptor, int status);
+        /**
+         * Notification from the peer. {@code value} may be reused by the stack after the call returns.
+         */
+        void onCharacteristicChanged(UUID characteristic, byte[] value);
+        void onMtuChanged(int mtu, int status);
+        void onPhyUpdate(int txPhy, int rxPhy, int status);
+        /**
+         * Connection parameters in use after an update.
+         *
+         * @param interval connection interval in 1.25 ms units
+         * @param latency  peripheral latency, in connection events
+         * @param timeout  supervision timeout in 10 ms units
+         */
+        void onConnectionUpdated(int interval, int latency, int timeout, int status);
+        void onReliableWriteCompleted(int status);
+        /**
+         * The peer's attribute table changed; resolved handles are gone and services must be rediscovered.
+         */
+        void onServiceChanged();
+    }
+
+    String getAddress();
+
+    boolean discoverServices();
+
+    /**
+     * @return true if the discovered GATT table contains the characteristic.
+     */
+    boolean hasCharacteristic(UUID service, UUID characteristic);
+
+    /**
+     * @return true if the last discovery was answered from the phone's GATT attribute cache
+     * rather than a fresh discovery over the air.
+     */
+    boolean isDiscoveryFromCache();
+
+    long getDiscoveryDurationMs();
+
+    /**
+     * Starts ATT MTU negotiation. The granted MTU is reported through {@link Callback#onMtuChanged}.
+     */
+    boolean requestMtu(int mtu);
+
+    /**
+     * Starts a write. Completion is reported through {@link Callback#onCharacteristicWrite}.
+     *
+     * @return false if the write could not be started (missing service/characteristic, no permission).
+     */
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType);
+
+    /**
+     * How many writes the stack accepts before the first completes. Android's BluetoothGatt takes
+     * one at a time (a second {@code writeCharacteristic} fails with WRITE_REQUEST_BUSY), so only
+     * transports without that limit, like the simulator, benefit from more than one write credit.
+     */
+    default int getMaxWritesInFlight() { return Integer.MAX_VALUE; }
+
+    /**
+     * Starts a read. The value is reported through {@link Callback#onCharacteristicRead}.
+     */
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    /**
+     * Starts a descriptor write (e.g. the CCCD). Completion is reported through {@link Callback#onDescriptorWrite}.
+     */
+    boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+    /**
+     * Routes notifications of the characteristic to {@link Callback#onCharacteristicChanged}.
+     * Local only: the peer starts sending once its CCCD is written as well.
+     */
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+    /**
+     * Asks for the given PHY masks ({@code BluetoothDevice.PHY_LE_*_MASK}). The PHYs actually
+     * in use are reported through {@link Callback#onPhyUpdate}.
+     */
+    boolean setPreferredPhy(int txPhyMask, int rxPhyMask);
+
+    /**
+     * Asks for {@code BluetoothGatt.CONNECTION_PRIORITY_*} connection parameters. Not queued
+     * behind other operations; the parameters granted are reported through
+     * {@link Callback#onConnectionUpdated}.
+     */
+    boolean requestConnectionPriority(int priority);
+
+    /**
+     * Starts a reliable-write transaction: subsequent writes are only prepared on the
+     * peer until {@link #executeReliableWrite()} commits them all at once.
+     */
+    boolean beginReliableWrite();
+
+    /**
+     * Commits the prepared writes. The result is reported through {@link Callback#onReliableWriteCompleted}.
+     */
+    boolean executeReliableWrite();
+
+    /**
+     * Discards the prepared writes without applying any of them.
+     */
+    void abortReliableWrite();
+
+    void disconnect();
+
+    void close();
+}
@@ -0,0 +1,108 @@
+package com.example.medisense;
+
+import java.util.UUID;
+
+/**
+ * One queued GATT request for {@link GattOperationScheduler}. Created through the static
+ * factories, optionally tuned with {@link #timeout}/{@link #retries}, then enqueued.
+ */
+public final class GattOperation {
+
+    public enum Type {
+        READ,
+        WRITE,
+        WRITE_NO_RESPONSE,      // Pipelined under the scheduler's write credits
+        DESCRIPTOR_WRITE,
+        REQUEST_MTU,
+        REQUEST_PHY,
+        BEGIN_RELIABLE_WRITE,   // Local only, completes immediately
+        EXECUTE_RELIABLE_WRITE
+    }
+
+    /**
+     * Completion listener. Status is a BluetoothGatt status or one of the scheduler's
+     * negative STATUS_* codes; results are read back from the operation's getters.
+     */
+    public interface Callback {
+        default void onStart(GattOperation operation) {}
+        void onComplete(GattOperation operation, int status);
+    }
+
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_RETRIES = 2;
+
+    public final Type type;
+    public final UUID service;
+    public final UUID characteristic;
+    public final UUID descriptor;
+    public final byte[] value;
+    public final int arg; // MTU for REQUEST_MTU, PHY mask for REQUEST_PHY
+
+    long timeoutMs = DEFAULT_TIMEOUT_MS;
+    int maxRetries = DEFAULT_RETRIES;
+    Callback callback;
+    int attempts = 0;
+
+    // --- Results ---
+    byte[] readValue;
+    int resultA; // Granted MTU, or TX PHY
+    int resultB; // RX PHY
+
+    private GattOperation(Type type, UUID service, UUID characteristic, UUID descriptor, byte[] value, int arg) {
+        this.type = type;
+        this.service = service;
+        this.characteristic = characteristic;
+        this.descriptor = descriptor;
+        this.value = value;
+        this.arg = arg;
+    }
+
+    // --- Factories ---
+    public static GattOperation read(UUID service, UUID characteristic) {
+        return new GattOperation(Type.READ, service, characteristic, null, null, 0);
+    }
+
+    public static GattOperation write(UUID service, UUID characteristic, byte[] value) {
+        return new GattOperation(Type.WRITE, service, characteristic, null, value, 0);
+    }
+
+    public static GattOperation writeNoResponse(UUID service, UUID characteristic, byte[] value) {
+        return new GattOperation(Type.WRITE_NO_RESPONSE, service, characteristic, null, value, 0);
+    }
+
+    public static GattOperation writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        return new GattOperation(Type.DESCRIPTOR_WRITE, service, characteristic, descriptor, value, 0);
+    }
+
+    public static GattOperation requestMtu(int mtu) {
+        return new GattOperation(Type.REQUEST_MTU, null, null, null, null, mtu);
+    }
+
+    public static GattOperation requestPhy(int phyMask) {
+        return new GattOperation(Type.REQUEST_PHY, null, null, null, null, phyMask);
+    }
+
+    public static GattOperation beginReliableWrite() {
+        return new GattOperation(Type.BEGIN_RELIABLE_WRITE, null, null, null, null, 0).retries(0);
+    }
+
+    public static GattOperation executeReliableWrite() {
+        return new GattOperation(Type.EXECUTE_RELIABLE_WRITE, null, null, null, null, 0).retries(0);
+    }
+
+    // --- Tuning ---
+    public GattOperation timeout(long timeoutMs) { this.timeoutMs = timeoutMs; return this; }
+    public GattOperation retries(int maxRetries) { this.maxRetries = maxRetries; return this; }
+    public GattOperation then(Callback callback) { this.callback = callback; return this; }
+
+    public int getAttempts() { return attempts; }
+    public byte[] getReadValue() { return readValue; }
+    public int getGrantedMtu() { return resultA; }
+    public int getTxPhy() { return resultA; }
+    public int getRxPhy() { return resultB; }
+
+    @Override
+    public String toString() {
+        return type + (characteristic != null ? " " + characteristic : "") + (arg != 0 ? " " + arg : "");
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link GattOperation}s against one {@link GattConnection} in FIFO order.
+ * <ul>
+ *     <li>Request/response operations run one at a time, each with its own deadline, so a
+ *     callback that never arrives fails the operation instead of stalling the queue.</li>
+ *     <li>Failed or timed-out operations are retried with exponential backoff up to their retry budget.</li>
+ *     <li>Consecutive write-without-response operations are pipelined while write credits
+ *     are available; each completion callback returns a credit. Credits are capped by
+ *     {@link GattConnection#getMaxWritesInFlight()}: 1 on Android's BluetoothGatt, so
+ *     pipelining only takes effect on transports that allow it (the simulator).</li>
+ * </ul>
+ * GattConnection.Callback events must be forwarded to the matching on* methods.
+ * Thread-safe; operation callbacks run on whichever thread delivered the event.
+ */
+public class GattOperationScheduler {
+
+    // --- Scheduler statuses (BluetoothGatt statuses are >= 0) ---
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_NOT_STARTED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    private static final long BASE_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    private final ScheduledExecutorService timer;
+    private final ArrayDeque<GattOperation> pending = new ArrayDeque<>();
+    private final ArrayDeque<GattOperation> writesInFlight = new ArrayDeque<>();
+    private final Map<GattOperation, ScheduledFuture<?>> deadlines = new IdentityHashMap<>();
+    private GattConnection connection;
+    private GattOperation current;
+    private ScheduledFuture<?> retryTimer;
+    private int writeCredits = 1;
+    private boolean pumping = false;
+
+    // --- Counters ---
+    private long completedCount, failedCount, timeoutCount, retryCount;
+
+    public GattOperationScheduler(ScheduledExecutorService timer) {
+        this.timer = timer;
+    }
+
+    public synchronized void attach(GattConnection connection) {
+        cancelAll();
+        this.connection = connection;
+    }
+
+    /**
+     * Forgets the connection and cancels everything queued on it.
+     */
+    public synchronized void detach() {
+        cancelAll();
+        connection = null;
+    }
+
+    /**
+     * Maximum number of write-without-response operations in flight at once. 1 disables pipelining;
+     * the connection's own limit applies on top (see {@link GattConnection#getMaxWritesInFlight()}).
+     */
+    public synchronized void setWriteCredits(int credits) {
+        writeCredits = Math.max(1, credits);
+        pump();
+    }
+
+    public synchronized void enqueue(GattOperation operation) {
+        pending.add(operation);
+        pump();
+    }
+
+    /**
+     * Drops every pending and in-flight operation, completing each with {@link #STATUS_CANCELLED}.
+     */
+    public synchronized void cancelAll() {
+        if (retryTimer != null) {
+            retryTimer.cancel(false);
+            retryTimer = null;
+        }
+        ArrayDeque<GattOperation> cancelled = new ArrayDeque<>();
+        if (current != null) cancelled.add(current);
+        cancelled.addAll(writesInFlight);
+        cancelled.addAll(pending);
+        current = null;
+        writesInFlight.clear();
+        pending.clear();
+        for (ScheduledFuture<?> deadline : deadlines.values()) deadline.cancel(false);
+        deadlines.clear();
+        for (GattOperation operation : cancelled) {
+            if (operation.callback != null) operation.callback.onComplete(operation, STATUS_CANCELLED);
+        }
+    }
+
+    public synchronized boolean isIdle() {
+        return current == null && writesInFlight.isEmpty() && pending.isEmpty() && retryTimer == null;
+    }
+
+    public synchronized int getPendingCount() { return pending.size(); }
+    public synchronized long getCompletedCount() { return completedCount; }
+    public synchronized long getFailedCount() { return failedCount; }
+    public synchronized long getTimeoutCount() { return timeoutCount; }
+    public synchronized long getRetryCount() { return retryCount; }
+
+    // --- Event routing (from GattConnection.Callback) ---
+    public synchronized void onCharacteristicWrite(UUID characteristic, int status) {
+        GattOperation write = takeWriteInFlight(characteristic);
+        if (write != null) {
+            complete(write, status);
+            pump();
+        } else if (isCurrent(GattOperation.Type.WRITE, characteristic)) {
+            finishCurrent(status);
+        }
+    }
+
+    public synchronized void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+        if (!isCurrent(GattOperation.Type.READ, characteristic)) return;
+        current.readValue = value;
+        finishCurrent(status);
+    }
+
+    public synchronized void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+        if (!isCurrent(GattOperation.Type.DESCRIPTOR_WRITE, characteristic)) return;
+        finishCurrent(status);
+    }
+
+    public synchronized void onMtuChanged(int mtu, int status) {
+        if (!isCurrent(GattOperation.Type.REQUEST_MTU, null)) return;
+        current.resultA = mtu;
+        finishCurrent(status);
+    }
+
+    public synchronized void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        if (!isCurrent(GattOperation.Type.REQUEST_PHY, null)) return;
+        current.resultA = txPhy;
+        current.resultB = rxPhy;
+        finishCurrent(status);
+    }
+
+    public synchronized void onReliableWriteCompleted(int status) {
+        if (!isCurrent(GattOperation.Type.EXECUTE_RELIABLE_WRITE, null)) return;
+        finishCurrent(status);
+    }
+
+    // --- Queue Logic ---
+    private boolean isCurrent(GattOperation.Type type, UUID characteristic) {
+        return current != null && current.type == type
+                && (characteristic == null || characteristic.equals(current.characteristic));
+    }
+
+    private GattOperation takeWriteInFlight(UUID characteristic) {
+        Iterator<GattOperation> it = writesInFlight.iterator();
+        while (it.hasNext()) {
+            GattOperation write = it.next();
+            if (write.characteristic.equals(characteristic)) {
+                it.remove();
+                cancelDeadline(write);
+                return write;
+            }
+        }
+        return null;
+    }
+
+    private void pump() {
+        if (pumping) return; // Re-entered from an operation callback; the outer loop carries on
+        pumping = true;
+        try {
+            while (current == null && retryTimer == null && !pending.isEmpty()) {
+                GattOperation next = pending.peek();
+                if (next.type == GattOperation.Type.WRITE_NO_RESPONSE) {
+                    if (writesInFlight.size() >= effectiveWriteCredits()) return;
+                    pending.poll();
+                    if (!startWriteWithoutResponse(next)) return;
+                } else {
+                    // Requests are a barrier: wait for pipelined writes to drain first
+                    if (!writesInFlight.isEmpty()) return;
+                    pending.poll();
+                    startRequest(next);
+                }
+            }
+        } finally {
+            pumping = false;
+        }
+    }
+
+    private int effectiveWriteCredits() {
+        return connection != null ? Math.min(writeCredits, Math.max(1, connection.getMaxWritesInFlight())) : writeCredits;
+    }
+
+    private void startRequest(GattOperation operation) {
+        operation.attempts++;
+        if (operation.attempts == 1 && operation.callback != null) operation.callback.onStart(operation);
+
+        if (operation.type == GattOperation.Type.BEGIN_RELIABLE_WRITE) {
+            boolean begun = connection != null && connection.beginReliableWrite();
+            complete(operation, begun ? BluetoothGatt.GATT_SUCCESS : STATUS_NOT_STARTED);
+            return;
+        }
+
+        current = operation;
+        armDeadline(operation);
+        if (!dispatch(operation)) {
+            finishCurrent(STATUS_NOT_STARTED);
+        }
+    }
+
+    /**
+     * @return false if the operation could not be handed to the controller yet and should wait for a credit.
+     */
+    private boolean startWriteWithoutResponse(GattOperation operation) {
+        operation.attempts++;
+        if (operation.attempts == 1 && operation.callback != null) operation.callback.onStart(operation);
+
+        if (dispatch(operation)) {
+            writesInFlight.add(operation);
+            armDeadline(operation);
+            return true;
+        }
+        if (!writesInFlight.isEmpty()) {
+            // Controller buffers are full; retry when the next completion returns a credit
+            operation.attempts--;
+            pending.addFirst(operation);
+            return false;
+        }
+        retryOrComplete(operation, STATUS_NOT_STARTED);
+        return true;
+    }
+
+    private boolean dispatch(GattOperation operation) {
+        if (connection == null) return false;
+        switch (operation.type) {
+            case READ:
+                return connection.readCharacteristic(operation.service, operation.characteristic);
+            case WRITE:
+                return connection.writeCharacteristic(operation.service, operation.characteristic,
+                        operation.value, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            case WRITE_NO_RESPONSE:
+                return connection.writeCharacteristic(operation.service, operation.characteristic,
+                        operation.value, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            case DESCRIPTOR_WRITE:
+                return connection.writeDescriptor(operation.service, operation.characteristic,
+                        operation.descriptor, operation.value);
+            case REQUEST_MTU:
+                return connection.requestMtu(operation.arg);
+            case REQUEST_PHY:
+                return connection.setPreferredPhy(operation.arg, operation.arg);
+            case EXECUTE_RELIABLE_WRITE:
+                return connection.executeReliableWrite();
+            default:
+                return false;
+        }
+    }
+
+    private void finishCurrent(int status) {
+        GattOperation operation = current;
+        current = null;
+        cancelDeadline(operation);
+        retryOrComplete(operation, status);
+        pump();
+    }
+
+    private void retryOrComplete(GattOperation operation, int status) {
+        if (status != BluetoothGatt.GATT_SUCCESS && operation.attempts <= operation.maxRetries) {
+            retryCount++;
+            pending.addFirst(operation);
+            long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (operation.attempts - 1));
+            retryTimer = timer.schedule(this::onRetryTimer, backoff, TimeUnit.MILLISECONDS);
+            return;
+        }
+        complete(operation, status);
+    }
+
+    private synchronized void onRetryTimer() {
+        retryTimer = null;
+        pump();
+    }
+
+    private void complete(GattOperation operation, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            completedCount++;
+        } else {
+            failedCount++;
+        }
+        if (operation.callback != null) operation.callback.onComplete(operation, status);
+    }
+
+    // --- Deadlines ---
+    private void armDeadline(GattOperation operation) {
+        deadlines.put(operation, timer.schedule(() -> onDeadline(operation), operation.timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    private void cancelDeadline(GattOperation operation) {
+        ScheduledFuture<?> deadline = deadlines.remove(operation);
+        if (deadline != null) deadline.cancel(false);
+    }
+
+    private synchronized void onDeadline(GattOperation operation) {
+        if (deadlines.remove(operation) == null) return; // Completed meanwhile
+        timeoutCount++;
+        if (operation == current) {
+            finishCurrent(STATUS_TIMEOUT);
+        } else if (writesInFlight.remove(operation)) {
+            // The command may already be on air; re-sending could duplicate it, so fail it instead
+            complete(operation, STATUS_TIMEOUT);
+            pump();
+        }
+    }
+}
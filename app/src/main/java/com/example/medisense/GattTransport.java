@@ -0,0 +1,37 @@
+package com.example.medisense;
+
+/**
+ * The radio underneath BleService: scanning plus opening GATT connections.
+ * AndroidGattTransport talks to the real Bluetooth stack, SimulatedGattTransport
+ * runs the whole scan -> connect -> discover -> write path inside the JVM.
+ */
+public interface GattTransport {
+
+    /**
+     * Receives advertisements while a scan is running.
+     */
+    interface ScanListener {
+        void onScanResult(String name, String address, int rssi);
+        void onScanFailed(int errorCode);
+    }
+
+    /**
+     * @return true if the radio is powered on and able to scan/connect.
+     */
+    boolean isEnabled();
+
+    /**
+     * Starts a scan. Only advertisements matching {@code filter} (offloaded to the controller
+     * where supported) reach the listener; a null filter reports everything in range.
+     */
+    boolean startScan(AdvertisementFilter filter, ScanProfile profile, ScanListener listener);
+
+    void stopScan();
+
+    /**
+     * Opens a GATT connection. State changes are delivered to {@code callback}.
+     *
+     * @return the connection handle, or null if the connection could not be started.
+     */
+    GattConnection connect(String address, boolean autoConnect, GattConnection.Callback callback);
+}
@@ -1,6 +1,5 @@
 package com.example.medisense;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Intent;
@@ -11,21 +10,11 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-
-import java.util.HashMap;
-
 public class HomeActivity extends AppCompatActivity {
 
     private Button loginButton, signUpButton;
     private EditText username, password;
-    private DatabaseReference dbRef;
+    private UserRepository userRepository;
 
     public static final String PREFS_NAME = "MediSensePrefs";
     public static final String KEY_USERNAME = "Username";
@@ -56,8 +45,8 @@ public class HomeActivity extends AppCompatActivity {
         username = (EditText) findViewById(R.id.splash_username);
         password = (EditText) findViewById(R.id.splash_password);
 
-        // Get Firebase reference
-        dbRef = FirebaseDatabase.getInstance().getReference("users");
+        // Local-first user data, synced with Firebase in the background
+        userRepository = UserRepository.getInstance(this);
 
         // Set login listener
         loginButton.setOnClickListener(new View.OnClickListener() {
@@ -77,7 +66,7 @@ public class HomeActivity extends AppCompatActivity {
     }
 
     /**
-     * Handles user login
+     * Handles user login (offline once this user has logged in here)
      */
     private void loginUser() {
         String inputUser = username.getText().toString().trim();
@@ -88,25 +77,16 @@ public class HomeActivity extends AppCompatActivity {
             return;
         }
 
-        dbRef.child(inputUser).addListenerForSingleValueEvent(new ValueEventListener() {
+        userRepository.login(inputUser, inputPass, new UserRepository.AuthCallback() {
             @Override
-            public void onDataChange(DataSnapshot snapshot) {
-                if (snapshot.exists()) {
-                    String dbPass = snapshot.child("password").getValue(String.class);
-                    if (dbPass != null && dbPass.equals(inputPass)) {
-                        Toast.makeText(HomeActivity.this, "Login successful", Toast.LENGTH_SHORT).show();
-                        goToDashActivity(inputUser);
-                    } else {
-                        Toast.makeText(HomeActivity.this, "Invalid password", Toast.LENGTH_SHORT).show();
-                    }
-                } else {
-                    Toast.makeText(HomeActivity.this, "User not found", Toast.LENGTH_SHORT).show();
-                }
+            public void onSuccess(String user) {
+                Toast.makeText(HomeActivity.this, "Login successful", Toast.LENGTH_SHORT).show();
+                goToDashActivity(inputUser);
             }
 
             @Override
-            public void onCancelled(DatabaseError error) {
-                Toast.makeText(HomeActivity.this, "Database error", Toast.LENGTH_SHORT).show();
+            public void onFailure(String message) {
+                Toast.makeText(HomeActivity.this, message, Toast.LENGTH_SHORT).show();
             }
         });
     }
@@ -123,36 +103,16 @@ public class HomeActivity extends AppCompatActivity {
             return;
         }
 
-        dbRef.child(inputUser).addListenerForSingleValueEvent(new ValueEventListener() {
+        userRepository.register(inputUser, inputPass, new UserRepository.AuthCallback() {
             @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                if (snapshot.exists()) {
-                    Toast.makeText(HomeActivity.this, "Username already taken. Please login.", Toast.LENGTH_SHORT).show();
-                } else {
-                    HashMap<String, Object> userData = new HashMap<>();
-                    userData.put("password", inputPass);
-                    userData.put("name", inputUser);
-                    userData.put("med_info", "Not Set");
-                    userData.put("med_count", "0");
-                    userData.put("med_sched", "00:00");
-
-                    dbRef.child(inputUser).setValue(userData).addOnCompleteListener(new OnCompleteListener<Void>() {
-                        @Override
-                        public void onComplete(@NonNull Task<Void> task) {
-                            if (task.isSuccessful()) {
-                                Toast.makeText(HomeActivity.this, "Registration successful. Logging in...", Toast.LENGTH_SHORT).show();
-                                goToDashActivity(inputUser);
-                            } else {
-                                Toast.makeText(HomeActivity.this, "Registration failed. Try again.", Toast.LENGTH_SHORT).show();
-                            }
-                        }
-                    });
-                }
+            public void onSuccess(String user) {
+                Toast.makeText(HomeActivity.this, "Registration successful. Logging in...", Toast.LENGTH_SHORT).show();
+                goToDashActivity(inputUser);
             }
 
             @Override
-            public void onCancelled(@NonNull DatabaseError error) {
-                Toast.makeText(HomeActivity.this, "Database error", Toast.LENGTH_SHORT).show();
+            public void onFailure(String message) {
+                Toast.makeText(HomeActivity.this, message, Toast.LENGTH_SHORT).show();
             }
         });
     }
@@ -168,6 +128,8 @@ public class HomeActivity extends AppCompatActivity {
         editor.putString(KEY_USERNAME, user);
         editor.apply();
         // --- ############################# ---
+        UserRepository.getInstance(this).setActiveUser(user); // Already done at startup for auto-login
+        DoseReminders.getInstance(this).setUser(user);
 
         Intent i = new Intent(HomeActivity.this, DashActivity.class);
         i.putExtra("Username", user);
@@ -0,0 +1,129 @@
+package com.example.medisense;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispensers this phone has recently talked to, per logged-in user, so BleService can
+ * connect to a known address directly instead of scanning first.
+ * Stored in SharedPreferences as "user|address" -> "lastSeenMs|rssi|pid".
+ */
+public class KnownDispenserCache {
+
+    private static final String PREFS_NAME = "KnownDispensers";
+    private static final int MAX_ENTRIES_PER_USER = 8;
+    // Older entries are still returned by getAll() but not used for a direct connect
+    public static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    public static final class Entry {
+        public final String address;
+        public final String pid;       // Null until the dispenser was provisioned from this phone
+        public final long lastSeenMs;  // Wall clock
+        public final int rssi;
+
+        Entry(String address, String pid, long lastSeenMs, int rssi) {
+            this.address = address;
+            this.pid = pid;
+            this.lastSeenMs = lastSeenMs;
+            this.rssi = rssi;
+        }
+    }
+
+    private final SharedPreferences prefs;
+
+    public KnownDispenserCache(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records an advertisement or connection from {@code address}, keeping a previously stored PID.
+     */
+    public void recordSeen(String user, String address, int rssi) {
+        Entry old = get(user, address);
+        put(user, new Entry(address, old != null ? old.pid : null, System.currentTimeMillis(), rssi));
+    }
+
+    /**
+     * Refreshes the last-seen time after a direct (scan-free) connection.
+     */
+    public void touch(String user, String address) {
+        Entry old = get(user, address);
+        put(user, new Entry(address, old != null ? old.pid : null, System.currentTimeMillis(), old != null ? old.rssi : 0));
+    }
+
+    public void recordProvisioned(String user, String address, String pid) {
+        Entry old = get(user, address);
+        put(user, new Entry(address, pid, System.currentTimeMillis(), old != null ? old.rssi : 0));
+    }
+
+    public void forget(String user, String address) {
+        prefs.edit().remove(key(user, address)).apply();
+    }
+
+    /**
+     * @return the dispenser provisioned with {@code pid} (or, if null, the most recently seen one)
+     * within {@link #MAX_AGE_MS}, or null if there is none.
+     */
+    public Entry findRecent(String user, String pid) {
+        long cutoff = System.currentTimeMillis() - MAX_AGE_MS;
+        Entry best = null;
+        for (Entry entry : getAll(user)) {
+            if (entry.lastSeenMs < cutoff) continue;
+            if (pid != null && !pid.equals(entry.pid)) continue;
+            if (best == null || entry.lastSeenMs > best.lastSeenMs) best = entry;
+        }
+        return best;
+    }
+
+    public List<Entry> getAll(String user) {
+        List<Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, ?> stored : prefs.getAll().entrySet()) {
+            String key = stored.getKey();
+            int split = key.lastIndexOf('|'); // Addresses never contain '|', user names might
+            if (split < 0 || !key.substring(0, split).equals(user) || !(stored.getValue() instanceof String)) continue;
+            Entry entry = decode(key.substring(split + 1), (String) stored.getValue());
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
+
+    // --- Storage ---
+    private Entry get(String user, String address) {
+        return decode(address, prefs.getString(key(user, address), null));
+    }
+
+    private void put(String user, Entry entry) {
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(key(user, entry.address),
+                entry.lastSeenMs + "|" + entry.rssi + "|" + (entry.pid != null ? entry.pid : ""));
+
+        // Evict the least recently seen dispensers beyond the per-user limit
+        List<Entry> entries = getAll(user);
+        entries.removeIf(e -> e.address.equals(entry.address));
+        entries.sort((a, b) -> Long.compare(b.lastSeenMs, a.lastSeenMs));
+        for (int i = MAX_ENTRIES_PER_USER - 1; i < entries.size(); i++) {
+            editor.remove(key(user, entries.get(i).address));
+        }
+        editor.apply();
+    }
+
+    private static String key(String user, String address) {
+        return user + "|" + address;
+    }
+
+    private static Entry decode(String address, String value) {
+        if (value == null) return null;
+        String[] parts = value.split("\\|", 3); // PID last, it is free text
+        if (parts.length != 3) return null;
+        try {
+            return new Entry(address, parts[2].isEmpty() ? null : parts[2],
+                    Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
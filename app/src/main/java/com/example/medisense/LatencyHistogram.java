@@ -0,0 +1,109 @@
+package com.example.medisense;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histogram with logarithmic buckets (8 per doubling, so percentiles are within ~9%)
+ * from 1 ms to about 18 minutes, plus failure counts by status code. Thread-safe.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;  // Per power of two
+    private static final int BUCKETS = 20 * SUB_BUCKETS + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count, sumMs, minMs = Long.MAX_VALUE, maxMs;
+    private final Map<Integer, Integer> failures = new TreeMap<>();
+
+    public synchronized void record(long ms) {
+        if (ms < 0) ms = 0;
+        counts[bucketOf(ms)]++;
+        count++;
+        sumMs += ms;
+        minMs = Math.min(minMs, ms);
+        maxMs = Math.max(maxMs, ms);
+    }
+
+    public synchronized void recordFailure(int status) {
+        Integer seen = failures.get(status);
+        failures.put(status, seen == null ? 1 : seen + 1);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = sumMs = maxMs = 0;
+        minMs = Long.MAX_VALUE;
+        failures.clear();
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(count, count > 0 ? minMs : 0, maxMs, count > 0 ? (double) sumMs / count : 0,
+                percentile(0.50), percentile(0.95), percentile(0.99), new TreeMap<>(failures));
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code p} quantile, capped at the largest sample.
+     */
+    private long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBoundOf(i), maxMs);
+        }
+        return maxMs;
+    }
+
+    static int bucketOf(long ms) {
+        if (ms <= 1) return 0;
+        double octaves = Math.log(ms) / Math.log(2);
+        return Math.min(BUCKETS - 1, (int) Math.ceil(octaves * SUB_BUCKETS));
+    }
+
+    static long upperBoundOf(int bucket) {
+        return (long) Math.ceil(Math.pow(2, (double) bucket / SUB_BUCKETS));
+    }
+
+    /**
+     * Immutable view of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        public final long count;
+        public final long minMs;
+        public final long maxMs;
+        public final double meanMs;
+        public final long p50Ms;
+        public final long p95Ms;
+        public final long p99Ms;
+        public final Map<Integer, Integer> failuresByStatus;
+
+        Snapshot(long count, long minMs, long maxMs, double meanMs, long p50Ms, long p95Ms, long p99Ms,
+                 Map<Integer, Integer> failuresByStatus) {
+            this.count = count;
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+            this.meanMs = meanMs;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.p99Ms = p99Ms;
+            this.failuresByStatus = Collections.unmodifiableMap(failuresByStatus);
+        }
+
+        public int getFailureCount() {
+            int total = 0;
+            for (int failures : failuresByStatus.values()) total += failures;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d p50=%dms p95=%dms p99=%dms min=%dms max=%dms mean=%.1fms failures=%s",
+                    count, p50Ms, p95Ms, p99Ms, minMs, maxMs, meanMs, failuresByStatus);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+import java.util.Locale;
+
+/**
+ * Connection parameters and PHY of one link: what was last requested and what the
+ * controller reported as granted.
+ */
+public final class LinkParameters {
+
+    public static final int UNKNOWN = -1;
+
+    /** Every LE link starts on the 1M PHY; the interval is unknown until the first update. */
+    public static final LinkParameters INITIAL = new LinkParameters(BluetoothGatt.CONNECTION_PRIORITY_BALANCED,
+            BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_1M, UNKNOWN, UNKNOWN, UNKNOWN);
+
+    public final int requestedPriority;       // BluetoothGatt.CONNECTION_PRIORITY_*
+    public final int txPhy;                   // BluetoothDevice.PHY_LE_*
+    public final int rxPhy;
+    public final int interval;                // 1.25 ms units, or UNKNOWN
+    public final int latency;                 // Connection events the peripheral may skip, or UNKNOWN
+    public final int supervisionTimeout;      // 10 ms units, or UNKNOWN
+
+    public LinkParameters(int requestedPriority, int txPhy, int rxPhy, int interval, int latency, int supervisionTimeout) {
+        this.requestedPriority = requestedPriority;
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        this.interval = interval;
+        this.latency = latency;
+        this.supervisionTimeout = supervisionTimeout;
+    }
+
+    LinkParameters withRequestedPriority(int priority) {
+        return new LinkParameters(priority, txPhy, rxPhy, interval, latency, supervisionTimeout);
+    }
+
+    LinkParameters withPhy(int tx, int rx) {
+        return new LinkParameters(requestedPriority, tx, rx, interval, latency, supervisionTimeout);
+    }
+
+    LinkParameters withConnection(int interval, int latency, int supervisionTimeout) {
+        return new LinkParameters(requestedPriority, txPhy, rxPhy, interval, latency, supervisionTimeout);
+    }
+
+    public double getIntervalMs() {
+        return interval == UNKNOWN ? UNKNOWN : interval * 1.25;
+    }
+
+    public boolean is2MPhy() {
+        return txPhy == BluetoothDevice.PHY_LE_2M && rxPhy == BluetoothDevice.PHY_LE_2M;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "priority=%d phy=%d/%d interval=%.2fms latency=%d timeout=%dms",
+                requestedPriority, txPhy, rxPhy, getIntervalMs(), latency,
+                supervisionTimeout == UNKNOWN ? UNKNOWN : supervisionTimeout * 10);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * Link-tuning policy for one connection: high connection priority and the 2M PHY while a
+ * provisioning or bulk transfer runs ({@link #burst()}), a cheaper priority once idle
+ * ({@link #idle()}). Records the parameters the controller actually granted.
+ * Not thread-safe: call it from the thread that owns the connection.
+ */
+public class LinkTuner {
+
+    public enum Mode { IDLE, BURST }
+
+    private final GattOperationScheduler scheduler;
+    private GattConnection connection;
+    private int idlePriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private boolean prefer2MPhy = true;
+
+    private Mode mode = Mode.IDLE;
+    private boolean phyRequested = false;
+    private volatile LinkParameters parameters = LinkParameters.INITIAL; // Read from other threads
+
+    public LinkTuner(GattOperationScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    // --- Configuration (chained) ---
+    /** BALANCED (default) or LOW_POWER for links that mostly wait. */
+    public LinkTuner setIdlePriority(int priority) { this.idlePriority = priority; return this; }
+    public LinkTuner setPrefer2MPhy(boolean prefer) { this.prefer2MPhy = prefer; return this; }
+
+    public void attach(GattConnection connection) {
+        this.connection = connection;
+        mode = Mode.IDLE;
+        phyRequested = false;
+        parameters = LinkParameters.INITIAL;
+    }
+
+    public void detach() {
+        connection = null;
+        mode = Mode.IDLE;
+    }
+
+    /**
+     * Requests CONNECTION_PRIORITY_HIGH and (once per link) the 2M PHY. The PHY request goes
+     * through the scheduler, so call this before queueing the transfer it should speed up.
+     */
+    public void burst() {
+        if (connection == null || mode == Mode.BURST) return;
+        mode = Mode.BURST;
+        requestPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        if (prefer2MPhy && !phyRequested) {
+            // 2M also costs less energy per bit, so it is kept when idle
+            phyRequested = true;
+            scheduler.enqueue(GattOperation.requestPhy(BluetoothDevice.PHY_LE_2M_MASK).retries(0)
+                    .then((op, status) -> { })); // Granted PHYs arrive through onPhyUpdate either way
+        }
+    }
+
+    public void idle() {
+        if (connection == null || mode == Mode.IDLE) return;
+        mode = Mode.IDLE;
+        requestPriority(idlePriority);
+    }
+
+    private void requestPriority(int priority) {
+        if (connection.requestConnectionPriority(priority)) {
+            parameters = parameters.withRequestedPriority(priority);
+        }
+    }
+
+    // --- Granted parameters, fed from the GattConnection.Callback ---
+    public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) parameters = parameters.withPhy(txPhy, rxPhy);
+    }
+
+    public void onConnectionUpdated(int interval, int latency, int timeout, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) parameters = parameters.withConnection(interval, latency, timeout);
+    }
+
+    public Mode getMode() { return mode; }
+    public LinkParameters getParameters() { return parameters; }
+}
@@ -0,0 +1,245 @@
+package com.example.medisense;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SQLite copy of the logged-in users' medications and password verifiers, plus the queue of edits
+ * not yet pushed to the Realtime Database. Column names follow the RTDB (see {@link Medication},
+ * {@link Credential}).
+ * Blocking; call it from {@link UserRepository}'s disk thread, never the main thread.
+ */
+public class LocalUserStore extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "medisense.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE_USERS = "users";
+    private static final String TABLE_MEDS = "medications";
+    private static final String TABLE_PENDING = "pending_writes";
+    private static final String TABLE_CREDENTIALS = "credentials";
+    private static final String COL_ID = "id";
+    private static final String COL_NAME = "name";
+    private static final String COL_USER = "user";
+    private static final String COL_MED_ID = "med_id";
+    private static final String COL_COUNT = "count";
+    private static final String COL_TIMES = "times"; // "minutes,minutes"
+    private static final String COL_SLOT = "slot";
+    private static final String COL_NEXT_SLOT = "next_slot";
+    private static final String COL_VALUE = "value";
+    private static final String COL_SYNCED_AT = "synced_at"; // Wall clock of the last server copy, 0 = never
+
+    public LocalUserStore(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true); // Reads don't wait for the queue writes
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createProfiles(db);
+        createCredentials(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Version 1 is the first schema; migrations go here (never drop pending_writes)
+    }
+
+    private static void createProfiles(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_USERS + " ("
+                + COL_NAME + " TEXT PRIMARY KEY, "
+                + COL_NEXT_SLOT + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_SYNCED_AT + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE TABLE " + TABLE_MEDS + " ("
+                + COL_USER + " TEXT NOT NULL, "
+                + COL_MED_ID + " TEXT NOT NULL, "
+                + COL_NAME + " TEXT, "
+                + COL_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_TIMES + " TEXT NOT NULL DEFAULT '', "
+                + COL_SLOT + " INTEGER NOT NULL DEFAULT " + Medication.NO_SLOT + ", "
+                + "PRIMARY KEY (" + COL_USER + ", " + COL_MED_ID + "))");
+        db.execSQL("CREATE TABLE " + TABLE_PENDING + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_USER + " TEXT NOT NULL, "
+                + COL_MED_ID + " TEXT NOT NULL, "
+                + COL_VALUE + " TEXT)");
+    }
+
+    private static void createCredentials(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CREDENTIALS + " ("
+                + COL_NAME + " TEXT PRIMARY KEY, "
+                + Credential.FIELD_SALT + " TEXT NOT NULL, "
+                + Credential.FIELD_HASH + " TEXT NOT NULL, "
+                + Credential.FIELD_ITERATIONS + " INTEGER NOT NULL)");
+    }
+
+    // --- Credentials ---
+    /**
+     * @return the verifier from this user's last online login or signup here, or null.
+     */
+    public Credential getCredential(String user) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_CREDENTIALS,
+                new String[] { Credential.FIELD_SALT, Credential.FIELD_HASH, Credential.FIELD_ITERATIONS },
+                COL_NAME + " = ?", new String[] { user }, null, null, null)) {
+            if (!cursor.moveToFirst()) return null;
+            return new Credential(cursor.getString(0), cursor.getString(1), cursor.getInt(2));
+        }
+    }
+
+    public void putCredential(String user, Credential credential) {
+        ContentValues values = new ContentValues();
+        values.put(COL_NAME, user);
+        values.put(Credential.FIELD_SALT, credential.salt);
+        values.put(Credential.FIELD_HASH, credential.hash);
+        values.put(Credential.FIELD_ITERATIONS, credential.iterations);
+        getWritableDatabase().insertWithOnConflict(TABLE_CREDENTIALS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // --- Profiles ---
+    /**
+     * @return the cached profile, or null if this user never logged in on this phone.
+     */
+    public UserProfile getProfile(String user) {
+        SQLiteDatabase db = getReadableDatabase();
+        int nextSlot;
+        try (Cursor cursor = db.query(TABLE_USERS, new String[] { COL_NEXT_SLOT },
+                COL_NAME + " = ?", new String[] { user }, null, null, null)) {
+            if (!cursor.moveToFirst()) return null;
+            nextSlot = cursor.getInt(0);
+        }
+        UserProfile profile = UserProfile.newUser(user);
+        try (Cursor cursor = db.query(TABLE_MEDS, new String[] { COL_MED_ID, COL_NAME, COL_COUNT, COL_TIMES, COL_SLOT },
+                COL_USER + " = ?", new String[] { user }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                Medication medication = new Medication(cursor.getString(1), cursor.getLong(2), parseTimes(cursor.getString(3)));
+                medication.slot = cursor.getInt(4);
+                profile = profile.withMedication(cursor.getString(0), medication);
+            }
+        }
+        return profile.withNextSlot(nextSlot);
+    }
+
+    /**
+     * Stores a copy that matches the server (after a fetch, merged with pending edits).
+     */
+    public void putSyncedProfile(UserProfile profile) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COL_NAME, profile.name);
+            values.put(COL_NEXT_SLOT, profile.getNextSlot());
+            values.put(COL_SYNCED_AT, System.currentTimeMillis());
+            db.insertWithOnConflict(TABLE_USERS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            db.delete(TABLE_MEDS, COL_USER + " = ?", new String[] { profile.name });
+            for (String id : profile.getMedicationIds()) putMedication(db, profile.name, id, profile.getMedication(id));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Applies a local edit of one medication and queues it for the server in one transaction. A
+     * new medication gets its dispenser slot here (see {@link UserProfile#withMedication}).
+     *
+     * @param medication the new name and times, or null to remove it
+     * @return the updated profile, or null if the user is not cached.
+     */
+    public UserProfile applyEdit(String user, String medId, Medication medication) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            UserProfile profile = getProfile(user);
+            if (profile == null) return null;
+            Medication edited = null;
+            if (medication == null) {
+                profile = profile.withoutMedication(medId);
+                db.delete(TABLE_MEDS, COL_USER + " = ? AND " + COL_MED_ID + " = ?", new String[] { user, medId });
+            } else {
+                edited = medication.copy();
+                Medication current = profile.getMedication(medId);
+                edited.count = current != null ? current.count : 0; // The ledger's, not the editor's
+                profile = profile.withMedication(medId, edited);
+                edited = profile.getMedication(medId); // With its slot
+                putMedication(db, user, medId, edited);
+            }
+            ContentValues slots = new ContentValues();
+            slots.put(COL_NEXT_SLOT, profile.getNextSlot());
+            db.update(TABLE_USERS, slots, COL_NAME + " = ?", new String[] { user });
+
+            ContentValues pending = new ContentValues();
+            pending.put(COL_USER, user);
+            pending.put(COL_MED_ID, medId);
+            pending.put(COL_VALUE, edited != null ? edited.encode() : null);
+            db.insert(TABLE_PENDING, null, pending);
+            db.setTransactionSuccessful();
+            return profile;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void putMedication(SQLiteDatabase db, String user, String medId, Medication medication) {
+        StringBuilder times = new StringBuilder();
+        for (int minute : Medication.toArray(medication.times)) {
+            if (times.length() > 0) times.append(',');
+            times.append(minute);
+        }
+        ContentValues values = new ContentValues();
+        values.put(COL_USER, user);
+        values.put(COL_MED_ID, medId);
+        values.put(COL_NAME, medication.name);
+        values.put(COL_COUNT, medication.count);
+        values.put(COL_TIMES, times.toString());
+        values.put(COL_SLOT, medication.slot);
+        db.insertWithOnConflict(TABLE_MEDS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static List<Integer> parseTimes(String times) {
+        List<Integer> minutes = new ArrayList<>();
+        if (times == null || times.isEmpty()) return minutes;
+        for (String minute : times.split(",")) minutes.add(Integer.parseInt(minute));
+        return minutes;
+    }
+
+    // --- Write-behind Queue ---
+    /**
+     * @return every queued edit, oldest first.
+     */
+    public List<PendingWrite> getPendingWrites() {
+        List<PendingWrite> writes = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PENDING, null, null, null, null, null, COL_ID)) {
+            while (cursor.moveToNext()) {
+                writes.add(new PendingWrite(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3)));
+            }
+        }
+        return writes;
+    }
+
+    public Set<String> getPendingMedIds(String user) {
+        Set<String> ids = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().query(true, TABLE_PENDING, new String[] { COL_MED_ID },
+                COL_USER + " = ?", new String[] { user }, null, null, null, null)) {
+            while (cursor.moveToNext()) ids.add(cursor.getString(0));
+        }
+        return ids;
+    }
+
+    /**
+     * Drops {@code user}'s edits up to and including {@code lastId} once the server has them;
+     * edits made while the push was in flight stay queued.
+     */
+    public void removePendingWrites(String user, long lastId) {
+        getWritableDatabase().delete(TABLE_PENDING, COL_USER + " = ? AND " + COL_ID + " <= ?",
+                new String[] { user, String.valueOf(lastId) });
+    }
+}
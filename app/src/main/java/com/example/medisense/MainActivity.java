@@ -130,6 +130,11 @@ public class MainActivity extends AppCompatActivity {
                 permissionsToRequest.add(Manifest.permission.ACCESS_FINE_LOCATION);
             }
         }
+        // Dose reminders (DoseNotifier); optional, handlePermissionResults ignores a denial
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            permissionsToRequest.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
 
         if (!permissionsToRequest.isEmpty()) {
             Log.d(TAG, "Requesting permissions...");
@@ -144,8 +149,9 @@ public class MainActivity extends AppCompatActivity {
 
     private void handlePermissionResults(Map<String, Boolean> results) {
         arePermissionsGranted = true;
-        for (Boolean granted : results.values()) {
-            if (!granted) {
+        for (Map.Entry<String, Boolean> result : results.entrySet()) {
+            if (Manifest.permission.POST_NOTIFICATIONS.equals(result.getKey())) continue;
+            if (!result.getValue()) {
                 arePermissionsGranted = false;
                 break;
             }
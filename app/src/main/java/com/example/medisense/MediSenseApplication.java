@@ -0,0 +1,36 @@
+package com.example.medisense;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.firebase.database.FirebaseDatabase;
+
+/**
+ * Process start-up: configures the Realtime Database before anything else touches it, then warms
+ * the logged-in user's data so the dashboard can render from disk on a cold start.
+ */
+public class MediSenseApplication extends Application {
+
+    private static final String TAG = "MediSenseApplication";
+    // Bounded so the cache can't grow with every node ever read; the active user's data is far smaller
+    private static final long RTDB_CACHE_BYTES = 5L * 1024 * 1024;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // --- Firebase Persistence (must precede the first getReference()) ---
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        database.setPersistenceEnabled(true);
+        database.setPersistenceCacheSizeBytes(RTDB_CACHE_BYTES);
+
+        // --- Warm Start ---
+        SharedPreferences prefs = getSharedPreferences(HomeActivity.PREFS_NAME, MODE_PRIVATE);
+        String savedUsername = prefs.getString(HomeActivity.KEY_USERNAME, null);
+        if (savedUsername != null) {
+            Log.d(TAG, "Warming data for " + savedUsername);
+            UserRepository.getInstance(this).setActiveUser(savedUsername);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.medisense;
+
+import com.google.firebase.database.PropertyName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One medication of a user, stored at {@code users/<name>/meds/<medId>} (schema version 2, see
+ * {@link UserSchema}). Hot data only: what the dashboard, reminders and stock need on every
+ * snapshot, under one-letter keys. The count is changed through {@link StockLedger} only.
+ * <p>
+ * A Firebase POJO: public no-arg constructor and mutable fields; treat instances as values
+ * ({@link UserProfile} hands out copies).
+ */
+public class Medication {
+
+    public static final String FIELD_NAME = "n";
+    public static final String FIELD_COUNT = "c";
+    public static final String FIELD_TIMES = "t";
+    public static final String FIELD_SLOT = "s";
+    public static final int NO_SLOT = -1;
+
+    @PropertyName(FIELD_NAME)
+    public String name;
+
+    /** Pills left. */
+    @PropertyName(FIELD_COUNT)
+    public long count;
+
+    /** Dose times, minutes after midnight, sorted. */
+    @PropertyName(FIELD_TIMES)
+    public List<Integer> times = new ArrayList<>();
+
+    /**
+     * The dispenser slot holding it: assigned when it is added (see {@link UserProfile#getNextSlot()}),
+     * never changed, and not given to another medication after it is removed.
+     */
+    @PropertyName(FIELD_SLOT)
+    public int slot = NO_SLOT;
+
+    public Medication() { } // For Firebase
+
+    public Medication(String name, long count, List<Integer> times) {
+        this.name = name;
+        this.count = count;
+        this.times = new ArrayList<>(times);
+        Collections.sort(this.times);
+    }
+
+    public Medication copy() {
+        Medication copy = new Medication(name, count, times != null ? times : Collections.<Integer>emptyList());
+        copy.slot = slot;
+        return copy;
+    }
+
+    static int[] toArray(List<Integer> times) {
+        if (times == null) return new int[0];
+        int[] minutes = new int[times.size()];
+        for (int i = 0; i < minutes.length; i++) minutes[i] = times.get(i);
+        return minutes;
+    }
+
+    // --- Storage (see LocalUserStore) ---
+    /**
+     * "slot|minutes,minutes|name", name last since it is free text. The count is not part of it:
+     * it is the server's (see {@link UserProfile#mergeRemote}).
+     */
+    String encode() {
+        StringBuilder text = new StringBuilder().append(slot).append('|');
+        for (int i = 0, minutes[] = toArray(times); i < minutes.length; i++) {
+            if (i > 0) text.append(',');
+            text.append(minutes[i]);
+        }
+        return text.append('|').append(name).toString();
+    }
+
+    static Medication decode(String value) {
+        if (value == null) return null;
+        String[] parts = value.split("\\|", 3);
+        if (parts.length != 3) return null;
+        try {
+            List<Integer> times = new ArrayList<>();
+            if (!parts[1].isEmpty()) {
+                for (String minute : parts[1].split(",")) times.add(Integer.parseInt(minute));
+            }
+            Medication medication = new Medication(parts[2], 0, times);
+            medication.slot = Integer.parseInt(parts[0]);
+            return medication;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Medication)) return false;
+        Medication other = (Medication) o;
+        return count == other.count && slot == other.slot && Objects.equals(name, other.name)
+                && Objects.equals(times, other.times);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, count, times, slot);
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + count + ", " + times + ", slot " + slot + ")";
+    }
+}
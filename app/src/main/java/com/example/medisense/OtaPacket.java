@@ -0,0 +1,120 @@
+package com.example.medisense;
+
+import java.util.zip.CRC32;
+
+/**
+ * Wire format of the over-the-air firmware update.
+ * <p>
+ * Requests, written (with response) to {@link DispenserProfile#CHAR_OTA_CONTROL_UUID}:
+ * <pre>
+ * [OP_START]  [imageSize:4] [imageCrc:4] [blockSize:2]   begin, or resume the same image
+ * [OP_VERIFY] [blockEnd:4] [blockCrc:4]                  check the data since the last confirmed offset
+ * [OP_COMMIT]                                            check the whole image, install it and reboot
+ * [OP_ABORT]                                             discard the staged image
+ * </pre>
+ * Image data is written without response to {@link DispenserProfile#CHAR_OTA_DATA_UUID}, in order,
+ * starting at the confirmed offset. Every request is answered by a notification on the control
+ * characteristic:
+ * <pre>
+ * [RESPONSE] [op:1] [status:1] [confirmedOffset:4]
+ * </pre>
+ * The confirmed offset only moves forward when a block verifies; after a failed check or a
+ * reconnect the firmware expects data from there again. Integers are unsigned little-endian,
+ * CRCs are CRC-32 (java.util.zip.CRC32).
+ */
+public final class OtaPacket {
+
+    // --- Requests ---
+    public static final byte OP_START = 0x01;
+    public static final byte OP_VERIFY = 0x02;
+    public static final byte OP_COMMIT = 0x03;
+    public static final byte OP_ABORT = 0x04;
+
+    // --- Responses ---
+    public static final byte RESPONSE = (byte) 0x80;
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_CRC_ERROR = 1;   // Block or image check failed; resend from confirmedOffset
+    public static final int STATUS_REJECTED = 2;    // Malformed request, image too large, nothing to commit...
+
+    private OtaPacket() {}
+
+    public static final class Response {
+        public final int op;
+        public final int status;
+        public final long confirmedOffset;
+
+        public Response(int op, int status, long confirmedOffset) {
+            this.op = op;
+            this.status = status;
+            this.confirmedOffset = confirmedOffset;
+        }
+
+        public byte[] encode() {
+            byte[] packet = new byte[7];
+            packet[0] = RESPONSE;
+            packet[1] = (byte) op;
+            packet[2] = (byte) status;
+            putUInt32(packet, 3, confirmedOffset);
+            return packet;
+        }
+
+        /**
+         * @return the decoded response, or null if {@code packet} is not one.
+         */
+        public static Response decode(byte[] packet) {
+            if (packet == null || packet.length != 7 || packet[0] != RESPONSE) return null;
+            return new Response(packet[1], packet[2] & 0xFF, getUInt32(packet, 3));
+        }
+
+        @Override
+        public String toString() {
+            return "OtaPacket.Response{op=" + op + " status=" + status + " offset=" + confirmedOffset + "}";
+        }
+    }
+
+    public static byte[] start(int imageSize, long imageCrc, int blockSize) {
+        byte[] request = new byte[11];
+        request[0] = OP_START;
+        putUInt32(request, 1, imageSize);
+        putUInt32(request, 5, imageCrc);
+        request[9] = (byte) blockSize;
+        request[10] = (byte) (blockSize >> 8);
+        return request;
+    }
+
+    public static byte[] verify(long blockEnd, long blockCrc) {
+        byte[] request = new byte[9];
+        request[0] = OP_VERIFY;
+        putUInt32(request, 1, blockEnd);
+        putUInt32(request, 5, blockCrc);
+        return request;
+    }
+
+    public static byte[] commit() { return new byte[]{OP_COMMIT}; }
+    public static byte[] abort() { return new byte[]{OP_ABORT}; }
+
+    public static long crc32(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    // --- Field access for the firmware side (SimulatedDispenser) ---
+    static long getUInt32(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFFL)
+                | (buffer[offset + 1] & 0xFFL) << 8
+                | (buffer[offset + 2] & 0xFFL) << 16
+                | (buffer[offset + 3] & 0xFFL) << 24;
+    }
+
+    static int getUInt16(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+    }
+
+    private static void putUInt32(byte[] buffer, int offset, long value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+}
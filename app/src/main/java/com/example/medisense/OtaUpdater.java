@@ -0,0 +1,269 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a firmware image to the dispenser (see {@link OtaPacket}) on an attached
+ * {@link GattOperationScheduler}: MTU-sized writes without response, pipelined up to the
+ * scheduler's write credits (one at a time on Android's BluetoothGatt, so the pipelining gain
+ * is the simulator's), with a CRC check after every block. A failed block is resent from
+ * the last confirmed offset, and {@link #start} with the same image after a reconnect resumes
+ * from there instead of from zero.
+ * <p>
+ * Not thread-safe: call it, including {@link #onControlNotification}, on the scheduler's timer thread.
+ * Plain Java (no android.util.Log) so it runs against SimulatedGattTransport in unit tests.
+ */
+public class OtaUpdater {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int DEFAULT_WRITE_CREDITS = 8;
+    public static final int DEFAULT_MAX_BLOCK_RETRIES = 3;
+    public static final long DEFAULT_RESPONSE_TIMEOUT_MS = 5000;
+    private static final int ATT_HEADER = 3;
+
+    public interface Listener {
+        /** After every verified block. */
+        void onProgress(Progress progress);
+        /** The dispenser verified the whole image and is rebooting into it. */
+        void onComplete(Progress progress);
+        void onFailed(int status, String reason, Progress progress);
+    }
+
+    public static final class Progress {
+        public final int totalBytes;
+        public final long confirmedBytes;
+        public final long resumedFromOffset; // Where this session started (0 unless resumed)
+        public final long elapsedMs;         // Since this session's first data write
+        public final int crcRetries;
+
+        Progress(int totalBytes, long confirmedBytes, long resumedFromOffset, long elapsedMs, int crcRetries) {
+            this.totalBytes = totalBytes;
+            this.confirmedBytes = confirmedBytes;
+            this.resumedFromOffset = resumedFromOffset;
+            this.elapsedMs = elapsedMs;
+            this.crcRetries = crcRetries;
+        }
+
+        /** Verified image bytes per second in this session. */
+        public long getBytesPerSecond() {
+            return elapsedMs > 0 ? (confirmedBytes - resumedFromOffset) * 1000 / elapsedMs : 0;
+        }
+
+        public int getPercent() {
+            return totalBytes > 0 ? (int) (confirmedBytes * 100 / totalBytes) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d/%d bytes (%d%%), %.1f kB/s, resumed at %d, %d CRC retries",
+                    confirmedBytes, totalBytes, getPercent(), getBytesPerSecond() / 1000.0, resumedFromOffset, crcRetries);
+        }
+    }
+
+    private enum Stage { IDLE, STARTING, VERIFYING, COMMITTING }
+
+    private static final UUID SERVICE = DispenserProfile.SERVICE;
+
+    private final GattOperationScheduler scheduler;
+    private final ScheduledExecutorService timer;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int writeCredits = DEFAULT_WRITE_CREDITS;
+    private int maxBlockRetries = DEFAULT_MAX_BLOCK_RETRIES;
+    private long responseTimeoutMs = DEFAULT_RESPONSE_TIMEOUT_MS;
+
+    private Listener listener;
+    private byte[] image;
+    private int chunkSize;
+    private Stage stage = Stage.IDLE;
+    private long confirmedOffset, resumedFromOffset, startMs;
+    private int crcRetries, blockRetries;
+    private ScheduledFuture<?> responseTimer;
+
+    // Shared by every data write: a lost chunk needs no handling here, the block check catches it
+    private final GattOperation.Callback dataWriteCallback = (op, status) -> { };
+
+    public OtaUpdater(GattOperationScheduler scheduler, ScheduledExecutorService timer) {
+        this.scheduler = scheduler;
+        this.timer = timer;
+    }
+
+    // --- Configuration (chained) ---
+    public OtaUpdater setBlockSize(int bytes) { this.blockSize = Math.max(1, Math.min(bytes, 0xFFFF)); return this; }
+    /** Writes without response in flight at once; more keeps every connection event full. */
+    public OtaUpdater setWriteCredits(int credits) { this.writeCredits = credits; return this; }
+    public OtaUpdater setMaxBlockRetries(int retries) { this.maxBlockRetries = retries; return this; }
+    public OtaUpdater setResponseTimeoutMs(long ms) { this.responseTimeoutMs = ms; return this; }
+
+    /**
+     * @return true if the (discovered) dispenser firmware supports OTA.
+     */
+    public static boolean isSupported(GattConnection connection) {
+        return connection.hasCharacteristic(SERVICE, DispenserProfile.CHAR_OTA_CONTROL)
+                && connection.hasCharacteristic(SERVICE, DispenserProfile.CHAR_OTA_DATA);
+    }
+
+    /**
+     * Starts, or resumes, sending {@code image}. The scheduler must already be attached to
+     * {@code connection}; {@code mtu} is the negotiated ATT MTU.
+     */
+    public void start(GattConnection connection, byte[] image, int mtu, Listener listener) {
+        cancel();
+        this.image = image;
+        this.listener = listener;
+        this.chunkSize = mtu - ATT_HEADER;
+        confirmedOffset = resumedFromOffset = 0;
+        crcRetries = blockRetries = 0;
+        stage = Stage.STARTING;
+        if (!connection.setCharacteristicNotification(SERVICE, DispenserProfile.CHAR_OTA_CONTROL, true)) {
+            fail(BluetoothGatt.GATT_FAILURE, "notifications unavailable");
+            return;
+        }
+        scheduler.setWriteCredits(writeCredits);
+        scheduler.enqueue(GattOperation.writeDescriptor(SERVICE, DispenserProfile.CHAR_OTA_CONTROL,
+                DispenserProfile.CCCD, DispenserProfile.CCCD_ENABLE_NOTIFICATIONS)
+                .then((op, status) -> {
+                    if (status != BluetoothGatt.GATT_SUCCESS) fail(status, "subscribe failed");
+                }));
+        sendControl(OtaPacket.start(image.length, OtaPacket.crc32(image, 0, image.length), blockSize));
+    }
+
+    /**
+     * Feeds a notification of {@link DispenserProfile#CHAR_OTA_CONTROL_UUID}.
+     */
+    public void onControlNotification(byte[] value) {
+        OtaPacket.Response response = OtaPacket.Response.decode(value);
+        if (response == null || !isRunning() || response.op != expectedOp()) return;
+        cancelResponseTimer();
+
+        if (response.status == OtaPacket.STATUS_CRC_ERROR && stage == Stage.VERIFYING) {
+            crcRetries++;
+            if (++blockRetries > maxBlockRetries) {
+                fail(BluetoothGatt.GATT_FAILURE, "block at " + response.confirmedOffset + " failed its CRC check");
+                return;
+            }
+            confirmedOffset = response.confirmedOffset;
+            sendBlock();
+            return;
+        }
+        if (response.status != OtaPacket.STATUS_OK) {
+            fail(BluetoothGatt.GATT_FAILURE, "dispenser answered " + response);
+            return;
+        }
+
+        switch (stage) {
+            case STARTING:
+                confirmedOffset = resumedFromOffset = response.confirmedOffset;
+                startMs = System.currentTimeMillis();
+                sendBlock();
+                break;
+            case VERIFYING:
+                confirmedOffset = response.confirmedOffset;
+                blockRetries = 0;
+                listener.onProgress(getProgress());
+                sendBlock();
+                break;
+            case COMMITTING:
+                finish();
+                listener.onComplete(getProgress());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Stops sending, e.g. because the link dropped. The dispenser keeps the confirmed part, so
+     * {@link #start} with the same image continues from there.
+     */
+    public void cancel() {
+        if (!isRunning()) return;
+        finish();
+    }
+
+    public boolean isRunning() { return stage != Stage.IDLE; }
+
+    public Progress getProgress() {
+        return new Progress(image != null ? image.length : 0, confirmedOffset, resumedFromOffset,
+                startMs > 0 ? System.currentTimeMillis() - startMs : 0, crcRetries);
+    }
+
+    // --- Transfer ---
+    /**
+     * Queues the next block's data writes followed by its CRC check, or the commit once every block is confirmed.
+     */
+    private void sendBlock() {
+        if (confirmedOffset >= image.length) {
+            stage = Stage.COMMITTING;
+            sendControl(OtaPacket.commit());
+            return;
+        }
+        int from = (int) confirmedOffset;
+        int end = Math.min(from + blockSize, image.length);
+        for (int offset = from; offset < end; offset += chunkSize) {
+            byte[] chunk = Arrays.copyOfRange(image, offset, Math.min(offset + chunkSize, end));
+            scheduler.enqueue(GattOperation.writeNoResponse(SERVICE, DispenserProfile.CHAR_OTA_DATA, chunk)
+                    .retries(0).then(dataWriteCallback)); // A resend could duplicate bytes the dispenser already has
+        }
+        stage = Stage.VERIFYING;
+        sendControl(OtaPacket.verify(end, OtaPacket.crc32(image, from, end - from)));
+    }
+
+    /**
+     * Control requests wait behind the queued data (requests are a barrier in the scheduler);
+     * the answer comes back as a notification.
+     */
+    private void sendControl(byte[] request) {
+        final Stage sentIn = stage;
+        scheduler.enqueue(GattOperation.write(SERVICE, DispenserProfile.CHAR_OTA_CONTROL, request)
+                .then((op, status) -> {
+                    if (stage != sentIn) return;
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        armResponseTimer();
+                    } else {
+                        fail(status, "control write failed");
+                    }
+                }));
+    }
+
+    private int expectedOp() {
+        switch (stage) {
+            case STARTING: return OtaPacket.OP_START;
+            case VERIFYING: return OtaPacket.OP_VERIFY;
+            case COMMITTING: return OtaPacket.OP_COMMIT;
+            default: return -1;
+        }
+    }
+
+    private void fail(int status, String reason) {
+        if (!isRunning()) return;
+        Progress progress = getProgress();
+        finish();
+        listener.onFailed(status, reason, progress);
+    }
+
+    private void finish() {
+        stage = Stage.IDLE;
+        cancelResponseTimer();
+        scheduler.setWriteCredits(1);
+    }
+
+    private void armResponseTimer() {
+        cancelResponseTimer();
+        responseTimer = timer.schedule(() -> fail(GattOperationScheduler.STATUS_TIMEOUT, "no response"),
+                responseTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelResponseTimer() {
+        if (responseTimer != null) {
+            responseTimer.cancel(false);
+            responseTimer = null;
+        }
+    }
+}
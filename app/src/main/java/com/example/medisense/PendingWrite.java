@@ -0,0 +1,62 @@
+package com.example.medisense;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One local medication edit waiting in {@link LocalUserStore} to be pushed to the Realtime Database.
+ * Plain Java (no android.database) so the coalescing runs in unit tests.
+ */
+public final class PendingWrite {
+
+    public final long id;      // Increasing in the order the edits were made
+    public final String user;
+    public final String medId;
+    public final String value; // Medication.encode(), or null: removed
+
+    public PendingWrite(long id, String user, String medId, String value) {
+        this.id = id;
+        this.user = user;
+        this.medId = medId;
+        this.value = value;
+    }
+
+    /**
+     * Collapses queued edits into one {@code updateChildren} map per user, relative to
+     * {@code users/<name>}; the latest edit of a medication wins, so one changed five times
+     * offline is pushed once. An edit writes the name, times and slot only, never the count, so
+     * it cannot undo a concurrent {@link StockLedger} increment.
+     *
+     * @param writes in id order
+     */
+    public static Map<String, Map<String, Object>> coalesce(List<PendingWrite> writes) {
+        Map<String, Map<String, String>> latest = new LinkedHashMap<>();
+        for (PendingWrite write : writes) {
+            Map<String, String> meds = latest.get(write.user);
+            if (meds == null) {
+                meds = new LinkedHashMap<>();
+                latest.put(write.user, meds);
+            }
+            meds.put(write.medId, write.value);
+        }
+
+        Map<String, Map<String, Object>> updates = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> user : latest.entrySet()) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            for (Map.Entry<String, String> edit : user.getValue().entrySet()) {
+                String path = UserSchema.FIELD_MEDS + "/" + edit.getKey();
+                Medication medication = Medication.decode(edit.getValue());
+                if (medication == null) {
+                    fields.put(path, null);
+                } else {
+                    fields.put(path + "/" + Medication.FIELD_NAME, medication.name);
+                    fields.put(path + "/" + Medication.FIELD_TIMES, medication.times);
+                    fields.put(path + "/" + Medication.FIELD_SLOT, medication.slot);
+                }
+            }
+            updates.put(user.getKey(), fields);
+        }
+        return updates;
+    }
+}
@@ -84,16 +84,26 @@ public class ProvisioningDialogFragment extends DialogFragment {
     }
 
     private void setupObservers() {
-        // Observe status updates
-        bleViewModel.getOperationStatus().observe(getViewLifecycleOwner(), status -> {
-            Log.d(TAG, "Status Update: " + status);
-            statusText.setText("Status: " + status);
-            // Show toast for every update
-            Toast.makeText(getContext(), status, Toast.LENGTH_SHORT).show();
-
-            if ("Provisioning Complete!".equals(status)) {
-                // Close dialog on success
-                dismiss();
+        // Observe the latest state (conflated, so only the status line is redrawn)
+        bleViewModel.getState().observe(getViewLifecycleOwner(), state -> {
+            Log.d(TAG, "State Update: " + state);
+            statusText.setText("Status: " + state.message);
+        });
+
+        // Observe discrete events: toast outcomes only, not every step
+        bleViewModel.getEvents().observe(getViewLifecycleOwner(), event -> {
+            if (!event.consume()) return; // Replayed after a rotation
+            switch (event.type) {
+                case PROVISIONING_COMPLETE:
+                    Toast.makeText(getContext(), event.message, Toast.LENGTH_SHORT).show();
+                    dismiss(); // Close dialog on success
+                    break;
+                case PROVISIONING_FAILED:
+                case ERROR:
+                    Toast.makeText(getContext(), event.message, Toast.LENGTH_SHORT).show();
+                    break;
+                default:
+                    break;
             }
         });
 
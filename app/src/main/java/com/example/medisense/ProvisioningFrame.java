@@ -0,0 +1,67 @@
+package com.example.medisense;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format for single-write provisioning on {@link DispenserProfile#CHAR_PROVISION_FRAME_UUID}.
+ * <pre>
+ * [version:1] [ssidLen:1][ssid] [passLen:1][password] [pidLen:1][pid]
+ * </pre>
+ * Strings are UTF-8, each at most 255 bytes.
+ */
+public final class ProvisioningFrame {
+
+    public static final byte VERSION = 1;
+    private static final int MAX_FIELD_LENGTH = 255;
+
+    public final String ssid;
+    public final String password;
+    public final String pid;
+
+    public ProvisioningFrame(String ssid, String password, String pid) {
+        this.ssid = ssid;
+        this.password = password;
+        this.pid = pid;
+    }
+
+    public byte[] encode() {
+        byte[] ssidBytes = ssid.getBytes(StandardCharsets.UTF_8);
+        byte[] passBytes = password.getBytes(StandardCharsets.UTF_8);
+        byte[] pidBytes = pid.getBytes(StandardCharsets.UTF_8);
+        if (ssidBytes.length > MAX_FIELD_LENGTH || passBytes.length > MAX_FIELD_LENGTH || pidBytes.length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Provisioning field longer than " + MAX_FIELD_LENGTH + " bytes");
+        }
+
+        byte[] frame = new byte[1 + 3 + ssidBytes.length + passBytes.length + pidBytes.length];
+        int offset = 0;
+        frame[offset++] = VERSION;
+        offset = putField(frame, offset, ssidBytes);
+        offset = putField(frame, offset, passBytes);
+        putField(frame, offset, pidBytes);
+        return frame;
+    }
+
+    /**
+     * @return the decoded frame, or null if {@code frame} is malformed or an unknown version.
+     */
+    public static ProvisioningFrame decode(byte[] frame) {
+        if (frame == null || frame.length < 4 || frame[0] != VERSION) return null;
+        String[] fields = new String[3];
+        int offset = 1;
+        for (int i = 0; i < fields.length; i++) {
+            if (offset >= frame.length) return null;
+            int length = frame[offset++] & 0xFF;
+            if (offset + length > frame.length) return null;
+            fields[i] = new String(frame, offset, length, StandardCharsets.UTF_8);
+            offset += length;
+        }
+        if (offset != frame.length) return null;
+        return new ProvisioningFrame(fields[0], fields[1], fields[2]);
+    }
+
+    private static int putField(byte[] frame, int offset, byte[] value) {
+        frame[offset++] = (byte) value.length;
+        System.arraycopy(value, 0, frame, offset, value.length);
+        return offset + value.length;
+    }
+}
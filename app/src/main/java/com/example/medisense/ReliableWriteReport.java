@@ -0,0 +1,28 @@
+package com.example.medisense;
+
+/**
+ * Outcome and phase timings of a reliable-write provisioning transaction.
+ * Times are wall-clock milliseconds measured on the phone.
+ */
+public final class ReliableWriteReport {
+
+    public final boolean success;
+    public final int attempts;       // Transactions started, including the one that committed
+    public final long prepareMs;     // beginReliableWrite -> last Prepare Write acknowledged (final attempt)
+    public final long executeMs;     // executeReliableWrite -> onReliableWriteCompleted (final attempt)
+    public final long totalMs;       // First beginReliableWrite -> outcome, including retries and reconnects
+
+    public ReliableWriteReport(boolean success, int attempts, long prepareMs, long executeMs, long totalMs) {
+        this.success = success;
+        this.attempts = attempts;
+        this.prepareMs = prepareMs;
+        this.executeMs = executeMs;
+        this.totalMs = totalMs;
+    }
+
+    @Override
+    public String toString() {
+        return (success ? "committed" : "failed") + " after " + attempts + " attempt(s): prepare="
+                + prepareMs + "ms, execute=" + executeMs + "ms, total=" + totalMs + "ms";
+    }
+}
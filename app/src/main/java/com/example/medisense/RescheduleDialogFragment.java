@@ -5,20 +5,36 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
 public class RescheduleDialogFragment extends DialogFragment {
 
+    private static final int UPCOMING_SHOWN = 5;
+
     private String username;
+    private String medId; // The "med_id" argument, else the user's first medication
+    private UserProfile profile;
+    private TextView upcomingText;
+    private EditText timesInput;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         if (getArguments() != null) {
             username = getArguments().getString("username");
+            medId = getArguments().getString("med_id");
         }
     }
 
@@ -35,6 +51,71 @@ public class RescheduleDialogFragment extends DialogFragment {
         Button closeButton = view.findViewById(R.id.close_button);
         closeButton.setOnClickListener(v -> dismiss());
 
-        // TODO: Add your re-scheduling logic here
+        upcomingText = view.findViewById(R.id.upcoming_doses);
+        timesInput = view.findViewById(R.id.dose_times);
+        DoseReminders reminders = DoseReminders.getInstance(requireContext());
+        showUpcoming(reminders);
+        if (username != null) {
+            // The repository has synced the reminders with this profile by the time it arrives
+            UserRepository.getInstance(requireContext()).getProfile(username).observe(getViewLifecycleOwner(), loaded -> {
+                profile = loaded;
+                if (medId == null) medId = loaded.firstMedicationId();
+                showUpcoming(reminders);
+                Medication medication = medId != null ? loaded.getMedication(medId) : null;
+                if (medication != null && timesInput.getText().length() == 0) timesInput.setText(formatTimes(medication.times));
+            });
+        }
+
+        Button saveButton = view.findViewById(R.id.save_times_button);
+        saveButton.setOnClickListener(v -> {
+            Medication medication = profile != null && medId != null ? profile.getMedication(medId) : null;
+            List<Integer> times = parseTimes(timesInput.getText().toString());
+            if (medication == null || times == null) {
+                Toast.makeText(requireContext(), "Enter dose times like 08:00, 20:30", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Medication edited = new Medication(medication.name, medication.count, times);
+            UserRepository.getInstance(requireContext()).putMedication(username, medId, edited);
+            reminders.setTimes(medId, edited.name, Medication.toArray(edited.times));
+            // One coalesced command per slot, however often the caregiver saves
+            if (!new DispenserSettings(requireContext()).sendSchedule(username, profile.withMedication(medId, edited), medId)) {
+                Toast.makeText(requireContext(), "Saved. No dispenser provisioned from this phone to update.", Toast.LENGTH_SHORT).show();
+            }
+            showUpcoming(reminders);
+        });
+    }
+
+    /**
+     * @return minutes after midnight for "HH:mm, HH:mm", or null if any time is invalid or none given.
+     */
+    private static List<Integer> parseTimes(String text) {
+        List<Integer> times = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (part.trim().isEmpty()) continue;
+            int minutes = DoseSchedule.parseTime(part);
+            if (minutes < 0) return null;
+            if (!times.contains(minutes)) times.add(minutes);
+        }
+        return times.isEmpty() ? null : times;
+    }
+
+    private static String formatTimes(List<Integer> times) {
+        StringBuilder text = new StringBuilder();
+        for (int minute : Medication.toArray(times)) {
+            if (text.length() > 0) text.append(", ");
+            text.append(String.format(Locale.US, "%02d:%02d", minute / 60, minute % 60));
+        }
+        return text.toString();
+    }
+
+    private void showUpcoming(DoseReminders reminders) {
+        List<DoseScheduler.Dose> doses = reminders.getUpcoming(UPCOMING_SHOWN);
+        if (doses.isEmpty()) return;
+        DateFormat format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+        StringBuilder text = new StringBuilder("Next doses:");
+        for (DoseScheduler.Dose dose : doses) {
+            text.append("\n").append(format.format(new Date(dose.timeMs))).append("  ").append(dose.schedule.medication);
+        }
+        upcomingText.setText(text);
     }
-}
\ No newline at end of file
+}
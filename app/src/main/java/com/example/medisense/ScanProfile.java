@@ -0,0 +1,30 @@
+package com.example.medisense;
+
+import android.bluetooth.le.ScanSettings;
+
+/**
+ * Scan duty cycle presets, mirroring the platform ScanSettings modes.
+ * Window/interval are the values the Android stack uses for each mode.
+ */
+public enum ScanProfile {
+    LOW_LATENCY(ScanSettings.SCAN_MODE_LOW_LATENCY, 4096, 4096), // Interactive provisioning: radio always listening
+    BALANCED(ScanSettings.SCAN_MODE_BALANCED, 1024, 4096),
+    LOW_POWER(ScanSettings.SCAN_MODE_LOW_POWER, 512, 5120);      // Background discovery
+
+    public final int scanMode;
+    public final long windowMs;
+    public final long intervalMs;
+
+    ScanProfile(int scanMode, long windowMs, long intervalMs) {
+        this.scanMode = scanMode;
+        this.windowMs = windowMs;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * @return true if the radio is inside a scan window {@code elapsedMs} after the scan started.
+     */
+    public boolean isListening(long elapsedMs) {
+        return elapsedMs % intervalMs < windowMs;
+    }
+}
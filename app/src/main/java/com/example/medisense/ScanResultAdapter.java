@@ -1,29 +1,93 @@
 package com.example.medisense;
 
-import android.annotation.SuppressLint;
-import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Scan results, keyed by MAC address with stable ids. New lists are diffed against the shown one
+ * on a background thread ({@link AsyncListDiffer}), so only rows that changed are rebound, and a
+ * row whose RSSI alone changed rebinds just that text. With many advertisers refreshing several
+ * times a second, at most one list per frame budget ({@link #setFrameBudgetMs}) is diffed; lists
+ * submitted in between are replaced by the latest.
+ */
 public class ScanResultAdapter extends RecyclerView.Adapter<ScanResultAdapter.ViewHolder> {
 
-    private List<BluetoothDevice> devices = new ArrayList<>();
-    private final OnItemClickListener listener;
+    public static final long DEFAULT_FRAME_BUDGET_MS = 200;
+    private static final Object PAYLOAD_RSSI = new Object();
 
     public interface OnItemClickListener {
-        void onItemClick(BluetoothDevice device);
+        void onItemClick(ScanRow row);
     }
 
+    private static final DiffUtil.ItemCallback<ScanRow> DIFF = new DiffUtil.ItemCallback<ScanRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ScanRow oldRow, @NonNull ScanRow newRow) { return oldRow.sameItem(newRow); }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ScanRow oldRow, @NonNull ScanRow newRow) { return oldRow.sameContent(newRow); }
+
+        @Override
+        public Object getChangePayload(@NonNull ScanRow oldRow, @NonNull ScanRow newRow) {
+            return oldRow.onlyRssiChanged(newRow) ? PAYLOAD_RSSI : null;
+        }
+    };
+
+    private final OnItemClickListener listener;
+    private final AsyncListDiffer<ScanRow> differ = new AsyncListDiffer<>(this, DIFF);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long frameBudgetMs = DEFAULT_FRAME_BUDGET_MS;
+
+    // --- Throttle (main thread) ---
+    private List<ScanRow> pendingRows;
+    private boolean dispatchScheduled = false;
+    private long lastDispatchMs = 0;
+
+    private final Runnable dispatch = () -> {
+        dispatchScheduled = false;
+        lastDispatchMs = SystemClock.uptimeMillis();
+        List<ScanRow> rows = pendingRows;
+        pendingRows = null;
+        differ.submitList(rows);
+    };
+
     public ScanResultAdapter(OnItemClickListener listener) {
         this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Minimum time between two diffs; 0 diffs every list submitted.
+     */
+    public void setFrameBudgetMs(long frameBudgetMs) {
+        this.frameBudgetMs = Math.max(0, frameBudgetMs);
+    }
+
+    /**
+     * Shows {@code rows} (one per device, in display order) within one frame budget. Do not
+     * modify the list afterwards. Main thread.
+     */
+    public void submitRows(List<ScanRow> rows) {
+        pendingRows = rows;
+        if (dispatchScheduled) return; // The scheduled dispatch takes the latest list
+        dispatchScheduled = true;
+        long waitMs = lastDispatchMs + frameBudgetMs - SystemClock.uptimeMillis();
+        mainHandler.postDelayed(dispatch, Math.max(0, waitMs));
+    }
+
+    public List<ScanRow> getRows() {
+        return differ.getCurrentList();
     }
 
     @NonNull
@@ -31,44 +95,61 @@ public class ScanResultAdapter extends RecyclerView.Adapter<ScanResultAdapter.Vi
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.list_item_device, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        // One listener per holder, reading whichever row is bound to it at click time
+        view.setOnClickListener(v -> {
+            if (holder.row != null) listener.onItemClick(holder.row);
+        });
+        return holder;
     }
 
-    @SuppressLint("MissingPermission") // Permissions are checked in MainActivity
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        BluetoothDevice device = devices.get(position);
+        ScanRow row = differ.getCurrentList().get(position);
+        holder.row = row;
+        holder.deviceName.setText(row.name);
+        holder.deviceAddress.setText(row.address);
+        holder.deviceRssi.setText(row.rssiText);
+    }
 
-        String deviceName = device.getName();
-        if (deviceName == null || deviceName.isEmpty()) {
-            holder.deviceName.setText("Unknown Device");
-        } else {
-            holder.deviceName.setText(deviceName);
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_RSSI) {
+                onBindViewHolder(holder, position);
+                return;
+            }
         }
-        holder.deviceAddress.setText(device.getAddress());
-
-        holder.itemView.setOnClickListener(v -> listener.onItemClick(device));
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        ScanRow row = differ.getCurrentList().get(position);
+        holder.row = row;
+        holder.deviceRssi.setText(row.rssiText);
     }
 
     @Override
-    public int getItemCount() {
-        return devices.size();
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).id;
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    public void setDevices(List<BluetoothDevice> newDevices) {
-        this.devices = newDevices;
-        notifyDataSetChanged(); // Simple way to update, fine for this purpose
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
         final TextView deviceName;
         final TextView deviceAddress;
+        final TextView deviceRssi;
+        ScanRow row;
 
         ViewHolder(View view) {
             super(view);
             deviceName = view.findViewById(R.id.device_name);
             deviceAddress = view.findViewById(R.id.device_address);
+            deviceRssi = view.findViewById(R.id.device_rssi);
         }
     }
-}
\ No newline at end of file
+}
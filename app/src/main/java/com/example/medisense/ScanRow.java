@@ -0,0 +1,59 @@
+package com.example.medisense;
+
+import java.util.Locale;
+
+/**
+ * One row of {@link ScanResultAdapter}: a scanned device with everything the row shows already
+ * formatted, so binding is two {@code setText}s and no Bluetooth calls. Immutable; a new
+ * advertisement makes a new row, and the adapter diffs rows by {@link #address}.
+ * <p>
+ * Plain Java (no BluetoothDevice) so it runs in unit tests.
+ */
+public final class ScanRow {
+
+    static final String UNKNOWN_NAME = "Unknown Device";
+
+    public final String address;
+    public final String name;     // Never empty
+    public final int rssi;
+    public final String rssiText;
+    public final long id;         // Stable: the 48-bit MAC as a number
+
+    public ScanRow(String address, String name, int rssi) {
+        this.address = address;
+        this.name = name == null || name.isEmpty() ? UNKNOWN_NAME : name;
+        this.rssi = rssi;
+        this.rssiText = String.format(Locale.US, "%d dBm", rssi);
+        this.id = idOf(address);
+    }
+
+    /**
+     * "AA:BB:CC:DD:EE:FF" -> 0xAABBCCDDEEFF, unique per device; other strings fall back to a hash.
+     */
+    static long idOf(String address) {
+        String hex = address.replace(":", "");
+        if (hex.length() == 12) {
+            try {
+                return Long.parseLong(hex, 16);
+            } catch (NumberFormatException e) {
+                // Not a MAC: hash below
+            }
+        }
+        return (address.hashCode() & 0xFFFFFFFFL) | (1L << 48); // Outside the MAC range, never negative
+    }
+
+    /** Same device. */
+    boolean sameItem(ScanRow other) {
+        return address.equals(other.address);
+    }
+
+    /** Nothing visible changed. */
+    boolean sameContent(ScanRow other) {
+        return rssi == other.rssi && name.equals(other.name);
+    }
+
+    /** Only the signal strength changed: the row can rebind its RSSI alone. */
+    boolean onlyRssiChanged(ScanRow other) {
+        return rssi != other.rssi && name.equals(other.name);
+    }
+}
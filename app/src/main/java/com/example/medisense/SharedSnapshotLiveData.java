@@ -0,0 +1,107 @@
+package com.example.medisense;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One {@link ValueEventListener} per database path (or query), shared by every screen observing it.
+ * LiveData counts the active observers: the listener is attached for the first, kept while any
+ * remain, and detached {@link #DETACH_GRACE_MS} after the last leaves, so a screen transition or
+ * rotation (old screen stops, new one starts) neither re-downloads the node nor re-attaches.
+ * A new observer gets the last snapshot from memory at once.
+ * <p>
+ * Main thread only, like LiveData itself.
+ */
+public class SharedSnapshotLiveData extends LiveData<DataSnapshot> {
+
+    private static final String TAG = "SharedSnapshotLiveData";
+    public static final long DETACH_GRACE_MS = 10000;
+
+    private static final Map<String, SharedSnapshotLiveData> byPath = new HashMap<>();
+
+    /**
+     * @return the process-wide instance for {@code path} (e.g. "users/yash").
+     */
+    public static SharedSnapshotLiveData forPath(String path) {
+        SharedSnapshotLiveData live = byPath.get(path);
+        if (live == null) {
+            live = new SharedSnapshotLiveData(FirebaseDatabase.getInstance().getReference(path));
+            byPath.put(path, live);
+        }
+        return live;
+    }
+
+    /**
+     * @param key identifies the query among the shared instances (e.g. "stock_ledger/yash#last200");
+     *            {@code query} is only used the first time a key is seen.
+     */
+    public static SharedSnapshotLiveData forQuery(String key, Query query) {
+        SharedSnapshotLiveData live = byPath.get(key);
+        if (live == null) {
+            live = new SharedSnapshotLiveData(query);
+            byPath.put(key, live);
+        }
+        return live;
+    }
+
+    private final Query ref;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean attached = false;
+    private int attachCount = 0;
+
+    private final ValueEventListener listener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            setValue(snapshot);
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            Log.w(TAG, "Listener on " + ref + " cancelled: " + error.getMessage());
+            attached = false; // Firebase already removed it; the next onActive retries
+        }
+    };
+
+    private final Runnable detach = () -> {
+        if (!attached) return;
+        ref.removeEventListener(listener);
+        attached = false;
+        Log.d(TAG, "Detached " + ref.getRef().getKey() + " after " + DETACH_GRACE_MS + " ms unobserved");
+    };
+
+    private SharedSnapshotLiveData(Query ref) {
+        this.ref = ref;
+    }
+
+    @Override
+    protected void onActive() {
+        mainHandler.removeCallbacks(detach);
+        if (attached) return; // Still live from before the grace period ran out
+        attached = true;
+        attachCount++;
+        ref.addValueEventListener(listener);
+    }
+
+    @Override
+    protected void onInactive() {
+        mainHandler.postDelayed(detach, DETACH_GRACE_MS);
+    }
+
+    /**
+     * How often the listener was (re)attached, i.e. full downloads of the node; for diagnostics.
+     */
+    public int getAttachCount() { return attachCount; }
+}
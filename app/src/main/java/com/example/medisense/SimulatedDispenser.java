@@ -0,0 +1,347 @@
+package com.example.medisense;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * In-JVM stand-in for a MediTrack_Dispenser. Hosts the provisioning service from
+ * {@link DispenserProfile} and models the radio link (connection interval, packet loss,
+ * ATT MTU) so the provisioning path can be benchmarked without hardware.
+ * Advertised and connected to through {@link SimulatedGattTransport}.
+ */
+public class SimulatedDispenser {
+
+    /**
+     * Link and advertising parameters. Defaults approximate a phone talking to the
+     * dispenser at arm's length.
+     */
+    public static class Config {
+        String name = DispenserProfile.DEVICE_NAME;
+        String address = "5E:00:00:00:00:01";
+        int rssi = -60;
+        long advertisingIntervalMs = 100;
+        long connectionIntervalMs = 30; // At balanced connection priority
+        long processingDelayMs = 2;
+        double packetLoss = 0.0;
+        int maxRetransmissions = 6;
+        int mtu = DispenserProfile.PREFERRED_MTU;
+        boolean framedProvisioning = true;
+        boolean supports2MPhy = true;
+        boolean telemetry = false;
+        boolean ota = false;
+        int maxImageSize = 1024 * 1024;
+        int txBuffers = 4;
+        long seed = 1;
+
+        public Config name(String name) { this.name = name; return this; }
+        public Config address(String address) { this.address = address; return this; }
+        public Config rssi(int rssi) { this.rssi = rssi; return this; }
+        public Config advertisingIntervalMs(long ms) { this.advertisingIntervalMs = ms; return this; }
+        public Config connectionIntervalMs(long ms) { this.connectionIntervalMs = ms; return this; }
+        public Config processingDelayMs(long ms) { this.processingDelayMs = ms; return this; }
+        /** Probability (0..1) that any single link-layer PDU is lost and has to be retransmitted. */
+        public Config packetLoss(double probability) { this.packetLoss = probability; return this; }
+        /** Consecutive lost PDUs after which the link hits its supervision timeout and drops. */
+        public Config maxRetransmissions(int count) { this.maxRetransmissions = count; return this; }
+        /** Largest ATT MTU the firmware accepts during MTU negotiation. */
+        public Config mtu(int mtu) { this.mtu = mtu; return this; }
+        /** False emulates older firmware without the ProvisioningFrame characteristic. */
+        public Config framedProvisioning(boolean supported) { this.framedProvisioning = supported; return this; }
+        public Config supports2MPhy(boolean supported) { this.supports2MPhy = supported; return this; }
+        /** True emulates newer firmware hosting the telemetry service (see SimulatedGattTransport#sendNotification). */
+        public Config telemetry(boolean supported) { this.telemetry = supported; return this; }
+        /** True emulates newer firmware that accepts OTA updates (see OtaPacket). */
+        public Config ota(boolean supported) { this.ota = supported; return this; }
+        public Config maxImageSize(int bytes) { this.maxImageSize = bytes; return this; }
+        /** Write-without-response packets the controller can buffer (sent in one connection event). */
+        public Config txBuffers(int count) { this.txBuffers = count; return this; }
+        public Config seed(long seed) { this.seed = seed; return this; }
+    }
+
+    private final Config config;
+    private final Random random;
+    private final Map<UUID, Map<UUID, byte[]>> gattTable = new HashMap<>();
+    private final Map<UUID, byte[]> descriptors = new HashMap<>(); // Keyed by characteristic (single CCCD each)
+    private int writeCount = 0;
+    private final List<DoseLogRecord> doseLog = new ArrayList<>(); // doseLog.get(i).seq == firstSeq + i
+    private long firstSeq = 1;
+    private long ackedSeq = 0;
+    // OTA staging area: bytes before otaConfirmed passed their block CRC check
+    private byte[] otaStaging;
+    private long otaImageCrc;
+    private int otaReceived, otaConfirmed;
+    private int corruptChunks = 0;
+    private byte[] installedImage;
+
+    public SimulatedDispenser() {
+        this(new Config());
+    }
+
+    public SimulatedDispenser(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+
+        Map<UUID, byte[]> provisioning = new HashMap<>();
+        provisioning.put(UUID.fromString(DispenserProfile.CHAR_SSID_UUID), new byte[0]);
+        provisioning.put(UUID.fromString(DispenserProfile.CHAR_PASS_UUID), new byte[0]);
+        provisioning.put(UUID.fromString(DispenserProfile.CHAR_PID_UUID), new byte[0]);
+        if (config.framedProvisioning) {
+            provisioning.put(UUID.fromString(DispenserProfile.CHAR_PROVISION_FRAME_UUID), new byte[0]);
+        }
+        if (config.ota) {
+            provisioning.put(DispenserProfile.CHAR_OTA_CONTROL, new byte[0]);
+            provisioning.put(DispenserProfile.CHAR_OTA_DATA, new byte[0]);
+        }
+        gattTable.put(UUID.fromString(DispenserProfile.SERVICE_UUID), provisioning);
+        if (config.telemetry) {
+            Map<UUID, byte[]> telemetry = new HashMap<>();
+            telemetry.put(DispenserProfile.CHAR_TELEMETRY, new byte[0]);
+            telemetry.put(DispenserProfile.CHAR_LOG_CONTROL, new byte[0]);
+            telemetry.put(DispenserProfile.CHAR_LOG_DATA, new byte[0]);
+            gattTable.put(DispenserProfile.TELEMETRY_SERVICE, telemetry);
+        }
+    }
+
+    public Config getConfig() { return config; }
+    public String getName() { return config.name; }
+    public String getAddress() { return config.address; }
+
+    /**
+     * Service UUIDs carried in the advertisement (the firmware advertises its primary service).
+     */
+    public synchronized List<UUID> getAdvertisedServices() { return new ArrayList<>(gattTable.keySet()); }
+
+    synchronized boolean hasCharacteristic(UUID service, UUID characteristic) {
+        Map<UUID, byte[]> chars = gattTable.get(service);
+        return chars != null && chars.containsKey(characteristic);
+    }
+
+    /**
+     * Applies a write from the client.
+     *
+     * @return false if the firmware rejects the value (e.g. a malformed ProvisioningFrame).
+     */
+    synchronized boolean store(UUID service, UUID characteristic, byte[] value) {
+        Map<UUID, byte[]> chars = gattTable.get(service);
+        if (characteristic.equals(DispenserProfile.CHAR_OTA_DATA)) {
+            return appendOtaData(value); // Streamed into the staging area, not kept as a value
+        }
+        if (characteristic.equals(UUID.fromString(DispenserProfile.CHAR_PROVISION_FRAME_UUID))) {
+            ProvisioningFrame frame = ProvisioningFrame.decode(value);
+            if (frame == null) return false;
+            chars.put(UUID.fromString(DispenserProfile.CHAR_SSID_UUID), frame.ssid.getBytes(StandardCharsets.UTF_8));
+            chars.put(UUID.fromString(DispenserProfile.CHAR_PASS_UUID), frame.password.getBytes(StandardCharsets.UTF_8));
+            chars.put(UUID.fromString(DispenserProfile.CHAR_PID_UUID), frame.pid.getBytes(StandardCharsets.UTF_8));
+        }
+        if (characteristic.equals(DispenserProfile.CHAR_LOG_CONTROL)) {
+            long seq = DoseLogPacket.requestSeq(value);
+            if (seq < 0) return false;
+            if (value[0] == DoseLogPacket.OP_ACK) ackedSeq = Math.max(ackedSeq, seq);
+        }
+        chars.put(characteristic, value.clone());
+        writeCount++;
+        return true;
+    }
+
+    synchronized void storeDescriptor(UUID characteristic, byte[] value) {
+        descriptors.put(characteristic, value.clone());
+    }
+
+    public synchronized byte[] getDescriptor(UUID characteristic) {
+        byte[] value = descriptors.get(characteristic);
+        return value != null ? value.clone() : null;
+    }
+
+    /**
+     * @return true once a client has enabled notifications in the characteristic's CCCD.
+     */
+    public synchronized boolean isNotifying(UUID characteristic) {
+        byte[] cccd = descriptors.get(characteristic);
+        return cccd != null && cccd.length > 0 && (cccd[0] & 0x01) != 0;
+    }
+
+    public synchronized byte[] getValue(UUID service, UUID characteristic) {
+        Map<UUID, byte[]> chars = gattTable.get(service);
+        byte[] value = chars != null ? chars.get(characteristic) : null;
+        return value != null ? value.clone() : null;
+    }
+
+    /**
+     * @return a provisioning characteristic decoded as UTF-8, e.g. the SSID the app wrote.
+     */
+    public String getProvisionedValue(String charUuid) {
+        byte[] value = getValue(UUID.fromString(DispenserProfile.SERVICE_UUID), UUID.fromString(charUuid));
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    public synchronized int getWriteCount() { return writeCount; }
+
+    // --- Dose Log ---
+
+    /**
+     * Appends a dose-history entry, as the firmware does for each dispense or missed dose.
+     *
+     * @return its sequence number.
+     */
+    public synchronized long appendDoseLog(long deviceTimeSec, int compartment, int event) {
+        long seq = firstSeq + doseLog.size();
+        doseLog.add(new DoseLogRecord(seq, deviceTimeSec, compartment, event));
+        return seq;
+    }
+
+    /**
+     * Entries with a sequence number above {@code seq}. Sequence numbers are contiguous, so this
+     * is an index lookup however long the log is.
+     */
+    synchronized List<DoseLogRecord> getDoseLogAfter(long seq) {
+        int from = (int) Math.max(0, Math.min(doseLog.size(), seq + 1 - firstSeq));
+        return new ArrayList<>(doseLog.subList(from, doseLog.size()));
+    }
+
+    public synchronized long getLastSeq() { return firstSeq + doseLog.size() - 1; }
+    public synchronized long getAckedSeq() { return ackedSeq; }
+
+    /**
+     * Emulates a factory reset: the log starts over at sequence number 1.
+     */
+    public synchronized void resetDoseLog() {
+        doseLog.clear();
+        firstSeq = 1;
+        ackedSeq = 0;
+    }
+
+    // --- OTA ---
+
+    /**
+     * Answers a request written to the OTA control characteristic (see {@link OtaPacket}).
+     */
+    synchronized OtaPacket.Response handleOtaControl(byte[] request) {
+        int op = request.length > 0 ? request[0] : -1;
+        switch (op) {
+            case OtaPacket.OP_START: {
+                if (request.length != 11) break;
+                long size = OtaPacket.getUInt32(request, 1);
+                long crc = OtaPacket.getUInt32(request, 5);
+                if (size == 0 || size > config.maxImageSize) break;
+                boolean sameImage = otaStaging != null && otaStaging.length == size && otaImageCrc == crc;
+                if (!sameImage) {
+                    otaStaging = new byte[(int) size];
+                    otaImageCrc = crc;
+                    otaConfirmed = 0;
+                }
+                otaReceived = otaConfirmed; // Anything unconfirmed is sent again
+                return new OtaPacket.Response(op, OtaPacket.STATUS_OK, otaConfirmed);
+            }
+            case OtaPacket.OP_VERIFY: {
+                if (request.length != 9 || otaStaging == null) break;
+                long blockEnd = OtaPacket.getUInt32(request, 1);
+                long crc = OtaPacket.getUInt32(request, 5);
+                if (blockEnd == otaReceived && blockEnd > otaConfirmed
+                        && OtaPacket.crc32(otaStaging, otaConfirmed, otaReceived - otaConfirmed) == crc) {
+                    otaConfirmed = otaReceived;
+                    return new OtaPacket.Response(op, OtaPacket.STATUS_OK, otaConfirmed);
+                }
+                otaReceived = otaConfirmed;
+                return new OtaPacket.Response(op, OtaPacket.STATUS_CRC_ERROR, otaConfirmed);
+            }
+            case OtaPacket.OP_COMMIT: {
+                if (otaStaging == null || otaConfirmed != otaStaging.length) break;
+                if (OtaPacket.crc32(otaStaging, 0, otaStaging.length) != otaImageCrc) {
+                    otaStaging = null;
+                    return new OtaPacket.Response(op, OtaPacket.STATUS_CRC_ERROR, 0);
+                }
+                installedImage = otaStaging;
+                otaStaging = null;
+                return new OtaPacket.Response(op, OtaPacket.STATUS_OK, installedImage.length);
+            }
+            case OtaPacket.OP_ABORT:
+                otaStaging = null;
+                return new OtaPacket.Response(op, OtaPacket.STATUS_OK, 0);
+            default:
+                break;
+        }
+        return new OtaPacket.Response(op, OtaPacket.STATUS_REJECTED, otaConfirmed);
+    }
+
+    private boolean appendOtaData(byte[] chunk) {
+        if (otaStaging == null || otaReceived + chunk.length > otaStaging.length) return false;
+        System.arraycopy(chunk, 0, otaStaging, otaReceived, chunk.length);
+        if (corruptChunks > 0) {
+            corruptChunks--;
+            otaStaging[otaReceived] ^= 0x5A; // Flash write glitch: caught by the block CRC
+        }
+        otaReceived += chunk.length;
+        return true;
+    }
+
+    /**
+     * Corrupts the next {@code count} received OTA data chunks, to exercise block retries.
+     */
+    public synchronized void corruptOtaChunks(int count) { corruptChunks = count; }
+
+    public synchronized int getOtaConfirmedOffset() { return otaConfirmed; }
+
+    /**
+     * @return the image installed by the last successful OTA commit, or null.
+     */
+    public synchronized byte[] getInstalledImage() {
+        return installedImage != null ? installedImage.clone() : null;
+    }
+
+    // --- Link Model ---
+
+    /**
+     * MTU granted when the client asks for {@code requested}.
+     */
+    int negotiateMtu(int requested) {
+        return Math.max(DispenserProfile.DEFAULT_MTU, Math.min(requested, config.mtu));
+    }
+
+    /**
+     * Number of link-layer PDU exchanges needed to write {@code length} bytes at {@code mtu}.
+     */
+    static int writeExchanges(int mtu, int length) {
+        int maxSingle = mtu - 3;
+        if (length <= maxSingle) return 1;
+        int perPrepare = mtu - 5; // Prepare Write carries handle + offset
+        return (length + perPrepare - 1) / perPrepare + 1; // + Execute Write
+    }
+
+    /**
+     * Number of Prepare Write exchanges needed to queue {@code length} bytes in a reliable write.
+     */
+    static int prepareExchanges(int mtu, int length) {
+        int perPrepare = mtu - 5;
+        return Math.max(1, (length + perPrepare - 1) / perPrepare);
+    }
+
+    /**
+     * Simulates {@code exchanges} request/response exchanges over the link.
+     *
+     * @return total air time in ms, or -1 if the link dropped on a supervision timeout.
+     */
+    synchronized long simulateExchanges(int exchanges) {
+        return simulateExchanges(exchanges, config.connectionIntervalMs);
+    }
+
+    /**
+     * As {@link #simulateExchanges(int)}, with one exchange per {@code intervalMs} connection event.
+     */
+    synchronized long simulateExchanges(int exchanges, long intervalMs) {
+        long elapsed = 0;
+        for (int i = 0; i < exchanges; i++) {
+            int lost = 0;
+            while (true) {
+                elapsed += intervalMs;
+                if (random.nextDouble() >= config.packetLoss) break;
+                if (++lost > config.maxRetransmissions) return -1;
+            }
+        }
+        return elapsed + config.processingDelayMs;
+    }
+}
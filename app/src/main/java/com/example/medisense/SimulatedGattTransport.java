@@ -0,0 +1,518 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GattTransport that advertises and serves {@link SimulatedDispenser}s entirely in the JVM.
+ * All callbacks are delivered on a single simulator thread, like the binder thread on a phone.
+ * Only uses compile-time constants from android.bluetooth, so it runs in plain JVM unit tests.
+ */
+public class SimulatedGattTransport implements GattTransport {
+
+    // Android reports a failed/timed-out connection attempt as the undocumented status 133.
+    static final int GATT_ERROR = 133;
+    // Link supervision timeout (HCI 0x08).
+    static final int GATT_CONN_TIMEOUT = 8;
+    static final int GATT_CONN_TERMINATE_PEER_USER = 19;
+    private static final long CONNECT_TIMEOUT_MS = 30000;
+    private static final int DISCOVERY_EXCHANGES = 4;
+    private static final int SUPERVISION_TIMEOUT_UNITS = 500; // 5 s, in 10 ms units
+
+    private final List<SimulatedDispenser> dispensers;
+    private final ScheduledExecutorService executor;
+    private final List<ScheduledFuture<?>> advertisers = new ArrayList<>();
+    private volatile ScanListener scanListener;
+    // Addresses whose attribute table the "phone" has cached; later discoveries cost no air time
+    private final Set<String> attributeCache = ConcurrentHashMap.newKeySet();
+    private final List<SimulatedConnection> connections = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled = true;
+
+    public SimulatedGattTransport(SimulatedDispenser... dispensers) {
+        this(Arrays.asList(dispensers));
+    }
+
+    public SimulatedGattTransport(List<SimulatedDispenser> dispensers) {
+        this.dispensers = new ArrayList<>(dispensers);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SimulatedGatt");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    /**
+     * Stops the simulator thread. The transport cannot be used afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * Like toggling Bluetooth off/on: the next discovery of every dispenser goes over the air.
+     */
+    public void clearAttributeCache() {
+        attributeCache.clear();
+    }
+
+    /**
+     * Emulates a dispenser whose GATT table changed (e.g. after a firmware update): drops the cached
+     * table and sends Service Changed to connected clients.
+     */
+    public void indicateServiceChanged(String address) {
+        attributeCache.remove(address);
+        for (SimulatedConnection connection : connections) {
+            if (!connection.address.equals(address) || !connection.connected) continue;
+            connection.post(0, () -> {
+                connection.discovered = false;
+                connection.callback.onServiceChanged();
+            });
+        }
+    }
+
+    /**
+     * Sends a notification from the dispenser to every connected client that enabled it, both in the
+     * dispenser's CCCD and locally. Values longer than MTU - 3 are truncated, as over the air.
+     */
+    public void sendNotification(String address, UUID characteristic, byte[] value) {
+        for (SimulatedConnection connection : connections) {
+            if (!connection.address.equals(address) || !connection.connected) continue;
+            if (!connection.notifying.contains(characteristic) || !connection.dispenser.isNotifying(characteristic)) continue;
+            final byte[] copy = Arrays.copyOf(value, Math.min(value.length, connection.mtu - 3));
+            connection.exchange(1, () -> connection.callback.onCharacteristicChanged(characteristic, copy));
+        }
+    }
+
+    /**
+     * Emulates the dispenser leaving radio range: connected clients see a supervision timeout.
+     */
+    public void dropLink(String address) {
+        for (SimulatedConnection connection : connections) {
+            if (connection.address.equals(address) && connection.connected) connection.post(0, connection::dropLink);
+        }
+    }
+
+    // --- Scanning ---
+    @Override
+    public synchronized boolean startScan(AdvertisementFilter filter, ScanProfile profile, ScanListener listener) {
+        if (!enabled) return false;
+        stopScan();
+        scanListener = listener;
+        long scanStartMs = System.currentTimeMillis();
+        for (SimulatedDispenser dispenser : dispensers) {
+            // Filtered out by the "controller": never reaches the app
+            if (filter != null && !filter.matches(dispenser.getName(), dispenser.getAdvertisedServices())) continue;
+            long interval = dispenser.getConfig().advertisingIntervalMs;
+            advertisers.add(executor.scheduleAtFixedRate(() -> {
+                ScanListener l = scanListener;
+                if (l == null || !profile.isListening(System.currentTimeMillis() - scanStartMs)) return;
+                l.onScanResult(dispenser.getName(), dispenser.getAddress(), dispenser.getConfig().rssi);
+            }, interval, interval, TimeUnit.MILLISECONDS));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void stopScan() {
+        scanListener = null;
+        for (ScheduledFuture<?> advertiser : advertisers) {
+            advertiser.cancel(false);
+        }
+        advertisers.clear();
+    }
+
+    // --- Connection ---
+    @Override
+    public GattConnection connect(String address, boolean autoConnect, GattConnection.Callback callback) {
+        if (!enabled || address == null) return null;
+        SimulatedDispenser target = null;
+        for (SimulatedDispenser dispenser : dispensers) {
+            if (dispenser.getAddress().equals(address)) {
+                target = dispenser;
+                break;
+            }
+        }
+
+        SimulatedConnection connection = new SimulatedConnection(address, target, callback);
+        connections.add(connection);
+        if (target == null) {
+            // Nobody answers: the stack gives up after its connect timeout.
+            connection.post(CONNECT_TIMEOUT_MS, () -> callback.onConnectionStateChange(GATT_ERROR, BluetoothProfile.STATE_DISCONNECTED));
+        } else {
+            connection.exchange(1, () -> {
+                connection.connected = true;
+                callback.onConnectionStateChange(BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+            });
+        }
+        return connection;
+    }
+
+    private class SimulatedConnection implements GattConnection {
+        private final String address;
+        private final SimulatedDispenser dispenser;
+        private final Callback callback;
+        private volatile boolean connected = false;
+        private volatile boolean discovered = false;
+        private volatile boolean discoveryFromCache = false;
+        private volatile long discoveryDurationMs = 0;
+        private volatile boolean busy = false;
+        private volatile int writesWithoutResponseInFlight = 0;
+        private volatile long writeWithoutResponseTailMs = 0;
+        private volatile boolean closed = false;
+        private volatile int mtu = DispenserProfile.DEFAULT_MTU;
+        private volatile long intervalMs;
+        private final Set<UUID> notifying = ConcurrentHashMap.newKeySet(); // setCharacteristicNotification
+        // Prepared writes of the open reliable-write transaction, or null outside a transaction
+        private volatile Map<UUID, byte[]> preparedWrites;
+
+        SimulatedConnection(String address, SimulatedDispenser dispenser, Callback callback) {
+            this.address = address;
+            this.dispenser = dispenser;
+            this.callback = callback;
+            this.intervalMs = dispenser.getConfig().connectionIntervalMs;
+        }
+
+        void post(long delayMs, Runnable event) {
+            executor.schedule(() -> {
+                if (!closed) event.run();
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Runs {@code onDone} after the air time of {@code exchanges} PDU exchanges,
+         * or drops the link if the dispenser stops answering.
+         */
+        void exchange(int exchanges, Runnable onDone) {
+            long airTime = dispenser.simulateExchanges(exchanges, intervalMs);
+            if (airTime < 0) {
+                scheduleDrop();
+            } else {
+                post(airTime, onDone);
+            }
+        }
+
+        private void scheduleDrop() {
+            long timeout = intervalMs * (dispenser.getConfig().maxRetransmissions + 1);
+            post(timeout, this::dropLink);
+        }
+
+        private void dropLink() {
+            if (!connected) {
+                callback.onConnectionStateChange(GATT_ERROR, BluetoothProfile.STATE_DISCONNECTED);
+                return;
+            }
+            resetLink();
+            callback.onConnectionStateChange(GATT_CONN_TIMEOUT, BluetoothProfile.STATE_DISCONNECTED);
+        }
+
+        private void resetLink() {
+            connected = false;
+            discovered = false;
+            busy = false;
+            writesWithoutResponseInFlight = 0;
+            mtu = DispenserProfile.DEFAULT_MTU;
+            intervalMs = dispenser.getConfig().connectionIntervalMs;
+            preparedWrites = null; // The dispenser discards an uncommitted transaction
+        }
+
+        @Override
+        public String getAddress() { return address; }
+
+        @Override
+        public boolean discoverServices() {
+            if (!connected || busy) return false;
+            busy = true;
+            long startMs = System.currentTimeMillis();
+            Runnable done = () -> {
+                busy = false;
+                discovered = true;
+                discoveryDurationMs = System.currentTimeMillis() - startMs;
+                attributeCache.add(address);
+                callback.onServicesDiscovered(BluetoothGatt.GATT_SUCCESS);
+            };
+            discoveryFromCache = attributeCache.contains(address);
+            if (discoveryFromCache) {
+                post(0, done);
+            } else {
+                exchange(DISCOVERY_EXCHANGES, done);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isDiscoveryFromCache() { return discoveryFromCache; }
+
+        @Override
+        public long getDiscoveryDurationMs() { return discoveryDurationMs; }
+
+        @Override
+        public boolean hasCharacteristic(UUID service, UUID characteristic) {
+            return discovered && dispenser.hasCharacteristic(service, characteristic);
+        }
+
+        @Override
+        public boolean requestMtu(int requested) {
+            if (!connected || busy) return false;
+            busy = true;
+            exchange(1, () -> {
+                busy = false;
+                mtu = dispenser.negotiateMtu(requested);
+                callback.onMtuChanged(mtu, BluetoothGatt.GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID service, UUID characteristic) {
+            if (!connected || !discovered || busy) return false;
+            if (!dispenser.hasCharacteristic(service, characteristic)) return false;
+            busy = true;
+            exchange(1, () -> {
+                busy = false;
+                callback.onCharacteristicRead(characteristic, dispenser.getValue(service, characteristic), BluetoothGatt.GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+            if (!connected || !discovered || busy) return false;
+            if (!dispenser.hasCharacteristic(service, characteristic)) return false;
+            busy = true;
+            final byte[] copy = value.clone();
+            exchange(1, () -> {
+                busy = false;
+                dispenser.storeDescriptor(characteristic, copy);
+                callback.onDescriptorWrite(characteristic, descriptor, BluetoothGatt.GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+            if (!discovered || !dispenser.hasCharacteristic(service, characteristic)) return false;
+            if (enable) notifying.add(characteristic);
+            else notifying.remove(characteristic);
+            return true;
+        }
+
+        @Override
+        public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+            if (!connected || busy) return false;
+            busy = true;
+            boolean use2M = dispenser.getConfig().supports2MPhy;
+            final int txPhy = use2M && (txPhyMask & BluetoothDevice.PHY_LE_2M_MASK) != 0 ? BluetoothDevice.PHY_LE_2M : BluetoothDevice.PHY_LE_1M;
+            final int rxPhy = use2M && (rxPhyMask & BluetoothDevice.PHY_LE_2M_MASK) != 0 ? BluetoothDevice.PHY_LE_2M : BluetoothDevice.PHY_LE_1M;
+            exchange(2, () -> {
+                busy = false;
+                callback.onPhyUpdate(txPhy, rxPhy, BluetoothGatt.GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        /**
+         * Scales the dispenser's balanced interval the way Android's presets do
+         * (HIGH 11.25 ms, BALANCED 30 ms, LOW_POWER 100 ms with 2 skipped events).
+         * Takes effect, and is reported, one connection event later.
+         */
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            if (!connected) return false;
+            long base = dispenser.getConfig().connectionIntervalMs;
+            final long granted;
+            final int latency;
+            if (priority == BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+                granted = Math.max(1, base * 3 / 8);
+                latency = 0;
+            } else if (priority == BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER) {
+                granted = base * 10 / 3;
+                latency = 2;
+            } else {
+                granted = base;
+                latency = 0;
+            }
+            post(intervalMs, () -> {
+                intervalMs = granted;
+                callback.onConnectionUpdated((int) (granted * 4 / 5), latency, SUPERVISION_TIMEOUT_UNITS,
+                        BluetoothGatt.GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+            if (!connected || !discovered || busy) return false;
+            if (!dispenser.hasCharacteristic(service, characteristic)) return false;
+            if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE && preparedWrites == null) {
+                return writeWithoutResponse(service, characteristic, value);
+            }
+            busy = true;
+            final byte[] copy = value.clone();
+            final Map<UUID, byte[]> transaction = preparedWrites;
+            if (transaction != null) {
+                exchange(SimulatedDispenser.prepareExchanges(mtu, copy.length), () -> {
+                    busy = false;
+                    transaction.put(characteristic, copy);
+                    callback.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS);
+                });
+                return true;
+            }
+            exchange(SimulatedDispenser.writeExchanges(mtu, copy.length), () -> {
+                busy = false;
+                if (characteristic.equals(DispenserProfile.CHAR_OTA_CONTROL)) {
+                    answerOtaControl(copy);
+                    return;
+                }
+                boolean accepted = dispenser.store(service, characteristic, copy);
+                callback.onCharacteristicWrite(characteristic,
+                        accepted ? BluetoothGatt.GATT_SUCCESS : BluetoothGatt.GATT_FAILURE);
+                if (accepted && characteristic.equals(DispenserProfile.CHAR_LOG_CONTROL)
+                        && copy[0] == DoseLogPacket.OP_READ_AFTER) {
+                    streamDoseLog(DoseLogPacket.requestSeq(copy));
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Acknowledges the write, then notifies the firmware's answer. A successful commit reboots
+         * the dispenser into the new image, which ends the link.
+         */
+        private void answerOtaControl(byte[] request) {
+            UUID control = DispenserProfile.CHAR_OTA_CONTROL;
+            OtaPacket.Response response = dispenser.handleOtaControl(request);
+            callback.onCharacteristicWrite(control, BluetoothGatt.GATT_SUCCESS);
+            if (!notifying.contains(control) || !dispenser.isNotifying(control)) return;
+            exchange(1, () -> {
+                callback.onCharacteristicChanged(control, response.encode());
+                if (response.op == OtaPacket.OP_COMMIT && response.status == OtaPacket.STATUS_OK) {
+                    post(intervalMs, () -> {
+                        resetLink();
+                        callback.onConnectionStateChange(GATT_CONN_TERMINATE_PEER_USER, BluetoothProfile.STATE_DISCONNECTED);
+                    });
+                }
+            });
+        }
+
+        /**
+         * The firmware's answer to OP_READ_AFTER: the delta packed at the current MTU, then an end marker.
+         */
+        private void streamDoseLog(long afterSeq) {
+            UUID data = DispenserProfile.CHAR_LOG_DATA;
+            if (!notifying.contains(data) || !dispenser.isNotifying(data)) return;
+            List<DoseLogRecord> delta = dispenser.getDoseLogAfter(afterSeq);
+            int perPacket = DoseLogPacket.recordsPerNotification(mtu);
+            List<byte[]> packets = new ArrayList<>();
+            for (int i = 0; i < delta.size(); i += perPacket) {
+                packets.add(DoseLogPacket.encodeData(delta, i, Math.min(perPacket, delta.size() - i)));
+            }
+            packets.add(DoseLogPacket.encodeEnd(dispenser.getLastSeq()));
+            sendNotifications(data, packets, 0);
+        }
+
+        /**
+         * Up to txBuffers notifications go out per connection event.
+         */
+        private void sendNotifications(UUID characteristic, List<byte[]> packets, int from) {
+            int to = Math.min(packets.size(), from + dispenser.getConfig().txBuffers);
+            exchange(1, () -> {
+                for (int i = from; i < to; i++) callback.onCharacteristicChanged(characteristic, packets.get(i));
+                if (to < packets.size()) sendNotifications(characteristic, packets, to);
+            });
+        }
+
+        /**
+         * Write commands are not acknowledged at the ATT layer; the controller buffers up to
+         * txBuffers of them and reports each one as sent once it has gone out over the air.
+         */
+        private boolean writeWithoutResponse(UUID service, UUID characteristic, byte[] value) {
+            if (value.length > mtu - 3) return false; // Commands are never split
+            if (writesWithoutResponseInFlight >= dispenser.getConfig().txBuffers) return false;
+            long airTime = dispenser.simulateExchanges(1, intervalMs);
+            if (airTime < 0) {
+                scheduleDrop();
+                return true;
+            }
+            writesWithoutResponseInFlight++;
+            // The link layer delivers in order: a retransmitted packet holds back the ones behind it
+            long now = System.nanoTime() / 1000000;
+            long due = Math.max(now + airTime, writeWithoutResponseTailMs);
+            writeWithoutResponseTailMs = due;
+            final byte[] copy = value.clone();
+            post(due - now, () -> {
+                if (!connected) return; // Still in the controller's buffer when the link went down
+                writesWithoutResponseInFlight--;
+                dispenser.store(service, characteristic, copy);
+                callback.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean beginReliableWrite() {
+            if (!connected || preparedWrites != null) return false;
+            preparedWrites = new LinkedHashMap<>();
+            return true;
+        }
+
+        @Override
+        public boolean executeReliableWrite() {
+            final Map<UUID, byte[]> transaction = preparedWrites;
+            if (!connected || busy || transaction == null) return false;
+            busy = true;
+            exchange(1, () -> {
+                busy = false;
+                preparedWrites = null;
+                UUID service = UUID.fromString(DispenserProfile.SERVICE_UUID);
+                boolean accepted = true;
+                for (Map.Entry<UUID, byte[]> write : transaction.entrySet()) {
+                    accepted &= dispenser.store(service, write.getKey(), write.getValue());
+                }
+                callback.onReliableWriteCompleted(accepted ? BluetoothGatt.GATT_SUCCESS : BluetoothGatt.GATT_FAILURE);
+            });
+            return true;
+        }
+
+        @Override
+        public void abortReliableWrite() {
+            preparedWrites = null;
+        }
+
+        @Override
+        public void disconnect() {
+            if (!connected) return;
+            post(intervalMs, () -> {
+                resetLink();
+                callback.onConnectionStateChange(BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_DISCONNECTED);
+            });
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            connections.remove(this);
+            connected = false;
+        }
+    }
+}
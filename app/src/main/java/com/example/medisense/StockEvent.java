@@ -0,0 +1,69 @@
+package com.example.medisense;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One append-only entry of a user's stock ledger ({@code stock_ledger/<user>/<pushId>}). The
+ * materialized count of a medication ({@code users/<user>/meds/<medId>/c}) is the sum of its
+ * deltas, applied with a server-side increment in the same write (see {@link StockLedger}).
+ */
+public final class StockEvent {
+
+    public static final String KIND_REFILL = "refill";
+    public static final String KIND_DOSE = "dose";     // Pills dispensed, delta < 0
+    public static final String KIND_ADJUST = "adjust"; // Manual correction (count found, pills lost)
+
+    public static final String SOURCE_APP = "app";
+    public static final String SOURCE_DISPENSER = "dispenser";
+
+    // RTDB keys
+    public static final String FIELD_MED = "med";
+    public static final String FIELD_DELTA = "delta";
+    public static final String FIELD_KIND = "kind";
+    public static final String FIELD_SOURCE = "source";
+    public static final String FIELD_AT = "at"; // Server timestamp
+
+    public final String medId;
+    public final long delta;
+    public final String kind;
+    public final String source;
+    public final long atMs;
+
+    public StockEvent(String medId, long delta, String kind, String source, long atMs) {
+        this.medId = medId;
+        this.delta = delta;
+        this.kind = kind;
+        this.source = source;
+        this.atMs = atMs;
+    }
+
+    /**
+     * The node's children, without {@link #FIELD_AT} (a server timestamp added on write).
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(FIELD_MED, medId);
+        map.put(FIELD_DELTA, delta);
+        map.put(FIELD_KIND, kind);
+        map.put(FIELD_SOURCE, source);
+        return map;
+    }
+
+    /**
+     * @return null if {@code values} is not a ledger entry.
+     */
+    public static StockEvent fromMap(Map<String, ?> values) {
+        Object delta = values.get(FIELD_DELTA);
+        Object kind = values.get(FIELD_KIND);
+        Object at = values.get(FIELD_AT);
+        if (!(delta instanceof Number) || !(kind instanceof String)) return null;
+        Object med = values.get(FIELD_MED);
+        Object source = values.get(FIELD_SOURCE);
+        // Events from before multi-medication profiles belong to the single, migrated medication
+        return new StockEvent(med instanceof String ? (String) med : UserSchema.LEGACY_MED_ID,
+                ((Number) delta).longValue(), (String) kind,
+                source instanceof String ? (String) source : SOURCE_APP,
+                at instanceof Number ? ((Number) at).longValue() : 0);
+    }
+}
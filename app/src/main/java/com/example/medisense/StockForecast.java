@@ -0,0 +1,80 @@
+package com.example.medisense;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pills left and when they run out: at the scheduled rate if the user has dose schedules,
+ * otherwise at the rate dispensed over the last {@link #WINDOW_MS} of the ledger.
+ * <p>
+ * Plain Java (no Firebase) so it runs in unit tests.
+ */
+public final class StockForecast {
+
+    public static final long WINDOW_MS = 14L * 24 * 60 * 60 * 1000;
+    public static final long NEVER = Long.MAX_VALUE;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    public final long count;
+    public final double dosesPerDay;
+    public final boolean fromSchedule;
+    public final long depletionAtMs; // NEVER without consumption
+
+    StockForecast(long count, double dosesPerDay, boolean fromSchedule, long depletionAtMs) {
+        this.count = count;
+        this.dosesPerDay = dosesPerDay;
+        this.fromSchedule = fromSchedule;
+        this.depletionAtMs = depletionAtMs;
+    }
+
+    /**
+     * @param events ledger entries, any order
+     * @param scheduledPerDay pills per day from the dose schedules, 0 if none
+     */
+    public static StockForecast compute(long count, List<StockEvent> events, double scheduledPerDay, long nowMs) {
+        double rate = scheduledPerDay;
+        boolean fromSchedule = rate > 0;
+        if (!fromSchedule) {
+            long windowStart = nowMs - WINDOW_MS;
+            long dispensed = 0;
+            long first = nowMs;
+            for (StockEvent event : events) {
+                if (!StockEvent.KIND_DOSE.equals(event.kind) || event.atMs < windowStart) continue;
+                dispensed -= event.delta;
+                first = Math.min(first, event.atMs);
+            }
+            // A single day of history still counts as a full day
+            rate = dispensed > 0 ? dispensed * (double) DAY_MS / Math.max(nowMs - first, DAY_MS) : 0;
+        }
+        long depletion;
+        if (count <= 0) {
+            depletion = nowMs;
+        } else if (rate <= 0) {
+            depletion = NEVER;
+        } else {
+            depletion = nowMs + (long) (count / rate * DAY_MS);
+        }
+        return new StockForecast(count, rate, fromSchedule, depletion);
+    }
+
+    /**
+     * Pills per day the schedules call for, one pill per dose.
+     */
+    public static double dosesPerDay(Collection<DoseSchedule> schedules) {
+        double perDay = 0;
+        for (DoseSchedule schedule : schedules) {
+            perDay += schedule.minutesOfDay.length * (Integer.bitCount(schedule.daysOfWeek) / 7.0) / schedule.intervalDays;
+        }
+        return perDay;
+    }
+
+    public double getDaysLeft(long nowMs) {
+        return depletionAtMs == NEVER ? Double.POSITIVE_INFINITY : Math.max(0, depletionAtMs - nowMs) / (double) DAY_MS;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d pills, %.1f/day (%s)", count, dosesPerDay, fromSchedule ? "scheduled" : "observed");
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.medisense;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pill stock as an append-only ledger. Every change (refill, dispensed dose, correction) is one
+ * multi-path {@code updateChildren}: the event under {@code stock_ledger/<user>/<pushId>} and a
+ * {@link ServerValue#increment} of the medication's numeric count
+ * {@code users/<user>/meds/<medId>/c}. Increments commute, so the app and the dispenser can
+ * update stock concurrently, offline too, without reading it first and without lost updates.
+ * Once the server has an app-side change, the count is read back and sent to the dispenser as a
+ * {@code set_stock} command (see {@link DispenserSettings}).
+ * <p>
+ * One instance per process ({@link #getInstance}); call it from the main thread.
+ */
+public class StockLedger {
+
+    private static final String TAG = "StockLedger";
+    /** Most recent events observed for the forecast; covers the window at a few doses a day. */
+    static final int LEDGER_WINDOW = 200;
+
+    private static StockLedger instance;
+
+    public static synchronized StockLedger getInstance(Context context) {
+        if (instance == null) instance = new StockLedger(context.getApplicationContext());
+        return instance;
+    }
+
+    private final Context context;
+    private final DispenserSettings dispenserSettings;
+    private final DatabaseReference rootRef = FirebaseDatabase.getInstance().getReference();
+    private final Map<String, ForecastLiveData> forecasts = new HashMap<>(); // "user|medId"
+
+    private StockLedger(Context context) {
+        this.context = context;
+        this.dispenserSettings = new DispenserSettings(context);
+    }
+
+    // --- Writes ---
+    public void refill(String user, String medId, long pills) {
+        record(user, new StockEvent(medId, pills, StockEvent.KIND_REFILL, StockEvent.SOURCE_APP, 0));
+    }
+
+    public void recordDose(String user, String medId, long pills) {
+        record(user, new StockEvent(medId, -pills, StockEvent.KIND_DOSE, StockEvent.SOURCE_APP, 0));
+    }
+
+    public void adjust(String user, String medId, long delta) {
+        record(user, new StockEvent(medId, delta, StockEvent.KIND_ADJUST, StockEvent.SOURCE_APP, 0));
+    }
+
+    private void record(String user, StockEvent event) {
+        if (event.delta == 0) return;
+        String key = rootRef.child("stock_ledger").child(user).push().getKey();
+        Map<String, Object> node = event.toMap();
+        node.put(StockEvent.FIELD_AT, ServerValue.TIMESTAMP);
+        Map<String, Object> update = new HashMap<>();
+        update.put("stock_ledger/" + user + "/" + key, node);
+        update.put("users/" + user + "/" + UserSchema.FIELD_MEDS + "/" + event.medId + "/" + Medication.FIELD_COUNT,
+                ServerValue.increment(event.delta));
+        // Applied locally at once; Firebase keeps the write queued (on disk) until it reaches the server
+        rootRef.updateChildren(update).addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                Log.w(TAG, "Stock " + event.kind + " " + event.delta + " rejected", task.getException());
+                return;
+            }
+            sendCount(user, event.medId);
+        });
+    }
+
+    /**
+     * Sends the dispenser the count read back from the server, which includes any increment that
+     * landed alongside ours. Repeated changes coalesce into one command per slot.
+     */
+    private void sendCount(String user, String medId) {
+        UserProfile profile = UserRepository.getInstance(context).getProfile(user).getValue();
+        if (profile == null) return; // Slot unknown until the profile has loaded
+        rootRef.child("users").child(user).child(UserSchema.FIELD_MEDS).child(medId).child(Medication.FIELD_COUNT).get()
+                .addOnCompleteListener(task -> {
+                    Long count = task.isSuccessful() ? task.getResult().getValue(Long.class) : null;
+                    if (count == null) {
+                        Log.w(TAG, "Could not read back the count of " + medId, task.getException());
+                        return;
+                    }
+                    dispenserSettings.sendStock(user, profile, medId, count);
+                });
+    }
+
+    // --- Reads ---
+    /**
+     * Current count and depletion forecast of one medication, from the shared profile (see
+     * {@link UserRepository#getProfile}) and one shared listener on the user's last
+     * {@link #LEDGER_WINDOW} ledger events.
+     */
+    public LiveData<StockForecast> getForecast(String user, String medId) {
+        String key = user + "|" + medId;
+        ForecastLiveData live = forecasts.get(key);
+        if (live == null) {
+            live = new ForecastLiveData(user, medId);
+            forecasts.put(key, live);
+        }
+        return live;
+    }
+
+    private class ForecastLiveData extends MediatorLiveData<StockForecast> {
+        private final String medId;
+        private Long count; // Null until the profile has the medication
+        private List<StockEvent> events = Collections.emptyList();
+
+        ForecastLiveData(String user, String medId) {
+            this.medId = medId;
+            addSource(UserRepository.getInstance(context).getProfile(user), this::onProfile);
+            addSource(SharedSnapshotLiveData.forQuery("stock_ledger/" + user + "#last" + LEDGER_WINDOW,
+                    rootRef.child("stock_ledger").child(user).orderByKey().limitToLast(LEDGER_WINDOW)), this::onLedger);
+        }
+
+        private void onProfile(UserProfile profile) {
+            Medication medication = profile.getMedication(medId);
+            if (medication == null) return;
+            count = medication.count;
+            recompute();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void onLedger(DataSnapshot snapshot) {
+            List<StockEvent> parsed = new ArrayList<>();
+            for (DataSnapshot child : snapshot.getChildren()) {
+                Object value = child.getValue();
+                StockEvent event = value instanceof Map ? StockEvent.fromMap((Map<String, ?>) value) : null;
+                if (event != null && event.medId.equals(medId)) parsed.add(event);
+            }
+            events = parsed;
+            recompute();
+        }
+
+        private void recompute() {
+            if (count == null) return;
+            List<DoseSchedule> schedules = new ArrayList<>();
+            for (DoseSchedule schedule : DoseReminders.getInstance(context).getSchedules()) {
+                if (schedule.id.equals(medId)) schedules.add(schedule); // Imported under the medication's id
+            }
+            setValue(StockForecast.compute(count, events, StockForecast.dosesPerDay(schedules), System.currentTimeMillis()));
+        }
+    }
+}
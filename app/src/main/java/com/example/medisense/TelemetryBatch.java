@@ -0,0 +1,105 @@
+package com.example.medisense;
+
+import java.util.Arrays;
+
+/**
+ * Telemetry records drained from the dispenser in one go, published to the UI as a single
+ * LiveData value. Also carries the latest known pill count and battery level, so an observer
+ * that missed earlier batches still shows current numbers.
+ */
+public final class TelemetryBatch {
+
+    public static final int UNKNOWN = -1;
+
+    public final String deviceAddress;
+    public final int size;
+    public final int pillCount;       // Latest reported, or UNKNOWN
+    public final int batteryPercent;  // Latest reported, or UNKNOWN
+    public final int dosesTaken;      // TYPE_DOSE_TAKEN records in this batch
+    public final long droppedRecords; // Total lost to a full ring buffer so far
+    public final long oldestReceivedMs; // elapsedRealtime of the first record, for latency
+    private final int[] types;
+    private final int[] values;
+    private final long[] deviceTimes;
+
+    private TelemetryBatch(Builder builder, String deviceAddress, long droppedRecords) {
+        this.deviceAddress = deviceAddress;
+        this.size = builder.size;
+        this.pillCount = builder.pillCount;
+        this.batteryPercent = builder.batteryPercent;
+        this.dosesTaken = builder.dosesTaken;
+        this.droppedRecords = droppedRecords;
+        this.oldestReceivedMs = builder.oldestReceivedMs;
+        this.types = Arrays.copyOf(builder.types, size);
+        this.values = Arrays.copyOf(builder.values, size);
+        this.deviceTimes = Arrays.copyOf(builder.deviceTimes, size);
+    }
+
+    /** @return a {@code TelemetryPacket.TYPE_*} constant. */
+    public int getType(int index) { return types[index]; }
+    public int getValue(int index) { return values[index]; }
+    public long getDeviceTimeSec(int index) { return deviceTimes[index]; }
+
+    @Override
+    public String toString() {
+        return "TelemetryBatch{" + size + " records, pills=" + pillCount + ", battery=" + batteryPercent
+                + "%, doses=" + dosesTaken + ", dropped=" + droppedRecords + "}";
+    }
+
+    /**
+     * Reusable drain target, owned by the consumer thread. Its arrays are sized once to the ring
+     * buffer capacity; only {@link #build} allocates, once per batch.
+     */
+    public static final class Builder implements TelemetryRingBuffer.Sink {
+        private final int[] types;
+        private final int[] values;
+        private final long[] deviceTimes;
+        private int size;
+        private int pillCount = UNKNOWN;
+        private int batteryPercent = UNKNOWN;
+        private int dosesTaken;
+        private long oldestReceivedMs;
+
+        public Builder(int capacity) {
+            types = new int[capacity];
+            values = new int[capacity];
+            deviceTimes = new long[capacity];
+        }
+
+        @Override
+        public void accept(int type, int value, long deviceTimeSec, long receivedMs) {
+            if (size == types.length) return; // Never drained more than the capacity at once
+            if (size == 0) oldestReceivedMs = receivedMs;
+            types[size] = type;
+            values[size] = value;
+            deviceTimes[size] = deviceTimeSec;
+            size++;
+            if (type == TelemetryPacket.TYPE_PILL_COUNT) pillCount = value;
+            else if (type == TelemetryPacket.TYPE_BATTERY) batteryPercent = value;
+            else if (type == TelemetryPacket.TYPE_DOSE_TAKEN) dosesTaken++;
+        }
+
+        public int size() { return size; }
+
+        /**
+         * Snapshots the records gathered since the last build and starts a new batch.
+         * The latest pill count and battery level carry over.
+         */
+        public TelemetryBatch build(String deviceAddress, long droppedRecords) {
+            TelemetryBatch batch = new TelemetryBatch(this, deviceAddress, droppedRecords);
+            size = 0;
+            dosesTaken = 0;
+            return batch;
+        }
+
+        /**
+         * Forgets the carried-over values, e.g. when a different dispenser connects.
+         */
+        public void clear() {
+            size = 0;
+            dosesTaken = 0;
+            pillCount = UNKNOWN;
+            batteryPercent = UNKNOWN;
+        }
+    }
+}
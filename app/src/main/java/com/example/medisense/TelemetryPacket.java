@@ -0,0 +1,62 @@
+package com.example.medisense;
+
+/**
+ * Wire format of notifications on {@link DispenserProfile#CHAR_TELEMETRY_UUID}: one or more
+ * fixed-size records packed into a single notification.
+ * <pre>
+ * [type:1] [value:2, little-endian] [deviceTime:4, little-endian seconds since the epoch]
+ * </pre>
+ * Decoding writes straight into a {@link TelemetryRingBuffer} and allocates nothing.
+ */
+public final class TelemetryPacket {
+
+    public static final int RECORD_SIZE = 7;
+
+    // --- Record Types ---
+    public static final int TYPE_DOSE_TAKEN = 1;  // value = compartment the dose was taken from
+    public static final int TYPE_PILL_COUNT = 2;  // value = pills left in the dispenser
+    public static final int TYPE_BATTERY = 3;     // value = battery level in percent
+
+    private TelemetryPacket() {}
+
+    public static byte[] encode(int type, int value, long deviceTimeSec) {
+        byte[] record = new byte[RECORD_SIZE];
+        put(record, 0, type, value, deviceTimeSec);
+        return record;
+    }
+
+    /**
+     * Writes one record at {@code offset}, e.g. to pack several into one notification.
+     */
+    public static void put(byte[] packet, int offset, int type, int value, long deviceTimeSec) {
+        packet[offset] = (byte) type;
+        packet[offset + 1] = (byte) value;
+        packet[offset + 2] = (byte) (value >> 8);
+        packet[offset + 3] = (byte) deviceTimeSec;
+        packet[offset + 4] = (byte) (deviceTimeSec >> 8);
+        packet[offset + 5] = (byte) (deviceTimeSec >> 16);
+        packet[offset + 6] = (byte) (deviceTimeSec >> 24);
+    }
+
+    /**
+     * Appends every record of {@code packet} to {@code buffer}. Unknown record types are skipped
+     * so newer firmware can add some; a trailing partial record is ignored.
+     *
+     * @return the number of records accepted (fewer than decoded if the buffer was full).
+     */
+    public static int decode(byte[] packet, long receivedMs, TelemetryRingBuffer buffer) {
+        if (packet == null) return 0;
+        int accepted = 0;
+        for (int offset = 0; offset + RECORD_SIZE <= packet.length; offset += RECORD_SIZE) {
+            int type = packet[offset] & 0xFF;
+            if (type < TYPE_DOSE_TAKEN || type > TYPE_BATTERY) continue;
+            int value = (packet[offset + 1] & 0xFF) | (packet[offset + 2] & 0xFF) << 8;
+            long deviceTimeSec = (packet[offset + 3] & 0xFFL)
+                    | (packet[offset + 4] & 0xFFL) << 8
+                    | (packet[offset + 5] & 0xFFL) << 16
+                    | (packet[offset + 6] & 0xFFL) << 24;
+            if (buffer.offer(type, value, deviceTimeSec, receivedMs)) accepted++;
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.medisense;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size, preallocated single-producer/single-consumer queue of telemetry records.
+ * The GATT callback thread decodes notifications straight into it and the BLE worker drains
+ * it in batches; neither side takes a lock or allocates. When full, new records are dropped
+ * (and counted) rather than overwriting ones the consumer may be reading.
+ */
+public class TelemetryRingBuffer {
+
+    /**
+     * Receives drained records; called on the consumer thread.
+     */
+    public interface Sink {
+        void accept(int type, int value, long deviceTimeSec, long receivedMs);
+    }
+
+    private final int capacity;
+    private final int mask;
+    // One slot = the same index in each array
+    private final int[] types;
+    private final int[] values;
+    private final long[] deviceTimes;
+    private final long[] receivedTimes;
+
+    // Monotonic positions; head is only written by the producer, tail only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long dropped = 0; // Producer-written
+
+    /**
+     * @param capacity a power of two
+     */
+    public TelemetryRingBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.types = new int[capacity];
+        this.values = new int[capacity];
+        this.deviceTimes = new long[capacity];
+        this.receivedTimes = new long[capacity];
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the buffer is full and the record was dropped.
+     */
+    public boolean offer(int type, int value, long deviceTimeSec, long receivedMs) {
+        long position = head.get();
+        if (position - tail.get() >= capacity) {
+            dropped++;
+            return false;
+        }
+        int slot = (int) position & mask;
+        types[slot] = type;
+        values[slot] = value;
+        deviceTimes[slot] = deviceTimeSec;
+        receivedTimes[slot] = receivedMs;
+        head.lazySet(position + 1); // Publishes the slot to the consumer
+        return true;
+    }
+
+    /**
+     * Consumer side: hands up to {@code max} records, oldest first, to {@code sink}.
+     *
+     * @return the number of records drained.
+     */
+    public int drain(Sink sink, int max) {
+        long position = tail.get();
+        int count = (int) Math.min(head.get() - position, max);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (position + i) & mask;
+            sink.accept(types[slot], values[slot], deviceTimes[slot], receivedTimes[slot]);
+        }
+        tail.lazySet(position + count); // Frees the slots for the producer
+        return count;
+    }
+
+    public int size() { return (int) (head.get() - tail.get()); }
+    public int getCapacity() { return capacity; }
+    public long getDropped() { return dropped; }
+}
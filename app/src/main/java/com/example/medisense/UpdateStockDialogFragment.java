@@ -5,27 +5,39 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 public class UpdateStockDialogFragment extends DialogFragment {
 
     private String username;
+    private String medId; // The "med_id" argument, else the user's first medication
+    private TextView forecastText;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         if (getArguments() != null) {
             username = getArguments().getString("username");
+            medId = getArguments().getString("med_id");
         }
     }
 
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
-        return inflater.inflate(R.layout.dialog_reschedule, container, false);
+        return inflater.inflate(R.layout.dialog_update_stock, container, false);
     }
 
     @Override
@@ -35,6 +47,53 @@ public class UpdateStockDialogFragment extends DialogFragment {
         Button closeButton = view.findViewById(R.id.close_button);
         closeButton.setOnClickListener(v -> dismiss());
 
-        // TODO: Add your stock update logic here
+        if (username == null) return;
+        StockLedger ledger = StockLedger.getInstance(requireContext());
+        forecastText = view.findViewById(R.id.stock_forecast);
+        LiveData<UserProfile> profile = UserRepository.getInstance(requireContext()).getProfile(username);
+        profile.observe(getViewLifecycleOwner(), new Observer<UserProfile>() {
+            @Override
+            public void onChanged(UserProfile loaded) {
+                if (medId == null) medId = loaded.firstMedicationId();
+                if (medId == null) {
+                    forecastText.setText("No medications yet.");
+                    return;
+                }
+                profile.removeObserver(this); // The forecast follows the profile from here
+                ledger.getForecast(username, medId).observe(getViewLifecycleOwner(), UpdateStockDialogFragment.this::showForecast);
+            }
+        });
+
+        EditText refillAmount = view.findViewById(R.id.refill_amount);
+        Button refillButton = view.findViewById(R.id.add_refill_button);
+        refillButton.setOnClickListener(v -> {
+            long pills = parsePills(refillAmount.getText().toString());
+            if (medId == null || pills <= 0) {
+                Toast.makeText(requireContext(), "Enter the number of pills added", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            // Server-side increment: safe against a dose dispensed at the same moment
+            ledger.refill(username, medId, pills);
+            refillAmount.setText("");
+        });
+    }
+
+    private static long parsePills(String text) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void showForecast(StockForecast forecast) {
+        StringBuilder text = new StringBuilder().append(forecast.count).append(" pills left");
+        if (forecast.depletionAtMs != StockForecast.NEVER) {
+            DateFormat format = DateFormat.getDateInstance(DateFormat.MEDIUM);
+            text.append(String.format(Locale.US, "\nRuns out around %s (%.1f a day, %s)",
+                    format.format(new Date(forecast.depletionAtMs)), forecast.dosesPerDay,
+                    forecast.fromSchedule ? "scheduled" : "recent use"));
+        }
+        forecastText.setText(text);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.example.medisense;
+
+import com.google.firebase.database.PropertyName;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The cold part of a user, {@code user_details/<name>}: rarely shown, so kept out of the node
+ * every screen listens to ({@link UserRecord}). A Firebase POJO.
+ */
+public class UserDetails {
+
+    @PropertyName(UserSchema.FIELD_VERSION)
+    public int version = UserSchema.VERSION;
+
+    @PropertyName("name")
+    public String displayName;
+
+    /** Medication id -> free-text instructions. */
+    @PropertyName("notes")
+    public Map<String, String> notes = new HashMap<>();
+
+    public UserDetails() { } // For Firebase
+
+    public UserDetails(String displayName) {
+        this.displayName = displayName;
+    }
+}
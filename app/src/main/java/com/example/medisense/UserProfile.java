@@ -0,0 +1,144 @@
+package com.example.medisense;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A user's medications as the app sees them: the {@link UserRecord} at {@code users/<name>}, also
+ * the rows cached in {@link LocalUserStore}. Immutable; {@link #withMedication} returns a copy.
+ * The password is not part of it (see {@link Credential}), nor is the cold {@link UserDetails}.
+ */
+public final class UserProfile {
+
+    public final String name;
+    private final Map<String, Medication> meds; // By id; unmodifiable, never shared with callers
+    private final int nextSlot;
+
+    private UserProfile(String name, Map<String, Medication> meds, int nextSlot) {
+        this.name = name;
+        this.meds = Collections.unmodifiableMap(meds);
+        int next = nextSlot;
+        for (Medication medication : meds.values()) next = Math.max(next, medication.slot + 1);
+        this.nextSlot = next;
+    }
+
+    /**
+     * The profile a signup creates: no medications yet.
+     */
+    public static UserProfile newUser(String name) {
+        return new UserProfile(name, new TreeMap<String, Medication>(), 0);
+    }
+
+    public static UserProfile fromRecord(String name, UserRecord record) {
+        TreeMap<String, Medication> meds = new TreeMap<>();
+        if (record != null && record.meds != null) {
+            for (Map.Entry<String, Medication> entry : record.meds.entrySet()) {
+                if (entry.getValue() != null) meds.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        return new UserProfile(name, meds, record != null ? record.nextSlot : 0);
+    }
+
+    public UserRecord toRecord() {
+        UserRecord record = new UserRecord();
+        for (Map.Entry<String, Medication> entry : meds.entrySet()) record.meds.put(entry.getKey(), entry.getValue().copy());
+        record.nextSlot = nextSlot;
+        return record;
+    }
+
+    // --- Medications ---
+    /** Ids in a stable order. */
+    public Set<String> getMedicationIds() { return meds.keySet(); }
+
+    /**
+     * @return a copy, or null if there is no such medication.
+     */
+    public Medication getMedication(String id) {
+        Medication medication = meds.get(id);
+        return medication != null ? medication.copy() : null;
+    }
+
+    /**
+     * @return the first medication's id, or null for a user without any.
+     */
+    public String firstMedicationId() {
+        return meds.isEmpty() ? null : meds.keySet().iterator().next();
+    }
+
+    /**
+     * The dispenser slot the next added medication gets: one past every slot this user has had,
+     * so a removed medication's slot is not handed out again.
+     */
+    public int getNextSlot() { return nextSlot; }
+
+    /**
+     * Adds or replaces a medication. One already here keeps its slot; a new one keeps the slot it
+     * carries, or gets {@link #getNextSlot()} if it has none.
+     */
+    public UserProfile withMedication(String id, Medication medication) {
+        TreeMap<String, Medication> copy = new TreeMap<>(meds);
+        Medication added = medication.copy();
+        Medication existing = meds.get(id);
+        if (existing != null && existing.slot >= 0) {
+            added.slot = existing.slot;
+        } else if (added.slot < 0) {
+            added.slot = nextSlot;
+        }
+        copy.put(id, added);
+        return new UserProfile(name, copy, nextSlot);
+    }
+
+    /** The slot stays used: {@link #getNextSlot()} does not go down. */
+    public UserProfile withoutMedication(String id) {
+        TreeMap<String, Medication> copy = new TreeMap<>(meds);
+        copy.remove(id);
+        return new UserProfile(name, copy, nextSlot);
+    }
+
+    /** Restores a {@link #getNextSlot()} kept outside the medications, e.g. by {@link LocalUserStore}. */
+    UserProfile withNextSlot(int slot) {
+        return slot > nextSlot ? new UserProfile(name, new TreeMap<>(meds), slot) : this;
+    }
+
+    /**
+     * Conflict resolution when the server copy arrives: a medication with a local edit still
+     * waiting to be pushed keeps the local name and times (the push will overwrite the server's),
+     * or stays removed; its count, like every other medication, is the server's, since only
+     * {@link StockLedger} increments change it. A slot the server already has wins, and no slot
+     * either copy has handed out is handed out again.
+     */
+    public UserProfile mergeRemote(UserProfile remote, Set<String> pendingMedIds) {
+        UserProfile merged = remote.withNextSlot(nextSlot);
+        for (String id : pendingMedIds) {
+            Medication local = meds.get(id);
+            if (local == null) {
+                merged = merged.withoutMedication(id);
+                continue;
+            }
+            Medication edited = local.copy();
+            Medication server = remote.meds.get(id);
+            edited.count = server != null ? server.count : 0;
+            merged = merged.withMedication(id, edited);
+        }
+        return merged;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UserProfile)) return false;
+        UserProfile other = (UserProfile) o;
+        return name.equals(other.name) && meds.equals(other.meds) && nextSlot == other.nextSlot;
+    }
+
+    @Override
+    public int hashCode() {
+        return (name.hashCode() * 31 + meds.hashCode()) * 31 + nextSlot;
+    }
+
+    @Override
+    public String toString() {
+        return name + meds;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.medisense;
+
+import com.google.firebase.database.PropertyName;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The hot part of a user, {@code users/<name>}: what the shared profile listener downloads. Cold
+ * data lives in {@link UserDetails}. A Firebase POJO, mapped with
+ * {@code snapshot.getValue(UserRecord.class)}.
+ */
+public class UserRecord {
+
+    @PropertyName(UserSchema.FIELD_VERSION)
+    public int version = UserSchema.VERSION;
+
+    /** Medication id -> medication. */
+    @PropertyName(UserSchema.FIELD_MEDS)
+    public Map<String, Medication> meds = new HashMap<>();
+
+    /** The slot the next added medication gets (see {@link UserProfile#getNextSlot()}). */
+    @PropertyName(UserSchema.FIELD_NEXT_SLOT)
+    public int nextSlot;
+
+    public UserRecord() { } // For Firebase
+}
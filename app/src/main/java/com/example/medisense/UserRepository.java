@@ -0,0 +1,449 @@
+package com.example.medisense;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.Transformations;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline-first access to user profiles: reads come from {@link LocalUserStore} at once and are
+ * refreshed from the Realtime Database in the background; edits are applied locally and pushed
+ * later (write-behind), coalesced per medication, retried with backoff and whenever the connection
+ * comes back. Conflicts: see {@link UserProfile#mergeRemote}. Version-1 records are migrated the
+ * first time they are read (see {@link UserSchema}). The active user's dose reminders follow
+ * every profile published for them (see {@link DoseReminders#syncWithProfile}).
+ * <p>
+ * One instance per process ({@link #getInstance}); disk and queue work runs on its own thread,
+ * callbacks and LiveData updates arrive on the main thread.
+ */
+public class UserRepository {
+
+    private static final String TAG = "UserRepository";
+    private static final long MIN_RETRY_MS = 2000;
+    private static final long MAX_RETRY_MS = 5 * 60 * 1000;
+
+    public interface AuthCallback {
+        void onSuccess(String user);
+        void onFailure(String message);
+    }
+
+    private static UserRepository instance;
+
+    public static synchronized UserRepository getInstance(Context context) {
+        if (instance == null) instance = new UserRepository(context);
+        return instance;
+    }
+
+    private final LocalUserStore store;
+    private final DoseReminders reminders;
+    private final DatabaseReference rootRef = FirebaseDatabase.getInstance().getReference();
+    private final DatabaseReference usersRef = rootRef.child("users");
+    private final DatabaseReference credentialsRef = rootRef.child("credentials");
+    private final ScheduledExecutorService diskExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "UserRepository");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, MediatorLiveData<UserProfile>> profiles = new HashMap<>(); // Main thread only
+    private final Set<String> migrated = new HashSet<>(); // Main thread; users whose migration was sent
+    private String activeUser; // Main thread
+
+    // --- Write-behind State (disk thread) ---
+    private boolean flushInFlight = false;
+    private boolean flushRequested = false; // Edits queued while a push was in flight
+    private long retryDelayMs = MIN_RETRY_MS;
+
+    private UserRepository(Context context) {
+        this.store = new LocalUserStore(context);
+        this.reminders = DoseReminders.getInstance(context);
+        // Push whatever an earlier session left queued as soon as the database is reachable
+        FirebaseDatabase.getInstance().getReference(".info/connected").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (Boolean.TRUE.equals(snapshot.getValue(Boolean.class))) requestFlush();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { }
+        });
+    }
+
+    // --- Reads ---
+    /**
+     * The profile, kept current by one shared listener on {@code users/<name>} while anything
+     * observes it (see {@link SharedSnapshotLiveData}). The first call serves the SQLite copy
+     * until the server's arrives; later calls, from any screen, get the last value from memory.
+     * Main thread.
+     */
+    public LiveData<UserProfile> getProfile(String user) {
+        MediatorLiveData<UserProfile> live = profiles.get(user);
+        if (live != null) return live;
+        MediatorLiveData<UserProfile> created = new MediatorLiveData<>();
+        profiles.put(user, created);
+        diskExecutor.execute(() -> {
+            UserProfile cached = store.getProfile(user);
+            if (cached != null) publish(cached); // Queued ahead of any server copy's merge
+        });
+        created.addSource(SharedSnapshotLiveData.forPath("users/" + user), snapshot -> onServerCopy(user, snapshot));
+        return created;
+    }
+
+    /**
+     * Display name and notes from {@code user_details/<name>}: cold data, downloaded only while
+     * a screen that shows it observes it. Main thread.
+     */
+    public LiveData<UserDetails> getDetails(String user) {
+        return Transformations.map(SharedSnapshotLiveData.forPath(UserSchema.DETAILS_ROOT + "/" + user),
+                snapshot -> snapshot.getValue(UserDetails.class));
+    }
+
+    // --- Active User (main thread) ---
+    /**
+     * Keeps only this user's node synced into Firebase's disk cache, even with no screen
+     * observing it, and starts loading the profile now, so the dashboard renders from disk
+     * first and reconciles as server updates arrive. Replaces the previous user's sync.
+     */
+    public void setActiveUser(String user) {
+        if (user.equals(activeUser)) return;
+        if (activeUser != null) usersRef.child(activeUser).keepSynced(false);
+        activeUser = user;
+        usersRef.child(user).keepSynced(true);
+        getProfile(user);
+    }
+
+    // --- Auth ---
+    /**
+     * Checks the password against the compact {@code credentials/<name>} record only: offline
+     * against the verifier cached at the last online login, otherwise against the server's.
+     * The profile is only loaded once a screen asks for it (see {@link #getProfile}).
+     */
+    public void login(String user, String password, AuthCallback callback) {
+        diskExecutor.execute(() -> {
+            Credential cached = store.getCredential(user);
+            if (cached != null && cached.matches(password)) {
+                succeed(callback, user);
+                return;
+            }
+            fetchCredential(user, password, callback);
+        });
+    }
+
+    /**
+     * Needs the server: only it knows whether the name is taken. Creates the credential record,
+     * the profile and its details in one multi-path update.
+     */
+    public void register(String user, String password, AuthCallback callback) {
+        credentialsRef.child(user).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (snapshot.exists()) {
+                    callback.onFailure("Username already taken. Please login.");
+                    return;
+                }
+                // Accounts from before credential records only have the profile, possibly already
+                // migrated (by an auto-login, which writes no credential record)
+                usersRef.child(user).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot profile) {
+                        Map<String, Object> node = new HashMap<>();
+                        for (DataSnapshot child : profile.getChildren()) node.put(child.getKey(), child.getValue());
+                        if (UserSchema.isTaken(node)) {
+                            callback.onFailure("Username already taken. Please login.");
+                        } else {
+                            diskExecutor.execute(() -> createAccount(user, password, callback));
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) { callback.onFailure("Database error"); }
+                });
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { callback.onFailure("Database error"); }
+        });
+    }
+
+    private void createAccount(String user, String password, AuthCallback callback) {
+        Credential credential = Credential.create(password); // Hashing: disk thread, not main
+        UserProfile profile = UserProfile.newUser(user);
+        Map<String, Object> update = new HashMap<>();
+        update.put("credentials/" + user, credential.toMap());
+        update.put("users/" + user, profile.toRecord());
+        update.put(UserSchema.DETAILS_ROOT + "/" + user, new UserDetails(user));
+        rootRef.updateChildren(update).addOnCompleteListener(task -> {
+            if (!task.isSuccessful()) {
+                callback.onFailure("Registration failed. Try again.");
+                return;
+            }
+            diskExecutor.execute(() -> {
+                store.putCredential(user, credential);
+                store.putSyncedProfile(profile);
+                publish(profile);
+                succeed(callback, user);
+            });
+        });
+    }
+
+    /**
+     * Verifies against the server's record, caching it for offline logins.
+     */
+    private void fetchCredential(String user, String password, AuthCallback callback) {
+        credentialsRef.child(user).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (!snapshot.exists()) {
+                    migrateLegacyPassword(user, password, callback);
+                    return;
+                }
+                Map<String, Object> values = new HashMap<>();
+                for (DataSnapshot child : snapshot.getChildren()) values.put(child.getKey(), child.getValue());
+                Credential credential = Credential.fromMap(values);
+                diskExecutor.execute(() -> {
+                    if (credential == null || !credential.matches(password)) {
+                        fail(callback, "Invalid password");
+                        return;
+                    }
+                    store.putCredential(user, credential);
+                    succeed(callback, user);
+                });
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { callback.onFailure("Database error"); }
+        });
+    }
+
+    /**
+     * Accounts created before credential records keep a plain-text {@code users/<name>/password};
+     * on their first login it is replaced by a credential record.
+     */
+    private void migrateLegacyPassword(String user, String password, AuthCallback callback) {
+        usersRef.child(user).child(UserSchema.LEGACY_FIELD_PASSWORD).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (!snapshot.exists()) {
+                    callback.onFailure("User not found");
+                    return;
+                }
+                if (!password.equals(snapshot.getValue(String.class))) {
+                    callback.onFailure("Invalid password");
+                    return;
+                }
+                diskExecutor.execute(() -> {
+                    Credential credential = Credential.create(password);
+                    Map<String, Object> update = new HashMap<>();
+                    update.put("credentials/" + user, credential.toMap());
+                    update.put("users/" + user + "/" + UserSchema.LEGACY_FIELD_PASSWORD, null);
+                    rootRef.updateChildren(update); // Login goes ahead; a failed migration repeats next time
+                    store.putCredential(user, credential);
+                    succeed(callback, user);
+                });
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) { callback.onFailure("Database error"); }
+        });
+    }
+
+    // --- Writes ---
+    /**
+     * Adds or edits a medication's name and times locally (visible immediately) and queues it for
+     * the server. Its count is left alone: stock changes go through {@link StockLedger}.
+     */
+    public void putMedication(String user, String medId, Medication medication) {
+        edit(user, medId, medication.copy());
+    }
+
+    public void removeMedication(String user, String medId) {
+        edit(user, medId, null);
+    }
+
+    private void edit(String user, String medId, Medication medication) {
+        diskExecutor.execute(() -> {
+            UserProfile updated = store.applyEdit(user, medId, medication);
+            if (updated == null) {
+                Log.w(TAG, "Edit of " + medId + " for uncached user " + user + " dropped");
+                return;
+            }
+            publish(updated);
+            flush();
+        });
+    }
+
+    public static String newMedicationId() {
+        return FirebaseDatabase.getInstance().getReference().push().getKey(); // Time-ordered, unique
+    }
+
+    public void requestFlush() {
+        diskExecutor.execute(this::flush);
+    }
+
+    // --- Sync ---
+    /**
+     * Merges a server copy with queued edits, caches and publishes the result.
+     */
+    private void onServerCopy(String user, DataSnapshot snapshot) {
+        if (!snapshot.exists()) return;
+        UserProfile remote;
+        if (snapshot.hasChild(UserSchema.FIELD_VERSION)) {
+            remote = UserProfile.fromRecord(user, snapshot.getValue(UserRecord.class));
+        } else {
+            Map<String, Object> values = new HashMap<>();
+            for (DataSnapshot child : snapshot.getChildren()) values.put(child.getKey(), child.getValue());
+            remote = UserSchema.fromLegacy(user, values);
+            migrate(user, values);
+        }
+        diskExecutor.execute(() -> {
+            UserProfile cached = store.getProfile(user);
+            UserProfile merged = cached != null ? cached.mergeRemote(remote, store.getPendingMedIds(user)) : remote;
+            store.putSyncedProfile(merged);
+            publish(merged);
+        });
+    }
+
+    /**
+     * Rewrites a version-1 record in the new schema, once per process; the listener then
+     * delivers the migrated node. Until then the converted profile is served. A transaction on
+     * the whole node: a count increment that lands meanwhile is added to, not overwritten, and a
+     * node another client already migrated ({@code v} set) is left alone.
+     */
+    private void migrate(String user, Map<String, Object> legacy) {
+        if (!migrated.add(user)) return;
+        usersRef.child(user).runTransaction(new Transaction.Handler() {
+            @NonNull
+            @Override
+            @SuppressWarnings("unchecked")
+            public Transaction.Result doTransaction(@NonNull MutableData data) {
+                Object value = data.getValue();
+                if (!(value instanceof Map)) return Transaction.success(data); // Not cached yet: the server retries with its copy
+                Map<String, Object> node = UserSchema.migrated((Map<String, Object>) value);
+                if (node == null) return Transaction.abort(); // Already version 2
+                data.setValue(node);
+                return Transaction.success(data);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
+                if (error != null) {
+                    Log.w(TAG, "Migration of " + user + " failed: " + error.getMessage());
+                    migrated.remove(user); // Retried on the next snapshot
+                } else if (committed && snapshot.hasChild(UserSchema.FIELD_VERSION)) {
+                    rootRef.child(UserSchema.DETAILS_ROOT).child(user).setValue(UserSchema.details(user, legacy));
+                    Log.i(TAG, "Migrated " + user + " to schema version " + UserSchema.VERSION);
+                }
+            }
+        });
+    }
+
+    /**
+     * Pushes every queued edit, one {@code updateChildren} per user. One push at a time; edits
+     * queued meanwhile go out in the next one.
+     */
+    private void flush() {
+        if (flushInFlight) {
+            flushRequested = true;
+            return;
+        }
+        List<PendingWrite> writes = store.getPendingWrites();
+        if (writes.isEmpty()) return;
+        Map<String, Map<String, Object>> updates = PendingWrite.coalesce(writes);
+        final long lastId = writes.get(writes.size() - 1).id;
+        final int[] remaining = { updates.size() };
+        final boolean[] failed = { false };
+        flushInFlight = true;
+
+        for (Map.Entry<String, Map<String, Object>> update : updates.entrySet()) {
+            final String user = update.getKey();
+            usersRef.child(user).updateChildren(update.getValue()).addOnCompleteListener(task ->
+                    diskExecutor.execute(() -> {
+                        if (task.isSuccessful()) {
+                            store.removePendingWrites(user, lastId);
+                            UserProfile local = store.getProfile(user);
+                            if (local != null) raiseNextSlot(user, local.getNextSlot());
+                        } else {
+                            Log.w(TAG, "Push for " + user + " failed, keeping it queued", task.getException());
+                            failed[0] = true;
+                        }
+                        if (--remaining[0] > 0) return;
+                        flushInFlight = false;
+                        if (failed[0]) {
+                            scheduleRetry();
+                        } else {
+                            retryDelayMs = MIN_RETRY_MS;
+                            if (flushRequested) {
+                                flushRequested = false;
+                                flush();
+                            }
+                        }
+                    }));
+        }
+    }
+
+    /**
+     * Stores the slot counter of a push, so a removed medication's slot stays used on every
+     * phone. A transaction that only raises it: another phone may have handed out more.
+     */
+    private void raiseNextSlot(String user, int nextSlot) {
+        usersRef.child(user).child(UserSchema.FIELD_NEXT_SLOT).runTransaction(new Transaction.Handler() {
+            @NonNull
+            @Override
+            public Transaction.Result doTransaction(@NonNull MutableData data) {
+                Integer current = data.getValue(Integer.class);
+                if (current != null && current >= nextSlot) return Transaction.abort();
+                data.setValue(nextSlot);
+                return Transaction.success(data);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot snapshot) {
+                if (error != null) Log.w(TAG, "Slot counter of " + user + " not stored: " + error.getMessage());
+            }
+        });
+    }
+
+    private void scheduleRetry() {
+        diskExecutor.schedule(this::flush, retryDelayMs, TimeUnit.MILLISECONDS);
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+    }
+
+    // --- Delivery (main thread) ---
+    private void publish(UserProfile profile) {
+        mainHandler.post(() -> {
+            if (profile.name.equals(activeUser)) reminders.syncWithProfile(profile); // Before observers look at them
+            MediatorLiveData<UserProfile> live = profiles.get(profile.name);
+            if (live != null) live.setValue(profile);
+        });
+    }
+
+    private void succeed(AuthCallback callback, String user) {
+        mainHandler.post(() -> callback.onSuccess(user));
+    }
+
+    private void fail(AuthCallback callback, String message) {
+        mainHandler.post(() -> callback.onFailure(message));
+    }
+}
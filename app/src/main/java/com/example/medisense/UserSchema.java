@@ -0,0 +1,161 @@
+package com.example.medisense;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout of user data in the Realtime Database, and the lazy migration from the first one.
+ * <ul>
+ * <li>Version 1: {@code users/<name>} = flat strings {@code name, med_info, med_count ("10"),
+ * med_sched ("14:30")}, one medication per user.</li>
+ * <li>Version 2: {@code users/<name>} = {@link UserRecord} (hot: {@code v} and typed
+ * {@link Medication}s with integer counts and minutes-of-day), {@code user_details/<name>} =
+ * {@link UserDetails} (cold).</li>
+ * </ul>
+ * A version-1 node is converted the first time a client reads it ({@link #migrated}).
+ * <p>
+ * Plain Java (no DataSnapshot) so it runs in unit tests.
+ */
+public final class UserSchema {
+
+    public static final int VERSION = 2;
+    public static final String FIELD_VERSION = "v";
+    public static final String FIELD_MEDS = "meds";
+    public static final String FIELD_NEXT_SLOT = "ns";
+    public static final String DETAILS_ROOT = "user_details";
+
+    // --- Version 1 ---
+    static final String LEGACY_FIELD_NAME = "name";
+    static final String LEGACY_FIELD_MED_INFO = "med_info";
+    static final String LEGACY_FIELD_MED_COUNT = "med_count";
+    static final String LEGACY_FIELD_MED_SCHED = "med_sched";
+    /**
+     * Numeric count kept next to med_count by the first stock ledger: its increments, plus
+     * med_count once that was folded in (which removes med_count in the same write).
+     */
+    static final String LEGACY_FIELD_STOCK_COUNT = "stock_count";
+    /** Plain-text password of accounts created before {@link Credential}; removed at their first login. */
+    static final String LEGACY_FIELD_PASSWORD = "password";
+    private static final String LEGACY_UNSET = "Not Set"; // med_info of a signup that never set one
+
+    /**
+     * Id of the single medication of a version-1 user: the id its dose schedule was imported under.
+     */
+    public static final String LEGACY_MED_ID = "med_sched";
+
+    private UserSchema() { }
+
+    /**
+     * @param node the children of {@code users/<name>}
+     */
+    public static boolean isLegacy(Map<String, ?> node) {
+        return !(node.get(FIELD_VERSION) instanceof Number);
+    }
+
+    /**
+     * Whether a signup must not use this name: any profile node counts, in either version. A
+     * migrated version-1 node has no {@code name} child, and no credential record either if its
+     * user has only been auto-logged in since.
+     *
+     * @param node the children of {@code users/<name>}, empty if there is none
+     */
+    public static boolean isTaken(Map<String, ?> node) {
+        return !node.isEmpty();
+    }
+
+    /**
+     * The profile a version-1 node converts to: its medication, unless it is the untouched signup
+     * default, under {@link #LEGACY_MED_ID} in dispenser slot 0.
+     */
+    public static UserProfile fromLegacy(String name, Map<String, ?> node) {
+        UserProfile profile = UserProfile.newUser(name);
+        Medication medication = legacyMedication(node);
+        return medication != null ? profile.withMedication(LEGACY_MED_ID, medication) : profile;
+    }
+
+    /**
+     * The children a version-1 node is rewritten to, for a transaction on {@code users/<name>}:
+     * {@code v}, the medication under {@link #LEGACY_MED_ID}, and whatever else is there (the
+     * legacy password stays for the login that replaces it), without the flat fields.
+     * An increment that reached {@code meds/med_sched/c} before the migration is kept: the
+     * legacy count is added to it. {@code v} marks the node as done, so this happens once.
+     *
+     * @param node the current children of {@code users/<name>}
+     * @return the new children, or null if the node is already version 2
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> migrated(Map<String, ?> node) {
+        if (!isLegacy(node)) return null;
+        Map<String, Object> result = new HashMap<>(node);
+        for (String field : new String[] { LEGACY_FIELD_NAME, LEGACY_FIELD_MED_INFO, LEGACY_FIELD_MED_COUNT,
+                LEGACY_FIELD_MED_SCHED, LEGACY_FIELD_STOCK_COUNT }) {
+            result.remove(field);
+        }
+        result.put(FIELD_VERSION, VERSION);
+        Medication medication = legacyMedication(node);
+        if (medication != null) {
+            Map<String, Object> meds = node.get(FIELD_MEDS) instanceof Map
+                    ? new HashMap<>((Map<String, Object>) node.get(FIELD_MEDS)) : new HashMap<String, Object>();
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(Medication.FIELD_NAME, medication.name);
+            fields.put(Medication.FIELD_COUNT, medication.count);
+            fields.put(Medication.FIELD_TIMES, new ArrayList<>(medication.times));
+            fields.put(Medication.FIELD_SLOT, medication.slot);
+            meds.put(LEGACY_MED_ID, fields);
+            result.put(FIELD_MEDS, meds);
+        }
+        return result;
+    }
+
+    /**
+     * The cold part of a version-1 node, for {@code user_details/<name>}.
+     */
+    public static UserDetails details(String name, Map<String, ?> node) {
+        Object displayName = node.get(LEGACY_FIELD_NAME);
+        return new UserDetails(displayName instanceof String ? (String) displayName : name);
+    }
+
+    private static Medication legacyMedication(Map<String, ?> node) {
+        Object info = node.get(LEGACY_FIELD_MED_INFO);
+        Object stock = node.get(LEGACY_FIELD_STOCK_COUNT);
+        // Added, not preferred: an increment may have created stock_count before med_count was folded in
+        long count = parseCount(node.get(LEGACY_FIELD_MED_COUNT)) + (stock instanceof Number ? ((Number) stock).longValue() : 0);
+        // The medication's node may exist already: written by the ledger (c) or an edit (n, t)
+        Map<?, ?> early = node.get(FIELD_MEDS) instanceof Map ? (Map<?, ?>) node.get(FIELD_MEDS) : null;
+        Object earlyMed = early != null ? early.get(LEGACY_MED_ID) : null;
+        Map<?, ?> written = earlyMed instanceof Map ? (Map<?, ?>) earlyMed : Collections.emptyMap();
+        if (written.get(Medication.FIELD_COUNT) instanceof Number) count += ((Number) written.get(Medication.FIELD_COUNT)).longValue();
+        if (written.get(Medication.FIELD_NAME) instanceof String) info = written.get(Medication.FIELD_NAME);
+        boolean named = info != null && !LEGACY_UNSET.equals(info);
+        if (!named && count == 0) return null;
+        List<Integer> times = new ArrayList<>();
+        if (written.get(Medication.FIELD_TIMES) instanceof List) {
+            for (Object minute : (List<?>) written.get(Medication.FIELD_TIMES)) {
+                if (minute instanceof Number) times.add(((Number) minute).intValue());
+            }
+        } else {
+            int minute = DoseSchedule.parseTime(node.get(LEGACY_FIELD_MED_SCHED) instanceof String
+                    ? (String) node.get(LEGACY_FIELD_MED_SCHED) : null);
+            if (minute >= 0) times.add(minute);
+        }
+        Medication medication = new Medication(named ? String.valueOf(info) : LEGACY_UNSET, count, times);
+        medication.slot = 0; // The only one a version-1 user has
+        return medication;
+    }
+
+    /**
+     * @param value a version-1 {@code med_count}: a string, or a number if another client wrote one.
+     */
+    static long parseCount(Object value) {
+        if (value instanceof Number) return Math.max(0, ((Number) value).longValue());
+        if (value == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(value.toString().trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM benchmark of the provisioning pipeline as BleService runs it: GATT callbacks hop to one
+ * worker thread, go through the GattOperationScheduler and publish a BleState snapshot. The
+ * scripted GATT answers every request on its own "binder" thread as soon as it is issued, so
+ * the numbers are the app's own overhead rather than radio time.
+ * Results are written as JSON to build/benchmarks/ble-pipeline.json (-Dbenchmark.output=...).
+ */
+public class BlePipelineBenchmarkTest {
+
+    private static final UUID SERVICE = DispenserProfile.SERVICE;
+    private static final UUID FRAME = DispenserProfile.CHAR_PROVISION_FRAME;
+    private static final byte[] PAYLOAD = new byte[16];
+
+    private static final int THROUGHPUT_OPS = 50000;
+    private static final int WARMUP_RUNS = 500;
+    private static final int MEASURED_RUNS = 5000;
+    private static final int OUTSTANDING_OPS = 10000;
+
+    /**
+     * Perfect link: every request is accepted and answered on the binder thread. While
+     * {@link #hold} is set, answers are parked until {@link #release()}.
+     */
+    private static class ScriptedGatt implements GattConnection {
+        final ExecutorService binder;
+        Callback callback;
+        volatile long answeredAtNs;
+        private boolean hold;
+        private final List<Runnable> parked = new ArrayList<>();
+
+        ScriptedGatt(ExecutorService binder) {
+            this.binder = binder;
+        }
+
+        private synchronized void answer(Runnable event) {
+            if (hold) {
+                parked.add(event);
+                return;
+            }
+            binder.execute(() -> {
+                answeredAtNs = System.nanoTime();
+                event.run();
+            });
+        }
+
+        synchronized void hold() { hold = true; }
+
+        synchronized void release() {
+            hold = false;
+            for (Runnable event : parked) answer(event);
+            parked.clear();
+        }
+
+        @Override public String getAddress() { return "5E:00:00:00:00:01"; }
+        @Override public boolean discoverServices() { return true; }
+        @Override public boolean hasCharacteristic(UUID service, UUID characteristic) { return true; }
+        @Override public boolean isDiscoveryFromCache() { return true; }
+        @Override public long getDiscoveryDurationMs() { return 0; }
+        @Override public boolean readCharacteristic(UUID service, UUID characteristic) { return false; }
+        @Override public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) { return false; }
+        @Override public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) { return false; }
+        @Override public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) { return false; }
+        @Override public boolean requestConnectionPriority(int priority) { return true; }
+        @Override public boolean beginReliableWrite() { return false; }
+        @Override public boolean executeReliableWrite() { return false; }
+        @Override public void abortReliableWrite() {}
+        @Override public void disconnect() {}
+        @Override public void close() {}
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            answer(() -> callback.onMtuChanged(mtu, BluetoothGatt.GATT_SUCCESS));
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+            answer(() -> callback.onCharacteristicWrite(characteristic, BluetoothGatt.GATT_SUCCESS));
+            return true;
+        }
+    }
+
+    /**
+     * BleService's threading: callbacks are posted to the single worker, which owns the
+     * scheduler and the published state.
+     */
+    private static class Pipeline implements GattConnection.Callback {
+        final ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1);
+        final ExecutorService binder = Executors.newSingleThreadExecutor();
+        final GattOperationScheduler scheduler = new GattOperationScheduler(worker);
+        final ScriptedGatt gatt = new ScriptedGatt(binder);
+        final LatencyHistogram publishLatencyUs = new LatencyHistogram(); // Microseconds here
+        volatile BleState state = BleState.idle(0);
+        long published;
+        Thread workerThread, binderThread;
+
+        Pipeline() throws Exception {
+            worker.setRemoveOnCancelPolicy(true); // Completed operations' deadlines leave the queue at once
+            gatt.callback = this;
+            workerThread = worker.submit(Thread::currentThread).get();
+            binderThread = binder.submit(Thread::currentThread).get();
+            scheduler.attach(gatt);
+        }
+
+        void publish(BleState.Phase phase, String message, int step, int totalSteps) {
+            state = state.to(phase, message, System.nanoTime() / 1000000).withProgress(step, totalSteps);
+            published++;
+        }
+
+        void recordPublishLatency() {
+            publishLatencyUs.record((System.nanoTime() - gatt.answeredAtNs) / 1000);
+        }
+
+        /**
+         * Framed provisioning as BleService queues it: MTU request, then the frame write.
+         */
+        void provision(CountDownLatch done) {
+            scheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU).retries(0)
+                    .then((op, status) -> {
+                        recordPublishLatency();
+                        publish(BleState.Phase.NEGOTIATING_MTU, "Negotiating MTU...", 0, 1);
+                    }));
+            scheduler.enqueue(GattOperation.write(SERVICE, FRAME, PAYLOAD).then(new GattOperation.Callback() {
+                @Override
+                public void onStart(GattOperation operation) {
+                    publish(BleState.Phase.WRITING, "Writing Provisioning Data...", 1, 1);
+                }
+
+                @Override
+                public void onComplete(GattOperation operation, int status) {
+                    recordPublishLatency();
+                    publish(BleState.Phase.COMPLETE, "Provisioning Complete!", 1, 1);
+                    done.countDown();
+                }
+            }));
+        }
+
+        void shutdown() {
+            worker.shutdownNow();
+            binder.shutdownNow();
+        }
+
+        // --- Forwarded to the worker, as BleService's gattCallback does ---
+        @Override public void onCharacteristicWrite(UUID characteristic, int status) {
+            worker.execute(() -> scheduler.onCharacteristicWrite(characteristic, status));
+        }
+        @Override public void onMtuChanged(int mtu, int status) {
+            worker.execute(() -> scheduler.onMtuChanged(mtu, status));
+        }
+        @Override public void onConnectionStateChange(int status, int newState) {}
+        @Override public void onServicesDiscovered(int status) {}
+        @Override public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {}
+        @Override public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {}
+        @Override public void onCharacteristicChanged(UUID characteristic, byte[] value) {}
+        @Override public void onPhyUpdate(int txPhy, int rxPhy, int status) {}
+        @Override public void onConnectionUpdated(int interval, int latency, int timeout, int status) {}
+        @Override public void onReliableWriteCompleted(int status) {}
+        @Override public void onServiceChanged() {}
+    }
+
+    private Pipeline pipeline;
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) pipeline.shutdown();
+    }
+
+    /**
+     * Bytes allocated so far by the given threads, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes(Thread... threads) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) return -1;
+        long total = 0;
+        for (Thread thread : threads) total += hotspot.getThreadAllocatedBytes(thread.getId());
+        return total;
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return count * 1e9 / nanos;
+    }
+
+    private long queueThroughput(GattOperation.Type type) throws Exception {
+        CountDownLatch done = new CountDownLatch(THROUGHPUT_OPS);
+        long start = System.nanoTime();
+        for (int i = 0; i < THROUGHPUT_OPS; i++) {
+            GattOperation op = type == GattOperation.Type.WRITE_NO_RESPONSE
+                    ? GattOperation.writeNoResponse(SERVICE, FRAME, PAYLOAD)
+                    : GattOperation.write(SERVICE, FRAME, PAYLOAD);
+            pipeline.scheduler.enqueue(op.then((o, status) -> done.countDown()));
+        }
+        assertTrue("Queue did not drain", done.await(60, TimeUnit.SECONDS));
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void provisioningPipeline() throws Exception {
+        pipeline = new Pipeline();
+        Thread main = Thread.currentThread();
+        StringBuilder json = new StringBuilder("{\n  \"benchmark\": \"ble-pipeline\",\n");
+        json.append(String.format(Locale.US, "  \"jvm\": \"%s\",\n", System.getProperty("java.vm.version")));
+
+        // --- Operation queue throughput ---
+        queueThroughput(GattOperation.Type.WRITE); // Warm-up
+        long writeNs = queueThroughput(GattOperation.Type.WRITE);
+        pipeline.scheduler.setWriteCredits(4);
+        long wnrNs = queueThroughput(GattOperation.Type.WRITE_NO_RESPONSE);
+        pipeline.scheduler.setWriteCredits(1);
+        json.append(String.format(Locale.US,
+                "  \"queue_throughput\": {\"ops\": %d, \"write_ops_per_sec\": %.0f, \"write_no_response_ops_per_sec\": %.0f},\n",
+                THROUGHPUT_OPS, perSecond(THROUGHPUT_OPS, writeNs), perSecond(THROUGHPUT_OPS, wnrNs)));
+
+        // --- Provisioning runs: time, allocation, callback -> publish latency ---
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            pipeline.provision(done);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+        pipeline.publishLatencyUs.reset();
+        LatencyHistogram runUs = new LatencyHistogram();
+        long publishedBefore = pipeline.published;
+        long allocBefore = allocatedBytes(main, pipeline.workerThread, pipeline.binderThread);
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            long start = System.nanoTime();
+            pipeline.provision(done);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            runUs.record((System.nanoTime() - start) / 1000);
+        }
+        long allocAfter = allocatedBytes(main, pipeline.workerThread, pipeline.binderThread);
+        assertEquals(3L * MEASURED_RUNS, pipeline.published - publishedBefore);
+        assertEquals(BleState.Phase.COMPLETE, pipeline.state.phase);
+
+        LatencyHistogram.Snapshot run = runUs.snapshot();
+        LatencyHistogram.Snapshot publish = pipeline.publishLatencyUs.snapshot();
+        json.append(String.format(Locale.US,
+                "  \"provisioning_run\": {\"runs\": %d, \"p50_us\": %d, \"p95_us\": %d, \"p99_us\": %d, \"mean_us\": %.1f, \"allocated_bytes_per_run\": %d},\n",
+                MEASURED_RUNS, run.p50Ms, run.p95Ms, run.p99Ms, run.meanMs,
+                allocBefore < 0 ? -1 : (allocAfter - allocBefore) / MEASURED_RUNS));
+        json.append(String.format(Locale.US,
+                "  \"callback_to_publish_us\": {\"samples\": %d, \"p50\": %d, \"p95\": %d, \"p99\": %d, \"max\": %d},\n",
+                publish.count, publish.p50Ms, publish.p95Ms, publish.p99Ms, publish.maxMs));
+
+        // --- Thousands of outstanding operations: enqueue cost, drain, cancel ---
+        pipeline.gatt.hold();
+        CountDownLatch drained = new CountDownLatch(OUTSTANDING_OPS);
+        long enqueueAlloc = allocatedBytes(main);
+        long enqueueStart = System.nanoTime();
+        for (int i = 0; i < OUTSTANDING_OPS; i++) {
+            pipeline.scheduler.enqueue(GattOperation.write(SERVICE, FRAME, PAYLOAD).then((o, status) -> drained.countDown()));
+        }
+        long enqueueNs = System.nanoTime() - enqueueStart;
+        enqueueAlloc = enqueueAlloc < 0 ? -1 : (allocatedBytes(main) - enqueueAlloc) / OUTSTANDING_OPS;
+        int queued = pipeline.scheduler.getPendingCount();
+        assertEquals(OUTSTANDING_OPS - 1, queued); // One in flight, held by the link
+        long drainStart = System.nanoTime();
+        pipeline.gatt.release();
+        assertTrue("Outstanding operations did not drain", drained.await(60, TimeUnit.SECONDS));
+        long drainNs = System.nanoTime() - drainStart;
+        pipeline.worker.submit(() -> { }).get(); // Let the last deadline cancellation land
+        int timerQueue = pipeline.worker.getQueue().size();
+
+        pipeline.gatt.hold();
+        AtomicInteger cancelled = new AtomicInteger();
+        for (int i = 0; i < OUTSTANDING_OPS; i++) {
+            pipeline.scheduler.enqueue(GattOperation.write(SERVICE, FRAME, PAYLOAD).then((o, status) -> {
+                if (status == GattOperationScheduler.STATUS_CANCELLED) cancelled.incrementAndGet();
+            }));
+        }
+        long cancelStart = System.nanoTime();
+        pipeline.scheduler.cancelAll();
+        long cancelNs = System.nanoTime() - cancelStart;
+        assertEquals(OUTSTANDING_OPS, cancelled.get());
+        assertTrue(pipeline.scheduler.isIdle());
+
+        json.append(String.format(Locale.US,
+                "  \"outstanding\": {\"ops\": %d, \"enqueue_ns_per_op\": %d, \"enqueue_bytes_per_op\": %d, \"drain_ms\": %d, "
+                        + "\"drain_ops_per_sec\": %.0f, \"timer_queue_after_drain\": %d, \"cancel_all_ms\": %.2f}\n}\n",
+                OUTSTANDING_OPS, enqueueNs / OUTSTANDING_OPS, enqueueAlloc, drainNs / 1000000,
+                perSecond(OUTSTANDING_OPS, drainNs), timerQueue, cancelNs / 1e6));
+        // Deadlines of completed operations must not pile up in the timer
+        assertEquals(0, timerQueue);
+
+        System.out.print(json);
+        writeResults(json.toString());
+    }
+
+    private static void writeResults(String json) throws IOException {
+        File out = new File(System.getProperty("benchmark.output", "build/benchmarks/ble-pipeline.json"));
+        File dir = out.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)) {
+            writer.write(json);
+        }
+    }
+}
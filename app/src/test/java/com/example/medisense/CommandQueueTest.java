@@ -0,0 +1,64 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coalescing, retry and acknowledgement matching of the dispenser command queue.
+ */
+public class CommandQueueTest {
+
+    @Test
+    public void supersededCommandsCollapseIntoOneBatch() {
+        CommandQueue queue = new CommandQueue();
+        queue.enqueue(DispenserCommand.reschedule("P1", 1, "08:00", "asha"));
+        assertTrue(queue.enqueue(DispenserCommand.reschedule("P1", 1, "09:30", "asha")));
+        queue.enqueue(DispenserCommand.setStock("P1", 1, 30, "asha"));
+        queue.enqueue(DispenserCommand.reschedule("P2", 1, "07:00", "asha"));
+
+        Map<String, DispenserCommand> batch = queue.drain(0);
+        assertEquals(3, batch.size());
+        assertEquals("09:30", batch.get("commands/P1/reschedule_1").value);
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(1, queue.getBatchCount());
+        assertFalse(queue.hasPending());
+    }
+
+    @Test
+    public void failedBatchRequeuedUnlessSuperseded() {
+        CommandQueue queue = new CommandQueue();
+        DispenserCommand stock = DispenserCommand.setStock("P1", 2, 10, "asha");
+        queue.enqueue(DispenserCommand.reschedule("P1", 2, "08:00", "asha"));
+        queue.enqueue(stock);
+        Map<String, DispenserCommand> failed = queue.drain(0);
+
+        queue.enqueue(DispenserCommand.reschedule("P1", 2, "21:00", "asha")); // Issued while the write was out
+        queue.onBatchFailed(failed);
+        Map<String, DispenserCommand> retry = queue.drain(100);
+        assertEquals(2, retry.size());
+        assertEquals("21:00", retry.get("commands/P1/reschedule_2").value);
+        assertSame(stock, retry.get("commands/P1/set_stock_2"));
+    }
+
+    @Test
+    public void ackLatencyMatchedByCommandId() {
+        CommandQueue queue = new CommandQueue();
+        DispenserCommand first = DispenserCommand.reschedule("P1", 1, "08:00", "asha");
+        queue.enqueue(first);
+        queue.drain(1000);
+        DispenserCommand second = DispenserCommand.reschedule("P1", 1, "09:00", "asha");
+        queue.enqueue(second);
+        queue.drain(1500);
+        assertTrue(queue.isAwaitingAck("P1"));
+
+        assertNull(queue.onAcknowledged(first.path(), first.id, 1600)); // Superseded before it was applied
+        CommandQueue.Acknowledgement ack = queue.onAcknowledged(second.path(), second.id, 1750);
+        assertSame(second, ack.command);
+        assertEquals(250, ack.latencyMs);
+        assertFalse(queue.isAwaitingAck("P1"));
+        assertEquals(1, queue.getAckLatency().count);
+    }
+}
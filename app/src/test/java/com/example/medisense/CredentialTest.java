@@ -0,0 +1,39 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Password verifier derivation and its RTDB round trip.
+ */
+public class CredentialTest {
+
+    @Test
+    public void verifiesOnlyTheOriginalPassword() {
+        Credential credential = Credential.create("s3cret");
+        assertTrue(credential.matches("s3cret"));
+        assertFalse(credential.matches("s3cret "));
+        assertFalse(credential.matches(""));
+
+        Credential other = Credential.create("s3cret");
+        assertFalse(credential.salt.equals(other.salt)); // Same password, different verifier
+        assertFalse(credential.hash.equals(other.hash));
+    }
+
+    @Test
+    public void survivesDatabaseRoundTrip() {
+        Credential credential = Credential.create("pw");
+        Map<String, Object> stored = credential.toMap();
+        stored.put(Credential.FIELD_ITERATIONS, (long) credential.iterations); // RTDB returns Long
+        Credential loaded = Credential.fromMap(stored);
+        assertNotNull(loaded);
+        assertTrue(loaded.matches("pw"));
+
+        stored.remove(Credential.FIELD_SALT);
+        assertNull(Credential.fromMap(stored));
+        assertFalse(new Credential("zz", credential.hash, credential.iterations).matches("pw"));
+    }
+}
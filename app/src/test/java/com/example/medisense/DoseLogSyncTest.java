@@ -0,0 +1,140 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Watermark-based dose-history download against the simulated dispenser.
+ */
+public class DoseLogSyncTest {
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationScheduler scheduler = new GattOperationScheduler(worker);
+    private final DoseLogSync sync = new DoseLogSync(scheduler, worker);
+    private final BlockingQueue<Object> outcomes = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> linkEvents = new LinkedBlockingQueue<>();
+    private SimulatedGattTransport transport;
+    private SimulatedDispenser dispenser;
+    private GattConnection connection;
+
+    private final DoseLogSync.Listener listener = new DoseLogSync.Listener() {
+        @Override public void onComplete(DoseLogSync.Result result) { outcomes.add(result); }
+        @Override public void onFailed(int status, String reason) { outcomes.add(reason + ":" + status); }
+    };
+
+    /**
+     * Forwards to the worker like BleService, since DoseLogSync is confined to that thread.
+     */
+    private final GattConnection.Callback callback = new GattConnection.Callback() {
+        @Override public void onConnectionStateChange(int status, int newState) { linkEvents.add(newState); }
+        @Override public void onServicesDiscovered(int status) { linkEvents.add(status); }
+        @Override public void onCharacteristicWrite(UUID characteristic, int status) { worker.execute(() -> scheduler.onCharacteristicWrite(characteristic, status)); }
+        @Override public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {}
+        @Override public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) { worker.execute(() -> scheduler.onDescriptorWrite(characteristic, descriptor, status)); }
+        @Override public void onCharacteristicChanged(UUID characteristic, byte[] value) { worker.execute(() -> sync.onNotification(value.clone())); }
+        @Override public void onMtuChanged(int mtu, int status) { worker.execute(() -> scheduler.onMtuChanged(mtu, status)); }
+        @Override public void onPhyUpdate(int txPhy, int rxPhy, int status) {}
+        @Override public void onConnectionUpdated(int interval, int latency, int timeout, int status) {}
+        @Override public void onReliableWriteCompleted(int status) {}
+        @Override public void onServiceChanged() {}
+    };
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.shutdown();
+        worker.shutdownNow();
+    }
+
+    private void connect() throws Exception {
+        dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().connectionIntervalMs(1).telemetry(true));
+        transport = new SimulatedGattTransport(dispenser);
+        connection = transport.connect(dispenser.getAddress(), false, callback);
+        assertEquals(Integer.valueOf(BluetoothProfile.STATE_CONNECTED), linkEvents.poll(5, TimeUnit.SECONDS));
+        connection.discoverServices();
+        assertEquals(Integer.valueOf(BluetoothGatt.GATT_SUCCESS), linkEvents.poll(5, TimeUnit.SECONDS));
+        scheduler.attach(connection);
+        assertTrue(DoseLogSync.isSupported(connection));
+        worker.execute(() -> scheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU)));
+    }
+
+    private DoseLogSync.Result sync(long watermark) throws Exception {
+        worker.execute(() -> sync.start(connection, watermark, listener));
+        Object outcome = outcomes.poll(5, TimeUnit.SECONDS);
+        assertTrue("Sync did not complete: " + outcome, outcome instanceof DoseLogSync.Result);
+        return (DoseLogSync.Result) outcome;
+    }
+
+    private void appendDoses(int count) {
+        for (int i = 0; i < count; i++) {
+            dispenser.appendDoseLog(1700000000L + dispenser.getLastSeq() * 3600, i % 4, DoseLogRecord.EVENT_TAKEN);
+        }
+    }
+
+    @Test
+    public void secondSyncTransfersOnlyTheDelta() throws Exception {
+        connect();
+        appendDoses(500);
+        DoseLogSync.Result first = sync(0);
+        assertEquals(500, first.records.size());
+        assertEquals(1, first.records.get(0).seq);
+        assertEquals(500, first.watermark);
+
+        appendDoses(3);
+        DoseLogSync.Result second = sync(first.watermark);
+        assertEquals(3, second.records.size());
+        assertEquals(501, second.records.get(0).seq);
+        assertEquals(503, second.watermark);
+        assertFalse(second.deviceReset);
+
+        DoseLogSync.Result upToDate = sync(second.watermark);
+        assertTrue(upToDate.records.isEmpty());
+        assertEquals(503, upToDate.watermark);
+
+        // The acknowledgement is written after onComplete
+        long deadline = System.currentTimeMillis() + 2000;
+        while (dispenser.getAckedSeq() != 503 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(503, dispenser.getAckedSeq());
+    }
+
+    @Test
+    public void resetLogIsDownloadedFromTheStart() throws Exception {
+        connect();
+        appendDoses(20);
+        dispenser.resetDoseLog();
+        appendDoses(2);
+
+        DoseLogSync.Result result = sync(20);
+        assertTrue(result.deviceReset);
+        assertEquals(2, result.records.size());
+        assertEquals(1, result.records.get(0).seq);
+        assertEquals(2, result.watermark);
+    }
+
+    @Test
+    public void packetRoundTrip() {
+        List<DoseLogRecord> records = new ArrayList<>();
+        records.add(new DoseLogRecord(0xFFFFFFFEL, 1700000000L, 3, DoseLogRecord.EVENT_MISSED));
+        List<DoseLogRecord> decoded = new ArrayList<>();
+        assertTrue(DoseLogPacket.decodeData(DoseLogPacket.encodeData(records, 0, 1), decoded));
+        assertEquals(0xFFFFFFFEL, decoded.get(0).seq);
+        assertEquals(3, decoded.get(0).compartment);
+        assertEquals(DoseLogRecord.EVENT_MISSED, decoded.get(0).event);
+        assertEquals(7, DoseLogPacket.decodeEnd(DoseLogPacket.encodeEnd(7)));
+        assertEquals(-1, DoseLogPacket.decodeEnd(DoseLogPacket.encodeData(records, 0, 1)));
+        assertEquals(24, DoseLogPacket.recordsPerNotification(DispenserProfile.PREFERRED_MTU));
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recurrence rules and incremental next-dose queue of the dose engine.
+ */
+public class DoseSchedulerTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Asia/Kolkata");
+    private static final long HOUR_MS = 60L * 60 * 1000;
+
+    private static long at(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(ZONE);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static final class RecordingAlarm implements DoseScheduler.Alarm {
+        final List<Long> armed = new ArrayList<>();
+        int cancelled;
+        @Override public void arm(DoseScheduler.Dose next) { armed.add(next.timeMs); }
+        @Override public void cancel() { cancelled++; }
+    }
+
+    @Test
+    public void recurrenceRules() {
+        long monday = at(2024, 1, 1, 10, 0); // 1 Jan 2024 was a Monday
+        assertEquals(at(2024, 1, 1, 20, 0), DoseSchedule.daily("a", "A", 8 * 60, 20 * 60).nextAfter(monday, ZONE));
+
+        int weekdays = DoseSchedule.ALL_DAYS & ~(1 << (Calendar.SATURDAY - 1)) & ~(1 << (Calendar.SUNDAY - 1));
+        DoseSchedule workdays = new DoseSchedule("w", "W", new int[] { 9 * 60 }, weekdays, 1, 0);
+        assertEquals(at(2024, 1, 8, 9, 0), workdays.nextAfter(at(2024, 1, 5, 12, 0), ZONE)); // Friday noon -> Monday
+
+        DoseSchedule everyThirdDay = new DoseSchedule("e", "E", new int[] { 7 * 60 }, DoseSchedule.ALL_DAYS, 3, at(2024, 1, 1, 0, 0));
+        assertEquals(at(2024, 1, 4, 7, 0), everyThirdDay.nextAfter(at(2024, 1, 1, 8, 0), ZONE));
+        assertEquals(at(2024, 1, 1, 7, 0), everyThirdDay.nextAfter(at(2023, 12, 1, 0, 0), ZONE)); // Not before start
+
+        assertEquals(14 * 60 + 30, DoseSchedule.parseTime("14:30"));
+        assertEquals(-1, DoseSchedule.parseTime("25:00"));
+        DoseSchedule decoded = DoseSchedule.decode("e", everyThirdDay.encode());
+        assertEquals(everyThirdDay.nextAfter(monday, ZONE), decoded.nextAfter(monday, ZONE));
+    }
+
+    @Test
+    public void editRecomputesOnlyThatScheduleAndArmsTheHead() {
+        RecordingAlarm alarm = new RecordingAlarm();
+        DoseScheduler scheduler = new DoseScheduler(ZONE, alarm);
+        long now = at(2024, 1, 1, 6, 0);
+        List<DoseSchedule> schedules = new ArrayList<>();
+        for (int i = 0; i < 12; i++) schedules.add(DoseSchedule.daily("m" + i, "Med " + i, (8 + i) * 60));
+        scheduler.putAll(schedules, now);
+        assertEquals(12, scheduler.getOccurrencesComputed());
+        assertEquals(1, alarm.armed.size()); // One alarm for the whole load
+        assertEquals(at(2024, 1, 1, 8, 0), scheduler.peek().timeMs);
+
+        scheduler.put(DoseSchedule.daily("m5", "Med 5", 7 * 60), now); // Moved ahead of everything
+        assertEquals(13, scheduler.getOccurrencesComputed());
+        assertEquals(at(2024, 1, 1, 7, 0), (long) alarm.armed.get(alarm.armed.size() - 1));
+
+        scheduler.put(DoseSchedule.daily("m11", "Med 11", 23 * 60), now); // Head unchanged: no re-arm
+        assertEquals(2, alarm.armed.size());
+
+        List<DoseScheduler.Dose> upcoming = scheduler.upcoming(14);
+        assertEquals(14, upcoming.size());
+        for (int i = 1; i < upcoming.size(); i++) assertTrue(upcoming.get(i - 1).timeMs <= upcoming.get(i).timeMs);
+        assertEquals(at(2024, 1, 2, 7, 0), upcoming.get(12).timeMs); // Next day's first dose
+        assertEquals(14, scheduler.getOccurrencesComputed()); // Preview left the engine alone
+    }
+
+    @Test
+    public void lateAlarmReportsEachDueDoseOnce() {
+        RecordingAlarm alarm = new RecordingAlarm();
+        DoseScheduler scheduler = new DoseScheduler(ZONE, alarm);
+        long now = at(2024, 1, 1, 6, 0);
+        scheduler.put(DoseSchedule.daily("a", "A", 8 * 60, 12 * 60), now);
+        scheduler.put(DoseSchedule.daily("b", "B", 9 * 60), now);
+
+        List<DoseScheduler.Dose> due = scheduler.advance(at(2024, 1, 1, 9, 30));
+        assertEquals(2, due.size());
+        assertEquals("A", due.get(0).schedule.medication);
+        assertEquals("B", due.get(1).schedule.medication);
+        assertEquals(at(2024, 1, 1, 12, 0), scheduler.peek().timeMs);
+        assertEquals(at(2024, 1, 1, 12, 0), (long) alarm.armed.get(alarm.armed.size() - 1));
+
+        assertTrue(scheduler.advance(at(2024, 1, 1, 11, 0)).isEmpty());
+        scheduler.remove("a");
+        scheduler.remove("b");
+        assertNull(scheduler.peek());
+        assertEquals(1, alarm.cancelled);
+        assertTrue(scheduler.advance(at(2024, 1, 3, 0, 0) + HOUR_MS).isEmpty());
+    }
+
+    @Test
+    public void rebuildFromReportedTimeKeepsTheDoseThatStartedTheProcess() {
+        List<DoseSchedule> schedules = new ArrayList<>();
+        schedules.add(DoseSchedule.daily("a", "A", 8 * 60));
+        long reportedUntil = at(2024, 1, 1, 7, 0); // Last alarm handled
+        long now = at(2024, 1, 1, 8, 0) + 5000;      // The 8:00 alarm starts a fresh process
+
+        DoseScheduler fromNow = new DoseScheduler(ZONE, new RecordingAlarm());
+        fromNow.putAll(schedules, now);
+        assertTrue(fromNow.advance(now).isEmpty()); // The 8:00 dose would be lost
+
+        RecordingAlarm alarm = new RecordingAlarm();
+        DoseScheduler rebuilt = new DoseScheduler(ZONE, alarm);
+        rebuilt.putAll(schedules, reportedUntil);
+        assertEquals(at(2024, 1, 1, 8, 0), (long) alarm.armed.get(0)); // In the past: fires at once
+        List<DoseScheduler.Dose> due = rebuilt.advance(now);
+        assertEquals(1, due.size());
+        assertEquals(at(2024, 1, 1, 8, 0), due.get(0).timeMs);
+        assertEquals(at(2024, 1, 2, 8, 0), rebuilt.peek().timeMs);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.medisense;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batch provisioning of a simulated ward through a bounded connection pool.
+ */
+public class FleetProvisionerTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private SimulatedGattTransport transport;
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.shutdown();
+        executor.shutdownNow();
+    }
+
+    private static List<SimulatedDispenser> ward(int beds) {
+        List<SimulatedDispenser> dispensers = new ArrayList<>();
+        for (int i = 0; i < beds; i++) {
+            dispensers.add(new SimulatedDispenser(new SimulatedDispenser.Config()
+                    .address(String.format("5E:00:00:00:00:%02X", i + 1))
+                    .rssi(-40 - i)
+                    .advertisingIntervalMs(5)
+                    .connectionIntervalMs(2)
+                    .framedProvisioning(i % 2 == 0) // Mixed firmware
+                    .seed(i)));
+        }
+        return dispensers;
+    }
+
+    private static class Recorder implements FleetProvisioner.Listener {
+        final BlockingQueue<FleetReport> reports = new LinkedBlockingQueue<>();
+        final AtomicInteger peakConnections = new AtomicInteger();
+        final List<FleetProvisioner.DeviceProgress> devices = new ArrayList<>();
+
+        @Override
+        public void onDeviceUpdate(FleetProvisioner.DeviceProgress device) {
+            synchronized (devices) {
+                if (!devices.contains(device)) devices.add(device);
+                int connected = 0;
+                for (FleetProvisioner.DeviceProgress d : devices) {
+                    FleetProvisioner.DeviceState state = d.getState();
+                    if (state == FleetProvisioner.DeviceState.CONNECTING || state == FleetProvisioner.DeviceState.DISCOVERING
+                            || state == FleetProvisioner.DeviceState.WRITING) {
+                        connected++;
+                    }
+                }
+                peakConnections.accumulateAndGet(connected, Math::max);
+            }
+        }
+
+        @Override
+        public void onComplete(FleetReport report) {
+            reports.add(report);
+        }
+    }
+
+    @Test
+    public void provisionsWardOverBoundedPool() throws Exception {
+        List<SimulatedDispenser> dispensers = ward(8);
+        transport = new SimulatedGattTransport(dispensers);
+        List<FleetProvisioner.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) jobs.add(new FleetProvisioner.Job("PID-" + i, "Ward3", "s3cret"));
+
+        Recorder recorder = new Recorder();
+        FleetProvisioner fleet = new FleetProvisioner(transport, executor, 3).setScanWindowMs(2000);
+        assertTrue(fleet.start(jobs, recorder));
+
+        FleetReport report = recorder.reports.poll(10, TimeUnit.SECONDS);
+        assertNotNull(report);
+        assertEquals(8, report.succeeded);
+        assertEquals(0, report.failed);
+        assertTrue(recorder.peakConnections.get() <= 3);
+        assertTrue(report.getDevicesPerMinute() > 0);
+
+        // Strongest signal gets the first job
+        assertEquals("PID-0", dispensers.get(0).getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+        for (FleetProvisioner.DeviceProgress device : fleet.getDevices()) {
+            assertEquals(FleetProvisioner.DeviceState.DONE, device.getState());
+            SimulatedDispenser dispenser = null;
+            for (SimulatedDispenser d : dispensers) {
+                if (d.getAddress().equals(device.getAddress())) dispenser = d;
+            }
+            assertNotNull(dispenser);
+            assertEquals(device.job.pid, dispenser.getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+            assertEquals("Ward3", dispenser.getProvisionedValue(DispenserProfile.CHAR_SSID_UUID));
+        }
+    }
+
+    @Test
+    public void pinnedAddressAndMissingDispenser() throws Exception {
+        List<SimulatedDispenser> dispensers = ward(2);
+        transport = new SimulatedGattTransport(dispensers);
+        List<FleetProvisioner.Job> jobs = new ArrayList<>();
+        jobs.add(new FleetProvisioner.Job("PID-B", "Ward3", "s3cret", dispensers.get(1).getAddress()));
+        jobs.add(new FleetProvisioner.Job("PID-X", "Ward3", "s3cret", "5E:00:00:00:00:99"));
+
+        Recorder recorder = new Recorder();
+        FleetProvisioner fleet = new FleetProvisioner(transport, executor, 2).setScanWindowMs(300);
+        assertTrue(fleet.start(jobs, recorder));
+
+        FleetReport report = recorder.reports.poll(10, TimeUnit.SECONDS);
+        assertNotNull(report);
+        assertEquals(1, report.succeeded);
+        assertEquals(1, report.failed);
+        assertEquals("PID-B", dispensers.get(1).getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+        assertEquals("", dispensers.get(0).getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+        assertEquals("dispenser not found", fleet.getDevices().get(1).getError());
+    }
+}
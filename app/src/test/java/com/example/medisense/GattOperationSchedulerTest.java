@@ -0,0 +1,214 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering, deadlines, retries and write-without-response pipelining of the GATT operation queue.
+ */
+public class GattOperationSchedulerTest {
+
+    private static final UUID SERVICE = UUID.fromString(DispenserProfile.SERVICE_UUID);
+    private static final UUID SSID = UUID.fromString(DispenserProfile.CHAR_SSID_UUID);
+    private static final UUID PASS = UUID.fromString(DispenserProfile.CHAR_PASS_UUID);
+    private static final UUID PID = UUID.fromString(DispenserProfile.CHAR_PID_UUID);
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationScheduler scheduler = new GattOperationScheduler(timer);
+    private final BlockingQueue<String> completions = new LinkedBlockingQueue<>();
+    private SimulatedGattTransport transport;
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.shutdown();
+        timer.shutdownNow();
+    }
+
+    private GattOperation.Callback record(String name) {
+        return (operation, status) -> completions.add(name + ":" + status);
+    }
+
+    private String next() throws InterruptedException {
+        String completion = completions.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for operation", completion);
+        return completion;
+    }
+
+    /**
+     * Accepts every operation and records it; responses are delivered by the test.
+     */
+    private static class ScriptedConnection implements GattConnection {
+        final List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+        boolean accept = true;
+        int maxWritesInFlight = Integer.MAX_VALUE;
+
+        @Override public String getAddress() { return "00:00:00:00:00:00"; }
+        @Override public boolean discoverServices() { return true; }
+        @Override public boolean hasCharacteristic(UUID service, UUID characteristic) { return true; }
+        @Override public boolean isDiscoveryFromCache() { return true; }
+        @Override public long getDiscoveryDurationMs() { return 0; }
+        @Override public boolean requestMtu(int mtu) { dispatched.add("mtu"); return accept; }
+        @Override public boolean readCharacteristic(UUID service, UUID characteristic) { dispatched.add("read"); return accept; }
+        @Override public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) { return accept; }
+        @Override public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) { return accept; }
+        @Override public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) { return accept; }
+        @Override public boolean requestConnectionPriority(int priority) { return accept; }
+        @Override public boolean beginReliableWrite() { return accept; }
+        @Override public boolean executeReliableWrite() { return accept; }
+        @Override public void abortReliableWrite() {}
+        @Override public void disconnect() {}
+        @Override public void close() {}
+        @Override public int getMaxWritesInFlight() { return maxWritesInFlight; }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+            dispatched.add((writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ? "wnr:" : "write:")
+                    + new String(value, StandardCharsets.UTF_8));
+            return accept;
+        }
+    }
+
+    @Test
+    public void runsWritesInOrderAgainstSimulator() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().connectionIntervalMs(1));
+        transport = new SimulatedGattTransport(dispenser);
+        BlockingQueue<Integer> linkEvents = new LinkedBlockingQueue<>();
+        GattConnection connection = transport.connect(dispenser.getAddress(), false, new GattConnection.Callback() {
+            @Override public void onConnectionStateChange(int status, int newState) { linkEvents.add(newState); }
+            @Override public void onServicesDiscovered(int status) { linkEvents.add(status); }
+            @Override public void onCharacteristicWrite(UUID characteristic, int status) { scheduler.onCharacteristicWrite(characteristic, status); }
+            @Override public void onCharacteristicRead(UUID characteristic, byte[] value, int status) { scheduler.onCharacteristicRead(characteristic, value, status); }
+            @Override public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) { scheduler.onDescriptorWrite(characteristic, descriptor, status); }
+            @Override public void onCharacteristicChanged(UUID characteristic, byte[] value) {}
+            @Override public void onMtuChanged(int mtu, int status) { scheduler.onMtuChanged(mtu, status); }
+            @Override public void onPhyUpdate(int txPhy, int rxPhy, int status) { scheduler.onPhyUpdate(txPhy, rxPhy, status); }
+            @Override public void onReliableWriteCompleted(int status) { scheduler.onReliableWriteCompleted(status); }
+            @Override public void onConnectionUpdated(int interval, int latency, int timeout, int status) {}
+            @Override public void onServiceChanged() {}
+        });
+        assertEquals(Integer.valueOf(BluetoothProfile.STATE_CONNECTED), linkEvents.poll(5, TimeUnit.SECONDS));
+        connection.discoverServices();
+        assertEquals(Integer.valueOf(BluetoothGatt.GATT_SUCCESS), linkEvents.poll(5, TimeUnit.SECONDS));
+        scheduler.attach(connection);
+
+        scheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU).then(record("mtu")));
+        scheduler.enqueue(GattOperation.write(SERVICE, SSID, "Ward 3".getBytes(StandardCharsets.UTF_8)).then(record("ssid")));
+        scheduler.enqueue(GattOperation.write(SERVICE, PASS, "s3cret".getBytes(StandardCharsets.UTF_8)).then(record("pass")));
+        scheduler.enqueue(GattOperation.write(SERVICE, PID, "PID-7".getBytes(StandardCharsets.UTF_8)).then(record("pid")));
+
+        assertEquals("mtu:0", next());
+        assertEquals("ssid:0", next());
+        assertEquals("pass:0", next());
+        assertEquals("pid:0", next());
+        assertTrue(scheduler.isIdle());
+        assertEquals("Ward 3", dispenser.getProvisionedValue(DispenserProfile.CHAR_SSID_UUID));
+        assertEquals("PID-7", dispenser.getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+    }
+
+    @Test
+    public void lostCallbackTimesOutAndRetries() throws Exception {
+        ScriptedConnection connection = new ScriptedConnection();
+        scheduler.attach(connection);
+
+        scheduler.enqueue(GattOperation.read(SERVICE, SSID).timeout(30).retries(1).then(record("read")));
+        scheduler.enqueue(GattOperation.write(SERVICE, PID, "x".getBytes(StandardCharsets.UTF_8)).then(record("write")));
+
+        // Never answered: first attempt + one retry, then the queue moves on
+        assertEquals("read:" + GattOperationScheduler.STATUS_TIMEOUT, next());
+        assertEquals(2, scheduler.getTimeoutCount());
+        assertEquals(1, scheduler.getRetryCount());
+        assertEquals("read", connection.dispatched.get(1));
+        assertEquals("write:x", connection.dispatched.get(2));
+
+        scheduler.onCharacteristicWrite(PID, BluetoothGatt.GATT_SUCCESS);
+        assertEquals("write:0", next());
+    }
+
+    @Test
+    public void refusedOperationIsRetriedWithBackoff() throws Exception {
+        ScriptedConnection connection = new ScriptedConnection();
+        connection.accept = false;
+        scheduler.attach(connection);
+
+        scheduler.enqueue(GattOperation.requestMtu(247).retries(2).then(record("mtu")));
+        assertEquals("mtu:" + GattOperationScheduler.STATUS_NOT_STARTED, next());
+        assertEquals(3, connection.dispatched.size());
+        assertEquals(1, scheduler.getFailedCount());
+    }
+
+    @Test
+    public void writesWithoutResponsePipelineUpToCredits() throws Exception {
+        ScriptedConnection connection = new ScriptedConnection();
+        scheduler.attach(connection);
+        scheduler.setWriteCredits(3);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.enqueue(GattOperation.writeNoResponse(SERVICE, SSID, ("" + i).getBytes(StandardCharsets.UTF_8))
+                    .then(record("wnr" + i)));
+        }
+        // A request waits behind the pipelined writes
+        scheduler.enqueue(GattOperation.read(SERVICE, PID).then(record("read")));
+        assertEquals(3, connection.dispatched.size());
+
+        scheduler.onCharacteristicWrite(SSID, BluetoothGatt.GATT_SUCCESS);
+        assertEquals("wnr0:0", next());
+        assertEquals(4, connection.dispatched.size());
+
+        for (int i = 1; i < 5; i++) scheduler.onCharacteristicWrite(SSID, BluetoothGatt.GATT_SUCCESS);
+        assertEquals("[wnr:0, wnr:1, wnr:2, wnr:3, wnr:4, read]", connection.dispatched.toString());
+
+        scheduler.onCharacteristicRead(PID, new byte[]{7}, BluetoothGatt.GATT_SUCCESS);
+        for (int i = 1; i < 5; i++) assertEquals("wnr" + i + ":0", next());
+        assertEquals("read:0", next());
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void connectionLimitCapsWriteCredits() throws Exception {
+        ScriptedConnection connection = new ScriptedConnection();
+        connection.maxWritesInFlight = 1; // Like Android's BluetoothGatt
+        scheduler.attach(connection);
+        scheduler.setWriteCredits(8);
+
+        for (int i = 0; i < 3; i++) {
+            scheduler.enqueue(GattOperation.writeNoResponse(SERVICE, SSID, ("" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        assertEquals(1, connection.dispatched.size());
+        scheduler.onCharacteristicWrite(SSID, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(2, connection.dispatched.size());
+    }
+
+    @Test
+    public void cancelAllCompletesEverythingQueued() throws Exception {
+        ScriptedConnection connection = new ScriptedConnection();
+        scheduler.attach(connection);
+
+        scheduler.enqueue(GattOperation.read(SERVICE, SSID).then(record("a")));
+        scheduler.enqueue(GattOperation.read(SERVICE, PASS).then(record("b")));
+        scheduler.detach();
+
+        assertEquals("a:" + GattOperationScheduler.STATUS_CANCELLED, next());
+        assertEquals("b:" + GattOperationScheduler.STATUS_CANCELLED, next());
+        assertTrue(scheduler.isIdle());
+        // Late callback from the old link is ignored
+        scheduler.onCharacteristicRead(SSID, new byte[0], BluetoothGatt.GATT_SUCCESS);
+        assertNull(completions.poll(50, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Percentile accuracy and failure accounting of the phase histograms.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) histogram.record(ms);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(1, snapshot.minMs);
+        assertEquals(1000, snapshot.maxMs);
+        assertEquals(500.5, snapshot.meanMs, 0.001);
+        // Upper bucket bounds: never below the true value, at most one bucket (~9%) above
+        assertTrue(snapshot.p50Ms >= 500 && snapshot.p50Ms <= 500 * 1.1);
+        assertTrue(snapshot.p95Ms >= 950 && snapshot.p95Ms <= 1000);
+        assertTrue(snapshot.p99Ms >= 990 && snapshot.p99Ms <= 1000);
+    }
+
+    @Test
+    public void failuresCountedByStatus() {
+        BleMetrics metrics = new BleMetrics();
+        metrics.record(BleMetrics.Phase.CONNECT, 120);
+        metrics.recordFailure(BleMetrics.Phase.CONNECT, 133);
+        metrics.recordFailure(BleMetrics.Phase.CONNECT, 133);
+        metrics.recordFailure(BleMetrics.Phase.CONNECT, 8);
+
+        LatencyHistogram.Snapshot connect = metrics.get(BleMetrics.Phase.CONNECT);
+        assertEquals(1, connect.count);
+        assertEquals(3, connect.getFailureCount());
+        assertEquals(Integer.valueOf(2), connect.failuresByStatus.get(133));
+        assertEquals(0, metrics.get(BleMetrics.Phase.WRITE).count);
+
+        metrics.reset();
+        assertEquals(0, metrics.get(BleMetrics.Phase.CONNECT).getFailureCount());
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Block-verified, resumable firmware transfer against the simulated dispenser.
+ */
+public class OtaUpdaterTest {
+
+    private static final int IMAGE_SIZE = 64 * 1024;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationScheduler scheduler = new GattOperationScheduler(worker);
+    private final OtaUpdater updater = new OtaUpdater(scheduler, worker).setResponseTimeoutMs(2000);
+    private final BlockingQueue<Object> outcomes = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> linkEvents = new LinkedBlockingQueue<>();
+    private SimulatedGattTransport transport;
+    private SimulatedDispenser dispenser;
+    private GattConnection connection;
+    private volatile boolean dropOnFirstBlock = false;
+
+    private final OtaUpdater.Listener listener = new OtaUpdater.Listener() {
+        @Override
+        public void onProgress(OtaUpdater.Progress progress) {
+            if (dropOnFirstBlock) {
+                dropOnFirstBlock = false;
+                transport.dropLink(dispenser.getAddress());
+            }
+        }
+        @Override public void onComplete(OtaUpdater.Progress progress) { outcomes.add(progress); }
+        @Override public void onFailed(int status, String reason, OtaUpdater.Progress progress) { outcomes.add(reason + ":" + status); }
+    };
+
+    /**
+     * Forwards to the worker like BleService, since OtaUpdater is confined to that thread.
+     */
+    private final GattConnection.Callback callback = new GattConnection.Callback() {
+        @Override public void onConnectionStateChange(int status, int newState) { linkEvents.add(newState); }
+        @Override public void onServicesDiscovered(int status) { linkEvents.add(status); }
+        @Override public void onCharacteristicWrite(UUID characteristic, int status) { worker.execute(() -> scheduler.onCharacteristicWrite(characteristic, status)); }
+        @Override public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {}
+        @Override public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) { worker.execute(() -> scheduler.onDescriptorWrite(characteristic, descriptor, status)); }
+        @Override public void onCharacteristicChanged(UUID characteristic, byte[] value) { worker.execute(() -> updater.onControlNotification(value.clone())); }
+        @Override public void onMtuChanged(int mtu, int status) { worker.execute(() -> scheduler.onMtuChanged(mtu, status)); }
+        @Override public void onPhyUpdate(int txPhy, int rxPhy, int status) {}
+        @Override public void onConnectionUpdated(int interval, int latency, int timeout, int status) {}
+        @Override public void onReliableWriteCompleted(int status) {}
+        @Override public void onServiceChanged() {}
+    };
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.shutdown();
+        worker.shutdownNow();
+    }
+
+    private static byte[] image() {
+        byte[] image = new byte[IMAGE_SIZE];
+        new Random(42).nextBytes(image);
+        return image;
+    }
+
+    private void connect() throws Exception {
+        connection = transport.connect(dispenser.getAddress(), false, callback);
+        assertEquals(Integer.valueOf(BluetoothProfile.STATE_CONNECTED), linkEvents.poll(5, TimeUnit.SECONDS));
+        connection.discoverServices();
+        assertEquals(Integer.valueOf(BluetoothGatt.GATT_SUCCESS), linkEvents.poll(5, TimeUnit.SECONDS));
+        scheduler.attach(connection);
+        assertTrue(OtaUpdater.isSupported(connection));
+    }
+
+    private Object update(byte[] image) throws Exception {
+        worker.execute(() -> scheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU)
+                .then((op, status) -> updater.start(connection, image, op.getGrantedMtu(), listener))));
+        return outcomes.poll(10, TimeUnit.SECONDS);
+    }
+
+    private void setUp() throws Exception {
+        dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().connectionIntervalMs(1).ota(true));
+        transport = new SimulatedGattTransport(dispenser);
+        connect();
+    }
+
+    @Test
+    public void imageIsInstalled() throws Exception {
+        setUp();
+        byte[] image = image();
+        Object outcome = update(image);
+        assertTrue("Update did not complete: " + outcome, outcome instanceof OtaUpdater.Progress);
+        OtaUpdater.Progress progress = (OtaUpdater.Progress) outcome;
+        assertEquals(IMAGE_SIZE, progress.confirmedBytes);
+        assertEquals(0, progress.resumedFromOffset);
+        assertTrue(progress.getBytesPerSecond() > 0);
+        assertArrayEquals(image, dispenser.getInstalledImage());
+    }
+
+    @Test
+    public void corruptBlockIsResent() throws Exception {
+        setUp();
+        dispenser.corruptOtaChunks(1);
+        byte[] image = image();
+        Object outcome = update(image);
+        assertTrue("Update did not complete: " + outcome, outcome instanceof OtaUpdater.Progress);
+        assertTrue(((OtaUpdater.Progress) outcome).crcRetries >= 1);
+        assertArrayEquals(image, dispenser.getInstalledImage());
+    }
+
+    @Test
+    public void droppedLinkResumesFromConfirmedOffset() throws Exception {
+        setUp();
+        byte[] image = image();
+        dropOnFirstBlock = true;
+        worker.execute(() -> scheduler.enqueue(GattOperation.requestMtu(DispenserProfile.PREFERRED_MTU)
+                .then((op, status) -> updater.start(connection, image, op.getGrantedMtu(), listener))));
+        assertEquals(Integer.valueOf(BluetoothProfile.STATE_DISCONNECTED), linkEvents.poll(5, TimeUnit.SECONDS));
+        worker.submit(() -> {
+            updater.cancel();
+            scheduler.cancelAll();
+            scheduler.detach();
+        }).get();
+        connection.close();
+        assertNull(dispenser.getInstalledImage());
+        int confirmed = dispenser.getOtaConfirmedOffset();
+        assertTrue(confirmed > 0);
+
+        connect();
+        Object outcome = update(image);
+        assertTrue("Update did not complete: " + outcome, outcome instanceof OtaUpdater.Progress);
+        assertEquals(confirmed, ((OtaUpdater.Progress) outcome).resumedFromOffset);
+        assertArrayEquals(image, dispenser.getInstalledImage());
+    }
+}
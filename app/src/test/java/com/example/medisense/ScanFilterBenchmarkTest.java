@@ -0,0 +1,140 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares callbacks delivered to the app and time-to-target for each scan profile, with and
+ * without the controller-side filter, by replaying a crowded ward in virtual time.
+ */
+public class ScanFilterBenchmarkTest {
+
+    private static final int CROWD_SIZE = 250;
+    private static final int TRIALS = 25;
+    private static final long SCAN_DURATION_MS = 10000; // BleService scan timeout
+
+    /**
+     * One advertiser in the replayed environment.
+     */
+    private static class Advertiser {
+        final String name;
+        final String address;
+        final List<UUID> services;
+        final long intervalMs;
+        final long phaseMs;
+
+        Advertiser(String name, String address, List<UUID> services, long intervalMs, long phaseMs) {
+            this.name = name;
+            this.address = address;
+            this.services = services;
+            this.intervalMs = intervalMs;
+            this.phaseMs = phaseMs;
+        }
+    }
+
+    /**
+     * Stand-in scanner: replays advertising events in time order, applies the scan duty cycle and,
+     * if set, the filter (as the controller would), and counts what reaches the listener.
+     */
+    private static class ScriptedScanner {
+        final List<Advertiser> air = new ArrayList<>();
+        long callbacks;
+        long foundAtMs = -1;     // Measured from the dispenser's first advertisement
+        long callbacksToFind;
+
+        ScriptedScanner(long seed) {
+            Random random = new Random(seed);
+            String[] kinds = {null, null, "Pump-", "Band-", "SpO2-", "Beacon-", "Phone-"};
+            for (int i = 0; i < CROWD_SIZE; i++) {
+                String kind = kinds[random.nextInt(kinds.length)];
+                long interval = 100 + random.nextInt(900);
+                air.add(new Advertiser(kind == null ? null : kind + i, String.format("AA:00:00:00:%02X:%02X", i >> 8, i & 0xFF),
+                        Collections.singletonList(new UUID(random.nextLong(), random.nextLong())),
+                        interval, random.nextInt((int) interval)));
+            }
+            // The dispenser is switched on some time after the scan started
+            air.add(new Advertiser(DispenserProfile.DEVICE_NAME, "5E:00:00:00:00:01",
+                    Collections.singletonList(UUID.fromString(DispenserProfile.SERVICE_UUID)), 100, random.nextInt(5000)));
+        }
+
+        void run(AdvertisementFilter filter, ScanProfile profile) {
+            for (long t = 0; t < SCAN_DURATION_MS; t++) {
+                if (!profile.isListening(t)) continue;
+                for (Advertiser advertiser : air) {
+                    if (t < advertiser.phaseMs || (t - advertiser.phaseMs) % advertiser.intervalMs != 0) continue;
+                    if (filter != null && !filter.matches(advertiser.name, advertiser.services)) continue;
+                    onScanResult(advertiser.name, t - advertiser.phaseMs);
+                }
+            }
+        }
+
+        // Same check BleService's listener performs on every result
+        private void onScanResult(String name, long sinceTargetMs) {
+            callbacks++;
+            if (foundAtMs < 0 && DispenserProfile.DEVICE_NAME.equals(name)) {
+                foundAtMs = sinceTargetMs;
+                callbacksToFind = callbacks;
+            }
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    @Test
+    public void filteredScanWakesAppOnlyForDispenser() {
+        System.out.println(String.format("%-12s %-10s %14s %16s %12s",
+                "profile", "filter", "callbacks/10s", "callbacksToFind", "findMs(p50)"));
+        for (ScanProfile profile : ScanProfile.values()) {
+            long[][] results = new long[2][];
+            for (int f = 0; f < 2; f++) {
+                AdvertisementFilter filter = f == 0 ? null : AdvertisementFilter.forDispenser();
+                long[] total = new long[TRIALS], toFind = new long[TRIALS], findMs = new long[TRIALS];
+                for (int i = 0; i < TRIALS; i++) {
+                    ScriptedScanner scanner = new ScriptedScanner(i);
+                    scanner.run(filter, profile);
+                    assertTrue("Dispenser not found with " + profile, scanner.foundAtMs >= 0);
+                    total[i] = scanner.callbacks;
+                    toFind[i] = scanner.callbacksToFind;
+                    findMs[i] = scanner.foundAtMs;
+                }
+                results[f] = new long[]{median(total), median(toFind), median(findMs)};
+                System.out.println(String.format("%-12s %-10s %14d %16d %12d", profile,
+                        filter == null ? "none" : "name+uuid", results[f][0], results[f][1], results[f][2]));
+            }
+            long[] unfiltered = results[0], filtered = results[1];
+            assertEquals("Filtered scan must report the dispenser first", 1, filtered[1]);
+            assertTrue(filtered[0] * 10 < unfiltered[0]);
+            // The filter changes what wakes the app, not when the radio hears the target
+            assertEquals(unfiltered[2], filtered[2]);
+        }
+    }
+
+    @Test
+    public void lowLatencyFindsTargetSoonerThanLowPower() {
+        long[] lowLatency = new long[TRIALS], lowPower = new long[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            ScriptedScanner fast = new ScriptedScanner(i);
+            fast.run(AdvertisementFilter.forDispenser(), ScanProfile.LOW_LATENCY);
+            ScriptedScanner slow = new ScriptedScanner(i);
+            slow.run(AdvertisementFilter.forDispenser(), ScanProfile.LOW_POWER);
+            lowLatency[i] = fast.foundAtMs;
+            lowPower[i] = slow.foundAtMs;
+        }
+        // Always listening: heard on the first advertisement
+        assertEquals(0, median(lowLatency));
+        // 10% duty cycle: typically waits for the next scan window
+        assertTrue(median(lowPower) > median(lowLatency) + 100);
+    }
+}
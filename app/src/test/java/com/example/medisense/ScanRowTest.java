@@ -0,0 +1,43 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Row model of the scan list: stable ids and the diff decisions.
+ */
+public class ScanRowTest {
+
+    @Test
+    public void idIsTheMacAsANumber() {
+        assertEquals(0xAABBCCDDEEFFL, ScanRow.idOf("AA:BB:CC:DD:EE:FF"));
+        assertFalse(ScanRow.idOf("AA:BB:CC:DD:EE:FF") == ScanRow.idOf("AA:BB:CC:DD:EE:FE"));
+        assertTrue(ScanRow.idOf("not-a-mac") > 0xFFFFFFFFFFFFL);
+        assertTrue(ScanRow.idOf("polygenelubricants") > 0xFFFFFFFFFFFFL); // hashCode() is Integer.MIN_VALUE
+    }
+
+    @Test
+    public void rowIsPreformatted() {
+        ScanRow row = new ScanRow("AA:BB:CC:DD:EE:FF", null, -67);
+        assertEquals(ScanRow.UNKNOWN_NAME, row.name);
+        assertEquals("-67 dBm", row.rssiText);
+        assertEquals(ScanRow.UNKNOWN_NAME, new ScanRow("AA:BB:CC:DD:EE:FF", "", -67).name);
+    }
+
+    @Test
+    public void diffSeparatesRssiOnlyChanges() {
+        ScanRow before = new ScanRow("AA:BB:CC:DD:EE:FF", "MediTrack_Dispenser", -70);
+        ScanRow sameSignal = new ScanRow("AA:BB:CC:DD:EE:FF", "MediTrack_Dispenser", -70);
+        ScanRow closer = new ScanRow("AA:BB:CC:DD:EE:FF", "MediTrack_Dispenser", -55);
+        ScanRow renamed = new ScanRow("AA:BB:CC:DD:EE:FF", "Kitchen", -55);
+
+        assertTrue(before.sameItem(closer));
+        assertFalse(before.sameItem(new ScanRow("11:22:33:44:55:66", "MediTrack_Dispenser", -70)));
+        assertTrue(before.sameContent(sameSignal));
+        assertFalse(before.sameContent(closer));
+        assertTrue(before.onlyRssiChanged(closer));
+        assertFalse(before.onlyRssiChanged(renamed)); // Full rebind
+        assertFalse(before.onlyRssiChanged(sameSignal));
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.medisense;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the scan -> connect -> discover -> write path against the in-JVM dispenser.
+ */
+public class SimulatedGattTransportTest {
+
+    private static final UUID SERVICE = UUID.fromString(DispenserProfile.SERVICE_UUID);
+    private static final UUID SSID = UUID.fromString(DispenserProfile.CHAR_SSID_UUID);
+
+    private SimulatedGattTransport transport;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private final GattConnection.Callback callback = new GattConnection.Callback() {
+        @Override
+        public void onConnectionStateChange(int status, int newState) {
+            events.add("state:" + status + ":" + newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(int status) {
+            events.add("discovered:" + status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            events.add("write:" + status);
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+            events.add("read:" + status);
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+            events.add("descriptor:" + status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            events.add("notify:" + value.length);
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            events.add("phy:" + txPhy + ":" + rxPhy);
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            events.add("mtu:" + mtu);
+        }
+
+        @Override
+        public void onReliableWriteCompleted(int status) {
+            events.add("reliable:" + status);
+        }
+
+        @Override
+        public void onConnectionUpdated(int interval, int latency, int timeout, int status) {
+            events.add("connection:" + interval + ":" + latency);
+        }
+
+        @Override
+        public void onServiceChanged() {
+            events.add("serviceChanged");
+        }
+    };
+
+    @After
+    public void tearDown() {
+        if (transport != null) transport.shutdown();
+    }
+
+    private String next() throws InterruptedException {
+        String event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for simulator event", event);
+        return event;
+    }
+
+    @Test
+    public void scanConnectDiscoverWrite() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config()
+                .advertisingIntervalMs(5).connectionIntervalMs(2));
+        transport = new SimulatedGattTransport(dispenser);
+
+        BlockingQueue<String> found = new LinkedBlockingQueue<>();
+        assertTrue(transport.startScan(null, ScanProfile.LOW_LATENCY, new GattTransport.ScanListener() {
+            @Override
+            public void onScanResult(String name, String address, int rssi) {
+                if (DispenserProfile.DEVICE_NAME.equals(name)) found.add(address);
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {}
+        }));
+        String address = found.poll(5, TimeUnit.SECONDS);
+        transport.stopScan();
+        assertEquals(dispenser.getAddress(), address);
+
+        GattConnection connection = transport.connect(address, false, callback);
+        assertEquals("state:" + BluetoothGatt.GATT_SUCCESS + ":" + BluetoothProfile.STATE_CONNECTED, next());
+
+        // Writes before discovery are rejected, like getService() returning null on a phone.
+        assertFalse(connection.writeCharacteristic(SERVICE, SSID, new byte[]{1}, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+
+        assertTrue(connection.discoverServices());
+        assertEquals("discovered:" + BluetoothGatt.GATT_SUCCESS, next());
+
+        byte[] ssid = "ClinicWifi".getBytes(StandardCharsets.UTF_8);
+        assertTrue(connection.writeCharacteristic(SERVICE, SSID, ssid, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        // Only one outstanding operation at a time.
+        assertFalse(connection.writeCharacteristic(SERVICE, SSID, ssid, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        assertEquals("write:" + BluetoothGatt.GATT_SUCCESS, next());
+        assertEquals("ClinicWifi", dispenser.getProvisionedValue(DispenserProfile.CHAR_SSID_UUID));
+    }
+
+    @Test
+    public void scanFilterDropsOtherAdvertisers() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().advertisingIntervalMs(5));
+        SimulatedDispenser other = new SimulatedDispenser(new SimulatedDispenser.Config()
+                .name("Pulse-Ox").address("5E:00:00:00:00:02").advertisingIntervalMs(1));
+        transport = new SimulatedGattTransport(other, dispenser);
+
+        BlockingQueue<String> found = new LinkedBlockingQueue<>();
+        assertTrue(transport.startScan(AdvertisementFilter.forDispenser(), ScanProfile.LOW_LATENCY,
+                new GattTransport.ScanListener() {
+                    @Override
+                    public void onScanResult(String name, String address, int rssi) {
+                        found.add(name);
+                    }
+
+                    @Override
+                    public void onScanFailed(int errorCode) {}
+                }));
+        Thread.sleep(50);
+        transport.stopScan();
+        assertFalse(found.isEmpty());
+        for (String name : found) assertEquals(DispenserProfile.DEVICE_NAME, name);
+    }
+
+    @Test
+    public void longWritesCostExtraExchangesAtSmallMtu() {
+        assertEquals(1, SimulatedDispenser.writeExchanges(23, 20));
+        // 40 bytes -> 3 Prepare Writes of 18 bytes + Execute Write
+        assertEquals(4, SimulatedDispenser.writeExchanges(23, 40));
+        assertEquals(1, SimulatedDispenser.writeExchanges(247, 40));
+    }
+
+    @Test
+    public void framedWriteAfterMtuNegotiation() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config()
+                .connectionIntervalMs(1).mtu(185));
+        transport = new SimulatedGattTransport(dispenser);
+
+        GattConnection connection = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+        connection.discoverServices();
+        next();
+        UUID frameChar = UUID.fromString(DispenserProfile.CHAR_PROVISION_FRAME_UUID);
+        assertTrue(connection.hasCharacteristic(SERVICE, frameChar));
+
+        assertTrue(connection.requestMtu(DispenserProfile.PREFERRED_MTU));
+        assertEquals("mtu:185", next());
+
+        byte[] frame = new ProvisioningFrame("ClinicWifi", "s3cret", "PID-42").encode();
+        assertTrue(connection.writeCharacteristic(SERVICE, frameChar, frame, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        assertEquals("write:" + BluetoothGatt.GATT_SUCCESS, next());
+        assertEquals(1, dispenser.getWriteCount());
+        assertEquals("ClinicWifi", dispenser.getProvisionedValue(DispenserProfile.CHAR_SSID_UUID));
+        assertEquals("s3cret", dispenser.getProvisionedValue(DispenserProfile.CHAR_PASS_UUID));
+        assertEquals("PID-42", dispenser.getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+    }
+
+    @Test
+    public void burstRaisesPriorityAndSwitchesTo2MPhy() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().connectionIntervalMs(30));
+        transport = new SimulatedGattTransport(dispenser);
+        GattConnection connection = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        GattOperationScheduler scheduler = new GattOperationScheduler(timer);
+        LinkTuner tuner = new LinkTuner(scheduler).setIdlePriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+        scheduler.attach(connection);
+        tuner.attach(connection);
+        assertFalse(tuner.getParameters().is2MPhy());
+
+        tuner.burst();
+        tuner.burst(); // Already bursting: no second request
+        for (int i = 0; i < 2; i++) {
+            String event = next();
+            if (event.startsWith("phy:")) {
+                tuner.onPhyUpdate(BluetoothDevice.PHY_LE_2M, BluetoothDevice.PHY_LE_2M, BluetoothGatt.GATT_SUCCESS);
+                scheduler.onPhyUpdate(BluetoothDevice.PHY_LE_2M, BluetoothDevice.PHY_LE_2M, BluetoothGatt.GATT_SUCCESS);
+            } else {
+                assertEquals("connection:8:0", event); // 30 ms -> 11 ms = 8 x 1.25 ms
+                tuner.onConnectionUpdated(8, 0, 500, BluetoothGatt.GATT_SUCCESS);
+            }
+        }
+        assertEquals(LinkTuner.Mode.BURST, tuner.getMode());
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_HIGH, tuner.getParameters().requestedPriority);
+        assertTrue(tuner.getParameters().is2MPhy());
+        assertEquals(10.0, tuner.getParameters().getIntervalMs(), 0.001);
+
+        tuner.idle();
+        assertEquals("connection:80:2", next());
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER, tuner.getParameters().requestedPriority);
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS)); // The 2M PHY is kept
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void olderFirmwareHasNoFrameCharacteristic() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config()
+                .connectionIntervalMs(1).framedProvisioning(false));
+        transport = new SimulatedGattTransport(dispenser);
+
+        GattConnection connection = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+        connection.discoverServices();
+        next();
+        assertFalse(connection.hasCharacteristic(SERVICE, UUID.fromString(DispenserProfile.CHAR_PROVISION_FRAME_UUID)));
+    }
+
+    @Test
+    public void secondDiscoveryServedFromAttributeCache() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().connectionIntervalMs(20));
+        transport = new SimulatedGattTransport(dispenser);
+
+        GattConnection first = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+        first.discoverServices();
+        next();
+        assertFalse(first.isDiscoveryFromCache());
+        first.close();
+
+        GattConnection second = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+        second.discoverServices();
+        next();
+        assertTrue(second.isDiscoveryFromCache());
+        assertTrue(second.getDiscoveryDurationMs() < first.getDiscoveryDurationMs());
+
+        // Service Changed invalidates the handles until the next discovery, which goes over the air again
+        transport.indicateServiceChanged(dispenser.getAddress());
+        assertEquals("serviceChanged", next());
+        assertFalse(second.hasCharacteristic(SERVICE, SSID));
+        second.discoverServices();
+        next();
+        assertFalse(second.isDiscoveryFromCache());
+        assertTrue(second.hasCharacteristic(SERVICE, SSID));
+    }
+
+    @Test
+    public void reliableWriteAppliesAllOrNothing() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config().connectionIntervalMs(1));
+        transport = new SimulatedGattTransport(dispenser);
+        GattConnection connection = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+        connection.discoverServices();
+        next();
+
+        UUID pidChar = UUID.fromString(DispenserProfile.CHAR_PID_UUID);
+        byte[] ssid = "Ward 3".getBytes(StandardCharsets.UTF_8);
+        byte[] pid = "PID-7".getBytes(StandardCharsets.UTF_8);
+
+        // Aborted transaction leaves the dispenser untouched
+        assertTrue(connection.beginReliableWrite());
+        assertTrue(connection.writeCharacteristic(SERVICE, SSID, ssid, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        assertEquals("write:" + BluetoothGatt.GATT_SUCCESS, next());
+        connection.abortReliableWrite();
+        assertEquals("", dispenser.getProvisionedValue(DispenserProfile.CHAR_SSID_UUID));
+
+        assertTrue(connection.beginReliableWrite());
+        assertTrue(connection.writeCharacteristic(SERVICE, SSID, ssid, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        next();
+        assertTrue(connection.writeCharacteristic(SERVICE, pidChar, pid, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        next();
+        assertEquals(0, dispenser.getWriteCount());
+        assertTrue(connection.executeReliableWrite());
+        assertEquals("reliable:" + BluetoothGatt.GATT_SUCCESS, next());
+        assertEquals("Ward 3", dispenser.getProvisionedValue(DispenserProfile.CHAR_SSID_UUID));
+        assertEquals("PID-7", dispenser.getProvisionedValue(DispenserProfile.CHAR_PID_UUID));
+    }
+
+    @Test
+    public void telemetryNotifiesOnlyAfterCccdWrite() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config()
+                .connectionIntervalMs(1).telemetry(true));
+        transport = new SimulatedGattTransport(dispenser);
+        GattConnection connection = transport.connect(dispenser.getAddress(), false, callback);
+        next();
+        assertTrue(connection.discoverServices());
+        next();
+        assertTrue(connection.hasCharacteristic(DispenserProfile.TELEMETRY_SERVICE, DispenserProfile.CHAR_TELEMETRY));
+
+        byte[] packet = new byte[2 * TelemetryPacket.RECORD_SIZE];
+        TelemetryPacket.put(packet, 0, TelemetryPacket.TYPE_DOSE_TAKEN, 1, 1700000000L);
+        TelemetryPacket.put(packet, TelemetryPacket.RECORD_SIZE, TelemetryPacket.TYPE_PILL_COUNT, 27, 1700000000L);
+        assertTrue(connection.setCharacteristicNotification(DispenserProfile.TELEMETRY_SERVICE, DispenserProfile.CHAR_TELEMETRY, true));
+        transport.sendNotification(dispenser.getAddress(), DispenserProfile.CHAR_TELEMETRY, packet); // CCCD still off
+
+        assertTrue(connection.writeDescriptor(DispenserProfile.TELEMETRY_SERVICE, DispenserProfile.CHAR_TELEMETRY,
+                DispenserProfile.CCCD, DispenserProfile.CCCD_ENABLE_NOTIFICATIONS));
+        assertEquals("descriptor:" + BluetoothGatt.GATT_SUCCESS, next());
+        transport.sendNotification(dispenser.getAddress(), DispenserProfile.CHAR_TELEMETRY, packet);
+        assertEquals("notify:" + packet.length, next());
+        assertNull(events.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void provisioningFrameRoundTrip() {
+        byte[] encoded = new ProvisioningFrame("Ward 3", "p\u00e4ss", "PID-7").encode();
+        ProvisioningFrame decoded = ProvisioningFrame.decode(encoded);
+        assertNotNull(decoded);
+        assertEquals("Ward 3", decoded.ssid);
+        assertEquals("p\u00e4ss", decoded.password);
+        assertEquals("PID-7", decoded.pid);
+        assertNull(ProvisioningFrame.decode(new byte[]{ProvisioningFrame.VERSION, 5, 'a'}));
+    }
+
+    @Test
+    public void totalLossDropsLinkWithSupervisionTimeout() throws Exception {
+        SimulatedDispenser dispenser = new SimulatedDispenser(new SimulatedDispenser.Config()
+                .connectionIntervalMs(1).packetLoss(1.0).maxRetransmissions(2));
+        transport = new SimulatedGattTransport(dispenser);
+
+        transport.connect(dispenser.getAddress(), false, callback);
+        assertEquals("state:" + SimulatedGattTransport.GATT_ERROR + ":" + BluetoothProfile.STATE_DISCONNECTED, next());
+    }
+}
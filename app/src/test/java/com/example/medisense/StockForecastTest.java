@@ -0,0 +1,74 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Consumption rate and depletion date of the stock ledger.
+ */
+public class StockForecastTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long NOW = 100 * DAY;
+
+    private static StockEvent dose(long atMs) {
+        return new StockEvent("m1", -1, StockEvent.KIND_DOSE, StockEvent.SOURCE_DISPENSER, atMs);
+    }
+
+    @Test
+    public void scheduledRateWinsOverHistory() {
+        List<StockEvent> events = Arrays.asList(dose(NOW - DAY), dose(NOW - DAY / 2));
+        StockForecast forecast = StockForecast.compute(10, events, 2.0, NOW);
+        assertTrue(forecast.fromSchedule);
+        assertEquals(NOW + 5 * DAY, forecast.depletionAtMs);
+        assertEquals(5.0, forecast.getDaysLeft(NOW), 1e-9);
+    }
+
+    @Test
+    public void observedRateIgnoresRefillsAndOldDoses() {
+        List<StockEvent> events = Arrays.asList(
+                dose(NOW - StockForecast.WINDOW_MS - 1), // Outside the window
+                new StockEvent("m1", 30, StockEvent.KIND_REFILL, StockEvent.SOURCE_APP, NOW - 5 * DAY),
+                dose(NOW - 4 * DAY), dose(NOW - 3 * DAY), dose(NOW - 2 * DAY), dose(NOW - DAY));
+        StockForecast forecast = StockForecast.compute(20, events, 0, NOW);
+        assertFalse(forecast.fromSchedule);
+        assertEquals(1.0, forecast.dosesPerDay, 1e-9); // 4 pills since the first dose 4 days ago
+        assertEquals(NOW + 20 * DAY, forecast.depletionAtMs);
+    }
+
+    @Test
+    public void noConsumptionNeverRunsOutButEmptyIsNow() {
+        assertEquals(StockForecast.NEVER, StockForecast.compute(5, Collections.<StockEvent>emptyList(), 0, NOW).depletionAtMs);
+        assertEquals(NOW, StockForecast.compute(0, Collections.singletonList(dose(NOW - DAY)), 0, NOW).depletionAtMs);
+    }
+
+    @Test
+    public void dosesPerDayCountsWeekdaysAndIntervals() {
+        DoseSchedule twiceDaily = DoseSchedule.daily("a", "A", 8 * 60, 20 * 60);
+        DoseSchedule weekdays = new DoseSchedule("b", "B", new int[] { 9 * 60 }, 0x3E, 1, 0); // Mon-Fri
+        DoseSchedule everyOtherDay = new DoseSchedule("c", "C", new int[] { 9 * 60 }, DoseSchedule.ALL_DAYS, 2, 0);
+        assertEquals(2 + 5 / 7.0 + 0.5, StockForecast.dosesPerDay(Arrays.asList(twiceDaily, weekdays, everyOtherDay)), 1e-9);
+    }
+
+    @Test
+    public void eventParsesFromDatabaseMap() {
+        Map<String, Object> node = new HashMap<>(new StockEvent("m1", -2, StockEvent.KIND_DOSE, StockEvent.SOURCE_DISPENSER, 0).toMap());
+        node.put(StockEvent.FIELD_AT, 1234L);
+        StockEvent event = StockEvent.fromMap(node);
+        assertEquals("m1", event.medId);
+        assertEquals(-2, event.delta);
+        assertEquals(StockEvent.SOURCE_DISPENSER, event.source);
+        assertEquals(1234L, event.atMs);
+        assertNull(StockEvent.fromMap(Collections.singletonMap("delta", "x")));
+
+        node.remove(StockEvent.FIELD_MED); // Written before multi-medication profiles
+        assertEquals(UserSchema.LEGACY_MED_ID, StockEvent.fromMap(node).medId);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding into the telemetry ring buffer and batched draining, including a concurrent producer.
+ */
+public class TelemetryRingBufferTest {
+
+    @Test
+    public void decodesPackedRecordsIntoBatch() {
+        TelemetryRingBuffer buffer = new TelemetryRingBuffer(8);
+        byte[] packet = new byte[4 * TelemetryPacket.RECORD_SIZE + 3]; // Trailing partial record
+        TelemetryPacket.put(packet, 0, TelemetryPacket.TYPE_DOSE_TAKEN, 2, 1700000000L);
+        TelemetryPacket.put(packet, 7, 0x7F, 1, 1700000000L); // Unknown type from newer firmware
+        TelemetryPacket.put(packet, 14, TelemetryPacket.TYPE_PILL_COUNT, 300, 1700000005L);
+        TelemetryPacket.put(packet, 21, TelemetryPacket.TYPE_BATTERY, 87, 0xFFFFFFF0L);
+        assertEquals(3, TelemetryPacket.decode(packet, 42, buffer));
+
+        TelemetryBatch.Builder builder = new TelemetryBatch.Builder(8);
+        assertEquals(3, buffer.drain(builder, 8));
+        TelemetryBatch batch = builder.build("5E:00:00:00:00:01", buffer.getDropped());
+        assertEquals(3, batch.size);
+        assertEquals(300, batch.pillCount);
+        assertEquals(87, batch.batteryPercent);
+        assertEquals(1, batch.dosesTaken);
+        assertEquals(42, batch.oldestReceivedMs);
+        assertEquals(TelemetryPacket.TYPE_PILL_COUNT, batch.getType(1));
+        assertEquals(1700000005L, batch.getDeviceTimeSec(1));
+        assertEquals(0xFFFFFFF0L, batch.getDeviceTimeSec(2));
+
+        // Latest values carry over into the next batch, dose count does not
+        TelemetryPacket.decode(TelemetryPacket.encode(TelemetryPacket.TYPE_DOSE_TAKEN, 1, 1700000010L), 50, buffer);
+        buffer.drain(builder, 8);
+        TelemetryBatch next = builder.build("5E:00:00:00:00:01", 0);
+        assertEquals(1, next.size);
+        assertEquals(300, next.pillCount);
+        assertEquals(1, next.dosesTaken);
+    }
+
+    @Test
+    public void dropsNewestWhenFullAndWrapsAround() {
+        TelemetryRingBuffer buffer = new TelemetryRingBuffer(4);
+        for (int i = 0; i < 6; i++) buffer.offer(TelemetryPacket.TYPE_PILL_COUNT, i, 0, 0);
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getDropped());
+
+        List<Integer> drained = new ArrayList<>();
+        TelemetryRingBuffer.Sink sink = (type, value, deviceTimeSec, receivedMs) -> drained.add(value);
+        assertEquals(3, buffer.drain(sink, 3));
+        for (int i = 10; i < 13; i++) assertTrue(buffer.offer(TelemetryPacket.TYPE_PILL_COUNT, i, 0, 0));
+        buffer.drain(sink, 10);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 10, 11, 12), drained);
+    }
+
+    @Test
+    public void concurrentProducerKeepsOrder() throws Exception {
+        TelemetryRingBuffer buffer = new TelemetryRingBuffer(64);
+        int records = 200000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < records; i++) {
+                while (!buffer.offer(TelemetryPacket.TYPE_PILL_COUNT, i, i, 0)) Thread.yield();
+            }
+        });
+        producer.start();
+
+        int[] expected = {0};
+        boolean[] inOrder = {true};
+        TelemetryRingBuffer.Sink sink = (type, value, deviceTimeSec, receivedMs) -> {
+            if (value != expected[0] || deviceTimeSec != value) inOrder[0] = false;
+            expected[0]++;
+        };
+        long deadline = System.currentTimeMillis() + 10000;
+        while (expected[0] < records && System.currentTimeMillis() < deadline) {
+            if (buffer.drain(sink, 64) == 0) Thread.yield();
+        }
+        producer.join();
+        assertEquals(records, expected[0]);
+        assertTrue(inOrder[0]);
+    }
+}
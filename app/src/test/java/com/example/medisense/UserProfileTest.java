@@ -0,0 +1,100 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Write-behind coalescing and conflict resolution of the local user store.
+ */
+public class UserProfileTest {
+
+    private static Medication med(String name, long count, Integer... times) {
+        return new Medication(name, count, Arrays.asList(times));
+    }
+
+    private static Medication slotted(String name, int slot, long count, Integer... times) {
+        Medication medication = med(name, count, times);
+        medication.slot = slot;
+        return medication;
+    }
+
+    @Test
+    public void queuedEditsCoalescePerUserAndMedication() {
+        Map<String, Map<String, Object>> updates = PendingWrite.coalesce(Arrays.asList(
+                new PendingWrite(1, "asha", "m1", med("Metformin", 0, 480).encode()),
+                new PendingWrite(2, "asha", "m2", med("Aspirin", 0).encode()),
+                new PendingWrite(3, "ravi", "m1", med("Insulin", 0, 420, 1200).encode()),
+                new PendingWrite(4, "asha", "m1", slotted("Metformin XR", 2, 0, 480, 1200).encode()),
+                new PendingWrite(5, "asha", "m2", null)));
+
+        assertEquals(2, updates.size());
+        Map<String, Object> asha = updates.get("asha");
+        assertEquals("Metformin XR", asha.get("meds/m1/n"));
+        assertEquals(Arrays.asList(480, 1200), asha.get("meds/m1/t"));
+        assertEquals(2, asha.get("meds/m1/s"));
+        assertFalse(asha.containsKey("meds/m1/c")); // Counts belong to the stock ledger
+        assertTrue(asha.containsKey("meds/m2"));
+        assertNull(asha.get("meds/m2"));
+        assertEquals(4, asha.size()); // No overlapping paths in one updateChildren
+        assertEquals(Arrays.asList(420, 1200), updates.get("ravi").get("meds/m1/t"));
+    }
+
+    @Test
+    public void pendingLocalEditsWinOverServerCopyExceptCounts() {
+        UserProfile local = UserProfile.newUser("asha")
+                .withMedication("m1", med("Renamed", 7, 540))
+                .withMedication("m2", med("Stale", 3));
+        UserRecord server = new UserRecord();
+        server.meds.put("m1", med("Metformin", 30, 480));
+        server.meds.put("m3", med("Aspirin", 12, 1260));
+        UserProfile remote = UserProfile.fromRecord("asha", server);
+
+        UserProfile merged = local.mergeRemote(remote, Collections.singleton("m1"));
+        assertEquals(slotted("Renamed", 0, 30, 540), merged.getMedication("m1")); // Local name and times, server count
+        assertNull(merged.getMedication("m2")); // Not pending: the server's (absent) wins
+        assertEquals(med("Aspirin", 12, 1260), merged.getMedication("m3"));
+        assertEquals(remote.withNextSlot(local.getNextSlot()), local.mergeRemote(remote, Collections.<String>emptySet()));
+
+        UserProfile removedLocally = local.withoutMedication("m3").mergeRemote(remote, Collections.singleton("m3"));
+        assertNull(removedLocally.getMedication("m3"));
+    }
+
+    @Test
+    public void slotsStayWithTheirMedicationAndAreNeverReused() {
+        UserProfile profile = UserProfile.newUser("asha")
+                .withMedication("m1", med("Metformin", 0, 480))
+                .withMedication("m2", med("Aspirin", 0))
+                .withMedication("m3", med("Insulin", 0, 420));
+        assertEquals(1, profile.getMedication("m2").slot);
+
+        profile = profile.withoutMedication("m2").withoutMedication("m3")
+                .withMedication("a0", med("Vitamin D", 0)) // Sorts first
+                .withMedication("m1", med("Metformin XR", 0, 480, 1200));
+        assertEquals(3, profile.getMedication("a0").slot);
+        assertEquals(0, profile.getMedication("m1").slot); // An edit keeps it
+
+        UserProfile reloaded = UserProfile.fromRecord("asha", profile.toRecord());
+        assertEquals(4, reloaded.withMedication("m4", med("Statin", 0)).getMedication("m4").slot);
+
+        UserRecord server = new UserRecord(); // Pushed before the removals
+        server.meds.put("m1", slotted("Metformin", 0, 30, 480));
+        server.meds.put("m3", slotted("Insulin", 2, 12, 420));
+        UserProfile merged = profile.mergeRemote(UserProfile.fromRecord("asha", server), Collections.singleton("a0"));
+        assertEquals(3, merged.getMedication("a0").slot);
+        assertEquals(4, merged.getNextSlot());
+    }
+
+    @Test
+    public void profileHandsOutCopies() {
+        UserProfile profile = UserProfile.newUser("asha").withMedication("m1", med("Metformin", 5, 480));
+        profile.getMedication("m1").count = 99;
+        assertEquals(5, profile.getMedication("m1").count);
+        assertEquals("m1", profile.firstMedicationId());
+        assertNull(UserProfile.newUser("ravi").firstMedicationId());
+    }
+}
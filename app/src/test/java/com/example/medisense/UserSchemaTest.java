@@ -0,0 +1,112 @@
+package com.example.medisense;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lazy migration of flat version-1 user records and the compact version-2 encoding.
+ */
+public class UserSchemaTest {
+
+    private static Map<String, Object> legacy(String info, Object count, String sched) {
+        Map<String, Object> node = new HashMap<>();
+        node.put("name", "Yashwenth S");
+        node.put("med_info", info);
+        node.put("med_count", count);
+        node.put("med_sched", sched);
+        node.put("password", "pass123");
+        return node;
+    }
+
+    @Test
+    public void legacyRecordConvertsToTypedMedication() {
+        Map<String, Object> node = legacy("Paracetamol", "10", "14:30");
+        assertTrue(UserSchema.isLegacy(node));
+        assertFalse(UserSchema.isLegacy(Collections.singletonMap(UserSchema.FIELD_VERSION, (Object) 2L)));
+
+        UserProfile profile = UserSchema.fromLegacy("yash", node);
+        assertEquals(Collections.singleton(UserSchema.LEGACY_MED_ID), profile.getMedicationIds());
+        Medication expected = new Medication("Paracetamol", 10, Collections.singletonList(14 * 60 + 30));
+        expected.slot = 0;
+        assertEquals(expected, profile.getMedication(UserSchema.LEGACY_MED_ID));
+
+        node.put("stock_count", -3L); // A dose the first stock ledger recorded before med_count was folded in
+        assertEquals(7, UserSchema.fromLegacy("yash", node).getMedication(UserSchema.LEGACY_MED_ID).count);
+        node.remove("med_count"); // Folded in: stock_count is the whole count
+        node.put("stock_count", 12L);
+        assertEquals(12, UserSchema.fromLegacy("yash", node).getMedication(UserSchema.LEGACY_MED_ID).count);
+    }
+
+    @Test
+    public void untouchedSignupDefaultHasNoMedication() {
+        assertNull(UserSchema.fromLegacy("new", legacy("Not Set", "0", "00:00")).firstMedicationId());
+        assertEquals(0, UserSchema.parseCount("abc"));
+        assertEquals(20, UserSchema.parseCount(20L)); // Written as a number by another client
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migrationMovesColdFieldsAndDropsFlatOnes() {
+        Map<String, Object> node = UserSchema.migrated(legacy("Paracetamol", "10", "garbage"));
+
+        assertEquals(UserSchema.VERSION, node.get("v"));
+        Map<String, Object> medication = (Map<String, Object>) ((Map<String, Object>) node.get("meds")).get(UserSchema.LEGACY_MED_ID);
+        assertEquals(10L, medication.get("c"));
+        assertEquals("Paracetamol", medication.get("n"));
+        assertTrue(((List<Integer>) medication.get("t")).isEmpty()); // Unparseable time: no dose times
+        assertEquals(0, medication.get("s")); // The dispenser slot of the only medication
+        for (String field : Arrays.asList("name", "med_info", "med_count", "med_sched", "stock_count")) {
+            assertFalse(node.containsKey(field));
+        }
+        assertEquals("pass123", node.get("password")); // Removed by the login that replaces it
+        assertEquals("Yashwenth S", UserSchema.details("yash", legacy("Paracetamol", "10", "14:30")).displayName);
+
+        assertNull(UserSchema.migrated(node)); // v marks it done: a second client leaves it alone
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migrationAddsToAnIncrementThatLandedFirst() {
+        Map<String, Object> node = legacy("Paracetamol", "10", "14:30");
+        Map<String, Object> early = new HashMap<>();
+        early.put("c", 30L); // A refill recorded against the converted profile before the migration ran
+        node.put("meds", Collections.singletonMap(UserSchema.LEGACY_MED_ID, early));
+
+        assertEquals(40, UserSchema.fromLegacy("yash", node).getMedication(UserSchema.LEGACY_MED_ID).count);
+        Map<String, Object> migrated = UserSchema.migrated(node);
+        Map<String, Object> medication = (Map<String, Object>) ((Map<String, Object>) migrated.get("meds")).get(UserSchema.LEGACY_MED_ID);
+        assertEquals(40L, medication.get("c"));
+        assertEquals("Paracetamol", medication.get("n"));
+        assertEquals(Collections.singletonList(14 * 60 + 30), medication.get("t"));
+    }
+
+    @Test
+    public void signupCannotTakeTheNameOfAnAutoLoginMigratedUser() {
+        Map<String, Object> migrated = UserSchema.migrated(legacy("Paracetamol", "10", "14:30"));
+        migrated.remove("password"); // No login since, and none left
+        assertFalse(migrated.containsKey("name"));
+        assertTrue(UserSchema.isTaken(migrated));
+        assertTrue(UserSchema.isTaken(legacy("Not Set", "0", "00:00")));
+        assertFalse(UserSchema.isTaken(Collections.<String, Object>emptyMap()));
+    }
+
+    @Test
+    public void localEncodingRoundTrips() {
+        Medication medication = new Medication("Aspirin | 75 mg", 4, Arrays.asList(1260, 480));
+        medication.slot = 3;
+        assertEquals(Arrays.asList(480, 1260), medication.times);
+        Medication decoded = Medication.decode(medication.encode());
+        assertEquals("Aspirin | 75 mg", decoded.name);
+        assertEquals(medication.times, decoded.times);
+        assertEquals(3, decoded.slot);
+        assertEquals(0, decoded.count); // Never carried by edits
+        assertNull(Medication.decode("0|x,y|name"));
+    }
+}